@@ -16,16 +16,22 @@
 
 package com.android.cts.verifier;
 
+import com.android.compatibility.common.util.MetricsArrayFile;
+
 import android.app.AlertDialog;
 import android.content.Context;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Environment;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -54,29 +60,54 @@ class ReportExporter extends AsyncTask<Void, Void, String> {
             LOG.log(Level.WARNING, "External storage is not writable.");
             return mContext.getString(R.string.no_storage);
         }
+        String baseName = getReportBaseName();
+        // values of detailed metrics go to a side-car entry next to the report
+        File valuesFile = new File(mContext.getCacheDir(), baseName + ".values");
+        try {
+            return writeReport(baseName, valuesFile);
+        } finally {
+            valuesFile.delete();
+        }
+    }
+
+    private String writeReport(String baseName, File valuesFile) {
         byte[] contents;
+        MetricsArrayFile arrayFile = null;
         try {
+            arrayFile = new MetricsArrayFile(valuesFile);
             TestResultsReport report = new TestResultsReport(mContext, mAdapter);
-            contents = report.getContents().getBytes();
+            contents = report.getContents(arrayFile).getBytes();
+            arrayFile.close();
+            arrayFile = null;
         } catch (Exception e) {
             LOG.log(Level.WARNING, "Couldn't create test results report", e);
             return mContext.getString(R.string.test_results_error);
+        } finally {
+            closeQuietly(arrayFile);
         }
         File reportPath = new File(Environment.getExternalStorageDirectory(), "ctsVerifierReports");
         reportPath.mkdirs();
 
-        String baseName = getReportBaseName();
         File reportFile = new File(reportPath, baseName + ".zip");
         ZipOutputStream out = null;
+        InputStream values = null;
         try {
             out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(reportFile)));
             ZipEntry entry = new ZipEntry(baseName + ".xml");
             out.putNextEntry(entry);
             out.write(contents);
+            out.putNextEntry(new ZipEntry(valuesFile.getName()));
+            values = new BufferedInputStream(new FileInputStream(valuesFile));
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = values.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
         } catch (IOException e) {
             LOG.log(Level.WARNING, "I/O exception writing report to storage.", e);
             return mContext.getString(R.string.no_storage);
         } finally {
+            closeQuietly(values);
             try {
                 if (out != null) {
                     out.close();
@@ -89,6 +120,16 @@ class ReportExporter extends AsyncTask<Void, Void, String> {
         return mContext.getString(R.string.report_saved, reportFile.getPath());
     }
 
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "I/O exception closing file.", e);
+            }
+        }
+    }
+
     private String getReportBaseName() {
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd-HH.mm.ss", Locale.ENGLISH);
         String date = dateFormat.format(new Date());
@@ -16,6 +16,7 @@
 
 package com.android.cts.verifier;
 
+import com.android.compatibility.common.util.MetricsArrayFile;
 import com.android.compatibility.common.util.MetricsXmlSerializer;
 import com.android.compatibility.common.util.ReportLog;
 import com.android.cts.verifier.TestListAdapter.TestListItem;
@@ -58,7 +59,7 @@ import java.util.Locale;
 class TestResultsReport {
 
     /** Version of the test report. Increment whenever adding new tags and attributes. */
-    private static final int REPORT_VERSION = 2;
+    private static final int REPORT_VERSION = 3;
 
     /** Format of the report's creation time. Maintain the same format at CTS. */
     private static DateFormat DATE_FORMAT =
@@ -82,6 +83,15 @@ class TestResultsReport {
     }
 
     String getContents() throws IllegalArgumentException, IllegalStateException, IOException {
+        return getContents(null);
+    }
+
+    /**
+     * @param arrayFile the file to write the values of detailed metrics to, or null to keep
+     *        them in the report
+     */
+    String getContents(MetricsArrayFile arrayFile)
+            throws IllegalArgumentException, IllegalStateException, IOException {
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
         XmlSerializer xml = Xml.newSerializer();
@@ -132,7 +142,8 @@ class TestResultsReport {
 
                 ReportLog reportLog = mAdapter.getReportLog(i);
                 if (reportLog != null) {
-                    MetricsXmlSerializer metricsXmlSerializer = new MetricsXmlSerializer(xml);
+                    MetricsXmlSerializer metricsXmlSerializer = new MetricsXmlSerializer(xml,
+                            arrayFile);
                     metricsXmlSerializer.serialize(reportLog);
                 }
 
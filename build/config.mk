@@ -21,6 +21,9 @@ CTS_TESTCASES_OUT := $(HOST_OUT)/cts/android-cts/repository/testcases
 CTS_NATIVE_TEST_SCANNER := $(HOST_OUT_EXECUTABLES)/cts-native-scanner
 CTS_JAVA_TEST_SCANNER := $(HOST_OUT_EXECUTABLES)/cts-java-scanner
 CTS_JAVA_TEST_SCANNER_DOCLET := $(HOST_OUT_JAVA_LIBRARIES)/cts-java-scanner-doclet.jar
+# Directory the java scanner keeps the output of its last scan of each module in, so that
+# regenerating a test XML does not rerun javadoc when the scanned sources did not change.
+CTS_JAVA_TEST_SCANNER_CACHE_DIR := $(HOST_OUT_INTERMEDIATES)/cts-java-scanner
 
 # Generator of test XMLs from scanner output.
 CTS_XML_GENERATOR := $(HOST_OUT_EXECUTABLES)/cts-xml-generator
@@ -54,7 +54,8 @@ $(cts_package_xml): $(CTS_EXPECTATIONS) $(CTS_UNSUPPORTED_ABIS) $(CTS_JAVA_TEST_
 	$(hide) mkdir -p $(CTS_TESTCASES_OUT)
 	$(hide) $(CTS_JAVA_TEST_SCANNER) \
 						$(PRIVATE_SRC_DIRS) \
-						-d $(CTS_JAVA_TEST_SCANNER_DOCLET) | \
+						-d $(CTS_JAVA_TEST_SCANNER_DOCLET) \
+						-c $(CTS_JAVA_TEST_SCANNER_CACHE_DIR)/$(PRIVATE_PACKAGE).cache | \
 			$(CTS_XML_GENERATOR) \
 						-t $(PRIVATE_TEST_TYPE) \
 						-m $(PRIVATE_MANIFEST) \
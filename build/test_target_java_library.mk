@@ -38,7 +38,8 @@ $(cts_library_xml): $(CTS_EXPECTATIONS) $(CTS_UNSUPPORTED_ABIS) $(CTS_JAVA_TEST_
 	$(hide) echo Generating test description for target library $(PRIVATE_LIBRARY)
 	$(hide) mkdir -p $(CTS_TESTCASES_OUT)
 	$(hide) $(CTS_JAVA_TEST_SCANNER) -s $(PRIVATE_PATH) \
-						-d $(CTS_JAVA_TEST_SCANNER_DOCLET) | \
+						-d $(CTS_JAVA_TEST_SCANNER_DOCLET) \
+						-c $(CTS_JAVA_TEST_SCANNER_CACHE_DIR)/$(PRIVATE_LIBRARY).cache | \
 			$(CTS_XML_GENERATOR) -t jUnitDeviceTest \
 						-j $(PRIVATE_JAR_PATH) \
 						-n $(PRIVATE_LIBRARY) \
@@ -21,14 +21,31 @@ import com.android.compatibility.common.util.KeyValueArgsParser;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Scans a source directory for java tests and outputs a list of test classes and methods.
+ *
+ * The source files are read in parallel. Only files that declare a class with an extends
+ * clause are handed to javadoc, the rest are on the source path in case they are needed.
+ * If a cache file is given, the output is stored there together with a digest of the
+ * sources, the doclet and the source and class path, and replayed without running javadoc as
+ * long as the digest does not change.
  */
 public class JavaScanner {
 
@@ -46,19 +63,53 @@ public class JavaScanner {
         "./prebuilts/misc/common/tradefed/tradefed-prebuilt.java",
         "./prebuilts/misc/common/ub-uiautomator/ub-uiautomator.java"
     };
+    private static final String CACHE_DIGEST_PREFIX = "digest:";
     private final File mSourceDir;
     private final File mDocletDir;
+    private final File mCacheFile;
 
     /**
      * @param sourceDir The directory holding the source to scan.
      * @param docletDir The directory holding the doclet (or its jar).
      */
     JavaScanner(File sourceDir, File docletDir) {
+        this(sourceDir, docletDir, null);
+    }
+
+    /**
+     * @param sourceDir The directory holding the source to scan.
+     * @param docletDir The directory holding the doclet (or its jar).
+     * @param cacheFile The file to keep the output of the last scan in or null.
+     */
+    JavaScanner(File sourceDir, File docletDir, File cacheFile) {
         this.mSourceDir = sourceDir;
         this.mDocletDir = docletDir;
+        this.mCacheFile = cacheFile;
     }
 
     int scan() throws Exception {
+        final List<JavaSourceFile> sourceFiles = readSourceFiles(getSourceFiles(mSourceDir));
+        final String digest = getDigest(sourceFiles);
+        final List<String> cached = readCache(digest);
+        if (cached != null) {
+            for (String line : cached) {
+                System.out.println(line);
+            }
+            return 0;
+        }
+
+        final ArrayList<String> testFiles = new ArrayList<String>();
+        for (JavaSourceFile sourceFile : sourceFiles) {
+            if (sourceFile.mayDeclareTestCase()) {
+                testFiles.add(sourceFile.getFile().toString());
+            }
+        }
+        final ArrayList<String> output = new ArrayList<String>();
+        if (testFiles.isEmpty()) {
+            writeCache(digest, output);
+            return 0;
+        }
+
         final ArrayList<String> args = new ArrayList<String>();
         args.add("javadoc");
         args.add("-doclet");
@@ -69,7 +120,7 @@ public class JavaScanner {
         args.add(getClassPath());
         args.add("-docletpath");
         args.add(mDocletDir.toString());
-        args.addAll(getSourceFiles(mSourceDir));
+        args.addAll(testFiles);
 
         // Dont want p to get blocked due to a full pipe.
         final Process p = new ProcessBuilder(args).redirectErrorStream(true).start();
@@ -81,6 +132,7 @@ public class JavaScanner {
                     line.startsWith("case:") ||
                     line.startsWith("test:")) {
                     System.out.println(line);
+                    output.add(line);
                 }
             }
         } finally {
@@ -89,7 +141,169 @@ public class JavaScanner {
           }
         }
 
-        return p.waitFor();
+        final int result = p.waitFor();
+        if (result == 0) {
+            writeCache(digest, output);
+        }
+        return result;
+    }
+
+    /**
+     * Reads and digests the files in parallel.
+     *
+     * @return The files in the order given.
+     */
+    private static List<JavaSourceFile> readSourceFiles(List<String> files)
+            throws IOException, InterruptedException {
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            final List<Future<JavaSourceFile>> futures =
+                    new ArrayList<Future<JavaSourceFile>>(files.size());
+            for (final String file : files) {
+                futures.add(executor.submit(new Callable<JavaSourceFile>() {
+                    @Override
+                    public JavaSourceFile call() throws IOException {
+                        return JavaSourceFile.read(new File(file));
+                    }
+                }));
+            }
+            final List<JavaSourceFile> sourceFiles = new ArrayList<JavaSourceFile>(files.size());
+            for (Future<JavaSourceFile> future : futures) {
+                try {
+                    sourceFiles.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return sourceFiles;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return A digest over the names and contents of the source files, the doclet and the class
+     * path, and over the shared source path files javadoc may resolve the sources against, so
+     * that adding, removing or editing any of them invalidates the cache.
+     */
+    private String getDigest(List<JavaSourceFile> sourceFiles) throws IOException {
+        // The directory listing order is not guaranteed, so sort the entries first.
+        final List<String> entries = new ArrayList<String>(sourceFiles.size() + 1);
+        final Set<String> packages = new TreeSet<String>();
+        for (JavaSourceFile sourceFile : sourceFiles) {
+            entries.add(sourceFile.getFile() + " " + sourceFile.getDigest());
+            packages.addAll(sourceFile.getPackages());
+        }
+        addContentEntries(mDocletDir, entries);
+        for (String path : CLASS_PATHS) {
+            addContentEntries(new File(path), entries);
+        }
+        // The shared source path is a large part of the platform tree, so walking it all on
+        // every run would cost more than javadoc saves. Only the packages the sources are in
+        // or import from are looked at, which covers the base classes tests extend directly,
+        // and the size and modification time of each file there are enough to notice a change.
+        for (String path : SOURCE_PATHS) {
+            for (String packagePath : packages) {
+                addPackageEntries(new File(path, packagePath), entries);
+            }
+        }
+        Collections.sort(entries);
+        final StringBuilder builder = new StringBuilder();
+        for (String entry : entries) {
+            builder.append(entry).append('\n');
+        }
+        return JavaSourceFile.toHex(JavaSourceFile.sha1(builder.toString().getBytes("UTF-8")));
+    }
+
+    /**
+     * Adds an entry with the content digest of the given file, or of every file under the given
+     * directory, or one saying it is missing, so that a path that appears later also
+     * invalidates the cache.
+     */
+    private static void addContentEntries(File path, List<String> entries) throws IOException {
+        if (path.isFile()) {
+            entries.add(path + " " + JavaSourceFile.read(path).getDigest());
+            return;
+        }
+        final File[] files = path.listFiles();
+        if (files == null) {
+            entries.add(path + " missing");
+            return;
+        }
+        for (File f : files) {
+            addContentEntries(f, entries);
+        }
+    }
+
+    /**
+     * Adds an entry with the size and modification time of every java file directly in the
+     * given package directory, if there is one.
+     */
+    private static void addPackageEntries(File packageDir, List<String> entries) {
+        final File[] files = packageDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.getName().endsWith(".java")) {
+                entries.add(f + " " + f.length() + " " + f.lastModified());
+            }
+        }
+    }
+
+    /**
+     * @return The cached output if the cache was written for the given digest, otherwise null.
+     */
+    private List<String> readCache(String digest) throws IOException {
+        if (mCacheFile == null || !mCacheFile.isFile()) {
+            return null;
+        }
+        final BufferedReader in = new BufferedReader(new FileReader(mCacheFile));
+        try {
+            if (!(CACHE_DIGEST_PREFIX + digest).equals(in.readLine())) {
+                return null;
+            }
+            final List<String> lines = new ArrayList<String>();
+            String line = null;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeCache(String digest, List<String> output) throws IOException {
+        if (mCacheFile == null) {
+            return;
+        }
+        final File parent = mCacheFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        // Write to a temporary file first so an interrupted run never leaves a cache behind
+        // whose digest matches but whose output is incomplete.
+        final File tmpFile = new File(mCacheFile.getPath() + ".tmp");
+        final PrintWriter out = new PrintWriter(tmpFile, "UTF-8");
+        try {
+            out.println(CACHE_DIGEST_PREFIX + digest);
+            for (String line : output) {
+                out.println(line);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(mCacheFile)) {
+            mCacheFile.delete();
+            if (!tmpFile.renameTo(mCacheFile)) {
+                throw new IOException("Could not write " + mCacheFile);
+            }
+        }
     }
 
     private static String getSourcePath(File sourceDir) {
@@ -134,15 +348,17 @@ public class JavaScanner {
         final HashMap<String, String> argsMap = KeyValueArgsParser.parse(args);
         final String sourcePath = argsMap.get("-s");
         final String docletPath = argsMap.get("-d");
+        final String cachePath = argsMap.get("-c");
         if (sourcePath == null || docletPath == null) {
             usage(args);
         }
-        System.exit(new JavaScanner(new File(sourcePath), new File(docletPath)).scan());
+        System.exit(new JavaScanner(new File(sourcePath), new File(docletPath),
+                cachePath == null ? null : new File(cachePath)).scan());
     }
 
     private static void usage(String[] args) {
         System.err.println("Arguments: " + Arrays.toString(args));
-        System.err.println("Usage: javascanner -s SOURCE_DIR -d DOCLET_PATH");
+        System.err.println("Usage: javascanner -s SOURCE_DIR -d DOCLET_PATH [-c CACHE_FILE]");
         System.exit(1);
     }
 }
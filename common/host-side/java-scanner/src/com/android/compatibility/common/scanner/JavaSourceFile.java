@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.scanner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A java source file read once for both its content digest and a quick look for test classes.
+ */
+class JavaSourceFile {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File mFile;
+    private final String mDigest;
+    private final boolean mMayDeclareTestCase;
+    private final Set<String> mPackages;
+
+    private JavaSourceFile(File file, String digest, boolean mayDeclareTestCase,
+            Set<String> packages) {
+        mFile = file;
+        mDigest = digest;
+        mMayDeclareTestCase = mayDeclareTestCase;
+        mPackages = packages;
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /** @return The hex SHA-1 of the file content. */
+    String getDigest() {
+        return mDigest;
+    }
+
+    /**
+     * @return Whether the file declares a class with an extends clause. Only such files can
+     * hold a JUnit test case, so the others need not be passed to javadoc.
+     */
+    boolean mayDeclareTestCase() {
+        return mMayDeclareTestCase;
+    }
+
+    /**
+     * @return The directories, relative to a source root, of the package the file is in and
+     * of the packages it imports from.
+     */
+    Set<String> getPackages() {
+        return mPackages;
+    }
+
+    static JavaSourceFile read(File file) throws IOException {
+        byte[] content = readFully(file);
+        return new JavaSourceFile(file, toHex(sha1(content)), hasSubclassDeclaration(content),
+                getPackages(content));
+    }
+
+    /**
+     * Lexes the "package" and "import" statements in front of the first type body. An import
+     * counts for the package its first capitalized name is in, so {@code import a.b.C.D;} and
+     * {@code import static a.b.C.m;} both give "a/b".
+     */
+    static Set<String> getPackages(byte[] content) {
+        Set<String> packages = new TreeSet<String>();
+        int length = content.length;
+        StringBuilder name = null;
+        boolean inPackageName = false;
+        int i = 0;
+        while (i < length) {
+            int c = content[i] & 0xff;
+            if (c == '/' && i + 1 < length && content[i + 1] == '/') {
+                i += 2;
+                while (i < length && content[i] != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && content[i + 1] == '*') {
+                i += 2;
+                while (i < length && !(content[i] == '*' && i + 1 < length
+                        && content[i + 1] == '/')) {
+                    i++;
+                }
+                i += 2;
+            } else if (isIdentifierStart(c)) {
+                int start = i;
+                while (i < length && isIdentifierPart(content[i] & 0xff)) {
+                    i++;
+                }
+                if (name == null) {
+                    if (matches(content, start, i, "package")
+                            || matches(content, start, i, "import")) {
+                        name = new StringBuilder();
+                        inPackageName = true;
+                    }
+                } else if (name.length() == 0 && matches(content, start, i, "static")) {
+                    // import static a.b.C.m;
+                } else if (inPackageName) {
+                    if (c >= 'A' && c <= 'Z') {
+                        inPackageName = false;
+                    } else {
+                        if (name.length() > 0) {
+                            name.append('/');
+                        }
+                        name.append(new String(content, start, i - start));
+                    }
+                }
+            } else {
+                if (c == '{') {
+                    break;
+                }
+                if (c == ';' && name != null) {
+                    if (name.length() > 0) {
+                        packages.add(name.toString());
+                    }
+                    name = null;
+                }
+                i++;
+            }
+        }
+        return Collections.unmodifiableSet(packages);
+    }
+
+    /**
+     * Lexes the source just far enough to find a "class" declaration followed by "extends"
+     * before its body starts. Comments, string and char literals are skipped so a commented
+     * out test or a "class" in a string does not count. Type bounds like
+     * {@code class Foo<T extends Bar>} also count, which only means javadoc sees a few more
+     * files than it has to.
+     */
+    static boolean hasSubclassDeclaration(byte[] content) {
+        int length = content.length;
+        boolean inClassHeader = false;
+        int lastSignificant = 0;
+        int i = 0;
+        while (i < length) {
+            int c = content[i] & 0xff;
+            if (c == '/' && i + 1 < length && content[i + 1] == '/') {
+                i += 2;
+                while (i < length && content[i] != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && content[i + 1] == '*') {
+                i += 2;
+                while (i < length && !(content[i] == '*' && i + 1 < length
+                        && content[i + 1] == '/')) {
+                    i++;
+                }
+                i += 2;
+            } else if (c == '"' || c == '\'') {
+                i++;
+                while (i < length && content[i] != c && content[i] != '\n') {
+                    if (content[i] == '\\') {
+                        i++;
+                    }
+                    i++;
+                }
+                i++;
+                lastSignificant = c;
+            } else if (isIdentifierStart(c)) {
+                int start = i;
+                while (i < length && isIdentifierPart(content[i] & 0xff)) {
+                    i++;
+                }
+                if (inClassHeader) {
+                    if (matches(content, start, i, "extends")) {
+                        return true;
+                    }
+                } else if (lastSignificant != '.' && matches(content, start, i, "class")) {
+                    // "Foo.class" is a literal, not a declaration.
+                    inClassHeader = true;
+                }
+                lastSignificant = 'a';
+            } else {
+                if (c == '{' || c == ';') {
+                    inClassHeader = false;
+                }
+                if (!Character.isWhitespace(c)) {
+                    lastSignificant = c;
+                }
+                i++;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIdentifierStart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$'
+                || c >= 0x80;
+    }
+
+    private static boolean isIdentifierPart(int c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+
+    private static boolean matches(byte[] content, int start, int end, String keyword) {
+        if (end - start != keyword.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (content[i] != keyword.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    static byte[] sha1(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
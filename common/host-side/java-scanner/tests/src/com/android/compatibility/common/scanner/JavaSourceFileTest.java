@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.scanner;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+
+public class JavaSourceFileTest extends TestCase {
+
+    public void testSubclass() throws Exception {
+        assertTrue(hasSubclassDeclaration(
+                "package a; public class FooTest extends TestCase { }"));
+    }
+
+    public void testNestedSubclass() throws Exception {
+        assertTrue(hasSubclassDeclaration(
+                "class Outer { Object o; static class Inner extends TestCase { } }"));
+    }
+
+    public void testNoExtends() throws Exception {
+        assertFalse(hasSubclassDeclaration("public class Helper implements Runnable { }"));
+    }
+
+    public void testInterface() throws Exception {
+        assertFalse(hasSubclassDeclaration("public interface Foo extends Runnable { }"));
+    }
+
+    public void testComments() throws Exception {
+        assertFalse(hasSubclassDeclaration(
+                "// class A extends B\n/* class C extends D */ class E { }"));
+    }
+
+    public void testLiterals() throws Exception {
+        assertFalse(hasSubclassDeclaration(
+                "class E { String s = \"class A extends \\\"B\"; char c = '\"'; }"));
+    }
+
+    public void testClassLiteral() throws Exception {
+        assertFalse(hasSubclassDeclaration(
+                "class E { Object o = E.class; void m() { int extends_ = 0; } }"));
+    }
+
+    public void testPackages() throws Exception {
+        assertEquals(Arrays.asList("a/b", "android/test", "c", "junit/framework"),
+                new ArrayList<String>(getPackages(
+                        "package a.b;\n"
+                        + "import android.test.AndroidTestCase;\n"
+                        + "import static junit.framework.Assert.assertTrue;\n"
+                        + "import c.*;\n"
+                        + "// import d.E;\n"
+                        + "public class FooTest extends AndroidTestCase {\n"
+                        + "    java.util.List<String> mList;\n"
+                        + "}\n")));
+    }
+
+    public void testNestedImport() throws Exception {
+        assertEquals(Arrays.asList("a"), new ArrayList<String>(getPackages(
+                "import a.B.C;\nimport a.B.*;\nclass D { }")));
+    }
+
+    public void testDigest() throws Exception {
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d",
+                JavaSourceFile.toHex(JavaSourceFile.sha1("abc".getBytes("UTF-8"))));
+    }
+
+    private static boolean hasSubclassDeclaration(String source) throws Exception {
+        return JavaSourceFile.hasSubclassDeclaration(source.getBytes("UTF-8"));
+    }
+
+    private static Set<String> getPackages(String source) throws Exception {
+        return JavaSourceFile.getPackages(source.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.compatibility.common.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Side-car file holding the values of detailed metrics in a compact binary form.
+ *
+ * Each appended array is stored as one contiguous column of big-endian doubles following an
+ * 8 byte header, so a reader can fetch a single {@code ValueArray} with one seek. The XML
+ * report refers to a column by its byte offset and value count, see
+ * {@link MetricsXmlSerializer#MetricsXmlSerializer(org.xmlpull.v1.XmlSerializer,
+ * MetricsArrayFile)}.
+ */
+public final class MetricsArrayFile implements Closeable {
+
+    private static final byte[] MAGIC = {'C', 'T', 'S', 'V', 'A', 'L', 'S', '1'};
+    private static final int BYTES_PER_VALUE = 8;
+
+    private final File mFile;
+    private final DataOutputStream mOutput;
+    private long mOffset;
+
+    /**
+     * Creates the side-car file, replacing any existing file with the same path.
+     */
+    public MetricsArrayFile(File file) throws IOException {
+        mFile = file;
+        mOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        mOutput.write(MAGIC);
+        mOffset = MAGIC.length;
+    }
+
+    /**
+     * @return the file the values are written to.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Appends the given values as a new column.
+     *
+     * @return the byte offset of the column, to be passed to {@link #readValues}.
+     */
+    public long append(double[] values) throws IOException {
+        long offset = mOffset;
+        for (double value : values) {
+            mOutput.writeDouble(value);
+        }
+        mOffset += (long) values.length * BYTES_PER_VALUE;
+        return offset;
+    }
+
+    /**
+     * Flushes buffered values to the file.
+     */
+    public void flush() throws IOException {
+        mOutput.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOutput.close();
+    }
+
+    /**
+     * Reads back the column of {@code count} values starting at {@code offset}.
+     */
+    public static double[] readValues(File file, long offset, int count) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            input.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(file + " is not a metrics value file");
+            }
+            if (offset < MAGIC.length
+                    || offset + (long) count * BYTES_PER_VALUE > input.length()) {
+                throw new IOException(String.format("Column at %d with %d values is outside %s",
+                        offset, count, file));
+            }
+            byte[] bytes = new byte[count * BYTES_PER_VALUE];
+            input.seek(offset);
+            input.readFully(bytes);
+            double[] values = new double[count];
+            ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+            return values;
+        } finally {
+            input.close();
+        }
+    }
+}
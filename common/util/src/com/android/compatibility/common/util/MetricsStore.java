@@ -16,21 +16,49 @@
 
 package com.android.compatibility.common.util;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A simple in-memory store for metrics results. This should be used for hostside metrics reporting.
+ *
+ * Results are kept in one partition per device. A result that is never removed, for example
+ * because its test crashed, does not stay around forever: each partition holds at most
+ * {@link #DEFAULT_MAX_RESULTS_PER_DEVICE} results, dropping the oldest first, and results older
+ * than {@link #DEFAULT_TTL_MS} are dropped when the partition is next written to. Each partition
+ * keeps its results in the order they were stored, so both happen without scanning the results
+ * that stay. Counters of what happened to the results are available for monitoring.
  */
 public class MetricsStore {
 
+    /** Default number of results kept per device. */
+    public static final int DEFAULT_MAX_RESULTS_PER_DEVICE = 1000;
+
+    /** Default age after which a result is assumed to be abandoned. */
+    public static final long DEFAULT_TTL_MS = 6 * 60 * 60 * 1000L;
+
+    /** A partition is checked for expired results at most this often. */
+    private static final long SWEEP_INTERVAL_MS = 60 * 1000L;
+
     // needs concurrent version as there can be multiple client accessing this.
     // But there is no additional protection for the same key as that should not happen.
-    private static final ConcurrentHashMap<String, ReportLog> mMap =
-            new ConcurrentHashMap<String, ReportLog>();
+    private static final ConcurrentHashMap<String, Partition> mPartitions =
+            new ConcurrentHashMap<String, Partition>();
+
+    private static volatile int mMaxResultsPerDevice = DEFAULT_MAX_RESULTS_PER_DEVICE;
+    private static volatile long mTtlMs = DEFAULT_TTL_MS;
+
+    private static final AtomicLong mStoredCount = new AtomicLong();
+    private static final AtomicLong mRetrievedCount = new AtomicLong();
+    private static final AtomicLong mEvictedCount = new AtomicLong();
+    private static final AtomicLong mOrphanedCount = new AtomicLong();
 
     /**
      * Stores a result. Existing result with the same key will be replaced.
-     * Note that key is generated in the form of device_serial#class#method name.
+     * Note that key is generated from device serial, abi, class and method name.
      * So there should be no concurrent test for the same (serial, class, method).
      * @param deviceSerial
      * @param abi
@@ -39,7 +67,32 @@ public class MetricsStore {
      */
     public static void storeResult(
             String deviceSerial, String abi, String classMethodName, ReportLog reportLog) {
-        mMap.put(generateTestKey(deviceSerial, abi, classMethodName), reportLog);
+        long now = System.currentTimeMillis();
+        ResultKey key = new ResultKey(abi, classMethodName);
+        while (true) {
+            Partition partition = getPartition(deviceSerial);
+            synchronized (partition) {
+                if (partition.mRemoved) {
+                    // Dropped by a sweep or removeDevice() since it was looked up, get a new one.
+                    continue;
+                }
+                // Remove first so a replaced result moves to the end of the storing order.
+                StoredResult previous = partition.mResults.remove(key);
+                partition.mResults.put(key, new StoredResult(reportLog, now));
+                mStoredCount.incrementAndGet();
+                if (previous != null) {
+                    // The replaced result was never picked up.
+                    mOrphanedCount.incrementAndGet();
+                }
+
+                evictOldest(partition);
+                if (now - partition.mLastSweepMs >= SWEEP_INTERVAL_MS) {
+                    partition.mLastSweepMs = now;
+                    evictExpired(partition, now);
+                }
+                return;
+            }
+        }
     }
 
     /**
@@ -47,13 +100,212 @@ public class MetricsStore {
      * storage. If there is no result for the given condition, it will return null.
      */
     public static ReportLog removeResult(String deviceSerial, String abi, String classMethodName) {
-        return mMap.remove(generateTestKey(deviceSerial, abi, classMethodName));
+        Partition partition = mPartitions.get(String.valueOf(deviceSerial));
+        if (partition == null) {
+            return null;
+        }
+        StoredResult result;
+        synchronized (partition) {
+            result = partition.mResults.remove(new ResultKey(abi, classMethodName));
+        }
+        if (result == null) {
+            return null;
+        }
+        mRetrievedCount.incrementAndGet();
+        return result.mReportLog;
     }
 
     /**
-     * @return test key in the form of device_serial#abi#class_name#method_name
+     * Drops all results of the given device, for example once it is disconnected.
+     *
+     * @return the number of results dropped
      */
-    private static String generateTestKey(String deviceSerial, String abi, String classMethodName) {
-        return String.format("%s#%s#%s", deviceSerial, abi, classMethodName);
+    public static int removeDevice(String deviceSerial) {
+        Partition partition = mPartitions.remove(String.valueOf(deviceSerial));
+        if (partition == null) {
+            return 0;
+        }
+        int count;
+        synchronized (partition) {
+            partition.mRemoved = true;
+            count = partition.mResults.size();
+            partition.mResults.clear();
+        }
+        mOrphanedCount.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Drops the results older than the time to live from all devices, and the devices that are
+     * left without results.
+     */
+    public static void evictExpired() {
+        evictExpired(System.currentTimeMillis());
+    }
+
+    /** Visible for testing with a given clock. */
+    static void evictExpired(long now) {
+        for (Map.Entry<String, Partition> entry : mPartitions.entrySet()) {
+            Partition partition = entry.getValue();
+            synchronized (partition) {
+                partition.mLastSweepMs = now;
+                evictExpired(partition, now);
+                if (partition.mResults.isEmpty() && !partition.mRemoved) {
+                    partition.mRemoved = true;
+                    mPartitions.remove(entry.getKey(), partition);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets how many results are kept per device and how long they are kept. Stored results
+     * are brought within the new limits the next time their device's partition is written to
+     * or {@link #evictExpired()} is called.
+     */
+    public static void setLimits(int maxResultsPerDevice, long ttlMs) {
+        if (maxResultsPerDevice < 1 || ttlMs < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid limits: %d results, %d ms", maxResultsPerDevice, ttlMs));
+        }
+        mMaxResultsPerDevice = maxResultsPerDevice;
+        mTtlMs = ttlMs;
+    }
+
+    /**
+     * @return the number of results currently held for all devices
+     */
+    public static int getResultCount() {
+        int count = 0;
+        for (Partition partition : mPartitions.values()) {
+            synchronized (partition) {
+                count += partition.mResults.size();
+            }
+        }
+        return count;
+    }
+
+    /** Visible for testing that devices without results are dropped. */
+    static int getDeviceCount() {
+        return mPartitions.size();
+    }
+
+    /**
+     * @return the number of results stored since the process started
+     */
+    public static long getStoredCount() {
+        return mStoredCount.get();
+    }
+
+    /**
+     * @return the number of results removed by their test since the process started
+     */
+    public static long getRetrievedCount() {
+        return mRetrievedCount.get();
+    }
+
+    /**
+     * @return the number of results dropped to keep a device within the size limit
+     */
+    public static long getEvictedCount() {
+        return mEvictedCount.get();
+    }
+
+    /**
+     * @return the number of results dropped without being removed by their test, because
+     * they expired, were replaced or their device was removed
+     */
+    public static long getOrphanedCount() {
+        return mOrphanedCount.get();
+    }
+
+    private static Partition getPartition(String deviceSerial) {
+        // Like the formatted keys this replaced, a null serial is stored as "null".
+        String key = String.valueOf(deviceSerial);
+        Partition partition = mPartitions.get(key);
+        if (partition == null) {
+            Partition newPartition = new Partition();
+            partition = mPartitions.putIfAbsent(key, newPartition);
+            if (partition == null) {
+                partition = newPartition;
+            }
+        }
+        return partition;
+    }
+
+    /** Drops the oldest results until the partition is within the size limit. */
+    private static void evictOldest(Partition partition) {
+        Iterator<StoredResult> results = partition.mResults.values().iterator();
+        while (partition.mResults.size() > mMaxResultsPerDevice) {
+            results.next();
+            results.remove();
+            mEvictedCount.incrementAndGet();
+        }
+    }
+
+    /** Drops the expired results, which are all at the start of the storing order. */
+    private static void evictExpired(Partition partition, long now) {
+        long ttlMs = mTtlMs;
+        Iterator<StoredResult> results = partition.mResults.values().iterator();
+        while (results.hasNext() && now - results.next().mStoredAtMs > ttlMs) {
+            results.remove();
+            mOrphanedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * The results of one device, in the order they were stored. All access is synchronized on
+     * the partition.
+     */
+    private static final class Partition {
+        private final LinkedHashMap<ResultKey, StoredResult> mResults =
+                new LinkedHashMap<ResultKey, StoredResult>();
+        private long mLastSweepMs = System.currentTimeMillis();
+        /** Set once the partition is no longer in the map, so it is not written to again. */
+        private boolean mRemoved;
+    }
+
+    /** Identifies a result within its device's partition. */
+    private static final class ResultKey {
+        private final String mAbi;
+        private final String mClassMethodName;
+        private final int mHashCode;
+
+        ResultKey(String abi, String classMethodName) {
+            mAbi = abi;
+            mClassMethodName = classMethodName;
+            mHashCode = 31 * (abi == null ? 0 : abi.hashCode())
+                    + (classMethodName == null ? 0 : classMethodName.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ResultKey)) {
+                return false;
+            }
+            ResultKey other = (ResultKey) o;
+            return mHashCode == other.mHashCode
+                    && (mAbi == null ? other.mAbi == null : mAbi.equals(other.mAbi))
+                    && (mClassMethodName == null ? other.mClassMethodName == null
+                            : mClassMethodName.equals(other.mClassMethodName));
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    private static final class StoredResult {
+        private final ReportLog mReportLog;
+        private final long mStoredAtMs;
+
+        StoredResult(ReportLog reportLog, long storedAtMs) {
+            mReportLog = reportLog;
+            mStoredAtMs = storedAtMs;
+        }
     }
 }
@@ -27,9 +27,23 @@ import java.util.List;
 public final class MetricsXmlSerializer {
 
     private final XmlSerializer mXmlSerializer;
+    private final MetricsArrayFile mArrayFile;
 
     public MetricsXmlSerializer(XmlSerializer xmlSerializer) {
+        this(xmlSerializer, null);
+    }
+
+    /**
+     * Creates a serializer that moves the values of detailed metrics into {@code arrayFile}.
+     *
+     * Instead of one {@code <Value>} element per value, each {@code <ValueArray>} then carries
+     * the side-car file name, the column offset and value count, plus count, min, max, mean and
+     * stddev of the values so the report stays readable without the side-car. A null
+     * {@code arrayFile} keeps all values inline.
+     */
+    public MetricsXmlSerializer(XmlSerializer xmlSerializer, MetricsArrayFile arrayFile) {
         this.mXmlSerializer = xmlSerializer;
+        this.mArrayFile = arrayFile;
     }
 
     public void serialize(ReportLog reportLog) throws IOException {
@@ -57,14 +71,34 @@ public final class MetricsXmlSerializer {
                 mXmlSerializer.attribute(null, "scoreType", result.getType().getXmlString());
                 mXmlSerializer.attribute(null, "unit", result.getUnit().getXmlString());
 
-                for (double value : result.getValues()) {
-                    mXmlSerializer.startTag(null, "Value");
-                    mXmlSerializer.text(Double.toString(value));
-                    mXmlSerializer.endTag(null, "Value");
+                if (mArrayFile != null) {
+                    serializeToArrayFile(result.getValues());
+                } else {
+                    for (double value : result.getValues()) {
+                        mXmlSerializer.startTag(null, "Value");
+                        mXmlSerializer.text(Double.toString(value));
+                        mXmlSerializer.endTag(null, "Value");
+                    }
                 }
                 mXmlSerializer.endTag(null, "ValueArray");
             }
             mXmlSerializer.endTag(null, "Details");
         }
     }
+
+    // <ValueArray ... file="metrics.bin" offset="8" count="5" min="1.0" max="9.0" mean="4.2"
+    //     stddev="2.1"/>
+    private void serializeToArrayFile(double[] values) throws IOException {
+        long offset = mArrayFile.append(values);
+        mXmlSerializer.attribute(null, "file", mArrayFile.getFile().getName());
+        mXmlSerializer.attribute(null, "offset", Long.toString(offset));
+        mXmlSerializer.attribute(null, "count", Integer.toString(values.length));
+        if (values.length > 0) {
+            Stat.StatResult stat = Stat.getStat(values);
+            mXmlSerializer.attribute(null, "min", Double.toString(stat.mMin));
+            mXmlSerializer.attribute(null, "max", Double.toString(stat.mMax));
+            mXmlSerializer.attribute(null, "mean", Double.toString(stat.mAverage));
+            mXmlSerializer.attribute(null, "stddev", Double.toString(stat.mStddev));
+        }
+    }
 }
@@ -16,6 +16,11 @@
 
 package com.android.compatibility.common.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -31,6 +36,13 @@ public class ReportLog implements Serializable {
     private static final String SUMMARY_SEPARATOR = "++++";
     private static final String LOG_ELEM_SEPARATOR = "|";
     private static final String EMPTY_CHAR = " ";
+    /**
+     * Starts a binary encoded report. A text encoded report starts with a location in
+     * class#method:line form, which can never contain ':' before '#'.
+     */
+    private static final String BINARY_PREFIX = "RLB1:";
+    private static final char[] BASE64_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
     private Result mSummary;
     private final List<Result> mDetails = new ArrayList<Result>();
 
@@ -136,6 +148,38 @@ public class ReportLog implements Serializable {
                     ResultType.valueOf(elems[3]), /*type*/
                     ResultUnit.valueOf(elems[4])  /*unit*/);
         }
+
+        /**
+         * Format: location, message, target flag [target], type, unit, value count, values.
+         * Strings are a varint length and UTF-8 bytes, values are raw big-endian doubles.
+         */
+        void writeBinary(DataOutputStream out) throws IOException {
+            writeString(out, mLocation);
+            writeString(out, mMessage);
+            out.writeBoolean(mTarget != null);
+            if (mTarget != null) {
+                out.writeDouble(mTarget);
+            }
+            writeString(out, mType.name());
+            writeString(out, mUnit.name());
+            writeVarint(out, mValues.length);
+            for (double value : mValues) {
+                out.writeDouble(value);
+            }
+        }
+
+        static Result readBinary(DataInputStream in) throws IOException {
+            String location = readString(in);
+            String message = readString(in);
+            Double target = in.readBoolean() ? in.readDouble() : null;
+            ResultType type = ResultType.valueOf(readString(in));
+            ResultUnit unit = ResultUnit.valueOf(readString(in));
+            double[] values = new double[readVarint(in)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readDouble();
+            }
+            return new Result(location, message, values, target, type, unit);
+        }
     }
 
     /**
@@ -190,6 +234,9 @@ public class ReportLog implements Serializable {
      * Parse a String encoded {@link com.android.compatibility.common.util.ReportLog}
      */
     public static ReportLog fromEncodedString(String encodedString) {
+        if (encodedString.startsWith(BINARY_PREFIX)) {
+            return fromBinaryEncodedString(encodedString);
+        }
         ReportLog reportLog = new ReportLog();
         StringTokenizer tok = new StringTokenizer(encodedString, SUMMARY_SEPARATOR);
         if (tok.hasMoreTokens()) {
@@ -227,4 +274,145 @@ public class ReportLog implements Serializable {
         }
         return builder.toString();
     }
+
+    /**
+     * @return a compact representation of this report that {@link #fromEncodedString} also
+     * reads, or null if not collected. Values are kept as raw doubles rather than decimal text,
+     * so large arrays of samples cost 8 bytes each before base64 and come back bit for bit.
+     */
+    protected String toBinaryEncodedString() {
+        if ((mSummary == null) && mDetails.isEmpty()) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeBoolean(mSummary != null);
+            if (mSummary != null) {
+                mSummary.writeBinary(out);
+            }
+            writeVarint(out, mDetails.size());
+            for (Result result : mDetails) {
+                result.writeBinary(out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Cannot happen when writing to memory.
+            throw new IllegalStateException(e);
+        }
+        return BINARY_PREFIX + encodeBase64(bytes.toByteArray());
+    }
+
+    private static ReportLog fromBinaryEncodedString(String encodedString) {
+        byte[] bytes = decodeBase64(encodedString, BINARY_PREFIX.length());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        ReportLog reportLog = new ReportLog();
+        try {
+            if (in.readBoolean()) {
+                reportLog.mSummary = Result.readBinary(in);
+            }
+            int count = readVarint(in);
+            for (int i = 0; i < count; i++) {
+                reportLog.mDetails.add(Result.readBinary(in));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed binary report log", e);
+        }
+        return reportLog;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Standard base64 with padding. Neither android.util.Base64 nor java.util.Base64 is
+     * available on both the device and the host side this class is built for.
+     */
+    private static String encodeBase64(byte[] data) {
+        StringBuilder builder = new StringBuilder((data.length + 2) / 3 * 4);
+        int i = 0;
+        for (; i + 2 < data.length; i += 3) {
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+            builder.append(BASE64_CHARS[bits >>> 18])
+                    .append(BASE64_CHARS[(bits >>> 12) & 0x3f])
+                    .append(BASE64_CHARS[(bits >>> 6) & 0x3f])
+                    .append(BASE64_CHARS[bits & 0x3f]);
+        }
+        int remaining = data.length - i;
+        if (remaining > 0) {
+            int bits = (data[i] & 0xff) << 16 | (remaining == 2 ? (data[i + 1] & 0xff) << 8 : 0);
+            builder.append(BASE64_CHARS[bits >>> 18])
+                    .append(BASE64_CHARS[(bits >>> 12) & 0x3f])
+                    .append(remaining == 2 ? BASE64_CHARS[(bits >>> 6) & 0x3f] : '=')
+                    .append('=');
+        }
+        return builder.toString();
+    }
+
+    private static byte[] decodeBase64(String encoded, int start) {
+        int end = encoded.length();
+        while (end > start && encoded.charAt(end - 1) == '=') {
+            end--;
+        }
+        byte[] data = new byte[(end - start) * 3 / 4];
+        int bits = 0;
+        int bitCount = 0;
+        int index = 0;
+        for (int i = start; i < end; i++) {
+            bits = (bits << 6) | decodeBase64Char(encoded.charAt(i));
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                data[index++] = (byte) (bits >>> bitCount);
+            }
+        }
+        return data;
+    }
+
+    private static int decodeBase64Char(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        } else if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        } else if (c == '+') {
+            return 62;
+        } else if (c == '/') {
+            return 63;
+        }
+        throw new IllegalArgumentException("Invalid base64 character: " + c);
+    }
 }
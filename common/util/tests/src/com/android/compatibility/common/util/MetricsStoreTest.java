@@ -36,6 +36,13 @@ public class MetricsStoreTest extends TestCase {
         this.mReportLog = new ReportLog();
     }
 
+    @Override
+    protected void tearDown() throws Exception {
+        MetricsStore.setLimits(MetricsStore.DEFAULT_MAX_RESULTS_PER_DEVICE,
+                MetricsStore.DEFAULT_TTL_MS);
+        super.tearDown();
+    }
+
     public void testStoreAndRemove() {
         mReportLog.setSummary("Sample Summary", 1.0, ResultType.HIGHER_BETTER, ResultUnit.BYTE);
         mReportLog.addValues("Details", VALUES, ResultType.NEUTRAL, ResultUnit.FPS);
@@ -46,4 +53,71 @@ public class MetricsStoreTest extends TestCase {
         assertNull(MetricsStore.removeResult("blah", ABI, CLASSMETHOD_NAME));
     }
 
+    public void testCounters() {
+        long stored = MetricsStore.getStoredCount();
+        long retrieved = MetricsStore.getRetrievedCount();
+        MetricsStore.storeResult("counters", ABI, CLASSMETHOD_NAME, mReportLog);
+        assertSame(mReportLog, MetricsStore.removeResult("counters", ABI, CLASSMETHOD_NAME));
+        assertNull(MetricsStore.removeResult("counters", ABI, CLASSMETHOD_NAME));
+        assertEquals(stored + 1, MetricsStore.getStoredCount());
+        assertEquals(retrieved + 1, MetricsStore.getRetrievedCount());
+    }
+
+    public void testPartitionsAreSeparate() {
+        MetricsStore.storeResult("device1", ABI, CLASSMETHOD_NAME, mReportLog);
+        ReportLog other = new ReportLog();
+        MetricsStore.storeResult("device2", ABI, CLASSMETHOD_NAME, other);
+        assertSame(other, MetricsStore.removeResult("device2", ABI, CLASSMETHOD_NAME));
+        assertSame(mReportLog, MetricsStore.removeResult("device1", ABI, CLASSMETHOD_NAME));
+    }
+
+    public void testSizeLimitEvictsOldest() {
+        long evicted = MetricsStore.getEvictedCount();
+        MetricsStore.setLimits(2, MetricsStore.DEFAULT_TTL_MS);
+        MetricsStore.storeResult("bounded", ABI, "a", new ReportLog());
+        MetricsStore.storeResult("bounded", ABI, "b", new ReportLog());
+        MetricsStore.storeResult("bounded", ABI, "c", new ReportLog());
+        assertEquals(evicted + 1, MetricsStore.getEvictedCount());
+        assertNull(MetricsStore.removeResult("bounded", ABI, "a"));
+        assertNotNull(MetricsStore.removeResult("bounded", ABI, "b"));
+        assertNotNull(MetricsStore.removeResult("bounded", ABI, "c"));
+    }
+
+    public void testReplacedResultIsNewest() {
+        MetricsStore.setLimits(2, MetricsStore.DEFAULT_TTL_MS);
+        MetricsStore.storeResult("replaced", ABI, "a", new ReportLog());
+        MetricsStore.storeResult("replaced", ABI, "b", new ReportLog());
+        MetricsStore.storeResult("replaced", ABI, "a", mReportLog);
+        MetricsStore.storeResult("replaced", ABI, "c", new ReportLog());
+        assertNull(MetricsStore.removeResult("replaced", ABI, "b"));
+        assertSame(mReportLog, MetricsStore.removeResult("replaced", ABI, "a"));
+        assertNotNull(MetricsStore.removeResult("replaced", ABI, "c"));
+    }
+
+    public void testExpiredResultsAreOrphaned() {
+        long orphaned = MetricsStore.getOrphanedCount();
+        MetricsStore.setLimits(MetricsStore.DEFAULT_MAX_RESULTS_PER_DEVICE, 1000);
+        MetricsStore.storeResult("expiring", ABI, CLASSMETHOD_NAME, mReportLog);
+        MetricsStore.evictExpired(System.currentTimeMillis() + 2000);
+        assertEquals(orphaned + 1, MetricsStore.getOrphanedCount());
+        assertNull(MetricsStore.removeResult("expiring", ABI, CLASSMETHOD_NAME));
+    }
+
+    public void testSweepDropsEmptyDevices() {
+        MetricsStore.storeResult("emptied", ABI, CLASSMETHOD_NAME, mReportLog);
+        assertSame(mReportLog, MetricsStore.removeResult("emptied", ABI, CLASSMETHOD_NAME));
+        int devices = MetricsStore.getDeviceCount();
+        MetricsStore.evictExpired();
+        assertTrue(MetricsStore.getDeviceCount() < devices);
+        MetricsStore.storeResult("emptied", ABI, CLASSMETHOD_NAME, mReportLog);
+        assertSame(mReportLog, MetricsStore.removeResult("emptied", ABI, CLASSMETHOD_NAME));
+    }
+
+    public void testRemoveDevice() {
+        long orphaned = MetricsStore.getOrphanedCount();
+        MetricsStore.storeResult("removed", ABI, CLASSMETHOD_NAME, mReportLog);
+        assertEquals(1, MetricsStore.removeDevice("removed"));
+        assertEquals(orphaned + 1, MetricsStore.getOrphanedCount());
+        assertNull(MetricsStore.removeResult("removed", ABI, CLASSMETHOD_NAME));
+    }
 }
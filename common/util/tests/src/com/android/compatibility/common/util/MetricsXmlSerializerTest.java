@@ -22,7 +22,9 @@ import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Unit tests for {@link MetricsXmlSerializer}
@@ -37,7 +39,7 @@ public class MetricsXmlSerializerTest extends TestCase {
             + "<Summary message=\"Sample\" scoreType=\"higher_better\" unit=\"byte\">1.0</Summary>"
             + "<Details>"
                     + "<ValueArray source=\"com.android.compatibility.common.util."
-                    + "MetricsXmlSerializerTest#testSerialize:84\""
+                    + "MetricsXmlSerializerTest#testSerialize:86\""
                     + " message=\"Details\" scoreType=\"neutral\" unit=\"fps\">"
                         + "<Value>1.0</Value>"
                         + "<Value>11.0</Value>"
@@ -89,4 +91,44 @@ public class MetricsXmlSerializerTest extends TestCase {
 
         assertEquals(EXPECTED_XML, mByteArrayOutputStream.toString("utf-8"));
     }
+
+    public void testSerialize_arrayFile() throws IOException {
+        mLocalReportLog.addValues("Details", VALUES, ResultType.NEUTRAL, ResultUnit.FPS);
+        mLocalReportLog.addValues("Empty", new double[0], ResultType.NEUTRAL, ResultUnit.FPS);
+        File file = File.createTempFile("metrics", ".bin");
+        try {
+            MetricsArrayFile arrayFile = new MetricsArrayFile(file);
+            MetricsXmlSerializer serializer = new MetricsXmlSerializer(xmlSerializer, arrayFile);
+            xmlSerializer.startDocument("utf-8", true);
+            serializer.serialize(mLocalReportLog);
+            xmlSerializer.endDocument();
+            arrayFile.close();
+
+            String xml = mByteArrayOutputStream.toString("utf-8");
+            assertFalse(xml.contains("<Value>"));
+            assertTrue(xml.contains(" file=\"" + file.getName() + "\" offset=\"8\" count=\"5\""
+                    + " min=\"1.0\" max=\"111221.0\" mean=\"22493.0\""));
+            assertTrue(xml.contains(" offset=\"48\" count=\"0\""));
+            assertTrue(Arrays.equals(VALUES, MetricsArrayFile.readValues(file, 8, VALUES.length)));
+            assertEquals(0, MetricsArrayFile.readValues(file, 48, 0).length);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testReadValues_outOfRange() throws IOException {
+        File file = File.createTempFile("metrics", ".bin");
+        try {
+            MetricsArrayFile arrayFile = new MetricsArrayFile(file);
+            arrayFile.append(VALUES);
+            arrayFile.close();
+            try {
+                MetricsArrayFile.readValues(file, 16, VALUES.length);
+                fail("Expected IOException");
+            } catch (IOException expected) {
+            }
+        } finally {
+            file.delete();
+        }
+    }
 }
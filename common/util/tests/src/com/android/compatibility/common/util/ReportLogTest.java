@@ -65,4 +65,48 @@ public class ReportLogTest extends TestCase {
 
         assertEquals(encodedReportLog, decodedReportLog.toEncodedString());
     }
+
+    public void testBinaryEncodeDecode() {
+        double[] samples = new double[10000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = Math.sqrt(i) / 3;
+        }
+        samples[1] = Double.NaN;
+        samples[2] = -0.0;
+        samples[3] = Double.NEGATIVE_INFINITY;
+        reportLog.setSummary("Sample Summary", 1.0, ResultType.HIGHER_BETTER, ResultUnit.BYTE);
+        reportLog.addValues("Frame times \u00b5s|+++", samples, ResultType.LOWER_BETTER,
+                ResultUnit.MS);
+        reportLog.addValues("Details", VALUES, ResultType.NEUTRAL, ResultUnit.FPS);
+
+        String encodedReportLog = reportLog.toBinaryEncodedString();
+        assertTrue(encodedReportLog.length() < reportLog.toEncodedString().length());
+
+        ReportLog decodedReportLog = ReportLog.fromEncodedString(encodedReportLog);
+        ReportLog.Result summary = decodedReportLog.getSummary();
+        assertEquals("Sample Summary", summary.getMessage());
+        assertEquals(reportLog.getSummary().getLocation(), summary.getLocation());
+        assertEquals(ResultType.HIGHER_BETTER, summary.getType());
+        assertEquals(ResultUnit.BYTE, summary.getUnit());
+        assertTrue(Arrays.equals(new double[] {1.0}, summary.getValues()));
+
+        assertEquals(2, decodedReportLog.getDetailedMetrics().size());
+        ReportLog.Result detail = decodedReportLog.getDetailedMetrics().get(0);
+        assertEquals("Frame times \u00b5s|+++", detail.getMessage());
+        assertEquals(ResultType.LOWER_BETTER, detail.getType());
+        assertEquals(ResultUnit.MS, detail.getUnit());
+        assertTrue(Arrays.equals(samples, detail.getValues()));
+        assertTrue(Arrays.equals(VALUES,
+                decodedReportLog.getDetailedMetrics().get(1).getValues()));
+
+        assertEquals(encodedReportLog, decodedReportLog.toBinaryEncodedString());
+    }
+
+    public void testBinaryEncodeDecodeWithoutSummary() {
+        reportLog.addValue("Details", 1.0, ResultType.NEUTRAL, ResultUnit.NONE);
+        ReportLog decodedReportLog =
+                ReportLog.fromEncodedString(reportLog.toBinaryEncodedString());
+        assertNull(decodedReportLog.getSummary());
+        assertEquals(1, decodedReportLog.getDetailedMetrics().size());
+    }
 }
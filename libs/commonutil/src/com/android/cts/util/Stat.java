@@ -46,25 +46,10 @@ public class Stat {
      * Calculate statistics properties likes average, min, max, and stddev for the given array
      */
     public static StatResult getStat(double[] data) {
-        double average = data[0];
-        double min = data[0];
-        double max = data[0];
-        double eX2 = data[0] * data[0]; // will become E[X^2]
-        for (int i = 1; i < data.length; i++) {
-            average += data[i];
-            eX2 += data[i] * data[i];
-            if (data[i] > max) {
-                max = data[i];
-            }
-            if (data[i] < min) {
-                min = data[i];
-            }
-        }
-        average /= data.length;
-        eX2 /= data.length;
-        // stddev = sqrt(E[X^2] - (E[X])^2)
-        double stddev = Math.sqrt(eX2 - average * average);
-        return new StatResult(average, min, max, stddev, data.length);
+        // No quantiles are reported, so the accumulator need not keep any samples.
+        StatAccumulator accumulator = new StatAccumulator(0);
+        accumulator.addAll(data);
+        return accumulator.getStatResult();
     }
 
     /**
@@ -73,49 +58,36 @@ public class Stat {
      * rejectionThreshold should be bigger than 0.0 and be lowerthan 1.0
      */
     public static StatResult getStatWithOutlierRejection(double[] data, double rejectionThreshold) {
+        // Selecting the middle values is linear, sorting the whole copy is not.
         double[] dataCopied = Arrays.copyOf(data, data.length);
-        Arrays.sort(dataCopied);
         int medianIndex = dataCopied.length / 2;
-        double median;
-        if (dataCopied.length % 2 == 1) {
-            median = dataCopied[medianIndex];
-        } else {
-            median = (dataCopied[medianIndex - 1] + dataCopied[medianIndex]) / 2.0;
+        double median = StatisticsUtils.select(dataCopied, medianIndex);
+        if (dataCopied.length % 2 == 0) {
+            // Selection left everything below medianIndex in the lower part.
+            double lower = dataCopied[0];
+            for (int i = 1; i < medianIndex; i++) {
+                lower = Math.max(lower, dataCopied[i]);
+            }
+            median = (lower + median) / 2.0;
         }
         double thresholdMin = median * (1.0 - rejectionThreshold);
         double thresholdMax = median * (1.0 + rejectionThreshold);
 
-        double average = 0.0;
-        double min = median;
-        double max = median;
-        double eX2 = 0.0; // will become E[X^2]
-        int validDataCounter = 0;
+        StatAccumulator accumulator = new StatAccumulator(0);
         for (int i = 0; i < data.length; i++) {
             if ((data[i] > thresholdMin) && (data[i] < thresholdMax)) {
-                validDataCounter++;
-                average += data[i];
-                eX2 += data[i] * data[i];
-                if (data[i] > max) {
-                    max = data[i];
-                }
-                if (data[i] < min) {
-                    min = data[i];
-                }
+                accumulator.add(data[i]);
             }
             //TODO report rejected data
         }
-        double stddev;
-        if (validDataCounter > 0) {
-            average /= validDataCounter;
-            eX2 /= validDataCounter;
-            // stddev = sqrt(E[X^2] - (E[X])^2)
-            stddev = Math.sqrt(eX2 - average * average);
-        } else { // both median is showing too much diff
-            average = median;
-            stddev = 0; // don't care
+        if (accumulator.getCount() == 0) { // both median is showing too much diff
+            return new StatResult(median, median, median, 0 /* don't care */, 0);
         }
 
-        return new StatResult(average, min, max, stddev, validDataCounter);
+        // min and max start out at the median, as they always have.
+        return new StatResult(accumulator.getMean(), Math.min(median, accumulator.getMin()),
+                Math.max(median, accumulator.getMax()),
+                accumulator.getPopulationStandardDeviation(), accumulator.getCount());
     }
 
     /**
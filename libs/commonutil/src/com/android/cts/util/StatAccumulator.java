@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.util;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates samples one at a time without keeping all of them around.
+ *
+ * Mean and variance are updated with Welford's method, which stays accurate where
+ * E[X^2] - E[X]^2 cancels badly. Quantiles come from a sketch that keeps every sample
+ * until it holds {@code capacity} of them and then repeatedly halves full levels, so
+ * memory grows with the log of the sample count. Quantiles are exact until the first
+ * halving and within a small rank error after that.
+ *
+ * Not thread safe.
+ */
+public class StatAccumulator {
+
+    private static final int DEFAULT_CAPACITY = 512;
+
+    private int mCount;
+    private double mMean;
+    /** Sum of squared differences from the current mean. */
+    private double mM2;
+    private double mMin = Double.NaN;
+    private double mMax = Double.NaN;
+
+    /** Number of samples a level holds before it is halved into the next one. */
+    private final int mCapacity;
+    /** Samples kept at each level. A sample at level h stands for 2^h samples. */
+    private double[][] mLevels = new double[1][];
+    private int[] mLevelSizes = new int[1];
+    /** Bit h selects whether level h keeps its odd or even samples on the next halving. */
+    private long mOffsets;
+
+    public StatAccumulator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of samples kept exactly before the quantile sketch starts
+     *        halving. Larger values trade memory for accuracy. Must be even, or 0 to keep
+     *        no samples when only mean, variance, min and max are needed.
+     */
+    public StatAccumulator(int capacity) {
+        if (capacity < 0 || capacity % 2 != 0) {
+            throw new IllegalArgumentException("capacity must be even and >= 0: " + capacity);
+        }
+        mCapacity = capacity;
+        mLevels[0] = new double[capacity];
+    }
+
+    /**
+     * Add a sample.
+     */
+    public void add(double value) {
+        mCount++;
+        double delta = value - mMean;
+        mMean += delta / mCount;
+        mM2 += delta * (value - mMean);
+        if (mCount == 1) {
+            mMin = value;
+            mMax = value;
+        } else if (value < mMin) {
+            mMin = value;
+        } else if (value > mMax) {
+            mMax = value;
+        }
+
+        if (mCapacity > 0) {
+            mLevels[0][mLevelSizes[0]++] = value;
+            if (mLevelSizes[0] == mCapacity) {
+                compact(0);
+            }
+        }
+    }
+
+    /**
+     * Add all samples in the given array.
+     */
+    public void addAll(double[] data) {
+        for (double value : data) {
+            add(value);
+        }
+    }
+
+    /**
+     * return the number of samples added
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * return the average of the samples
+     *
+     * @throws IllegalStateException if no sample was added
+     */
+    public double getMean() {
+        checkNotEmpty();
+        return mMean;
+    }
+
+    /**
+     * return the minimum sample
+     *
+     * @throws IllegalStateException if no sample was added
+     */
+    public double getMin() {
+        checkNotEmpty();
+        return mMin;
+    }
+
+    /**
+     * return the maximum sample
+     *
+     * @throws IllegalStateException if no sample was added
+     */
+    public double getMax() {
+        checkNotEmpty();
+        return mMax;
+    }
+
+    /**
+     * return the bias-corrected sample variance, which is NaN for a single sample
+     *
+     * @throws IllegalStateException if no sample was added
+     */
+    public double getVariance() {
+        checkNotEmpty();
+        return mM2 / (mCount - 1);
+    }
+
+    /**
+     * return the bias-corrected sample standard deviation
+     *
+     * @throws IllegalStateException if no sample was added
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * return the population standard deviation, as reported by {@link Stat#getStat(double[])}
+     *
+     * @throws IllegalStateException if no sample was added
+     */
+    public double getPopulationStandardDeviation() {
+        checkNotEmpty();
+        return Math.sqrt(mM2 / mCount);
+    }
+
+    /**
+     * return the given quantile using the same nearest rank rule as
+     * {@link StatisticsUtils#get95PercentileValue(java.util.Collection)}
+     *
+     * @param quantile Between 0.0 and 1.0, for example 0.5 for the median or 0.99.
+     * @throws IllegalStateException if no sample was added or the capacity is 0
+     */
+    public double getQuantile(double quantile) {
+        checkNotEmpty();
+        if (mCapacity == 0) {
+            throw new IllegalStateException("Quantiles are not kept with capacity 0");
+        }
+        if (quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException("quantile must be in [0, 1]: " + quantile);
+        }
+
+        // Walk the kept samples of all levels in order, merging the sorted levels.
+        int levelCount = mLevels.length;
+        double[][] sorted = new double[levelCount][];
+        int[] next = new int[levelCount];
+        for (int h = 0; h < levelCount; h++) {
+            sorted[h] = Arrays.copyOf(mLevels[h], mLevelSizes[h]);
+            Arrays.sort(sorted[h]);
+        }
+
+        long rank = StatisticsUtils.getNearestRankIndex(mCount, quantile);
+        long seen = 0;
+        while (true) {
+            int minLevel = -1;
+            for (int h = 0; h < levelCount; h++) {
+                if (next[h] < sorted[h].length && (minLevel == -1
+                        || sorted[h][next[h]] < sorted[minLevel][next[minLevel]])) {
+                    minLevel = h;
+                }
+            }
+            if (minLevel == -1) {
+                return mMax;
+            }
+            double value = sorted[minLevel][next[minLevel]++];
+            seen += 1L << minLevel;
+            if (seen > rank) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * return the statistics in the form {@link Stat#getStat(double[])} returns them
+     *
+     * @throws IllegalStateException if no sample was added
+     */
+    public Stat.StatResult getStatResult() {
+        return new Stat.StatResult(getMean(), getMin(), getMax(),
+                getPopulationStandardDeviation(), mCount);
+    }
+
+    private void checkNotEmpty() {
+        if (mCount == 0) {
+            throw new IllegalStateException("No samples were added");
+        }
+    }
+
+    /**
+     * Sort level h and move every other sample to level h + 1, where each counts twice.
+     */
+    private void compact(int h) {
+        if (h + 1 == mLevels.length) {
+            mLevels = Arrays.copyOf(mLevels, h + 2);
+            mLevelSizes = Arrays.copyOf(mLevelSizes, h + 2);
+            mLevels[h + 1] = new double[mCapacity];
+        }
+        double[] level = mLevels[h];
+        Arrays.sort(level, 0, mLevelSizes[h]);
+        // Alternate which half is kept so the rank error does not build up in one direction.
+        int offset = (int) ((mOffsets >>> h) & 1);
+        mOffsets ^= 1L << h;
+        double[] next = mLevels[h + 1];
+        for (int i = offset; i < mLevelSizes[h]; i += 2) {
+            next[mLevelSizes[h + 1]++] = level[i];
+        }
+        mLevelSizes[h] = 0;
+        if (mLevelSizes[h + 1] == mCapacity) {
+            compact(h + 1);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for the {@link StatAccumulator} class.
+ */
+public class StatAccumulatorTest extends TestCase {
+
+    /**
+     * Test mean, variance, min and max against the textbook formulas.
+     */
+    public void testMoments() {
+        StatAccumulator accumulator = new StatAccumulator();
+        accumulator.addAll(new double[] {2, 4, 4, 4, 5, 5, 7, 9});
+        assertEquals(8, accumulator.getCount());
+        assertEquals(5.0, accumulator.getMean(), 0.00001);
+        assertEquals(2.0, accumulator.getPopulationStandardDeviation(), 0.00001);
+        assertEquals(32.0 / 7, accumulator.getVariance(), 0.00001);
+        assertEquals(2.0, accumulator.getMin(), 0.0);
+        assertEquals(9.0, accumulator.getMax(), 0.0);
+    }
+
+    /**
+     * Test that a large offset does not wipe out the variance, which E[X^2] - E[X]^2 does.
+     */
+    public void testLargeOffset() {
+        StatAccumulator accumulator = new StatAccumulator(0);
+        for (int i = 0; i < 1000; i++) {
+            accumulator.add(1e9 + (i % 2));
+        }
+        assertEquals(0.5, accumulator.getPopulationStandardDeviation(), 0.00001);
+    }
+
+    /**
+     * Test that quantiles are exact while all samples fit.
+     */
+    public void testExactQuantiles() {
+        StatAccumulator accumulator = new StatAccumulator();
+        for (int i = 99; i >= 0; i--) {
+            accumulator.add(i);
+        }
+        assertEquals(95.0, accumulator.getQuantile(0.95), 0.0);
+        assertEquals(50.0, accumulator.getQuantile(0.5), 0.0);
+        assertEquals(0.0, accumulator.getQuantile(0.0), 0.0);
+        assertEquals(99.0, accumulator.getQuantile(1.0), 0.0);
+    }
+
+    /**
+     * Test that quantiles stay close to the exact ones once the sketch starts halving.
+     */
+    public void testApproximateQuantiles() {
+        Random random = new Random(0);
+        double[] data = new double[200000];
+        StatAccumulator accumulator = new StatAccumulator(256);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextGaussian();
+            accumulator.add(data[i]);
+        }
+        Arrays.sort(data);
+        for (double quantile : new double[] {0.5, 0.95, 0.99}) {
+            double estimate = accumulator.getQuantile(quantile);
+            int rank = Arrays.binarySearch(data, estimate);
+            double rankError = Math.abs(rank - quantile * data.length) / data.length;
+            assertTrue("rank error " + rankError + " at " + quantile, rankError < 0.01);
+        }
+    }
+
+    /**
+     * Test that an empty accumulator refuses to report.
+     */
+    public void testEmpty() {
+        try {
+            new StatAccumulator().getMean();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.android.cts.util;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -45,10 +46,47 @@ public class StatisticsUtils {
         List<TValue> arrayCopy = new ArrayList<TValue>(collection);
         Collections.sort(arrayCopy);
 
-        // zero-based array index
-        int arrayIndex = (int) Math.round(arrayCopy.size() * 0.95 + .5) - 1;
+        return arrayCopy.get(getNearestRankIndex(arrayCopy.size(), 0.95));
+    }
+
+    /**
+     * Get the value of the 95th percentile using nearest rank algorithm. This selects the
+     * value from a copy of the array instead of sorting it.
+     *
+     * @throws IllegalArgumentException if the array is null or empty
+     */
+    public static double get95PercentileValue(double[] data) {
+        validateArray(data);
+        return select(Arrays.copyOf(data, data.length), getNearestRankIndex(data.length, 0.95));
+    }
+
+    /**
+     * Calculate the mean of an array.
+     *
+     * @throws IllegalArgumentException if the array is null or empty
+     */
+    public static double getMean(double[] data) {
+        validateArray(data);
+        return accumulate(data).getMean();
+    }
+
+    /**
+     * Calculate the bias-corrected sample variance of an array.
+     *
+     * @throws IllegalArgumentException if the array is null or empty
+     */
+    public static double getVariance(double[] data) {
+        validateArray(data);
+        return accumulate(data).getVariance();
+    }
 
-        return arrayCopy.get(arrayIndex);
+    /**
+     * Calculate the bias-corrected standard deviation of an array.
+     *
+     * @throws IllegalArgumentException if the array is null or empty
+     */
+    public static double getStandardDeviation(double[] data) {
+        return Math.sqrt(getVariance(data));
     }
 
     /**
@@ -75,17 +113,12 @@ public class StatisticsUtils {
         validateCollection(collection);
 
         double mean = getMean(collection);
-        ArrayList<Double> squaredDiffs = new ArrayList<Double>();
+        double sum = 0.0;
         for(TValue value : collection) {
             double difference = mean - value.doubleValue();
-            squaredDiffs.add(Math.pow(difference, 2));
+            sum += difference * difference;
         }
-
-        double sum = 0.0;
-        for (Double value : squaredDiffs) {
-            sum += value;
-        }
-        return sum / (squaredDiffs.size() - 1);
+        return sum / (collection.size() - 1);
     }
 
     /**
@@ -109,4 +142,68 @@ public class StatisticsUtils {
         }
     }
 
+    /**
+     * Validate that an array is not null or empty.
+     *
+     * @throws IllegalStateException if array is null or empty.
+     */
+    private static void validateArray(double[] data) {
+        if (data == null || data.length == 0) {
+            throw new IllegalStateException("Array cannot be null or empty");
+        }
+    }
+
+    private static StatAccumulator accumulate(double[] data) {
+        // Only mean and variance are needed, so keep no samples for quantiles.
+        StatAccumulator accumulator = new StatAccumulator(0);
+        accumulator.addAll(data);
+        return accumulator;
+    }
+
+    /**
+     * Get the zero-based index of the given quantile in a sorted array of the given size
+     * using the nearest rank algorithm.
+     */
+    static int getNearestRankIndex(int size, double quantile) {
+        int index = (int) Math.round(size * quantile + .5) - 1;
+        return Math.max(0, Math.min(size - 1, index));
+    }
+
+    /**
+     * Get the value that would be at {@code index} if the array were sorted. The array is
+     * partially reordered in place.
+     */
+    static double select(double[] data, int index) {
+        int left = 0;
+        int right = data.length - 1;
+        while (left < right) {
+            double pivot = data[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (Double.compare(data[i], pivot) < 0) {
+                    i++;
+                }
+                while (Double.compare(data[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    double tmp = data[i];
+                    data[i] = data[j];
+                    data[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (index <= j) {
+                right = j;
+            } else if (index >= i) {
+                left = i;
+            } else {
+                return data[index];
+            }
+        }
+        return data[index];
+    }
+
 }
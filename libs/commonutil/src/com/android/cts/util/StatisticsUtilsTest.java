@@ -18,6 +18,7 @@ package com.android.cts.util;
 
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -103,5 +104,22 @@ public class StatisticsUtilsTest extends TestCase {
         assertEquals(Math.sqrt(10.0), stddev, 0.00001);
     }
 
-
+    /**
+     * Test the primitive array versions against the {@link Collection} versions.
+     */
+    public void testPrimitiveArrays() {
+        double[] data = new double[1000];
+        List<Double> values = new ArrayList<Double>();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i * 7919) % 1000 + 0.5;
+            values.add(data[i]);
+        }
+        assertEquals(StatisticsUtils.get95PercentileValue(values),
+                StatisticsUtils.get95PercentileValue(data), 0.0);
+        assertEquals(StatisticsUtils.getMean(values), StatisticsUtils.getMean(data), 0.00001);
+        assertEquals(StatisticsUtils.getVariance(values),
+                StatisticsUtils.getVariance(data), 0.00001);
+        assertEquals(StatisticsUtils.getStandardDeviation(values),
+                StatisticsUtils.getStandardDeviation(data), 0.00001);
+    }
 }
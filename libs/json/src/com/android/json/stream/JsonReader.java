@@ -172,6 +172,18 @@ public final class JsonReader implements Closeable {
     private static final String TRUE = "true";
     private static final String FALSE = "false";
 
+    /** Initial size of the buffer. It grows to hold strings longer than this. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Names up to this length are kept in the name table. Longer names are
+     * unlikely to repeat and are not worth hashing.
+     */
+    private static final int MAX_INTERNED_NAME_LENGTH = 64;
+
+    /** The name table stops taking new names once it holds this many. */
+    private static final int MAX_INTERNED_NAMES = 1024;
+
     /** The input JSON. */
     private final Reader in;
 
@@ -182,9 +194,11 @@ public final class JsonReader implements Closeable {
      * Use a manual buffer to easily read and unread upcoming characters, and
      * also so we can create strings without an intermediate StringBuilder.
      * We decode literals directly out of this buffer, so it must be at least as
-     * long as the longest token that can be reported as a number.
+     * long as the longest token that can be reported as a number. Quoted
+     * strings that do not fit grow the buffer instead of being assembled in a
+     * StringBuilder piece by piece.
      */
-    private final char[] buffer = new char[1024];
+    private char[] buffer = new char[BUFFER_SIZE];
     private int pos = 0;
     private int limit = 0;
 
@@ -202,6 +216,13 @@ public final class JsonReader implements Closeable {
     /** The text of the next name. */
     private String name;
 
+    /**
+     * Open addressed table of the names read so far, so that the keys that
+     * repeat in every object of a document are only allocated once.
+     */
+    private String[] nameTable = new String[64];
+    private int nameCount = 0;
+
     /*
      * For the next literal value, we may have the text value, or the position
      * and length in the buffer.
@@ -365,6 +386,28 @@ public final class JsonReader implements Closeable {
         return result;
     }
 
+    /**
+     * Consumes the next token, a {@link JsonToken#NAME property name}, if it
+     * is one of {@code names} and returns its index. Otherwise returns -1 and
+     * leaves the name to be read with {@link #nextName()} or skipped.
+     *
+     * @throws IllegalStateException if the next token in the stream is not a
+     *     property name or if this reader is closed.
+     */
+    public int selectName(String[] names) throws IOException {
+        peek();
+        if (token != JsonToken.NAME) {
+            throw new IllegalStateException("Expected a name but was " + peek());
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                advance();
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Returns the {@link JsonToken#STRING string} value of the next token,
      * consuming it. If the next token is a number, this method will return its
@@ -622,7 +665,7 @@ public final class JsonReader implements Closeable {
             case '\'':
                 checkLenient(); // fall-through
             case '"':
-                name = nextString((char) quote);
+                name = nextString((char) quote, true);
                 break;
             default:
                 checkLenient();
@@ -673,7 +716,7 @@ public final class JsonReader implements Closeable {
             case '\'':
                 checkLenient(); // fall-through
             case '"':
-                value = nextString((char) c);
+                value = nextString((char) c, false);
                 return token = JsonToken.STRING;
 
             default:
@@ -801,14 +844,15 @@ public final class JsonReader implements Closeable {
      * not include it in the returned string.
      *
      * @param quote either ' or ".
+     * @param isName true to look the string up in the name table.
      * @throws NumberFormatException if any unicode escape sequences are
      *     malformed.
      */
-    private String nextString(char quote) throws IOException {
+    private String nextString(char quote, boolean isName) throws IOException {
         StringBuilder builder = null;
-        do {
-            /* the index of the first character not yet appended to the builder. */
-            int start = pos;
+        /* the index of the first character not yet appended to the builder. */
+        int start = pos;
+        while (true) {
             while (pos < limit) {
                 int c = buffer[pos++];
 
@@ -816,7 +860,9 @@ public final class JsonReader implements Closeable {
                     if (skipping) {
                         return "skipped!";
                     } else if (builder == null) {
-                        return new String(buffer, start, pos - start - 1);
+                        return isName
+                                ? internName(buffer, start, pos - start - 1)
+                                : new String(buffer, start, pos - start - 1);
                     } else {
                         builder.append(buffer, start, pos - start - 1);
                         return builder.toString();
@@ -833,14 +879,94 @@ public final class JsonReader implements Closeable {
             }
 
             if (builder == null) {
-                builder = new StringBuilder();
+                /*
+                 * Keep the string read so far in the buffer and read more
+                 * behind it, growing the buffer if the string already fills it.
+                 */
+                int read = pos - start;
+                pos = start;
+                if (pos == 0 && limit == buffer.length) {
+                    char[] newBuffer = new char[buffer.length * 2];
+                    System.arraycopy(buffer, 0, newBuffer, 0, limit);
+                    buffer = newBuffer;
+                }
+                if (!fillBuffer(read + 1)) {
+                    pos += read;
+                    break;
+                }
+                start = pos;
+                pos += read;
+            } else {
+                builder.append(buffer, start, pos - start);
+                if (!fillBuffer(1)) {
+                    break;
+                }
+                start = pos;
             }
-            builder.append(buffer, start, pos - start);
-        } while (fillBuffer(1));
+        }
 
         throw syntaxError("Unterminated string");
     }
 
+    /**
+     * Returns the name held in {@code chars}, reusing the instance returned
+     * for an earlier occurrence of the same name.
+     */
+    private String internName(char[] chars, int offset, int length) {
+        if (length > MAX_INTERNED_NAME_LENGTH) {
+            return new String(chars, offset, length);
+        }
+
+        // Same hash as String.hashCode() so the table can be rehashed from the names.
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        int mask = nameTable.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        for (String candidate; (candidate = nameTable[index]) != null;
+                index = (index + 1) & mask) {
+            if (candidate.length() == length && regionMatches(candidate, chars, offset)) {
+                return candidate;
+            }
+        }
+
+        String result = new String(chars, offset, length);
+        if (nameCount < MAX_INTERNED_NAMES) {
+            nameTable[index] = result;
+            if (++nameCount * 2 > nameTable.length) {
+                rehashNames();
+            }
+        }
+        return result;
+    }
+
+    private static boolean regionMatches(String s, char[] chars, int offset) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashNames() {
+        String[] newTable = new String[nameTable.length * 2];
+        int mask = newTable.length - 1;
+        for (String s : nameTable) {
+            if (s != null) {
+                int hash = s.hashCode();
+                int index = (hash ^ (hash >>> 16)) & mask;
+                while (newTable[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                newTable[index] = s;
+            }
+        }
+        nameTable = newTable;
+    }
+
     /**
      * Reads the value up to but not including any delimiter characters. This
      * does not consume the delimiter character.
@@ -25,3 +25,18 @@ LOCAL_MODULE := ctstestserver
 LOCAL_SDK_VERSION := 16
 
 include $(BUILD_STATIC_JAVA_LIBRARY)
+
+# NioHttpServer has no Android dependencies, so its tests run on the host.
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := \
+    src/android/webkit/cts/NioHttpServer.java \
+    $(call all-java-files-under, tests/src)
+
+LOCAL_STATIC_JAVA_LIBRARIES := junit
+
+LOCAL_MODULE := ctstestserver-tests
+
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_HOST_JAVA_LIBRARY)
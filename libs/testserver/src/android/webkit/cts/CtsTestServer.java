@@ -24,6 +24,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
+import org.apache.http.ProtocolVersion;
 import org.apache.http.RequestLine;
 import org.apache.http.StatusLine;
 import org.apache.http.client.utils.URLEncodedUtils;
@@ -33,6 +34,8 @@ import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.DefaultHttpServerConnection;
 import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
 import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreProtocolPNames;
@@ -49,10 +52,12 @@ import android.webkit.MimeTypeMap;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.ServerSocket;
@@ -68,15 +73,15 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Hashtable;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Vector;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -118,6 +123,8 @@ public class CtsTestServer {
     private static final String SHUTDOWN_PREFIX = "/shutdown";
     public static final String NOLENGTH_POSTFIX = "nolength";
     private static final int DELAY_MILLIS = 2000;
+    private static final int KEEP_ALIVE_WORKER_COUNT = 20;
+    public static final int MAX_REQUEST_ENTITIES = 1000;
 
     public static final String AUTH_REALM = "Android CTS";
     public static final String AUTH_USER = "cts";
@@ -139,17 +146,26 @@ public class CtsTestServer {
     private static Hashtable<Integer, String> sReasons;
 
     private ServerThread mServerThread;
+    private NioHttpServer mNioServer;
     private String mServerUri;
     private AssetManager mAssets;
     private Context mContext;
     private Resources mResources;
     private SslMode mSsl;
     private MimeTypeMap mMap;
-    private Vector<String> mQueries;
-    private ArrayList<HttpEntity> mRequestEntities;
-    private final Map<String, HttpRequest> mLastRequestMap = new HashMap<String, HttpRequest>();
-    private long mDocValidity;
-    private long mDocAge;
+    // Request bookkeeping is updated by every server thread and read by the test thread, so it
+    // uses concurrent structures rather than locking the server. Only the per-uri counts and the
+    // most recent request entities are kept, so long runs do not grow an unbounded request log.
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final ConcurrentMap<String, AtomicInteger> mRequestCounts =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentMap<String, HttpRequest> mLastRequestMap =
+            new ConcurrentHashMap<String, HttpRequest>();
+    private final ConcurrentLinkedQueue<HttpEntity> mRequestEntities =
+            new ConcurrentLinkedQueue<HttpEntity>();
+    private final AtomicInteger mRequestEntityCount = new AtomicInteger();
+    private volatile long mDocValidity;
+    private volatile long mDocAge;
     private X509TrustManager mTrustManager;
 
     /**
@@ -201,14 +217,47 @@ public class CtsTestServer {
      */
     public CtsTestServer(Context context, SslMode sslMode, X509TrustManager trustManager)
             throws Exception {
+        this(context, sslMode, trustManager, false);
+    }
+
+    /**
+     * Create and start a local HTTP server instance.
+     * @param context The application context to use for fetching assets.
+     * @param sslMode Whether to use SSL, and if so, what client auth (if any) to use.
+     * @param keepAlive True if the server should serve HTTP/1.1 and keep connections alive
+     *         between requests. Only supported with {@link SslMode#INSECURE}.
+     * @throws Exception
+     */
+    public CtsTestServer(Context context, SslMode sslMode, boolean keepAlive) throws Exception {
+        this(context, sslMode, new CtsTrustManager(), keepAlive);
+    }
+
+    /**
+     * Create and start a local HTTP server instance.
+     * @param context The application context to use for fetching assets.
+     * @param sslMode Whether to use SSL, and if so, what client auth (if any) to use.
+     * @param trustManager the trustManager
+     * @param keepAlive True if the server should serve HTTP/1.1 and keep connections alive
+     *         between requests. Only supported with {@link SslMode#INSECURE}.
+     * @throws Exception
+     */
+    public CtsTestServer(Context context, SslMode sslMode, X509TrustManager trustManager,
+            boolean keepAlive) throws Exception {
+        if (keepAlive && sslMode != SslMode.INSECURE) {
+            throw new IllegalArgumentException("keep-alive is only supported without SSL");
+        }
         mContext = context;
         mAssets = mContext.getAssets();
         mResources = mContext.getResources();
         mSsl = sslMode;
-        mRequestEntities = new ArrayList<HttpEntity>();
         mMap = MimeTypeMap.getSingleton();
-        mQueries = new Vector<String>();
         mTrustManager = trustManager;
+        if (keepAlive) {
+            mNioServer = new NioHttpServer(new KeepAliveHandler(), KEEP_ALIVE_WORKER_COUNT);
+            mServerUri = "http://localhost:" + mNioServer.getPort();
+            mNioServer.start();
+            return;
+        }
         mServerThread = new ServerThread(this, mSsl);
         if (mSsl == SslMode.INSECURE) {
             mServerUri = "http:";
@@ -223,6 +272,14 @@ public class CtsTestServer {
      * Terminate the http server.
      */
     public void shutdown() {
+        if (mNioServer != null) {
+            try {
+                mNioServer.shutdown();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
         try {
             // Avoid a deadlock between two threads where one is trying to call
             // close() and the other one is calling accept() by sending a GET
@@ -501,7 +558,7 @@ public class CtsTestServer {
     }
 
     /**
-     * @param downloadId used to differentiate the files created for each test
+     * @param downloadId used to differentiate the downloads of each test
      * @param numBytes of the content that the CTS server should send back
      * @return url to get the file from
      */
@@ -521,10 +578,8 @@ public class CtsTestServer {
      *
      * @param url The relative url to check whether it has been requested.
      */
-    public synchronized boolean wasResourceRequested(String url) {
-        Iterator<String> it = mQueries.iterator();
-        while (it.hasNext()) {
-            String request = it.next();
+    public boolean wasResourceRequested(String url) {
+        for (String request : mRequestCounts.keySet()) {
             if (request.endsWith(url)) {
                 return true;
             }
@@ -533,14 +588,24 @@ public class CtsTestServer {
     }
 
     /**
-     * Returns all received request entities since the last reset.
+     * Returns a snapshot of the request entities received since the last reset. Only the
+     * most recent {@link #MAX_REQUEST_ENTITIES} entities are kept.
      */
-    public synchronized ArrayList<HttpEntity> getRequestEntities() {
-        return mRequestEntities;
+    public ArrayList<HttpEntity> getRequestEntities() {
+        return new ArrayList<HttpEntity>(mRequestEntities);
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
     }
 
-    public synchronized int getRequestCount() {
-        return mQueries.size();
+    /**
+     * Returns the number of requests made for the given relative uri, including its query,
+     * since the server was started or the last call to resetRequestState().
+     */
+    public int getRequestCount(String uri) {
+        AtomicInteger count = mRequestCounts.get(uri);
+        return count == null ? 0 : count.get();
     }
 
     /**
@@ -548,7 +613,7 @@ public class CtsTestServer {
      * value, the server will include a "Expires" header.
      * @param timeMillis The time, in milliseconds, for which any future response will be valid.
      */
-    public synchronized void setDocumentValidity(long timeMillis) {
+    public void setDocumentValidity(long timeMillis) {
         mDocValidity = timeMillis;
     }
 
@@ -557,27 +622,25 @@ public class CtsTestServer {
      * a "Last-Modified" header calculated from the value.
      * @param timeMillis The age, in milliseconds, of any document served in the future.
      */
-    public synchronized void setDocumentAge(long timeMillis) {
+    public void setDocumentAge(long timeMillis) {
         mDocAge = timeMillis;
     }
 
     /**
      * Resets the saved requests and request counts.
      */
-    public synchronized void resetRequestState() {
-
-        mQueries.clear();
-        mRequestEntities = new ArrayList<HttpEntity>();
+    public void resetRequestState() {
+        mRequestCounts.clear();
+        mRequestCount.set(0);
+        mRequestEntities.clear();
+        mRequestEntityCount.set(0);
     }
 
     /**
      * Returns the last HttpRequest at this path. Can return null if it is never requested.
      */
-    public synchronized HttpRequest getLastRequest(String requestPath) {
-        String relativeUrl = getRelativeUrl(requestPath);
-        if (!mLastRequestMap.containsKey(relativeUrl))
-            return null;
-        return mLastRequestMap.get(relativeUrl);
+    public HttpRequest getLastRequest(String requestPath) {
+        return mLastRequestMap.get(getRelativeUrl(requestPath));
     }
     /**
      * Hook for adding stuffs for HTTP POST. Default implementation does nothing.
@@ -609,13 +672,7 @@ public class CtsTestServer {
         String uriString = requestLine.getUri();
         Log.i(TAG, requestLine.getMethod() + ": " + uriString);
 
-        synchronized (this) {
-            mQueries.add(uriString);
-            mLastRequestMap.put(uriString, request);
-            if (request instanceof HttpEntityEnclosingRequest) {
-                mRequestEntities.add(((HttpEntityEnclosingRequest)request).getEntity());
-            }
-        }
+        recordRequest(uriString, request);
 
         if (requestLine.getMethod().equals("POST")) {
             HttpResponse responseOnPost = onPost(request);
@@ -669,8 +726,7 @@ public class CtsTestServer {
                     }
                 }
                 if (length > 0 && mimeType != null) {
-                    ByteArrayEntity entity = new ByteArrayEntity(new byte[length]);
-                    entity.setContentType(mimeType);
+                    FileEntity entity = new CachedFileEntity(getBinaryFile(length), mimeType);
                     response = createResponse(HttpStatus.SC_OK);
                     response.setEntity(entity);
                     response.addHeader("Content-Disposition", "attachment; filename=test.bin");
@@ -827,20 +883,41 @@ public class CtsTestServer {
         return response;
     }
 
-    private void setDateHeaders(HttpResponse response) {
-        long time = System.currentTimeMillis();
-        synchronized (this) {
-            if (mDocValidity != 0) {
-                String expires = DateUtils.formatDate(new Date(time + mDocValidity),
-                        DateUtils.PATTERN_RFC1123);
-                response.addHeader("Expires", expires);
+    private void recordRequest(String uriString, HttpRequest request) {
+        mLastRequestMap.put(uriString, request);
+        AtomicInteger count = mRequestCounts.get(uriString);
+        if (count == null) {
+            AtomicInteger newCount = new AtomicInteger();
+            count = mRequestCounts.putIfAbsent(uriString, newCount);
+            if (count == null) {
+                count = newCount;
             }
-            if (mDocAge != 0) {
-                String modified = DateUtils.formatDate(new Date(time - mDocAge),
-                        DateUtils.PATTERN_RFC1123);
-                response.addHeader("Last-Modified", modified);
+        }
+        count.incrementAndGet();
+        mRequestCount.incrementAndGet();
+        if (request instanceof HttpEntityEnclosingRequest) {
+            mRequestEntities.add(((HttpEntityEnclosingRequest)request).getEntity());
+            if (mRequestEntityCount.incrementAndGet() > MAX_REQUEST_ENTITIES
+                    && mRequestEntities.poll() != null) {
+                mRequestEntityCount.decrementAndGet();
             }
         }
+    }
+
+    private void setDateHeaders(HttpResponse response) {
+        long time = System.currentTimeMillis();
+        long validity = mDocValidity;
+        if (validity != 0) {
+            String expires = DateUtils.formatDate(new Date(time + validity),
+                    DateUtils.PATTERN_RFC1123);
+            response.addHeader("Expires", expires);
+        }
+        long age = mDocAge;
+        if (age != 0) {
+            String modified = DateUtils.formatDate(new Date(time - age),
+                    DateUtils.PATTERN_RFC1123);
+            response.addHeader("Last-Modified", modified);
+        }
         response.addHeader("Date", DateUtils.formatDate(new Date(), DateUtils.PATTERN_RFC1123));
     }
 
@@ -881,41 +958,145 @@ public class CtsTestServer {
     }
 
     private static HttpResponse createTestDownloadResponse(Uri uri) throws IOException {
-        String downloadId = uri.getQueryParameter(DOWNLOAD_ID_PARAMETER);
         int numBytes = uri.getQueryParameter(NUM_BYTES_PARAMETER) != null
                 ? Integer.parseInt(uri.getQueryParameter(NUM_BYTES_PARAMETER))
                 : 0;
         HttpResponse response = createResponse(HttpStatus.SC_OK);
         response.setHeader("Content-Length", Integer.toString(numBytes));
-        response.setEntity(createFileEntity(downloadId, numBytes));
+        response.setEntity(createFileEntity(numBytes));
         return response;
     }
 
-    private static FileEntity createFileEntity(String downloadId, int numBytes) throws IOException {
+    /**
+     * Create an entity for a test download of the given size. The file is written the first
+     * time a download of that size is requested, and reused by later requests.
+     */
+    private static FileEntity createFileEntity(int numBytes) throws IOException {
         String storageState = Environment.getExternalStorageState();
         if (Environment.MEDIA_MOUNTED.equalsIgnoreCase(storageState)) {
             File storageDir = Environment.getExternalStorageDirectory();
-            File file = new File(storageDir, downloadId + ".bin");
-            BufferedOutputStream stream = new BufferedOutputStream(new FileOutputStream(file));
-            byte data[] = new byte[1024];
-            for (int i = 0; i < data.length; i++) {
-                data[i] = 1;
-            }
-            try {
-                for (int i = 0; i < numBytes / data.length; i++) {
-                    stream.write(data);
+            File file = new File(storageDir, "cts-download-" + numBytes + ".bin");
+            if (!file.isFile() || file.length() != numBytes) {
+                File tmpFile = File.createTempFile("cts-download", ".tmp", storageDir);
+                BufferedOutputStream stream =
+                        new BufferedOutputStream(new FileOutputStream(tmpFile));
+                byte data[] = new byte[1024];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = 1;
+                }
+                try {
+                    for (int i = 0; i < numBytes / data.length; i++) {
+                        stream.write(data);
+                    }
+                    stream.write(data, 0, numBytes % data.length);
+                    stream.flush();
+                } finally {
+                    stream.close();
+                }
+                if (!tmpFile.renameTo(file)) {
+                    tmpFile.delete();
+                    throw new IOException("Could not create " + file);
                 }
-                stream.write(data, 0, numBytes % data.length);
-                stream.flush();
-            } finally {
-                stream.close();
             }
-            return new FileEntity(file, "application/octet-stream");
+            return new CachedFileEntity(file, "application/octet-stream");
         } else {
             throw new IllegalStateException("External storage must be mounted for this test!");
         }
     }
 
+    /**
+     * Return a file of the given length filled with zeroes. The file is created the first time
+     * a binary of that length is requested, and reused by later requests.
+     */
+    private File getBinaryFile(int length) throws IOException {
+        File cacheDir = mContext.getCacheDir();
+        File file = new File(cacheDir, "cts-binary-" + length + ".bin");
+        if (!file.isFile() || file.length() != length) {
+            File tmpFile = File.createTempFile("cts-binary", ".tmp", cacheDir);
+            RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+            try {
+                raf.setLength(length);
+            } finally {
+                raf.close();
+            }
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Could not create " + file);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * A {@link FileEntity} that exposes its file, so the keep-alive server can send it with
+     * {@link java.nio.channels.FileChannel#transferTo}.
+     */
+    private static class CachedFileEntity extends FileEntity {
+        CachedFileEntity(File file, String contentType) {
+            super(file, contentType);
+        }
+
+        File getFile() {
+            return file;
+        }
+    }
+
+    /**
+     * Serves the requests of the keep-alive server with {@link #getResponse}, converting between
+     * its requests and responses and the Apache HTTP ones.
+     */
+    private class KeepAliveHandler implements NioHttpServer.Handler {
+        @Override
+        public NioHttpServer.Response handle(NioHttpServer.Request request) throws Exception {
+            ProtocolVersion version = "HTTP/1.1".equals(request.getVersion())
+                    ? HttpVersion.HTTP_1_1 : HttpVersion.HTTP_1_0;
+            HttpRequest httpRequest;
+            if (request.getBody() != null) {
+                BasicHttpEntityEnclosingRequest enclosingRequest =
+                        new BasicHttpEntityEnclosingRequest(
+                                request.getMethod(), request.getUri(), version);
+                ByteArrayEntity entity = new ByteArrayEntity(request.getBody());
+                entity.setContentType(request.getHeader("Content-Type"));
+                enclosingRequest.setEntity(entity);
+                httpRequest = enclosingRequest;
+            } else {
+                httpRequest = new BasicHttpRequest(request.getMethod(), request.getUri(), version);
+            }
+            for (String[] header : request.getHeaders()) {
+                httpRequest.addHeader(header[0], header[1]);
+            }
+
+            HttpResponse response = getResponse(httpRequest);
+            StatusLine statusLine = response.getStatusLine();
+            NioHttpServer.Response nioResponse = new NioHttpServer.Response(
+                    statusLine.getStatusCode(), statusLine.getReasonPhrase());
+            for (Header header : response.getAllHeaders()) {
+                nioResponse.addHeader(header.getName(), header.getValue());
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity instanceof CachedFileEntity) {
+                nioResponse.setFile(((CachedFileEntity) entity).getFile());
+            } else if (entity != null) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                entity.writeTo(body);
+                nioResponse.setBody(body.toByteArray());
+            }
+            // Uri.parse, unlike URI.create, does not reject characters that clients leave
+            // unescaped.
+            String query = Uri.parse(request.getUri()).getQuery();
+            if (query != null && query.contains(NOLENGTH_POSTFIX)
+                    && !nioResponse.hasHeader("Content-Length")) {
+                nioResponse.setCloseDelimited(true);
+            }
+            return nioResponse;
+        }
+
+        @Override
+        public void onError(Exception e) {
+            Log.e(TAG, "Error handling request:", e);
+        }
+    }
+
     protected DefaultHttpServerConnection createHttpServerConnection() {
         return new DefaultHttpServerConnection();
     }
@@ -0,0 +1,568 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.webkit.cts;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal non-blocking HTTP/1.1 server that keeps connections alive between requests.
+ * <p/>
+ * A single selector thread accepts connections and waits for them to become readable. Reading
+ * and parsing the request, handling it and writing the response all happen on a worker thread,
+ * so a slow client or handler never holds up accepting or serving other connections. After a
+ * response the connection is handed back to the selector, unless the client or the response
+ * asked to close it. File bodies are sent with {@link FileChannel#transferTo}, without copying
+ * them through the Java heap.
+ * <p/>
+ * Request bodies must come with a Content-Length; chunked request bodies are refused. This class
+ * has no Android dependencies, so it can be driven by a local client on a plain JVM.
+ */
+class NioHttpServer {
+
+    /**
+     * Handles the requests received by the server. Called on worker threads.
+     */
+    interface Handler {
+        /**
+         * @return the response to send for the request
+         */
+        Response handle(Request request) throws Exception;
+
+        /**
+         * Called when a request could not be served.
+         */
+        void onError(Exception e);
+    }
+
+    /**
+     * A parsed HTTP request.
+     */
+    static class Request {
+        private final String mMethod;
+        private final String mUri;
+        private final String mVersion;
+        private final List<String[]> mHeaders;
+        private final byte[] mBody;
+
+        Request(String method, String uri, String version, List<String[]> headers,
+                byte[] body) {
+            mMethod = method;
+            mUri = uri;
+            mVersion = version;
+            mHeaders = headers;
+            mBody = body;
+        }
+
+        String getMethod() {
+            return mMethod;
+        }
+
+        String getUri() {
+            return mUri;
+        }
+
+        String getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * @return the headers in the order received, as name and value pairs
+         */
+        List<String[]> getHeaders() {
+            return mHeaders;
+        }
+
+        /**
+         * @return the value of the first header with the given name, or <code>null</code>
+         */
+        String getHeader(String name) {
+            return findHeader(mHeaders, name);
+        }
+
+        /**
+         * @return the request body, or <code>null</code> if the request had none
+         */
+        byte[] getBody() {
+            return mBody;
+        }
+
+        /**
+         * @return whether the client wants the connection to stay open after the response
+         */
+        boolean isKeepAlive() {
+            String connection = getHeader("Connection");
+            if ("HTTP/1.1".equals(mVersion)) {
+                return !"close".equalsIgnoreCase(connection);
+            }
+            return "keep-alive".equalsIgnoreCase(connection);
+        }
+    }
+
+    /**
+     * An HTTP response to send, with its body either in memory or in a file.
+     */
+    static class Response {
+        private final int mStatus;
+        private final String mReason;
+        private final List<String[]> mHeaders = new ArrayList<String[]>();
+        private byte[] mBody;
+        private File mFile;
+        private boolean mCloseDelimited;
+
+        Response(int status, String reason) {
+            mStatus = status;
+            mReason = reason;
+        }
+
+        void addHeader(String name, String value) {
+            mHeaders.add(new String[] {name, value});
+        }
+
+        boolean hasHeader(String name) {
+            return findHeader(mHeaders, name) != null;
+        }
+
+        void setBody(byte[] body) {
+            mBody = body;
+            mFile = null;
+        }
+
+        /**
+         * Sets a file whose whole content is the body of the response.
+         */
+        void setFile(File file) {
+            mFile = file;
+            mBody = null;
+        }
+
+        /**
+         * Sends the body without a Content-Length and closes the connection after it, for
+         * clients that need to handle responses of unknown length.
+         */
+        void setCloseDelimited(boolean closeDelimited) {
+            mCloseDelimited = closeDelimited;
+        }
+    }
+
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+    private static final long WRITE_TIMEOUT_MS = 60 * 1000;
+
+    private final Handler mHandler;
+    private final ServerSocketChannel mServerChannel;
+    private final Selector mSelector;
+    private final ExecutorService mExecutor;
+    private final Queue<Connection> mRearmQueue = new ConcurrentLinkedQueue<Connection>();
+    private final Thread mSelectorThread;
+    private volatile boolean mRunning = true;
+
+    /**
+     * Creates a server listening on an ephemeral port.
+     *
+     * @param handler handles the requests
+     * @param workerCount the number of threads serving connections
+     * @throws IOException
+     */
+    NioHttpServer(Handler handler, int workerCount) throws IOException {
+        mHandler = handler;
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.socket().setReuseAddress(true);
+        mServerChannel.socket().bind(new InetSocketAddress(0));
+        mServerChannel.configureBlocking(false);
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        mExecutor = Executors.newFixedThreadPool(workerCount);
+        mSelectorThread = new Thread("NioHttpServer") {
+            @Override
+            public void run() {
+                selectLoop();
+            }
+        };
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    int getPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    void start() {
+        mSelectorThread.start();
+    }
+
+    /**
+     * Stops accepting connections, closes all open connections and waits for the requests in
+     * progress to finish.
+     */
+    void shutdown() throws InterruptedException {
+        mRunning = false;
+        mSelector.wakeup();
+        mSelectorThread.join();
+        mExecutor.shutdown();
+        mExecutor.awaitTermination(1L, TimeUnit.MINUTES);
+    }
+
+    private void selectLoop() {
+        try {
+            while (mRunning) {
+                Connection rearmed;
+                while ((rearmed = mRearmQueue.poll()) != null) {
+                    if (rearmed.mKey.isValid()) {
+                        rearmed.mKey.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+                mSelector.select();
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        // the worker owns the connection until it hands it back
+                        key.interestOps(0);
+                        mExecutor.execute((Connection) key.attachment());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            mHandler.onError(e);
+        } finally {
+            for (SelectionKey key : mSelector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(mServerChannel);
+            try {
+                mSelector.close();
+            } catch (IOException ignored) {
+                // safe to ignore
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.mKey = channel.register(mSelector, SelectionKey.OP_READ, connection);
+    }
+
+    private static String findHeader(List<String[]> headers, String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // safe to ignore
+        }
+    }
+
+    /**
+     * A client connection, served by one worker at a time.
+     */
+    private class Connection implements Runnable {
+        private final SocketChannel mChannel;
+        private SelectionKey mKey;
+        private ByteBuffer mIn = ByteBuffer.allocate(BUFFER_SIZE);
+        private Selector mWriteSelector;
+
+        Connection(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                serve();
+            } catch (IOException e) {
+                close();
+            } catch (RuntimeException e) {
+                mHandler.onError(e);
+                close();
+            }
+        }
+
+        private void serve() throws IOException {
+            while (true) {
+                boolean eof = fill();
+                Request request;
+                try {
+                    request = parse();
+                } catch (HttpParseException e) {
+                    Response response = new Response(e.mStatus, e.getMessage());
+                    write(response, false, false);
+                    close();
+                    return;
+                }
+                if (request == null) {
+                    if (eof) {
+                        close();
+                    } else {
+                        rearm();
+                    }
+                    return;
+                }
+                Response response;
+                try {
+                    response = mHandler.handle(request);
+                } catch (Exception e) {
+                    mHandler.onError(e);
+                    response = new Response(500, "Internal Server Error");
+                }
+                boolean keepAlive = request.isKeepAlive() && !response.mCloseDelimited && !eof;
+                write(response, keepAlive, "HEAD".equals(request.getMethod()));
+                if (!keepAlive) {
+                    close();
+                    return;
+                }
+                if (mIn.position() == 0) {
+                    rearm();
+                    return;
+                }
+                // a pipelined request is already buffered, serve it right away
+            }
+        }
+
+        /**
+         * Reads whatever is available without blocking.
+         *
+         * @return whether the client closed its side of the connection
+         */
+        private boolean fill() throws IOException {
+            while (true) {
+                if (!mIn.hasRemaining()) {
+                    if (mIn.capacity() >= MAX_HEADER_BYTES + MAX_BODY_BYTES) {
+                        return false;
+                    }
+                    ByteBuffer larger = ByteBuffer.allocate(mIn.capacity() * 2);
+                    mIn.flip();
+                    larger.put(mIn);
+                    mIn = larger;
+                }
+                int read = mChannel.read(mIn);
+                if (read < 0) {
+                    return true;
+                }
+                if (read == 0) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Parses the first request in the buffer and removes it from the buffer.
+         *
+         * @return the request, or <code>null</code> if it has not been fully received yet
+         */
+        private Request parse() throws HttpParseException {
+            byte[] data = mIn.array();
+            int length = mIn.position();
+            int headerEnd = -1;
+            for (int i = 3; i < length; i++) {
+                if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n'
+                        && data[i - 3] == '\r') {
+                    headerEnd = i + 1;
+                    break;
+                }
+            }
+            if (headerEnd < 0) {
+                if (length >= MAX_HEADER_BYTES) {
+                    throw new HttpParseException(431, "Request Header Fields Too Large");
+                }
+                return null;
+            }
+            String[] lines = new String(data, 0, headerEnd - 4, ASCII).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                throw new HttpParseException(400, "Bad Request");
+            }
+            List<String[]> headers = new ArrayList<String[]>(lines.length - 1);
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    throw new HttpParseException(400, "Bad Request");
+                }
+                headers.add(new String[] {lines[i].substring(0, colon).trim(),
+                        lines[i].substring(colon + 1).trim()});
+            }
+            if (findHeader(headers, "Transfer-Encoding") != null) {
+                throw new HttpParseException(411, "Length Required");
+            }
+            int bodyLength = 0;
+            String contentLength = findHeader(headers, "Content-Length");
+            if (contentLength != null) {
+                try {
+                    bodyLength = Integer.parseInt(contentLength);
+                } catch (NumberFormatException e) {
+                    throw new HttpParseException(400, "Bad Request");
+                }
+                if (bodyLength < 0 || bodyLength > MAX_BODY_BYTES) {
+                    throw new HttpParseException(413, "Request Entity Too Large");
+                }
+            }
+            if (length < headerEnd + bodyLength) {
+                return null;
+            }
+            byte[] body = null;
+            if (contentLength != null) {
+                body = new byte[bodyLength];
+                System.arraycopy(data, headerEnd, body, 0, bodyLength);
+            }
+            mIn.flip();
+            mIn.position(headerEnd + bodyLength);
+            mIn.compact();
+            return new Request(requestLine[0], requestLine[1], requestLine[2], headers, body);
+        }
+
+        private void write(Response response, boolean keepAlive, boolean headOnly)
+                throws IOException {
+            long bodyLength = 0;
+            if (response.mFile != null) {
+                bodyLength = response.mFile.length();
+            } else if (response.mBody != null) {
+                bodyLength = response.mBody.length;
+            }
+            StringBuilder head = new StringBuilder(256);
+            head.append("HTTP/1.1 ").append(response.mStatus).append(' ');
+            head.append(response.mReason != null ? response.mReason : "").append("\r\n");
+            for (String[] header : response.mHeaders) {
+                head.append(header[0]).append(": ").append(header[1]).append("\r\n");
+            }
+            if (!response.mCloseDelimited && !response.hasHeader("Content-Length")) {
+                head.append("Content-Length: ").append(bodyLength).append("\r\n");
+            }
+            head.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+            head.append("\r\n");
+            ByteBuffer headBuffer = ByteBuffer.wrap(head.toString().getBytes(ASCII));
+
+            if (headOnly || bodyLength == 0) {
+                writeFully(new ByteBuffer[] {headBuffer});
+            } else if (response.mBody != null) {
+                writeFully(new ByteBuffer[] {headBuffer, ByteBuffer.wrap(response.mBody)});
+            } else {
+                writeFully(new ByteBuffer[] {headBuffer});
+                FileInputStream in = new FileInputStream(response.mFile);
+                try {
+                    FileChannel file = in.getChannel();
+                    long position = 0;
+                    while (position < bodyLength) {
+                        long sent = file.transferTo(position, bodyLength - position, mChannel);
+                        if (sent == 0) {
+                            awaitWritable();
+                        }
+                        position += sent;
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        }
+
+        private void writeFully(ByteBuffer[] buffers) throws IOException {
+            ByteBuffer last = buffers[buffers.length - 1];
+            while (last.hasRemaining()) {
+                if (mChannel.write(buffers) == 0) {
+                    awaitWritable();
+                }
+            }
+        }
+
+        /**
+         * Blocks until the socket buffer has room again. The selector thread only watches for
+         * reads, so the worker waits on a selector of its own.
+         */
+        private void awaitWritable() throws IOException {
+            if (mWriteSelector == null) {
+                mWriteSelector = Selector.open();
+                mChannel.register(mWriteSelector, SelectionKey.OP_WRITE);
+            }
+            if (mWriteSelector.select(WRITE_TIMEOUT_MS) == 0) {
+                throw new IOException("Timed out writing the response");
+            }
+            mWriteSelector.selectedKeys().clear();
+        }
+
+        private void rearm() {
+            mRearmQueue.add(this);
+            mSelector.wakeup();
+        }
+
+        private void close() {
+            if (mKey != null) {
+                mKey.cancel();
+            }
+            closeQuietly(mChannel);
+            if (mWriteSelector != null) {
+                try {
+                    mWriteSelector.close();
+                } catch (IOException ignored) {
+                    // safe to ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown when a request cannot be parsed, with the status to reply with.
+     */
+    private static class HttpParseException extends Exception {
+        private final int mStatus;
+
+        HttpParseException(int status, String reason) {
+            super(reason);
+            mStatus = status;
+        }
+    }
+}
@@ -41,10 +41,12 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -94,12 +96,22 @@ public class TestWebServer {
         }
     }
 
-    // The Maps below are modified on both the client thread and the internal server thread, so
-    // need to use a lock when accessing them.
-    private final Object mLock = new Object();
-    private final Map<String, Response> mResponseMap = new HashMap<String, Response>();
-    private final Map<String, Integer> mResponseCountMap = new HashMap<String, Integer>();
-    private final Map<String, HttpRequest> mLastRequestMap = new HashMap<String, HttpRequest>();
+    // The response for a path together with the requests served from it since it was set.
+    // setResponseInternal() replaces the whole state, so the count and last request always
+    // belong to the response that is currently installed.
+    private static class PathState {
+        final Response mResponse;
+        final AtomicInteger mRequestCount = new AtomicInteger();
+        final AtomicReference<HttpRequest> mLastRequest = new AtomicReference<HttpRequest>();
+
+        PathState(Response response) {
+            mResponse = response;
+        }
+    }
+
+    // Modified on both the client thread and the internal server thread.
+    private final ConcurrentMap<String, PathState> mPathStates =
+            new ConcurrentHashMap<String, PathState>();
 
     /**
      * Create and start a local HTTP server instance.
@@ -180,12 +192,8 @@ public class TestWebServer {
         final boolean isRedirect = (status == RESPONSE_STATUS_MOVED_TEMPORARILY);
         final boolean isNotFound = (status == RESPONSE_STATUS_NOT_FOUND);
 
-        synchronized (mLock) {
-            mResponseMap.put(requestPath, new Response(
-                    responseData, responseHeaders, isRedirect, isNotFound, responseAction));
-            mResponseCountMap.put(requestPath, Integer.valueOf(0));
-            mLastRequestMap.put(requestPath, null);
-        }
+        mPathStates.put(requestPath, new PathState(new Response(
+                responseData, responseHeaders, isRedirect, isNotFound, responseAction)));
         return getResponseUrl(requestPath);
     }
 
@@ -296,23 +304,20 @@ public class TestWebServer {
      * Get the number of requests was made at this path since it was last set.
      */
     public int getRequestCount(String requestPath) {
-        Integer count = null;
-        synchronized (mLock) {
-            count = mResponseCountMap.get(requestPath);
-        }
-        if (count == null) throw new IllegalArgumentException("Path not set: " + requestPath);
-        return count.intValue();
+        return getPathState(requestPath).mRequestCount.get();
     }
 
     /**
      * Returns the last HttpRequest at this path. Can return null if it is never requested.
      */
     public HttpRequest getLastRequest(String requestPath) {
-        synchronized (mLock) {
-            if (!mLastRequestMap.containsKey(requestPath))
-                throw new IllegalArgumentException("Path not set: " + requestPath);
-            return mLastRequestMap.get(requestPath);
-        }
+        return getPathState(requestPath).mLastRequest.get();
+    }
+
+    private PathState getPathState(String requestPath) {
+        PathState state = mPathStates.get(requestPath);
+        if (state == null) throw new IllegalArgumentException("Path not set: " + requestPath);
+        return state;
     }
 
     public String getBaseUrl() {
@@ -375,12 +380,9 @@ public class TestWebServer {
         }
     }
 
-    private void servedResponseFor(String path, HttpRequest request) {
-        synchronized (mLock) {
-            mResponseCountMap.put(path, Integer.valueOf(
-                    mResponseCountMap.get(path).intValue() + 1));
-            mLastRequestMap.put(path, request);
-        }
+    private void servedResponseFor(PathState state, HttpRequest request) {
+        state.mLastRequest.set(request);
+        state.mRequestCount.incrementAndGet();
     }
 
     /**
@@ -404,23 +406,21 @@ public class TestWebServer {
         URI uri = URI.create(uriString);
         String path = uri.getPath();
 
-        Response response = null;
-        synchronized (mLock) {
-            response = mResponseMap.get(path);
-        }
+        PathState state = mPathStates.get(path);
+        Response response = state == null ? null : state.mResponse;
         if (path.equals(SHUTDOWN_PREFIX)) {
             httpResponse = createResponse(HttpStatus.SC_OK);
         } else if (response == null) {
             httpResponse = createResponse(HttpStatus.SC_NOT_FOUND);
         } else if (response.mIsNotFound) {
             httpResponse = createResponse(HttpStatus.SC_NOT_FOUND);
-            servedResponseFor(path, request);
+            servedResponseFor(state, request);
         } else if (response.mIsRedirect) {
             httpResponse = createResponse(HttpStatus.SC_MOVED_TEMPORARILY);
             for (Pair<String, String> header : response.mResponseHeaders) {
                 httpResponse.addHeader(header.first, header.second);
             }
-            servedResponseFor(path, request);
+            servedResponseFor(state, request);
         } else {
             if (response.mResponseAction != null) response.mResponseAction.run();
 
@@ -431,7 +431,7 @@ public class TestWebServer {
             for (Pair<String, String> header : response.mResponseHeaders) {
                 httpResponse.addHeader(header.first, header.second);
             }
-            servedResponseFor(path, request);
+            servedResponseFor(state, request);
         }
         StatusLine sl = httpResponse.getStatusLine();
         Log.i(TAG, sl.getStatusCode() + "(" + sl.getReasonPhrase() + ")");
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.webkit.cts;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit tests for {@link NioHttpServer}, driven by a local client on a plain JVM.
+ */
+public class NioHttpServerTest extends TestCase {
+
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    private NioHttpServer mServer;
+    private File mFile;
+    private final List<Exception> mErrors = new ArrayList<Exception>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("NioHttpServerTest", ".bin");
+        OutputStream out = new FileOutputStream(mFile);
+        try {
+            byte[] block = new byte[1024];
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (byte) i;
+            }
+            for (int i = 0; i < FILE_SIZE / block.length; i++) {
+                out.write(block);
+            }
+        } finally {
+            out.close();
+        }
+        mServer = new NioHttpServer(new TestHandler(), 4);
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mFile.delete();
+        synchronized (mErrors) {
+            assertTrue("Server errors: " + mErrors, mErrors.isEmpty());
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Test that an HTTP/1.1 connection is kept open and serves several requests.
+     */
+    public void testKeepAlive() throws Exception {
+        Socket socket = connect();
+        try {
+            for (int i = 0; i < 3; i++) {
+                send(socket, "GET /echo/" + i + " HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                Response response = readResponse(socket.getInputStream(), false);
+                assertEquals(200, response.mStatus);
+                assertEquals("keep-alive", response.mHeaders.get("connection"));
+                assertEquals("GET /echo/" + i, new String(response.mBody, "ISO-8859-1"));
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Test that pipelined requests are answered in order.
+     */
+    public void testPipelining() throws Exception {
+        Socket socket = connect();
+        try {
+            send(socket, "GET /echo/a HTTP/1.1\r\n\r\nGET /echo/b HTTP/1.1\r\n\r\n"
+                    + "POST /echo/c HTTP/1.1\r\nContent-Length: 4\r\n\r\nbody");
+            InputStream in = socket.getInputStream();
+            assertEquals("GET /echo/a", new String(readResponse(in, false).mBody, "ISO-8859-1"));
+            assertEquals("GET /echo/b", new String(readResponse(in, false).mBody, "ISO-8859-1"));
+            assertEquals("POST /echo/c body",
+                    new String(readResponse(in, false).mBody, "ISO-8859-1"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Test that an HTTP/1.0 request without keep-alive gets its connection closed.
+     */
+    public void testHttp10Close() throws Exception {
+        Socket socket = connect();
+        try {
+            send(socket, "GET /echo/x HTTP/1.0\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            Response response = readResponse(in, false);
+            assertEquals("close", response.mHeaders.get("connection"));
+            assertEquals(-1, in.read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Test that a HEAD request gets the headers of the response but no body.
+     */
+    public void testHead() throws Exception {
+        Socket socket = connect();
+        try {
+            send(socket, "HEAD /file HTTP/1.1\r\n\r\nGET /echo/next HTTP/1.1\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            Response head = readResponse(in, true);
+            assertEquals(Integer.toString(FILE_SIZE), head.mHeaders.get("content-length"));
+            assertEquals(0, head.mBody.length);
+            assertEquals("GET /echo/next",
+                    new String(readResponse(in, false).mBody, "ISO-8859-1"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Test that a file body is sent whole, and the connection stays usable afterwards.
+     */
+    public void testFileBody() throws Exception {
+        Socket socket = connect();
+        try {
+            for (int i = 0; i < 2; i++) {
+                send(socket, "GET /file HTTP/1.1\r\n\r\n");
+                byte[] body = readResponse(socket.getInputStream(), false).mBody;
+                assertEquals(FILE_SIZE, body.length);
+                for (int j = 0; j < body.length; j += 997) {
+                    assertEquals((byte) (j % 1024), body[j]);
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Test that a response without a length is ended by closing the connection.
+     */
+    public void testCloseDelimited() throws Exception {
+        Socket socket = connect();
+        try {
+            send(socket, "GET /nolength HTTP/1.1\r\n\r\n");
+            Response response = readResponse(socket.getInputStream(), false);
+            assertNull(response.mHeaders.get("content-length"));
+            assertEquals("close", response.mHeaders.get("connection"));
+            assertEquals("no length", new String(response.mBody, "ISO-8859-1"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Test that chunked request bodies and malformed requests are refused.
+     */
+    public void testBadRequests() throws Exception {
+        Socket socket = connect();
+        try {
+            send(socket, "POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n");
+            assertEquals(411, readResponse(socket.getInputStream(), false).mStatus);
+        } finally {
+            socket.close();
+        }
+        socket = connect();
+        try {
+            send(socket, "GARBAGE\r\n\r\n");
+            assertEquals(400, readResponse(socket.getInputStream(), false).mStatus);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Test that a request arriving in several pieces is served once complete.
+     */
+    public void testPartialRequest() throws Exception {
+        Socket socket = connect();
+        try {
+            send(socket, "POST /echo/p HTTP/1.1\r\nContent-");
+            Thread.sleep(50);
+            send(socket, "Length: 6\r\n\r\nab");
+            Thread.sleep(50);
+            send(socket, "cdef");
+            assertEquals("POST /echo/p abcdef",
+                    new String(readResponse(socket.getInputStream(), false).mBody, "ISO-8859-1"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Test that many clients are served concurrently over kept-alive connections.
+     */
+    public void testConcurrentClients() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 16; i++) {
+                final int client = i;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        Socket socket = connect();
+                        try {
+                            int served = 0;
+                            for (int j = 0; j < 100; j++) {
+                                String path = "/echo/" + client + "-" + j;
+                                send(socket, "GET " + path + " HTTP/1.1\r\n\r\n");
+                                Response response = readResponse(socket.getInputStream(), false);
+                                if (("GET " + path).equals(
+                                        new String(response.mBody, "ISO-8859-1"))) {
+                                    served++;
+                                }
+                            }
+                            return served;
+                        } finally {
+                            socket.close();
+                        }
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(100, future.get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", mServer.getPort());
+        socket.setSoTimeout(10 * 1000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String data) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(data.getBytes("ISO-8859-1"));
+        out.flush();
+    }
+
+    /**
+     * Reads one response. The body is read up to the Content-Length, or up to the end of the
+     * stream if there is none.
+     */
+    private static Response readResponse(InputStream in, boolean headOnly) throws IOException {
+        Response response = new Response();
+        String statusLine = readLine(in);
+        assertNotNull("Connection closed before the response", statusLine);
+        response.mStatus = Integer.parseInt(statusLine.split(" ")[1]);
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            response.mHeaders.put(line.substring(0, colon).trim().toLowerCase(),
+                    line.substring(colon + 1).trim());
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String contentLength = response.mHeaders.get("content-length");
+        if (headOnly) {
+            // no body
+        } else if (contentLength != null) {
+            int remaining = Integer.parseInt(contentLength);
+            byte[] buffer = new byte[8192];
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Connection closed in the body");
+                }
+                body.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } else {
+            int read;
+            while ((read = in.read()) != -1) {
+                body.write(read);
+            }
+        }
+        response.mBody = body.toByteArray();
+        return response;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static class Response {
+        int mStatus;
+        Map<String, String> mHeaders = new HashMap<String, String>();
+        byte[] mBody;
+    }
+
+    /**
+     * Echoes the method, path and body of "/echo" requests, and serves a file and a response
+     * without a length.
+     */
+    private class TestHandler implements NioHttpServer.Handler {
+        @Override
+        public NioHttpServer.Response handle(NioHttpServer.Request request) throws Exception {
+            NioHttpServer.Response response = new NioHttpServer.Response(200, "OK");
+            if (request.getUri().equals("/file")) {
+                response.setFile(mFile);
+            } else if (request.getUri().equals("/nolength")) {
+                response.setBody("no length".getBytes("ISO-8859-1"));
+                response.setCloseDelimited(true);
+            } else if (request.getUri().startsWith("/echo")) {
+                String echo = request.getMethod() + " " + request.getUri();
+                if (request.getBody() != null) {
+                    echo += " " + new String(request.getBody(), "ISO-8859-1");
+                }
+                response.setBody(echo.getBytes("ISO-8859-1"));
+            } else {
+                response = new NioHttpServer.Response(404, "Not Found");
+            }
+            return response;
+        }
+
+        @Override
+        public void onError(Exception e) {
+            synchronized (mErrors) {
+                mErrors.add(e);
+            }
+        }
+    }
+}
@@ -95,13 +95,17 @@ public final class Expectation {
      * Returns true if {@code outcome} matches this expectation.
      */
     public boolean matches(Outcome outcome) {
-        return patternMatches(outcome) && (bugIsOpen || result == outcome.getResult());
+        return patternMatches(outcome) && resultMatches(outcome);
     }
 
-    private boolean patternMatches(Outcome outcome) {
+    boolean patternMatches(Outcome outcome) {
         return pattern.matcher(outcome.getOutput()).matches();
     }
 
+    boolean resultMatches(Outcome outcome) {
+        return bugIsOpen || result == outcome.getResult();
+    }
+
     @Override public String toString() {
         return "Expectation[description=" + description + " pattern=" + pattern.pattern() + "]";
     }
@@ -62,9 +62,30 @@ public final class ExpectationStore {
 
     private static final int PATTERN_FLAGS = Pattern.MULTILINE | Pattern.DOTALL;
 
+    /** Keys of an expectation, indexed by the KEY_ constants below. */
+    private static final String[] KEYS = {
+            "result", "name", "names", "failure", "pattern", "substring", "tags", "description",
+            "bug", "modes" };
+    private static final int KEY_RESULT = 0;
+    private static final int KEY_NAME = 1;
+    private static final int KEY_NAMES = 2;
+    private static final int KEY_FAILURE = 3;
+    private static final int KEY_PATTERN = 4;
+    private static final int KEY_SUBSTRING = 5;
+    private static final int KEY_TAGS = 6;
+    private static final int KEY_DESCRIPTION = 7;
+    private static final int KEY_BUG = 8;
+    private static final int KEY_MODES = 9;
+
     private final Map<String, Expectation> outcomes = new LinkedHashMap<String, Expectation>();
     private final Map<String, Expectation> failures = new LinkedHashMap<String, Expectation>();
 
+    /** Index of {@code outcomes} for name and package lookups. */
+    private final NameTrie outcomesByName = new NameTrie();
+
+    /** Index of {@code failures} for output lookups. */
+    private final OutputMatcher failuresByOutput = new OutputMatcher();
+
     private ExpectationStore() {}
 
     /**
@@ -91,10 +112,9 @@ public final class ExpectationStore {
             return exactNameMatch;
         }
 
-        for (Map.Entry<String, Expectation> entry : failures.entrySet()) {
-            if (entry.getValue().matches(outcome)) {
-                return entry.getValue();
-            }
+        Expectation failureMatch = failuresByOutput.getFirstMatch(outcome);
+        if (failureMatch != null) {
+            return failureMatch;
         }
 
         Expectation byName = getByNameOrPackage(outcome.getName());
@@ -102,19 +122,7 @@ public final class ExpectationStore {
     }
 
     private Expectation getByNameOrPackage(String name) {
-        while (true) {
-            Expectation expectation = outcomes.get(name);
-            if (expectation != null) {
-                return expectation;
-            }
-
-            int dotOrHash = Math.max(name.lastIndexOf('.'), name.lastIndexOf('#'));
-            if (dotOrHash == -1) {
-                return null;
-            }
-
-            name = name.substring(0, dotOrHash);
-        }
+        return outcomesByName.getLongestPrefix(name);
     }
 
     public static ExpectationStore parse(Set<File> expectationFiles, ModeId mode) throws IOException {
@@ -154,6 +162,7 @@ public final class ExpectationStore {
         boolean isFailure = false;
         Result result = Result.EXEC_FAILED;
         Pattern pattern = MATCH_ALL_PATTERN;
+        String requiredSubstring = "";
         Set<String> names = new LinkedHashSet<String>();
         Set<String> tags = new LinkedHashSet<String>();
         Set<ModeId> modes = null;
@@ -162,38 +171,52 @@ public final class ExpectationStore {
 
         reader.beginObject();
         while (reader.hasNext()) {
-            String name = reader.nextName();
-            if (name.equals("result")) {
-                result = Result.valueOf(reader.nextString());
-            } else if (name.equals("name")) {
-                names.add(reader.nextString());
-            } else if (name.equals("names")) {
-                readStrings(reader, names);
-            } else if (name.equals("failure")) {
-                // isFailure is somewhat arbitrarily keyed on the existence of a "failure"
-                // element instead of looking at the "result" field. There are only about 5
-                // expectations in our entire expectation store that have this tag.
-                //
-                // TODO: Get rid of it and the "failures" map and just use the outcomes
-                // map for everything. Both uses seem useless.
-                isFailure = true;
-                names.add(reader.nextString());
-            } else if (name.equals("pattern")) {
-                pattern = Pattern.compile(reader.nextString(), PATTERN_FLAGS);
-            } else if (name.equals("substring")) {
-                pattern = Pattern.compile(".*" + Pattern.quote(reader.nextString()) + ".*", PATTERN_FLAGS);
-            } else if (name.equals("tags")) {
-                readStrings(reader, tags);
-            } else if (name.equals("description")) {
-                Iterable<String> split = Splitter.on("\n").omitEmptyStrings().trimResults().split(reader.nextString());
-                description = Joiner.on("\n").join(split);
-            } else if (name.equals("bug")) {
-                buganizerBug = reader.nextLong();
-            } else if (name.equals("modes")) {
-                modes = readModes(reader);
-            } else {
-                Log.warn("Unhandled name in expectations file: " + name);
-                reader.skipValue();
+            switch (reader.selectName(KEYS)) {
+                case KEY_RESULT:
+                    result = Result.valueOf(reader.nextString());
+                    break;
+                case KEY_NAME:
+                    names.add(reader.nextString());
+                    break;
+                case KEY_NAMES:
+                    readStrings(reader, names);
+                    break;
+                case KEY_FAILURE:
+                    // isFailure is somewhat arbitrarily keyed on the existence of a "failure"
+                    // element instead of looking at the "result" field. There are only about 5
+                    // expectations in our entire expectation store that have this tag.
+                    //
+                    // TODO: Get rid of it and the "failures" map and just use the outcomes
+                    // map for everything. Both uses seem useless.
+                    isFailure = true;
+                    names.add(reader.nextString());
+                    break;
+                case KEY_PATTERN:
+                    String regex = reader.nextString();
+                    pattern = Pattern.compile(regex, PATTERN_FLAGS);
+                    requiredSubstring = OutputMatcher.requiredSubstring(regex);
+                    break;
+                case KEY_SUBSTRING:
+                    requiredSubstring = reader.nextString();
+                    pattern = Pattern.compile(".*" + Pattern.quote(requiredSubstring) + ".*", PATTERN_FLAGS);
+                    break;
+                case KEY_TAGS:
+                    readStrings(reader, tags);
+                    break;
+                case KEY_DESCRIPTION:
+                    Iterable<String> split = Splitter.on("\n").omitEmptyStrings().trimResults().split(reader.nextString());
+                    description = Joiner.on("\n").join(split);
+                    break;
+                case KEY_BUG:
+                    buganizerBug = reader.nextLong();
+                    break;
+                case KEY_MODES:
+                    modes = readModes(reader);
+                    break;
+                default:
+                    Log.warn("Unhandled name in expectations file: " + reader.nextName());
+                    reader.skipValue();
+                    break;
             }
         }
         reader.endObject();
@@ -211,6 +234,11 @@ public final class ExpectationStore {
             if (map.put(name, expectation) != null) {
                 throw new IllegalArgumentException("Duplicate expectations for " + name);
             }
+            if (isFailure) {
+                failuresByOutput.add(expectation, requiredSubstring);
+            } else {
+                outcomesByName.put(name, expectation);
+            }
         }
     }
 
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vogar;
+
+import java.util.Arrays;
+
+/**
+ * Character trie over outcome names that finds the expectation for the
+ * longest name or package prefix of a test. A prefix only counts if it ends
+ * where the name does or right before a {@code .} or {@code #}, so
+ * {@code java.util} matches {@code java.util.ArrayListTest#testAdd} but not
+ * {@code java.utilities.Foo}. Lookups walk the name in place and don't
+ * allocate.
+ */
+final class NameTrie {
+
+    private final Node root = new Node();
+
+    /**
+     * Associates {@code expectation} with {@code name}, replacing any previous
+     * expectation for exactly that name.
+     */
+    public void put(String name, Expectation expectation) {
+        Node node = root;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.getOrAddChild(name.charAt(i));
+        }
+        node.expectation = expectation;
+    }
+
+    /**
+     * Returns the expectation for {@code name} or for its longest enclosing
+     * class or package, or null if there is none.
+     */
+    public Expectation getLongestPrefix(String name) {
+        Expectation result = null;
+        Node node = root;
+        int length = name.length();
+        for (int i = 0; node != null; i++) {
+            if (node.expectation != null && (i == length || isSeparator(name.charAt(i)))) {
+                result = node.expectation;
+            }
+            if (i == length) {
+                break;
+            }
+            node = node.getChild(name.charAt(i));
+        }
+        return result;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == '#';
+    }
+
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        /** Sorted labels of the outgoing edges. */
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private int size;
+        private Expectation expectation;
+
+        Node getChild(char c) {
+            int index = Arrays.binarySearch(keys, 0, size, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrAddChild(char c) {
+            int index = Arrays.binarySearch(keys, 0, size, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertAt = -index - 1;
+            if (size == keys.length) {
+                int capacity = Math.max(2, size * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, insertAt, keys, insertAt + 1, size - insertAt);
+            System.arraycopy(children, insertAt, children, insertAt + 1, size - insertAt);
+            Node child = new Node();
+            keys[insertAt] = c;
+            children[insertAt] = child;
+            size++;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vogar;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Finds the first of a list of expectations that matches an outcome's output.
+ *
+ * <p>Most output patterns only require the output to contain some literal
+ * text, like {@code .*OutOfMemoryError.*}. Those are all found in a single
+ * pass over the output with an Aho-Corasick automaton. Only the remaining
+ * patterns are evaluated as regular expressions, and only once their
+ * expected result has been checked.
+ */
+final class OutputMatcher {
+
+    private final List<Expectation> expectations = new ArrayList<Expectation>();
+
+    /** The text each expectation's output must contain, or null to use its regex. */
+    private final List<String> requiredSubstrings = new ArrayList<String>();
+
+    private Automaton automaton;
+
+    /**
+     * Adds an expectation that is tried after all previously added ones.
+     *
+     * @param requiredSubstring if non-null, the expectation's pattern matches
+     *     exactly those outputs that contain this text
+     */
+    public synchronized void add(Expectation expectation, String requiredSubstring) {
+        expectations.add(expectation);
+        requiredSubstrings.add(requiredSubstring);
+        automaton = null;
+    }
+
+    /**
+     * Returns the first expectation that matches {@code outcome}, or null if
+     * there is none.
+     */
+    public Expectation getFirstMatch(Outcome outcome) {
+        Automaton automaton = getAutomaton();
+        if (automaton.expectations.length == 0) {
+            return null;
+        }
+        BitSet found = automaton.search(outcome.getOutput());
+        for (int i = 0; i < automaton.expectations.length; i++) {
+            Expectation expectation = automaton.expectations[i];
+            if (!expectation.resultMatches(outcome)) {
+                continue;
+            }
+            boolean patternMatches = automaton.requiredSubstrings[i] != null
+                    ? found.get(i)
+                    : expectation.patternMatches(outcome);
+            if (patternMatches) {
+                return expectation;
+            }
+        }
+        return null;
+    }
+
+    private synchronized Automaton getAutomaton() {
+        if (automaton == null) {
+            automaton = new Automaton(
+                    expectations.toArray(new Expectation[expectations.size()]),
+                    requiredSubstrings.toArray(new String[requiredSubstrings.size()]));
+        }
+        return automaton;
+    }
+
+    /**
+     * Returns the text that {@code regex} requires the output to contain if
+     * it has the form {@code .*literal.*} (compiled with DOTALL), or null if
+     * the regex is anything more complicated.
+     */
+    static String requiredSubstring(String regex) {
+        if (regex.equals(".*")) {
+            return "";
+        }
+        if (regex.length() < 4 || !regex.startsWith(".*") || !regex.endsWith(".*")) {
+            return null;
+        }
+        String literal = regex.substring(2, regex.length() - 2);
+        for (int i = 0; i < literal.length(); i++) {
+            if ("\\[](){}.*+?^$|".indexOf(literal.charAt(i)) != -1) {
+                return null;
+            }
+        }
+        return literal;
+    }
+
+    /** An immutable snapshot of the expectations with the automaton of their substrings. */
+    private static final class Automaton {
+        private final Expectation[] expectations;
+        private final String[] requiredSubstrings;
+        private final Node root = new Node();
+
+        /** Expectations whose required substring is empty and thus always found. */
+        private final BitSet alwaysFound = new BitSet();
+
+        Automaton(Expectation[] expectations, String[] requiredSubstrings) {
+            this.expectations = expectations;
+            this.requiredSubstrings = requiredSubstrings;
+            for (int i = 0; i < requiredSubstrings.length; i++) {
+                String substring = requiredSubstrings[i];
+                if (substring == null) {
+                    continue;
+                }
+                if (substring.isEmpty()) {
+                    alwaysFound.set(i);
+                    continue;
+                }
+                Node node = root;
+                for (int c = 0; c < substring.length(); c++) {
+                    node = node.getOrAddChild(substring.charAt(c));
+                }
+                node.addMatch(i);
+            }
+            linkFailures();
+        }
+
+        /** Computes the failure and output links breadth first. */
+        private void linkFailures() {
+            Queue<Node> queue = new ArrayDeque<Node>();
+            for (int i = 0; i < root.size; i++) {
+                root.children[i].failure = root;
+                queue.add(root.children[i]);
+            }
+            while (!queue.isEmpty()) {
+                Node node = queue.remove();
+                for (int i = 0; i < node.size; i++) {
+                    char c = node.keys[i];
+                    Node child = node.children[i];
+                    Node failure = node.failure;
+                    while (failure != root && failure.getChild(c) == null) {
+                        failure = failure.failure;
+                    }
+                    Node next = failure.getChild(c);
+                    child.failure = next != null ? next : root;
+                    child.output = child.failure.matches.length > 0
+                            ? child.failure
+                            : child.failure.output;
+                    queue.add(child);
+                }
+            }
+        }
+
+        /** Returns the indices of all expectations whose substring occurs in {@code text}. */
+        BitSet search(String text) {
+            BitSet found = (BitSet) alwaysFound.clone();
+            Node state = root;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                Node next = state.getChild(c);
+                while (next == null && state != root) {
+                    state = state.failure;
+                    next = state.getChild(c);
+                }
+                state = next != null ? next : root;
+                for (Node match = state.matches.length > 0 ? state : state.output;
+                        match != null; match = match.output) {
+                    for (int index : match.matches) {
+                        found.set(index);
+                    }
+                }
+            }
+            return found;
+        }
+    }
+
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final int[] NO_MATCHES = new int[0];
+
+        /** Sorted labels of the outgoing edges. */
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private int size;
+
+        /** Expectations whose substring ends at this node. */
+        private int[] matches = NO_MATCHES;
+
+        /** Longest proper suffix of this node that is also in the trie. */
+        private Node failure;
+
+        /** Longest proper suffix of this node that ends a substring. */
+        private Node output;
+
+        Node getChild(char c) {
+            int index = Arrays.binarySearch(keys, 0, size, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrAddChild(char c) {
+            int index = Arrays.binarySearch(keys, 0, size, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertAt = -index - 1;
+            if (size == keys.length) {
+                int capacity = Math.max(2, size * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, insertAt, keys, insertAt + 1, size - insertAt);
+            System.arraycopy(children, insertAt, children, insertAt + 1, size - insertAt);
+            Node child = new Node();
+            keys[insertAt] = c;
+            children[insertAt] = child;
+            size++;
+            return child;
+        }
+
+        void addMatch(int index) {
+            matches = Arrays.copyOf(matches, matches.length + 1);
+            matches[matches.length - 1] = index;
+        }
+    }
+}
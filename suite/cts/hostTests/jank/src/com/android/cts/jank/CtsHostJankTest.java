@@ -21,6 +21,7 @@ import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.testtype.DeviceTestCase;
 import com.android.tradefed.testtype.IAbi;
@@ -30,6 +31,8 @@ import com.android.tradefed.testtype.IBuildReceiver;
 import java.io.File;
 import java.util.HashMap;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class CtsHostJankTest extends DeviceTestCase implements IAbiReceiver, IBuildReceiver {
 
@@ -37,6 +40,8 @@ public class CtsHostJankTest extends DeviceTestCase implements IAbiReceiver, IBu
     private static final String DEVICE_LOCATION = "/data/local/tmp/";
     // FIXME uiautomator is deprecated and does not support --abi flag
     private static final String RUN_UI_AUTOMATOR_CMD = "uiautomator runtest %s -c %s";
+    // SurfaceFlinger keeps 128 frames per window, a bit over two seconds at 60Hz.
+    private static final long LATENCY_SAMPLE_INTERVAL_MS = 1000;
     private final String mHostTestClass;
     private final String mDeviceTestClass;
     private final String mJarName;
@@ -79,35 +84,57 @@ public class CtsHostJankTest extends DeviceTestCase implements IAbiReceiver, IBu
         super.tearDown();
     }
 
+    /**
+     * Returns the name of the window whose frame timings are sampled while the test runs, or
+     * null to only report the results computed on the device.
+     */
+    protected String getLatencyWindowName() {
+        return null;
+    }
+
     public void runUiAutomatorTest(String testName) throws Exception {
         // Delete any existing result files
         mDevice.executeShellCommand("rm -r " + DEVICE_LOCATION + "*.txt");
 
+        FrameTimeAnalyzer analyzer = new FrameTimeAnalyzer();
+        LatencySampler sampler = null;
+        String windowName = getLatencyWindowName();
+        if (windowName != null) {
+            sampler = new LatencySampler(mDevice, windowName, analyzer);
+            sampler.start();
+        }
+
         // Run ui automator test.
-        mDevice.executeShellCommand(
-                String.format(RUN_UI_AUTOMATOR_CMD, mJarName, mDeviceTestClass + "#" + testName),
-                new IShellOutputReceiver() {
-                    private StringBuilder sb = new StringBuilder();
-
-                    @Override
-                    public void addOutput(byte[] data, int offset, int length) {
-                        byte[] raw = new byte[length];
-                        for (int i = 0; i < length; i++) {
-                            raw[i] = data[i + offset];
+        try {
+            mDevice.executeShellCommand(String.format(
+                    RUN_UI_AUTOMATOR_CMD, mJarName, mDeviceTestClass + "#" + testName),
+                    new IShellOutputReceiver() {
+                        private StringBuilder sb = new StringBuilder();
+
+                        @Override
+                        public void addOutput(byte[] data, int offset, int length) {
+                            byte[] raw = new byte[length];
+                            for (int i = 0; i < length; i++) {
+                                raw[i] = data[i + offset];
+                            }
+                            sb.append(new String(raw));
                         }
-                        sb.append(new String(raw));
-                    }
 
-                    @Override
-                    public void flush() {
-                        Log.logAndDisplay(LogLevel.INFO, TAG, sb.toString());
-                    }
+                        @Override
+                        public void flush() {
+                            Log.logAndDisplay(LogLevel.INFO, TAG, sb.toString());
+                        }
 
-                    @Override
-                    public boolean isCancelled() {
-                        return false;
-                    }
-                });
+                        @Override
+                        public boolean isCancelled() {
+                            return false;
+                        }
+                    });
+        } finally {
+            if (sampler != null) {
+                sampler.finish();
+            }
+        }
 
         // Pull result file across
         File result = mDevice.pullFile(DEVICE_LOCATION + "UiJankinessTestsOutput.txt");
@@ -131,17 +158,61 @@ public class CtsHostJankTest extends DeviceTestCase implements IAbiReceiver, IBu
         double avgMaxAccFrames = results.get("average of max accumulated frames");
 
         // Create and deliver the report.
+        String testId = mHostTestClass + "#" + testName;
         HostReportLog report = new HostReportLog(mDevice.getSerialNumber(), mAbi.getName(),
-                mHostTestClass + "#" + testName);
+                testId);
         report.printValue(
                 "Average Frame Rate", avgFrameRate, ResultType.HIGHER_BETTER, ResultUnit.COUNT);
         report.printValue("Average of Maximum Accumulated Frames", avgMaxAccFrames,
                 ResultType.LOWER_BETTER, ResultUnit.COUNT);
         report.printValue(
                 "Maximum Number of Janks", maxNumJanks, ResultType.LOWER_BETTER, ResultUnit.COUNT);
+        if (analyzer.getFrameCount() > 0) {
+            analyzer.report(report, testId);
+        } else if (windowName != null) {
+            Log.logAndDisplay(LogLevel.WARN, TAG, "No frame timings found for " + windowName);
+        }
         report.printSummary(
                 "Average Number of Janks", avgNumJanks, ResultType.LOWER_BETTER, ResultUnit.SCORE);
         report.deliverReportToHost();
     }
 
+    /**
+     * Periodically dumps the SurfaceFlinger frame timestamps of a window into an analyzer.
+     */
+    private static class LatencySampler extends Thread {
+        private final ITestDevice mDevice;
+        private final String mCommand;
+        private final SurfaceFlingerLatencyParser mParser;
+        private final CountDownLatch mStop = new CountDownLatch(1);
+
+        LatencySampler(ITestDevice device, String windowName, FrameTimeAnalyzer analyzer) {
+            super(TAG + "-latency");
+            mDevice = device;
+            mCommand = String.format(SurfaceFlingerLatencyParser.COMMAND, windowName);
+            mParser = new SurfaceFlingerLatencyParser(analyzer);
+        }
+
+        @Override
+        public void run() {
+            try {
+                do {
+                    mDevice.executeShellCommand(mCommand, mParser);
+                } while (!mStop.await(LATENCY_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS));
+            } catch (DeviceNotAvailableException e) {
+                Log.logAndDisplay(LogLevel.WARN, TAG, "Stopped sampling frame timings: " + e);
+            } catch (InterruptedException e) {
+                // stop sampling
+            }
+        }
+
+        /**
+         * Stops sampling. The analyzer may be read once this returns.
+         */
+        void finish() throws InterruptedException {
+            mStop.countDown();
+            join();
+        }
+    }
+
 }
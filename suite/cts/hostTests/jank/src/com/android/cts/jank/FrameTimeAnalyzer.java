@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.cts.jank;
+
+import com.android.cts.tradefed.util.HostReportLog;
+import com.android.cts.util.ResultType;
+import com.android.cts.util.ResultUnit;
+
+/**
+ * Accumulates per-frame timings and reports their distribution.
+ * <p>
+ * Frames are added one at a time and folded into fixed-size histograms, so the memory used does
+ * not depend on the number of frames. Percentiles are accurate to {@link #BUCKET_NS}.
+ */
+public class FrameTimeAnalyzer {
+
+    /** Refresh period of a 60Hz display, used until a parser learns the actual period. */
+    public static final long DEFAULT_REFRESH_PERIOD_NS = 16666667;
+    /** Resolution of the frame time histogram. */
+    public static final long BUCKET_NS = 500000;
+    // Frames slower than NUM_BUCKETS * BUCKET_NS (200ms) share the last bucket.
+    private static final int NUM_BUCKETS = 400;
+    // Frames that missed this many vsyncs or more share the last missed vsync bucket.
+    private static final int MAX_MISSED_VSYNCS = 8;
+    // Timestamps jitter a little around vsync, so a frame has to overrun a period by more than
+    // this to count as having missed the vsync.
+    private static final long VSYNC_TOLERANCE_NS = 1000000;
+    private static final double NS_PER_MS = 1000000.0;
+    private static final int[] PERCENTILES = {50, 90, 95, 99};
+
+    private final int[] mFrameTimeBuckets = new int[NUM_BUCKETS + 1];
+    private final int[] mMissedVsyncBuckets = new int[MAX_MISSED_VSYNCS + 1];
+    private long mRefreshPeriodNs = DEFAULT_REFRESH_PERIOD_NS;
+    private int mFrameCount;
+    private long mTotalFrameTimeNs;
+    private long mMaxFrameTimeNs;
+    private int mJankFrameCount;
+    private int mJankRunCount;
+    private int mCurrentJankRun;
+    private int mLongestJankRun;
+
+    /**
+     * Sets the display refresh period that missed vsyncs are counted against.
+     *
+     * @throws IllegalStateException if frames have already been added
+     */
+    public void setRefreshPeriod(long refreshPeriodNs) {
+        if (refreshPeriodNs <= 0) {
+            throw new IllegalArgumentException("Invalid refresh period " + refreshPeriodNs);
+        }
+        if (refreshPeriodNs == mRefreshPeriodNs) {
+            return;
+        }
+        if (mFrameCount > 0) {
+            throw new IllegalStateException("Refresh period changed after frames were added");
+        }
+        mRefreshPeriodNs = refreshPeriodNs;
+    }
+
+    public long getRefreshPeriod() {
+        return mRefreshPeriodNs;
+    }
+
+    /**
+     * Adds one frame.
+     *
+     * @param frameTimeNs the time the frame took, in nanoseconds
+     */
+    public void addFrame(long frameTimeNs) {
+        if (frameTimeNs < 0) {
+            throw new IllegalArgumentException("Negative frame time " + frameTimeNs);
+        }
+        mFrameCount++;
+        mTotalFrameTimeNs += frameTimeNs;
+        mMaxFrameTimeNs = Math.max(mMaxFrameTimeNs, frameTimeNs);
+        mFrameTimeBuckets[(int) Math.min(frameTimeNs / BUCKET_NS, NUM_BUCKETS)]++;
+
+        int missedVsyncs = getMissedVsyncs(frameTimeNs);
+        mMissedVsyncBuckets[Math.min(missedVsyncs, MAX_MISSED_VSYNCS)]++;
+        if (missedVsyncs > 0) {
+            mJankFrameCount++;
+            if (mCurrentJankRun++ == 0) {
+                mJankRunCount++;
+            }
+            mLongestJankRun = Math.max(mLongestJankRun, mCurrentJankRun);
+        } else {
+            mCurrentJankRun = 0;
+        }
+    }
+
+    /**
+     * Marks a gap in the frame sequence, for example frames that were dropped from the device
+     * buffer before they could be read. A jank run does not continue across a gap.
+     */
+    public void addGap() {
+        mCurrentJankRun = 0;
+    }
+
+    /**
+     * Returns the number of vsyncs a frame of the given duration missed.
+     */
+    public int getMissedVsyncs(long frameTimeNs) {
+        long overrun = frameTimeNs - VSYNC_TOLERANCE_NS;
+        if (overrun <= mRefreshPeriodNs) {
+            return 0;
+        }
+        return (int) Math.min((overrun - 1) / mRefreshPeriodNs, Integer.MAX_VALUE);
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getJankFrameCount() {
+        return mJankFrameCount;
+    }
+
+    public int getJankRunCount() {
+        return mJankRunCount;
+    }
+
+    public int getLongestJankRun() {
+        return mLongestJankRun;
+    }
+
+    public double getAverageFrameTimeMs() {
+        return mFrameCount == 0 ? 0 : mTotalFrameTimeNs / NS_PER_MS / mFrameCount;
+    }
+
+    public double getMaxFrameTimeMs() {
+        return mMaxFrameTimeNs / NS_PER_MS;
+    }
+
+    /**
+     * Returns the frame time, in milliseconds, that the given percentage of frames did not
+     * exceed. The value is rounded up to the histogram resolution but never exceeds the slowest
+     * frame.
+     */
+    public double getPercentileMs(int percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+        }
+        if (mFrameCount == 0) {
+            return 0;
+        }
+        long rank = ((long) mFrameCount * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += mFrameTimeBuckets[i];
+            if (seen >= rank) {
+                return Math.min((i + 1) * BUCKET_NS, mMaxFrameTimeNs) / NS_PER_MS;
+            }
+        }
+        return getMaxFrameTimeMs();
+    }
+
+    /**
+     * Returns the number of frames that missed 0, 1, ... vsyncs. The last entry counts all frames
+     * that missed at least that many.
+     */
+    public double[] getMissedVsyncHistogram() {
+        double[] histogram = new double[mMissedVsyncBuckets.length];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = mMissedVsyncBuckets[i];
+        }
+        return histogram;
+    }
+
+    /**
+     * Prints the frame time distribution to the given report. The summary is left to the caller.
+     */
+    public void report(HostReportLog report, String testId) {
+        report.printValue(testId, "Frames Analyzed", mFrameCount, ResultType.NEUTRAL,
+                ResultUnit.COUNT);
+        report.printValue(testId, "Average Frame Time", getAverageFrameTimeMs(),
+                ResultType.LOWER_BETTER, ResultUnit.MS);
+        for (int percentile : PERCENTILES) {
+            report.printValue(testId, "Frame Time " + percentile + "th Percentile",
+                    getPercentileMs(percentile), ResultType.LOWER_BETTER, ResultUnit.MS);
+        }
+        report.printValue(testId, "Maximum Frame Time", getMaxFrameTimeMs(),
+                ResultType.LOWER_BETTER, ResultUnit.MS);
+        report.printValue(testId, "Janky Frames", mJankFrameCount, ResultType.LOWER_BETTER,
+                ResultUnit.COUNT);
+        report.printValue(testId, "Jank Runs", mJankRunCount, ResultType.LOWER_BETTER,
+                ResultUnit.COUNT);
+        report.printValue(testId, "Longest Jank Run", mLongestJankRun, ResultType.LOWER_BETTER,
+                ResultUnit.COUNT);
+        report.printArray(testId, "Missed Vsync Histogram", getMissedVsyncHistogram(),
+                ResultType.NEUTRAL, ResultUnit.COUNT);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.cts.jank;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.MultiLineReceiver;
+
+/**
+ * Parses the output of {@code dumpsys SurfaceFlinger --latency <window>} and feeds the interval
+ * between consecutive frame presentations to a {@link FrameTimeAnalyzer}.
+ * <p>
+ * SurfaceFlinger only keeps the timestamps of the last 128 frames of a window, so the command is
+ * meant to be run repeatedly while the test runs, each time with the same parser. Frames already
+ * seen in an earlier sample are skipped. If a sample does not overlap the previous one, frames
+ * were lost in between and the analyzer is told about the gap.
+ */
+public class SurfaceFlingerLatencyParser extends MultiLineReceiver {
+
+    public static final String COMMAND = "dumpsys SurfaceFlinger --latency %s";
+    private static final String TAG = "SurfaceFlingerLatencyParser";
+    // Present time reported for a frame whose fence has not signaled yet.
+    private static final long PENDING_FENCE_TIME = Long.MAX_VALUE;
+
+    private final FrameTimeAnalyzer mAnalyzer;
+    // Present time of the last frame handed to the analyzer, over all samples.
+    private long mLastPresentTime = 0;
+    // State of the sample being parsed.
+    private boolean mFirstLine = true;
+    private boolean mOverlapsLastSample = false;
+
+    public SurfaceFlingerLatencyParser(FrameTimeAnalyzer analyzer) {
+        mAnalyzer = analyzer;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public void processNewLines(String[] lines) {
+        for (String line : lines) {
+            parse(line);
+        }
+    }
+
+    @Override
+    public void done() {
+        mFirstLine = true;
+        mOverlapsLastSample = false;
+    }
+
+    private void parse(String line) {
+        line = line.trim();
+        if (line.length() == 0) {
+            return;
+        }
+        String[] fields = line.split("\\s+");
+        try {
+            if (mFirstLine) {
+                // The first line holds the refresh period in nanoseconds.
+                mFirstLine = false;
+                if (fields.length == 1) {
+                    setRefreshPeriod(Long.parseLong(fields[0]));
+                }
+                return;
+            }
+            // desired present time, actual present time, frame ready time
+            if (fields.length != 3) {
+                return;
+            }
+            long presentTime = Long.parseLong(fields[1]);
+            if (presentTime == 0 || presentTime == PENDING_FENCE_TIME) {
+                return;
+            }
+            if (presentTime <= mLastPresentTime) {
+                mOverlapsLastSample = true;
+                return;
+            }
+            if (mLastPresentTime != 0) {
+                if (mOverlapsLastSample) {
+                    mAnalyzer.addFrame(presentTime - mLastPresentTime);
+                } else {
+                    mAnalyzer.addGap();
+                }
+            }
+            // The remaining frames of this sample follow this one without a gap.
+            mOverlapsLastSample = true;
+            mLastPresentTime = presentTime;
+        } catch (NumberFormatException e) {
+            // not a line of frame timestamps
+        }
+    }
+
+    private void setRefreshPeriod(long refreshPeriodNs) {
+        try {
+            mAnalyzer.setRefreshPeriod(refreshPeriodNs);
+        } catch (IllegalArgumentException e) {
+            Log.logAndDisplay(LogLevel.WARN, TAG, "Ignoring refresh period: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            // e.g. the display mode changed while the test ran; keep counting missed vsyncs
+            // against the period the earlier frames were counted against
+            Log.logAndDisplay(LogLevel.WARN, TAG, "Ignoring refresh period " + refreshPeriodNs
+                    + ": " + e.getMessage());
+        }
+    }
+}
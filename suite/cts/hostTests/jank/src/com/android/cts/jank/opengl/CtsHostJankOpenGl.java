@@ -25,6 +25,8 @@ public class CtsHostJankOpenGl extends CtsHostJankTest {
     private static final String HOST_CLASS = CtsHostJankOpenGl.class.getName();
     private static final String DEVICE_CLASS = PACKAGE + ".CtsDeviceJankOpenGl";
     private static final String JAR_NAME = "CtsDeviceJank.jar";
+    // The benchmarks render into a SurfaceView, as measured by the device side of the test.
+    private static final String LATENCY_WINDOW_NAME = "SurfaceView";
 
     public CtsHostJankOpenGl() {
         super(JAR_NAME, DEVICE_CLASS, HOST_CLASS);
@@ -40,6 +42,11 @@ public class CtsHostJankOpenGl extends CtsHostJankTest {
         mDevice.installPackage(app, false, options);
     }
 
+    @Override
+    protected String getLatencyWindowName() {
+        return LATENCY_WINDOW_NAME;
+    }
+
     @Override
     protected void tearDown() throws Exception {
         // Uninstall the app.
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.cts.jank;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FrameTimeAnalyzer}.
+ */
+public class FrameTimeAnalyzerTest extends TestCase {
+
+    private static final long MS = 1000000;
+    private static final double DELTA = 0.001;
+
+    private FrameTimeAnalyzer mAnalyzer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mAnalyzer = new FrameTimeAnalyzer();
+    }
+
+    /**
+     * Test that a frame only misses a vsync if it overruns the refresh period by more than the
+     * tolerance.
+     */
+    public void testGetMissedVsyncs() {
+        assertEquals(0, mAnalyzer.getMissedVsyncs(16 * MS));
+        assertEquals(0, mAnalyzer.getMissedVsyncs(17 * MS));
+        assertEquals(1, mAnalyzer.getMissedVsyncs(18 * MS));
+        assertEquals(1, mAnalyzer.getMissedVsyncs(34 * MS));
+        assertEquals(2, mAnalyzer.getMissedVsyncs(50 * MS));
+    }
+
+    /**
+     * Test the counts and times of the added frames.
+     */
+    public void testAddFrame() {
+        addFrames(16, 34, 34, 16, 50);
+        assertEquals(5, mAnalyzer.getFrameCount());
+        assertEquals(3, mAnalyzer.getJankFrameCount());
+        assertEquals(2, mAnalyzer.getJankRunCount());
+        assertEquals(2, mAnalyzer.getLongestJankRun());
+        assertEquals(30.0, mAnalyzer.getAverageFrameTimeMs(), DELTA);
+        assertEquals(50.0, mAnalyzer.getMaxFrameTimeMs(), DELTA);
+        double[] histogram = mAnalyzer.getMissedVsyncHistogram();
+        assertEquals(2.0, histogram[0], DELTA);
+        assertEquals(2.0, histogram[1], DELTA);
+        assertEquals(1.0, histogram[2], DELTA);
+    }
+
+    /**
+     * Test that a jank run does not continue across a gap.
+     */
+    public void testAddGap() {
+        addFrames(34);
+        mAnalyzer.addGap();
+        addFrames(34);
+        assertEquals(2, mAnalyzer.getJankFrameCount());
+        assertEquals(2, mAnalyzer.getJankRunCount());
+        assertEquals(1, mAnalyzer.getLongestJankRun());
+    }
+
+    /**
+     * Test that percentiles are rounded up to the bucket size but never exceed the slowest frame.
+     */
+    public void testGetPercentileMs() {
+        assertEquals(0.0, mAnalyzer.getPercentileMs(50), DELTA);
+        for (int i = 0; i < 99; i++) {
+            addFrames(10);
+        }
+        addFrames(100);
+        assertEquals(10.5, mAnalyzer.getPercentileMs(50), DELTA);
+        assertEquals(10.5, mAnalyzer.getPercentileMs(99), DELTA);
+        assertEquals(100.0, mAnalyzer.getPercentileMs(100), DELTA);
+        try {
+            mAnalyzer.getPercentileMs(0);
+            fail("IllegalArgumentException not thrown");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that frames slower than the histogram range are still counted.
+     */
+    public void testGetPercentileMs_slowFrames() {
+        addFrames(500, 1000);
+        assertEquals(1000.0, mAnalyzer.getPercentileMs(50), DELTA);
+        assertEquals(1000.0, mAnalyzer.getMaxFrameTimeMs(), DELTA);
+        assertEquals(2.0, mAnalyzer.getMissedVsyncHistogram()[8], DELTA);
+    }
+
+    /**
+     * Test that missed vsyncs are counted against the refresh period that was set.
+     */
+    public void testSetRefreshPeriod() {
+        mAnalyzer.setRefreshPeriod(8 * MS);
+        assertEquals(8 * MS, mAnalyzer.getRefreshPeriod());
+        addFrames(16);
+        assertEquals(1, mAnalyzer.getJankFrameCount());
+        // setting the same period again is fine
+        mAnalyzer.setRefreshPeriod(8 * MS);
+        try {
+            mAnalyzer.setRefreshPeriod(16 * MS);
+            fail("IllegalStateException not thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            mAnalyzer.setRefreshPeriod(0);
+            fail("IllegalArgumentException not thrown");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private void addFrames(long... frameTimesMs) {
+        for (long frameTimeMs : frameTimesMs) {
+            mAnalyzer.addFrame(frameTimeMs * MS);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.cts.jank;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SurfaceFlingerLatencyParser}.
+ */
+public class SurfaceFlingerLatencyParserTest extends TestCase {
+
+    private static final long MS = 1000000;
+    private static final long PERIOD = 16666667;
+    private static final long START = 1000 * MS;
+
+    private FrameTimeAnalyzer mAnalyzer;
+    private SurfaceFlingerLatencyParser mParser;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mAnalyzer = new FrameTimeAnalyzer();
+        mParser = new SurfaceFlingerLatencyParser(mAnalyzer);
+    }
+
+    /**
+     * Test that the refresh period and the intervals between frames are parsed, and that frames
+     * without a present time are skipped.
+     */
+    public void testParse() {
+        parse(Long.toString(PERIOD),
+                frame(START),
+                frame(START + 16 * MS),
+                frame(START + 50 * MS),
+                "0\t0\t0",
+                "1\t" + Long.MAX_VALUE + "\t1",
+                "");
+        assertEquals(PERIOD, mAnalyzer.getRefreshPeriod());
+        assertEquals(2, mAnalyzer.getFrameCount());
+        assertEquals(1, mAnalyzer.getJankFrameCount());
+        assertEquals(34.0, mAnalyzer.getMaxFrameTimeMs(), 0.001);
+    }
+
+    /**
+     * Test that frames seen in an earlier sample are skipped, and that the frames following them
+     * continue the sequence.
+     */
+    public void testParse_overlappingSamples() {
+        parse(Long.toString(PERIOD), frame(START), frame(START + 16 * MS), frame(START + 50 * MS));
+        parse(Long.toString(PERIOD), frame(START + 16 * MS), frame(START + 50 * MS),
+                frame(START + 84 * MS), frame(START + 100 * MS));
+        assertEquals(4, mAnalyzer.getFrameCount());
+        assertEquals(2, mAnalyzer.getJankFrameCount());
+        // the jank run continues into the second sample
+        assertEquals(1, mAnalyzer.getJankRunCount());
+        assertEquals(2, mAnalyzer.getLongestJankRun());
+    }
+
+    /**
+     * Test that a sample which does not overlap the previous one is treated as a gap.
+     */
+    public void testParse_gap() {
+        parse(Long.toString(PERIOD), frame(START), frame(START + 34 * MS));
+        parse(Long.toString(PERIOD), frame(START + 500 * MS), frame(START + 534 * MS));
+        // the interval across the gap is not a frame
+        assertEquals(2, mAnalyzer.getFrameCount());
+        assertEquals(2, mAnalyzer.getJankRunCount());
+        assertEquals(1, mAnalyzer.getLongestJankRun());
+    }
+
+    /**
+     * Test that a refresh period the analyzer cannot take is ignored and that parsing goes on.
+     */
+    public void testParse_refreshPeriodChanged() {
+        parse(Long.toString(PERIOD), frame(START), frame(START + 16 * MS));
+        parse(Long.toString(2 * PERIOD), frame(START + 16 * MS), frame(START + 34 * MS));
+        parse("0", frame(START + 34 * MS), frame(START + 50 * MS));
+        assertEquals(PERIOD, mAnalyzer.getRefreshPeriod());
+        assertEquals(3, mAnalyzer.getFrameCount());
+        assertEquals(1, mAnalyzer.getJankFrameCount());
+    }
+
+    /**
+     * Test that lines which are not frame timestamps are skipped.
+     */
+    public void testParse_invalidLines() {
+        parse("unknown window", frame(START), "a\tb\tc", frame(START + 16 * MS), "1\t2");
+        assertEquals(FrameTimeAnalyzer.DEFAULT_REFRESH_PERIOD_NS, mAnalyzer.getRefreshPeriod());
+        assertEquals(1, mAnalyzer.getFrameCount());
+    }
+
+    /**
+     * Parse the lines as the output of one run of the command.
+     */
+    private void parse(String... lines) {
+        mParser.processNewLines(lines);
+        mParser.done();
+    }
+
+    private static String frame(long presentTime) {
+        return (presentTime - 5 * MS) + "\t" + presentTime + "\t" + (presentTime - 3 * MS);
+    }
+}
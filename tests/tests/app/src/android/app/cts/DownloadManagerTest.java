@@ -55,7 +55,7 @@ public class DownloadManagerTest extends AndroidTestCase {
     protected void setUp() throws Exception {
         super.setUp();
         mDownloadManager = (DownloadManager) mContext.getSystemService(Context.DOWNLOAD_SERVICE);
-        mWebServer = new CtsTestServer(mContext);
+        mWebServer = new CtsTestServer(mContext, CtsTestServer.SslMode.INSECURE, true);
         clearDownloads();
     }
 
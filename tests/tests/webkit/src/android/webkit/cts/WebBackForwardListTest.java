@@ -63,7 +63,8 @@ public class WebBackForwardListTest extends ActivityInstrumentationTestCase2<Web
         assertNull(list.getItemAtIndex(-1));
         assertNull(list.getItemAtIndex(2));
 
-        CtsTestServer server = new CtsTestServer(getActivity(), false);
+        CtsTestServer server = new CtsTestServer(getActivity(), CtsTestServer.SslMode.INSECURE,
+                true);
         try {
             String url1 = server.getAssetUrl(TestHtmlConstants.HTML_URL1);
             String url2 = server.getAssetUrl(TestHtmlConstants.HTML_URL2);
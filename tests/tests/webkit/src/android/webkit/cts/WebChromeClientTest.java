@@ -49,7 +49,7 @@ public class WebChromeClientTest extends ActivityInstrumentationTestCase2<WebVie
         if (webview != null) {
             mOnUiThread = new WebViewOnUiThread(this, webview);
         }
-        mWebServer = new CtsTestServer(getActivity());
+        mWebServer = new CtsTestServer(getActivity(), CtsTestServer.SslMode.INSECURE, true);
     }
 
     @Override
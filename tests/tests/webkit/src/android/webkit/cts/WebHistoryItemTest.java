@@ -54,7 +54,7 @@ public class WebHistoryItemTest extends ActivityInstrumentationTestCase2<WebView
     @Override
     protected void setUp() throws Exception {
         super.setUp();
-        mWebServer = new CtsTestServer(getActivity());
+        mWebServer = new CtsTestServer(getActivity(), CtsTestServer.SslMode.INSECURE, true);
         WebView webview = getActivity().getWebView();
         if (webview != null) {
             mOnUiThread = new WebViewOnUiThread(this, webview);
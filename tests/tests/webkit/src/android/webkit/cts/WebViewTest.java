@@ -176,7 +176,11 @@ public class WebViewTest extends ActivityInstrumentationTestCase2<WebViewCtsActi
 
     private void startWebServer(boolean secure) throws Exception {
         assertNull(mWebServer);
-        mWebServer = new CtsTestServer(getActivity(), secure);
+        if (secure) {
+            mWebServer = new CtsTestServer(getActivity(), true);
+        } else {
+            mWebServer = new CtsTestServer(getActivity(), CtsTestServer.SslMode.INSECURE, true);
+        }
     }
 
     private void stopWebServer() throws Exception {
@@ -273,7 +277,7 @@ public class WebViewTest extends ActivityInstrumentationTestCase2<WebViewCtsActi
         final ScaleChangedWebViewClient webViewClient = new ScaleChangedWebViewClient();
         mOnUiThread.setWebViewClient(webViewClient);
 
-        mWebServer = new CtsTestServer(getActivity());
+        mWebServer = new CtsTestServer(getActivity(), CtsTestServer.SslMode.INSECURE, true);
         mOnUiThread.loadUrlAndWaitForCompletion(
                 mWebServer.getAssetUrl(TestHtmlConstants.HELLO_WORLD_URL));
         pollingCheckForCanZoomIn();
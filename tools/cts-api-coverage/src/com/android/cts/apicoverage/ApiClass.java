@@ -19,13 +19,24 @@ package com.android.cts.apicoverage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Representation of a class in the API with constructors and methods. */
 class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     private static final String VOID = "void";
 
+    /** The type must be equal to the test type. */
+    private static final int TYPE_EXACT = 0;
+
+    /** The type is generic and matches any test type but void. */
+    private static final int TYPE_GENERIC = 1;
+
+    /** The type is a generic array and matches any array test type. */
+    private static final int TYPE_GENERIC_ARRAY = 2;
+
     private final String mName;
 
     private final boolean mDeprecated;
@@ -40,6 +51,15 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     private ApiClass mSuperClass;
 
+    /** Methods by name and arity, built on the first lookup. */
+    private Map<MethodKey, List<IndexedMember<ApiMethod>>> mMethodIndex;
+
+    /** Constructors by arity, built on the first lookup. */
+    private Map<Integer, List<IndexedMember<ApiConstructor>>> mConstructorIndex;
+
+    /** This class followed by its resolved super classes, built on the first lookup. */
+    private ApiClass[] mHierarchy;
+
     /**
      * @param name The name of the class
      * @param deprecated true iff the class is marked as deprecated
@@ -79,10 +99,14 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
         return mAbstract;
     }
 
-    public void setSuperClass(ApiClass superClass) { mSuperClass = superClass; }
+    public void setSuperClass(ApiClass superClass) {
+        mSuperClass = superClass;
+        mHierarchy = null;
+    }
 
     public void addConstructor(ApiConstructor constructor) {
         mApiConstructors.add(constructor);
+        mConstructorIndex = null;
     }
 
 
@@ -92,30 +116,28 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     public void addMethod(ApiMethod method) {
         mApiMethods.add(method);
+        mMethodIndex = null;
     }
 
     /** Look for a matching constructor and mark it as covered */
     public void markConstructorCovered(List<String> parameterTypes) {
-        if (mSuperClass != null) {
-            // Mark matching constructors in the superclass
-            mSuperClass.markConstructorCovered(parameterTypes);
-        }
-        ApiConstructor apiConstructor = getConstructor(parameterTypes);
-        if (apiConstructor != null) {
-            apiConstructor.setCovered(true);
+        // Mark matching constructors in this class and all its super classes
+        for (ApiClass apiClass : getHierarchy()) {
+            ApiConstructor apiConstructor = apiClass.getConstructor(parameterTypes);
+            if (apiConstructor != null) {
+                apiConstructor.setCovered(true);
+            }
         }
-
     }
 
     /** Look for a matching method and if found and mark it as covered */
     public void markMethodCovered(String name, List<String> parameterTypes, String returnType) {
-        if (mSuperClass != null) {
-            // Mark matching methods in the super class
-            mSuperClass.markMethodCovered(name, parameterTypes, returnType);
-        }
-        ApiMethod apiMethod = getMethod(name, parameterTypes, returnType);
-        if (apiMethod != null) {
-            apiMethod.setCovered(true);
+        // Mark matching methods in this class and all its super classes
+        for (ApiClass apiClass : getHierarchy()) {
+            ApiMethod apiMethod = apiClass.getMethod(name, parameterTypes, returnType);
+            if (apiMethod != null) {
+                apiMethod.setCovered(true);
+            }
         }
     }
 
@@ -157,56 +179,115 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
     }
 
     private ApiMethod getMethod(String name, List<String> parameterTypes, String returnType) {
-        for (ApiMethod method : mApiMethods) {
-            boolean methodNameMatch = name.equals(method.getName());
-            boolean parameterTypeMatch =
-                    compareParameterTypes(method.getParameterTypes(), parameterTypes);
-            boolean returnTypeMatch = compareType(method.getReturnType(), returnType);
-            if (methodNameMatch && parameterTypeMatch && returnTypeMatch) {
-                return method;
+        if (mMethodIndex == null) {
+            mMethodIndex = buildMethodIndex();
+        }
+        List<IndexedMember<ApiMethod>> candidates =
+                mMethodIndex.get(new MethodKey(name, parameterTypes.size()));
+        if (candidates != null) {
+            for (IndexedMember<ApiMethod> candidate : candidates) {
+                if (candidate.matches(parameterTypes)
+                        && candidate.matchesReturnType(returnType)) {
+                    return candidate.mMember;
+                }
             }
         }
         return null;
     }
 
-    /**
-     * The method compares two lists of parameters. If the {@code apiParameterTypeList} contains
-     * generic types, test parameter types are ignored.
-     *
-     * @param apiParameterTypeList The list of parameter types from the API
-     * @param testParameterTypeList The list of parameter types used in a test
-     * @return true iff the list of types are the same.
-     */
-    private static boolean compareParameterTypes(
-            List<String> apiParameterTypeList, List<String> testParameterTypeList) {
-        if (apiParameterTypeList.equals(testParameterTypeList)) {
-            return true;
+    private ApiConstructor getConstructor(List<String> parameterTypes) {
+        if (mConstructorIndex == null) {
+            mConstructorIndex = buildConstructorIndex();
         }
-        if (apiParameterTypeList.size() != testParameterTypeList.size()) {
-            return false;
+        List<IndexedMember<ApiConstructor>> candidates =
+                mConstructorIndex.get(parameterTypes.size());
+        if (candidates != null) {
+            for (IndexedMember<ApiConstructor> candidate : candidates) {
+                if (candidate.matches(parameterTypes)) {
+                    return candidate.mMember;
+                }
+            }
         }
+        return null;
+    }
 
-        for (int i = 0; i < apiParameterTypeList.size(); i++) {
-            String apiParameterType = apiParameterTypeList.get(i);
-            String testParameterType = testParameterTypeList.get(i);
-            if (!compareType(apiParameterType, testParameterType)) {
-                return false;
+    private Map<MethodKey, List<IndexedMember<ApiMethod>>> buildMethodIndex() {
+        Map<MethodKey, List<IndexedMember<ApiMethod>>> index =
+                new HashMap<MethodKey, List<IndexedMember<ApiMethod>>>();
+        for (ApiMethod method : mApiMethods) {
+            MethodKey key = new MethodKey(method.getName(), method.getParameterTypes().size());
+            List<IndexedMember<ApiMethod>> candidates = index.get(key);
+            if (candidates == null) {
+                candidates = new ArrayList<IndexedMember<ApiMethod>>(1);
+                index.put(key, candidates);
+            }
+            candidates.add(new IndexedMember<ApiMethod>(
+                    method, method.getParameterTypes(), method.getReturnType()));
+        }
+        return index;
+    }
+
+    private Map<Integer, List<IndexedMember<ApiConstructor>>> buildConstructorIndex() {
+        Map<Integer, List<IndexedMember<ApiConstructor>>> index =
+                new HashMap<Integer, List<IndexedMember<ApiConstructor>>>();
+        for (ApiConstructor constructor : mApiConstructors) {
+            Integer arity = constructor.getParameterTypes().size();
+            List<IndexedMember<ApiConstructor>> candidates = index.get(arity);
+            if (candidates == null) {
+                candidates = new ArrayList<IndexedMember<ApiConstructor>>(1);
+                index.put(arity, candidates);
+            }
+            candidates.add(new IndexedMember<ApiConstructor>(
+                    constructor, constructor.getParameterTypes(), null));
+        }
+        return index;
+    }
+
+    /**
+     * @return this class followed by its chain of resolved super classes. The chain stops if a
+     *     class shows up twice, so a malformed hierarchy cannot loop forever.
+     */
+    private ApiClass[] getHierarchy() {
+        if (mHierarchy == null) {
+            List<ApiClass> hierarchy = new ArrayList<ApiClass>();
+            for (ApiClass apiClass = this; apiClass != null && !hierarchy.contains(apiClass);
+                    apiClass = apiClass.mSuperClass) {
+                hierarchy.add(apiClass);
             }
+            mHierarchy = hierarchy.toArray(new ApiClass[hierarchy.size()]);
         }
-        return true;
+        return mHierarchy;
     }
 
     /**
      * Compare class types.
+     * @param apiTypeKind The kind of the api type as returned by {@link #classifyType}
      * @param apiType The type as reported by the api
      * @param testType The type as found used in a test
      * @return true iff the strings are equal,
      * or the apiType is generic and the test type is not void
      */
-    private static boolean compareType(String apiType, String testType) {
-        return apiType.equals(testType) ||
-                isGenericType(apiType) && !testType.equals(VOID) ||
-                isGenericArrayType(apiType) && isArrayType(testType) ;
+    private static boolean compareType(int apiTypeKind, String apiType, String testType) {
+        switch (apiTypeKind) {
+            case TYPE_GENERIC:
+                return !testType.equals(VOID);
+            case TYPE_GENERIC_ARRAY:
+                return apiType.equals(testType) || isArrayType(testType);
+            default:
+                return apiType.equals(testType);
+        }
+    }
+
+    /**
+     * @return how a type reported by the api is matched against the types used in tests.
+     */
+    private static int classifyType(String type) {
+        if (isGenericType(type)) {
+            return TYPE_GENERIC;
+        } else if (isGenericArrayType(type)) {
+            return TYPE_GENERIC_ARRAY;
+        }
+        return TYPE_EXACT;
     }
 
     /**
@@ -232,12 +313,74 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
         return type.length() == 3 && isGenericType(type.substring(0, 1)) && isArrayType(type);
     }
 
-    private ApiConstructor getConstructor(List<String> parameterTypes) {
-        for (ApiConstructor constructor : mApiConstructors) {
-            if (compareParameterTypes(constructor.getParameterTypes(), parameterTypes)) {
-                return constructor;
+    /** Key of the method index. */
+    private static final class MethodKey {
+
+        private final String mName;
+
+        private final int mArity;
+
+        MethodKey(String name, int arity) {
+            mName = name;
+            mArity = arity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MethodKey)) {
+                return false;
             }
+            MethodKey other = (MethodKey) o;
+            return mArity == other.mArity && mName.equals(other.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return mName.hashCode() * 31 + mArity;
+        }
+    }
+
+    /** A constructor or method together with its pre-classified parameter and return types. */
+    private static final class IndexedMember<T> {
+
+        private final T mMember;
+
+        private final String[] mParameterTypes;
+
+        private final int[] mParameterKinds;
+
+        private final String mReturnType;
+
+        private final int mReturnKind;
+
+        IndexedMember(T member, List<String> parameterTypes, String returnType) {
+            mMember = member;
+            mParameterTypes = parameterTypes.toArray(new String[parameterTypes.size()]);
+            mParameterKinds = new int[mParameterTypes.length];
+            for (int i = 0; i < mParameterTypes.length; i++) {
+                mParameterKinds[i] = classifyType(mParameterTypes[i]);
+            }
+            mReturnType = returnType;
+            mReturnKind = returnType != null ? classifyType(returnType) : TYPE_EXACT;
+        }
+
+        /**
+         * @param testParameterTypes parameter types used in a test, of the same arity
+         * @return true iff the test parameter types match this member
+         */
+        boolean matches(List<String> testParameterTypes) {
+            for (int i = 0; i < mParameterTypes.length; i++) {
+                if (!compareType(mParameterKinds[i], mParameterTypes[i],
+                        testParameterTypes.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** @return true iff the return type used in a test matches this method */
+        boolean matchesReturnType(String testReturnType) {
+            return compareType(mReturnKind, mReturnType, testReturnType);
         }
-        return null;
     }
 }
@@ -52,12 +52,14 @@ public class CtsApiCoverage {
         System.out.println("Use the Makefiles rules in CtsTestCoverage.mk to generate the report ");
         System.out.println("rather than executing this directly. If you still want to run this ");
         System.out.println("directly, then this must be used from the $ANDROID_BUILD_TOP ");
-        System.out.println("directory and dexdeps must be built via \"make dexdeps\".");
+        System.out.println("directory. The APKs are scanned in-process unless -d is given, in ");
+        System.out.println("which case dexdeps must be built via \"make dexdeps\".");
         System.out.println();
         System.out.println("Options:");
         System.out.println("  -o FILE                output file or standard out if not given");
         System.out.println("  -f [txt|xml|html]      format of output");
-        System.out.println("  -d PATH                path to dexdeps or expected to be in $PATH");
+        System.out.println("  -d PATH                scan the APKs with the dexdeps at PATH instead");
+        System.out.println("  -j THREADS             number of APKs scanned in parallel");
         System.out.println("  -a PATH                path to the API XML file");
         System.out.println("  -p PACKAGENAMEPREFIX   report coverage only for package that start with");
         System.out.println("  -t TITLE               report title");
@@ -69,7 +71,8 @@ public class CtsApiCoverage {
         List<File> testApks = new ArrayList<File>();
         File outputFile = null;
         int format = FORMAT_TXT;
-        String dexDeps = "dexDeps";
+        String dexDeps = null;
+        int threads = Runtime.getRuntime().availableProcessors();
         String apiXmlPath = "";
         PackageFilter packageFilter = new PackageFilter();
         String reportTitle = "CTS API Coverage";
@@ -91,6 +94,15 @@ public class CtsApiCoverage {
                     }
                 } else if ("-d".equals(args[i])) {
                     dexDeps = getExpectedArg(args, ++i);
+                } else if ("-j".equals(args[i])) {
+                    try {
+                        threads = Integer.parseInt(getExpectedArg(args, ++i));
+                    } catch (NumberFormatException e) {
+                        printUsage();
+                    }
+                    if (threads < 1) {
+                        printUsage();
+                    }
                 } else if ("-a".equals(args[i])) {
                     apiXmlPath = getExpectedArg(args, ++i);
                 } else if ("-p".equals(args[i])) {
@@ -110,8 +122,10 @@ public class CtsApiCoverage {
          *    in current.xml. The object will have no information about the coverage for each
          *    constructor or method yet.
          *
-         * 2. For each provided APK, scan it using dexdeps, parse the output of dexdeps, and
-         *    call methods on the ApiCoverage object to cumulatively add coverage stats.
+         * 2. For each provided APK, collect the methods it references outside of its own dex
+         *    files, and call methods on the ApiCoverage object to cumulatively add coverage
+         *    stats. APKs are read in parallel in-process, or scanned one by one with an external
+         *    dexdeps if one was given.
          *
          * 3. Output a report based on the coverage stats in the ApiCoverage object.
          */
@@ -119,8 +133,12 @@ public class CtsApiCoverage {
         ApiCoverage apiCoverage = getEmptyApiCoverage(apiXmlPath);
         // Add superclass information into api coverage.
         apiCoverage.resolveSuperClasses();
-        for (File testApk : testApks) {
-            addApiCoverage(apiCoverage, testApk, dexDeps);
+        if (dexDeps != null) {
+            for (File testApk : testApks) {
+                addApiCoverage(apiCoverage, testApk, dexDeps);
+            }
+        } else {
+            new DexDepsExtractor(apiCoverage, threads).addApiCoverage(testApks);
         }
         outputCoverageReport(apiCoverage, testApks, outputFile, format, packageFilter, reportTitle);
     }
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.apicoverage;
+
+import dex.reader.DexBuffer;
+import dex.reader.DexFileReader;
+import dex.structure.DexFile;
+import dex.structure.DexMethodReference;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * In-process replacement for running dexdeps on each test APK. The dex files of the APKs are
+ * read in parallel with dex-tools and the methods they reference outside of themselves are added
+ * to an {@link ApiCoverage} object.
+ *
+ * <p>Only method and constructor references are extracted. Field references are left out on
+ * purpose: the coverage model has no fields, api.xml fields are not read by
+ * {@link CurrentXmlHandler}, and the dexdeps output handled by {@link DexDepsXmlHandler} ignores
+ * them as well, so they could not be marked anywhere.
+ *
+ * <p>Only the reading happens on worker threads. The references of each APK are handed back and
+ * marked on the calling thread, so {@link ApiCoverage} does not need to be thread-safe.
+ */
+class DexDepsExtractor {
+
+    private static final String CONSTRUCTOR_NAME = "<init>";
+
+    private static final Pattern DEX_ENTRY = Pattern.compile("classes\\d*\\.dex");
+
+    private final ApiCoverage mApiCoverage;
+
+    private final int mThreads;
+
+    /**
+     * @param apiCoverage object to which the coverage statistics will be added to
+     * @param threads number of APKs that are read at the same time
+     */
+    DexDepsExtractor(ApiCoverage apiCoverage, int threads) {
+        mApiCoverage = apiCoverage;
+        mThreads = threads;
+    }
+
+    /**
+     * Adds the coverage information of all given APKs. APKs that cannot be read are reported
+     * and skipped, like a failing dexdeps run.
+     */
+    public void addApiCoverage(List<File> testApks) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        try {
+            List<Future<List<MethodReference>>> results =
+                    new ArrayList<Future<List<MethodReference>>>(testApks.size());
+            for (final File testApk : testApks) {
+                results.add(executor.submit(new Callable<List<MethodReference>>() {
+                    @Override
+                    public List<MethodReference> call() throws IOException {
+                        return readReferences(testApk);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    markCovered(results.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    System.err.println("warning: scanning failed for: " + testApks.get(i).getPath()
+                            + " (" + e.getCause() + ")");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void markCovered(List<MethodReference> references) {
+        for (MethodReference reference : references) {
+            ApiPackage apiPackage = mApiCoverage.getPackage(reference.mPackageName);
+            if (apiPackage == null) {
+                continue;
+            }
+            ApiClass apiClass = apiPackage.getClass(reference.mClassName);
+            if (apiClass == null) {
+                continue;
+            }
+            if (reference.mMethodName == null) {
+                apiClass.markConstructorCovered(reference.mParameterTypes);
+            } else {
+                apiClass.markMethodCovered(reference.mMethodName, reference.mParameterTypes,
+                        reference.mReturnType);
+            }
+        }
+    }
+
+    /**
+     * @return the external method references of all dex files in the APK, or of the file itself
+     *     if it is a dex file
+     */
+    private static List<MethodReference> readReferences(File testApk) throws IOException {
+        List<MethodReference> references = new ArrayList<MethodReference>();
+        if (testApk.getName().endsWith(".dex")) {
+            addReferences(new DexBuffer(testApk.getPath()), references);
+            return references;
+        }
+
+        ZipFile zipFile = new ZipFile(testApk);
+        try {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (DEX_ENTRY.matcher(entry.getName()).matches()) {
+                    InputStream in = zipFile.getInputStream(entry);
+                    try {
+                        addReferences(new DexBuffer(readFully(in)), references);
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        return references;
+    }
+
+    private static void addReferences(DexBuffer buffer, List<MethodReference> references) {
+        DexFile dexFile = new DexFileReader().read(buffer);
+        for (DexMethodReference method : dexFile.getReferencedMethods()) {
+            String declaringClass = method.getDeclaringClass();
+            // Methods of array types such as clone() are not part of the API.
+            if (!declaringClass.startsWith("L")) {
+                continue;
+            }
+            String name = method.getName();
+            if (name.startsWith("<") && !CONSTRUCTOR_NAME.equals(name)) {
+                continue;
+            }
+
+            String className = declaringClass.substring(1, declaringClass.length() - 1);
+            int packageEnd = className.lastIndexOf('/');
+            String packageName = packageEnd < 0
+                    ? "" : className.substring(0, packageEnd).replace('/', '.');
+
+            List<String> parameterTypes = new ArrayList<String>(method.getParameterTypes().size());
+            for (String parameterType : method.getParameterTypes()) {
+                parameterTypes.add(descriptorToDot(parameterType));
+            }
+            references.add(new MethodReference(
+                    packageName,
+                    className.substring(packageEnd + 1).replace('$', '.'),
+                    CONSTRUCTOR_NAME.equals(name) ? null : name,
+                    parameterTypes,
+                    descriptorToDot(method.getReturnType())));
+        }
+    }
+
+    /**
+     * Converts a type descriptor into the notation of the API XML file, e.g.
+     * {@code [Ljava/util/Map$Entry;} becomes {@code java.util.Map.Entry[]}.
+     */
+    static String descriptorToDot(String descriptor) {
+        int arrayDepth = 0;
+        while (descriptor.charAt(arrayDepth) == '[') {
+            arrayDepth++;
+        }
+        StringBuilder builder = new StringBuilder();
+        char type = descriptor.charAt(arrayDepth);
+        switch (type) {
+            case 'V': builder.append("void"); break;
+            case 'Z': builder.append("boolean"); break;
+            case 'B': builder.append("byte"); break;
+            case 'S': builder.append("short"); break;
+            case 'C': builder.append("char"); break;
+            case 'I': builder.append("int"); break;
+            case 'J': builder.append("long"); break;
+            case 'F': builder.append("float"); break;
+            case 'D': builder.append("double"); break;
+            case 'L':
+                for (int i = arrayDepth + 1; i < descriptor.length() - 1; i++) {
+                    char c = descriptor.charAt(i);
+                    builder.append(c == '/' || c == '$' ? '.' : c);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Bad type descriptor: " + descriptor);
+        }
+        for (int i = 0; i < arrayDepth; i++) {
+            builder.append("[]");
+        }
+        return builder.toString();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /** A constructor or method referenced by a test. */
+    private static class MethodReference {
+
+        private final String mPackageName;
+
+        private final String mClassName;
+
+        /** Name of the method or null for a constructor. */
+        private final String mMethodName;
+
+        private final List<String> mParameterTypes;
+
+        private final String mReturnType;
+
+        MethodReference(String packageName, String className, String methodName,
+                List<String> parameterTypes, String returnType) {
+            mPackageName = packageName;
+            mClassName = className;
+            mMethodName = methodName;
+            mParameterTypes = parameterTypes;
+            mReturnType = returnType;
+        }
+    }
+}
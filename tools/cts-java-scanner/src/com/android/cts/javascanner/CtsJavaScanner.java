@@ -28,19 +28,22 @@ public class CtsJavaScanner {
 
     private static void usage(String[] args) {
         System.err.println("Arguments: " + Arrays.asList(args));
-        System.err.println("Usage: cts-java-scanner -s SOURCE_DIR -d DOCLET_PATH");
+        System.err.println("Usage: cts-java-scanner -s SOURCE_DIR -d DOCLET_PATH [-c CACHE_FILE]");
         System.exit(1);
     }
 
     public static void main(String[] args) throws Exception {
         List<File> sourceDirs = new ArrayList<File>();
         File docletPath = null;
+        File cacheFile = null;
 
         for (int i = 0; i < args.length; i++) {
             if ("-s".equals(args[i])) {
                 sourceDirs.add(new File(getArg(args, ++i, "Missing value for source directory")));
             } else if ("-d".equals(args[i])) {
                 docletPath = new File(getArg(args, ++i, "Missing value for docletPath"));
+            } else if ("-c".equals(args[i])) {
+                cacheFile = new File(getArg(args, ++i, "Missing value for cache file"));
             } else {
                 System.err.println("Unsupported flag: " + args[i]);
                 usage(args);
@@ -57,7 +60,7 @@ public class CtsJavaScanner {
             usage(args);
         }
 
-        DocletRunner runner = new DocletRunner(sourceDirs, docletPath);
+        DocletRunner runner = new DocletRunner(sourceDirs, docletPath, cacheFile);
         System.exit(runner.runJavaDoc());
     }
 
@@ -27,13 +27,42 @@ class DocletRunner {
 
     private final List<File> mSourceDirs;
     private final File mDocletPath;
+    private final ScanCache mCache;
 
     DocletRunner(List<File> sourceDirs, File docletPath) {
+        this(sourceDirs, docletPath, null);
+    }
+
+    /**
+     * @param cacheFile The file to keep the output of the last run in, or null to always run
+     *     javadoc.
+     */
+    DocletRunner(List<File> sourceDirs, File docletPath, File cacheFile) {
         mSourceDirs = sourceDirs;
         mDocletPath = docletPath;
+        mCache = cacheFile != null ? new ScanCache(cacheFile) : null;
     }
 
     int runJavaDoc() throws IOException, InterruptedException {
+        List<String> sourceFiles = new ArrayList<String>();
+        for (File sourceDir : mSourceDirs) {
+            sourceFiles.addAll(getSourceFiles(sourceDir));
+        }
+        List<String> sourcePath = getSourcePath(mSourceDirs);
+        List<String> classPath = getClassPath();
+
+        String digest = null;
+        if (mCache != null) {
+            digest = mCache.getDigest(sourceFiles, mDocletPath, sourcePath, classPath);
+            List<String> cached = mCache.read(digest);
+            if (cached != null) {
+                for (String line : cached) {
+                    System.out.println(line);
+                }
+                return 0;
+            }
+        }
+
         List<String> args = new ArrayList<String>();
         args.add("javadoc");
         args.add("-doclet");
@@ -41,12 +70,10 @@ class DocletRunner {
         args.add("-docletpath");
         args.add(mDocletPath.toString());
         args.add("-sourcepath");
-        args.add(getSourcePath(mSourceDirs));
+        args.add(join(sourcePath, ":"));
         args.add("-classpath");
-        args.add(getClassPath());
-        for (File sourceDir : mSourceDirs) {
-            args.addAll(getSourceFiles(sourceDir));
-        }
+        args.add(join(classPath, ":"));
+        args.addAll(sourceFiles);
 
 
         // NOTE: We redirect the error stream to make sure the child process
@@ -55,10 +82,12 @@ class DocletRunner {
         Process process = new ProcessBuilder(args).redirectErrorStream(true).start();
         BufferedReader reader = new BufferedReader(
                 new InputStreamReader(process.getInputStream()));
+        List<String> output = new ArrayList<String>();
         try {
             String line = null;
             while ((line = reader.readLine()) != null) {
                 System.out.println(line);
+                output.add(line);
             }
         } finally {
             if (reader != null) {
@@ -66,10 +95,14 @@ class DocletRunner {
             }
         }
 
-        return process.waitFor();
+        int result = process.waitFor();
+        if (result == 0 && mCache != null) {
+            mCache.write(digest, output);
+        }
+        return result;
     }
 
-    private String getSourcePath(List<File> sourceDirs) {
+    private List<String> getSourcePath(List<File> sourceDirs) {
         List<String> sourcePath = new ArrayList<String>();
         sourcePath.add("./frameworks/base/core/java");
         sourcePath.add("./frameworks/base/test-runner/src");
@@ -82,15 +115,15 @@ class DocletRunner {
         for (File sourceDir : sourceDirs) {
             sourcePath.add(sourceDir.toString());
         }
-        return join(sourcePath, ":");
+        return sourcePath;
     }
 
-    private String getClassPath() {
+    private List<String> getClassPath() {
         List<String> classPath = new ArrayList<String>();
         classPath.add("./prebuilts/misc/common/tradefed/tradefed-prebuilt.jar");
         classPath.add("./prebuilts/misc/common/ub-uiautomator/ub-uiautomator.jar");
         classPath.add("./prebuilts/misc/common/ub-janktesthelper/ub-janktesthelper.jar");
-        return join(classPath, ":");
+        return classPath;
     }
 
     private List<String> getSourceFiles(File sourceDir) {
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.javascanner;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the output of the last scan of a module together with a digest of its inputs, so the
+ * next scan can replay it without running javadoc if nothing changed.
+ *
+ * The digest covers the content of the scanned sources, the doclet and the class path. The
+ * shared source path is a large part of the platform tree, so only the packages the sources
+ * are in or import from are looked at there, by size and modification time. That covers the
+ * base classes tests extend directly.
+ */
+class ScanCache {
+
+    private static final String DIGEST_PREFIX = "digest:";
+
+    private static final Pattern PACKAGE_PATTERN = Pattern.compile(
+            "^\\s*(?:package|import(?:\\s+static)?)\\s+([\\w.]+)");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File mCacheFile;
+
+    ScanCache(File cacheFile) {
+        mCacheFile = cacheFile;
+    }
+
+    String getDigest(List<String> sourceFiles, File docletPath, List<String> sourcePath,
+            List<String> classPath) throws IOException {
+        List<String> entries = new ArrayList<String>();
+        Set<String> packages = new TreeSet<String>();
+        for (String sourceFile : sourceFiles) {
+            byte[] content = readFully(new File(sourceFile));
+            entries.add(sourceFile + " " + toHex(sha1(content)));
+            addPackages(new String(content, "UTF-8"), packages);
+        }
+        addContentEntries(docletPath, entries);
+        for (String path : classPath) {
+            addContentEntries(new File(path), entries);
+        }
+        for (String path : sourcePath) {
+            for (String packagePath : packages) {
+                addPackageEntries(new File(path, packagePath), entries);
+            }
+        }
+
+        // The directory listing order is not guaranteed, so sort the entries first.
+        Collections.sort(entries);
+        StringBuilder builder = new StringBuilder();
+        for (String entry : entries) {
+            builder.append(entry).append('\n');
+        }
+        return toHex(sha1(builder.toString().getBytes("UTF-8")));
+    }
+
+    /**
+     * @return The cached output if the cache was written for the given digest, otherwise null.
+     */
+    List<String> read(String digest) throws IOException {
+        if (!mCacheFile.isFile()) {
+            return null;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(mCacheFile));
+        try {
+            if (!(DIGEST_PREFIX + digest).equals(reader.readLine())) {
+                return null;
+            }
+            List<String> lines = new ArrayList<String>();
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    void write(String digest, List<String> output) throws IOException {
+        File parent = mCacheFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        // Write to a temporary file first so an interrupted run never leaves a cache behind
+        // whose digest matches but whose output is incomplete.
+        File tmpFile = new File(mCacheFile.getPath() + ".tmp");
+        PrintWriter writer = new PrintWriter(tmpFile, "UTF-8");
+        try {
+            writer.println(DIGEST_PREFIX + digest);
+            for (String line : output) {
+                writer.println(line);
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmpFile.renameTo(mCacheFile)) {
+            mCacheFile.delete();
+            if (!tmpFile.renameTo(mCacheFile)) {
+                throw new IOException("Could not write " + mCacheFile);
+            }
+        }
+    }
+
+    /**
+     * Adds the directory of the package of each "package" and "import" line. An import counts
+     * for the package its first capitalized name is in, so "import a.b.C.D;" gives "a/b".
+     */
+    static void addPackages(String source, Set<String> packages) {
+        for (String line : source.split("\n")) {
+            Matcher matcher = PACKAGE_PATTERN.matcher(line);
+            if (!matcher.find()) {
+                continue;
+            }
+            StringBuilder packagePath = new StringBuilder();
+            for (String name : matcher.group(1).split("\\.")) {
+                if (name.isEmpty() || Character.isUpperCase(name.charAt(0))) {
+                    break;
+                }
+                if (packagePath.length() > 0) {
+                    packagePath.append('/');
+                }
+                packagePath.append(name);
+            }
+            if (packagePath.length() > 0) {
+                packages.add(packagePath.toString());
+            }
+        }
+    }
+
+    /**
+     * Adds an entry with the content digest of the given file, or of every file under the given
+     * directory, or one saying it is missing, so that a path that appears later also
+     * invalidates the cache.
+     */
+    private static void addContentEntries(File path, List<String> entries) throws IOException {
+        if (path.isFile()) {
+            entries.add(path + " " + toHex(sha1(readFully(path))));
+            return;
+        }
+        File[] files = path.listFiles();
+        if (files == null) {
+            entries.add(path + " missing");
+            return;
+        }
+        for (File file : files) {
+            addContentEntries(file, entries);
+        }
+    }
+
+    /**
+     * Adds an entry with the size and modification time of every java file directly in the
+     * given package directory, if there is one.
+     */
+    private static void addPackageEntries(File packageDir, List<String> entries) {
+        File[] files = packageDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".java")) {
+                entries.add(file + " " + file.length() + " " + file.lastModified());
+            }
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] sha1(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
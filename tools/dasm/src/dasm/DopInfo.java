@@ -45,20 +45,29 @@ import com.android.dx.dex.code.form.Form3rc;
 import com.android.dx.dex.code.form.Form51l;
 import com.android.dx.io.Opcodes;
 
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Holds information about Dalvik opcodes and its parameters.
  */
 class DopInfo {
 
-    // maps instruction name -> DopInfo object
-    static Hashtable<String, DopInfo> dopsTable;
+    // maps instruction name -> DopInfo object. Built once and never modified,
+    // so concurrent assemblers can read it without locking.
+    private static final Map<String, DopInfo> dopsTable;
 
     // information maintained about each instruction:
-    public String name; // opcode name
-    public Dop opcode; // its opcode
-    public String args; // the argument code
+    public final String name; // opcode name
+    public final Dop opcode; // its opcode
+    public final String args; // the argument code
+
+    private DopInfo(String name, Dop opcode, String args) {
+        this.name = name;
+        this.opcode = opcode;
+        this.args = args;
+    }
 
     public final static String ARG_REGISTER = "R";
     public final static String ARG_TYPE = "T";
@@ -102,22 +111,19 @@ class DopInfo {
             + ARG_INTFMETHOD;
 
     public static DopInfo get(String name) {
-        return (DopInfo) dopsTable.get(name);
+        return dopsTable.get(name);
     }
 
     public static boolean contains(String name) {
-        return dopsTable.get(name) != null;
+        return dopsTable.containsKey(name);
     }
 
     /**
      * Adds new opcode to table
      */
-    static private void add(String name, Dop opcode, String args) {
-        DopInfo info = new DopInfo();
-        info.name = name;
-        info.opcode = opcode;
-        info.args = args;
-        dopsTable.put(name, info);
+    static private void add(Map<String, DopInfo> table, String name, Dop opcode,
+            String args) {
+        table.put(name, new DopInfo(name, opcode, args));
     }
 
     static private String getArgsFormat(Dop dop) {
@@ -226,16 +232,17 @@ class DopInfo {
      * dopsTable initialization
      */
     static {
-        dopsTable = new Hashtable<String, DopInfo>();
+        Map<String, DopInfo> table = new HashMap<String, DopInfo>();
 
         for (int i = 0; i < Opcodes.MAX_VALUE - Opcodes.MIN_VALUE + 1; i++) {
             try {
                 Dop dop = Dops.get(i);
-                add(dop.getName(), dop, getArgsFormat(dop));
+                add(table, dop.getName(), dop, getArgsFormat(dop));
             } catch (Exception e) {
 
             }
         }
+        dopsTable = Collections.unmodifiableMap(table);
     }
 
 };
@@ -25,6 +25,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * DAsm entry point
@@ -57,6 +64,11 @@ public class Main {
      */
     private static boolean generateLineNumbers = false;
 
+    /**
+     * number of files assembled concurrently, 0 for sequential assembly
+     */
+    private static int numThreads = 0;
+
     private static void incompleteOption(String opt) {
         System.err.println("Command line option " + opt
                 + " required argument missed");
@@ -76,10 +88,15 @@ public class Main {
     /**
      * Called to assemble a single file.
      * 
+     * Every call uses its own DAsm, scanner and parser; the opcode, keyword
+     * and parser tables they share are immutable, so several files can be
+     * assembled concurrently.
+     * 
      * @param fname
      *            is the name of the file containing the DAsm source code.
+     * @return true if the .dex file was written
      */
-    public static void assemble(String fname) {
+    public static boolean assemble(String fname) {
         DAsm dAsm = new DAsm();
 
         // read and parse .d file
@@ -95,7 +112,7 @@ public class Main {
             if (DEBUG) e.printStackTrace();
             System.err.println("Exception <" + e.getClass().getName() + ">"
                     + e.getMessage() + " while reading and parsing " + fname);
-            return;
+            return false;
 
         } finally {
             close(inp);
@@ -104,7 +121,7 @@ public class Main {
         if (dAsm.errorCount() > 0) {
             System.err.println("Found " + dAsm.errorCount() + " errors "
                     + " while reading and parsing " + fname);
-            return;
+            return false;
         }
 
         String class_path[] = Utils
@@ -141,7 +158,7 @@ public class Main {
 
             if (!dest.isDirectory()) {
                 System.err.println("Cannot create directory " + dest_dir);
-                return;
+                return false;
             }
         }
 
@@ -164,13 +181,14 @@ public class Main {
             hr_file.delete();
             out_file.delete();
 
-            return;
+            return false;
         } finally {
             close(hr_outp);
             close(outp);
         }
 
         System.out.println("Generated: " + out_file.getPath());
+        return true;
     }
 
     private static void close(Closeable c) {
@@ -182,11 +200,73 @@ public class Main {
         }
     }
 
+    /**
+     * Assembles the given files on a pool of threads.
+     * 
+     * @return the number of files that failed to assemble
+     */
+    public static int assembleAll(List<String> files, int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(
+                    files.size());
+            for (final String fname : files) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return assemble(fname);
+                    }
+                }));
+            }
+            int failed = 0;
+            for (int i = 0; i < results.size(); i++) {
+                boolean ok = false;
+                try {
+                    ok = results.get(i).get();
+                } catch (ExecutionException e) {
+                    if (DEBUG) e.getCause().printStackTrace();
+                    System.err.println("Exception <"
+                            + e.getCause().getClass().getName() + ">"
+                            + e.getCause().getMessage() + " while assembling "
+                            + files.get(i));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return failed + results.size() - i;
+                }
+                if (!ok) failed++;
+            }
+            return failed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the names of the files to assemble, one per line, from a list
+     * file.
+     */
+    private static void readFileList(String fname, List<String> files) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(fname)));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) files.add(line);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read file list " + fname + ": "
+                    + e.getMessage());
+            System.exit(-1);
+        } finally {
+            close(reader);
+        }
+    }
+
     public static void main(String args[]) {
         int i;
 
-        String files[] = new String[args.length];
-        int num_files = 0;
+        List<String> files = new ArrayList<String>(args.length);
 
         if (args.length == 0) {
             printUsage();
@@ -217,25 +297,65 @@ public class Main {
                     incompleteOption("-e");
                 else
                     encoding = args[i];
+            } else if (args[i].equals("-j")) {
+                if (++i >= args.length)
+                    incompleteOption("-j");
+                else
+                    numThreads = parseThreadCount(args[i]);
+            } else if (args[i].startsWith("@")) {
+                readFileList(args[i].substring(1), files);
             } else {
-                files[num_files++] = args[i];
+                files.add(args[i]);
             }
         }
 
-        for (i = 0; i < num_files; i++) {
-            assemble(files[i]);
+        if (numThreads == 0) {
+            for (String fname : files) {
+                assemble(fname);
+            }
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int failed = assembleAll(files, numThreads);
+        System.out.println("Assembled " + (files.size() - failed) + " of "
+                + files.size() + " files in "
+                + (System.currentTimeMillis() - start) + " ms using "
+                + numThreads + (numThreads == 1 ? " thread" : " threads"));
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static int parseThreadCount(String arg) {
+        int threads = -1;
+        try {
+            threads = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+        }
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (threads < 0) {
+            System.err.println("Command line option -j requires a thread count,"
+                    + " got " + arg);
+            System.exit(-1);
         }
+        return threads;
     }
 
     static void printUsage() {
         System.err
-                .println("dasm [-d <outpath>] [-g] [-h] [-e <encoding>] <file>"
-                        + "[<file> ...]\n\n"
+                .println("dasm [-d <outpath>] [-g] [-h] [-e <encoding>]"
+                        + " [-j <threads>] <file>|@<listfile> "
+                        + "[<file>|@<listfile> ...]\n\n"
                         + "  -g - autogenerate linenumbers\n"
                         + "  -e - codepage for inputfile encoding\n"
                         + "  -d - path for generated classfiles\n"
                         + "  -h - generate human-readable output\n"
+                        + "  -j - assemble files concurrently on the given number\n"
+                        + "       of threads, 0 for one per processor. Exits with\n"
+                        + "       status 1 if any file failed to assemble\n"
                         + "  file  - sourcefile\n"
+                        + "  @listfile - file listing one sourcefile per line\n"
                         + "or: dasm -version\n"
                         + "or: dasm -help");
     }
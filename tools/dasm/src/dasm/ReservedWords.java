@@ -16,96 +16,100 @@
 
 package dasm;
 
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import java_cup.runtime.token;
 
 class ReservedWords {
-    static Hashtable<String, token> reserved_words;
+    // maps reserved word -> terminal symbol number. The table is immutable and
+    // shared by all scanners, so get() hands out a fresh token each time: the
+    // parser stores its state in every token it shifts.
+    private static final Map<String, Integer> reserved_words;
 
     public static token get(String name) {
-        return (token) reserved_words.get(name);
+        Integer sym_num = reserved_words.get(name);
+        return sym_num == null ? null : new token(sym_num.intValue());
     }
 
     public static boolean contains(String name) {
-        return reserved_words.get(name) != null;
+        return reserved_words.containsKey(name);
     }
 
     static {
-        reserved_words = new Hashtable<String, token>();
+        Map<String, Integer> words = new HashMap<String, Integer>();
 
         // Dasm directives
-        reserved_words.put(".annotation", new token(sym.DANNOTATION));
-        reserved_words.put(".attribute", new token(sym.DATTRIBUTE));
-        reserved_words.put(".bytecode", new token(sym.DBYTECODE));
-        reserved_words.put(".catch", new token(sym.DCATCH));
-        reserved_words.put(".class", new token(sym.DCLASS));
-        reserved_words.put(".deprecated", new token(sym.DDEPRECATED));
-        reserved_words.put(".end", new token(sym.DEND));
-        reserved_words.put(".field", new token(sym.DFIELD));
-        reserved_words.put(".implements", new token(sym.DIMPLEMENTS));
-        reserved_words.put(".inner", new token(sym.DINNER));
-        reserved_words.put(".interface", new token(sym.DINTERFACE));
-        reserved_words.put(".limit", new token(sym.DLIMIT));
-        reserved_words.put(".line", new token(sym.DLINE));
-        reserved_words.put(".method", new token(sym.DMETHOD));
-        reserved_words.put(".set", new token(sym.DSET));
-        reserved_words.put(".source", new token(sym.DSOURCE));
-        reserved_words.put(".super", new token(sym.DSUPER));
-        reserved_words.put(".throws", new token(sym.DTHROWS));
-        reserved_words.put(".var", new token(sym.DVAR));
-        reserved_words.put(".enclosing", new token(sym.DENCLOSING));
-        reserved_words.put(".signature", new token(sym.DSIGNATURE));
+        words.put(".annotation", sym.DANNOTATION);
+        words.put(".attribute", sym.DATTRIBUTE);
+        words.put(".bytecode", sym.DBYTECODE);
+        words.put(".catch", sym.DCATCH);
+        words.put(".class", sym.DCLASS);
+        words.put(".deprecated", sym.DDEPRECATED);
+        words.put(".end", sym.DEND);
+        words.put(".field", sym.DFIELD);
+        words.put(".implements", sym.DIMPLEMENTS);
+        words.put(".inner", sym.DINNER);
+        words.put(".interface", sym.DINTERFACE);
+        words.put(".limit", sym.DLIMIT);
+        words.put(".line", sym.DLINE);
+        words.put(".method", sym.DMETHOD);
+        words.put(".set", sym.DSET);
+        words.put(".source", sym.DSOURCE);
+        words.put(".super", sym.DSUPER);
+        words.put(".throws", sym.DTHROWS);
+        words.put(".var", sym.DVAR);
+        words.put(".enclosing", sym.DENCLOSING);
+        words.put(".signature", sym.DSIGNATURE);
 
         // reserved_words used in Dasm directives
-        reserved_words.put("field", new token(sym.FIELD));
-        reserved_words.put("from", new token(sym.FROM));
-        reserved_words.put("method", new token(sym.METHOD));
-        reserved_words.put("to", new token(sym.TO));
-        reserved_words.put("is", new token(sym.IS));
-        reserved_words.put("using", new token(sym.USING));
-        reserved_words.put("signature", new token(sym.SIGNATURE));
-        reserved_words.put("regs", new token(sym.REGS));
-        reserved_words.put("inner", new token(sym.INNER));
-        reserved_words.put("outer", new token(sym.OUTER));
-        reserved_words.put("class", new token(sym.CLASS));
-        reserved_words.put("visible", new token(sym.VISIBLE));
-        reserved_words.put("invisible", new token(sym.INVISIBLE));
-        reserved_words.put("visibleparam", new token(sym.VISIBLEPARAM));
-        reserved_words.put("invisibleparam", new token(sym.INVISIBLEPARAM));
+        words.put("field", sym.FIELD);
+        words.put("from", sym.FROM);
+        words.put("method", sym.METHOD);
+        words.put("to", sym.TO);
+        words.put("is", sym.IS);
+        words.put("using", sym.USING);
+        words.put("signature", sym.SIGNATURE);
+        words.put("regs", sym.REGS);
+        words.put("inner", sym.INNER);
+        words.put("outer", sym.OUTER);
+        words.put("class", sym.CLASS);
+        words.put("visible", sym.VISIBLE);
+        words.put("invisible", sym.INVISIBLE);
+        words.put("visibleparam", sym.VISIBLEPARAM);
+        words.put("invisibleparam", sym.INVISIBLEPARAM);
 
         // Special-case instructions
-        reserved_words.put("fill-array-data", new token(sym.FILL_ARRAY_DATA));
-        reserved_words.put("fill-array-data-end", new token(
-                sym.FILL_ARRAY_DATA_END));
-        reserved_words.put("packed-switch", new token(sym.PACKED_SWITCH));
-        reserved_words.put("packed-switch-end",
-                new token(sym.PACKED_SWITCH_END));
-        reserved_words.put("sparse-switch", new token(sym.SPARSE_SWITCH));
-        reserved_words.put("sparse-switch-end",
-                new token(sym.SPARSE_SWITCH_END));
-        reserved_words.put("default", new token(sym.DEFAULT));
+        words.put("fill-array-data", sym.FILL_ARRAY_DATA);
+        words.put("fill-array-data-end", sym.FILL_ARRAY_DATA_END);
+        words.put("packed-switch", sym.PACKED_SWITCH);
+        words.put("packed-switch-end", sym.PACKED_SWITCH_END);
+        words.put("sparse-switch", sym.SPARSE_SWITCH);
+        words.put("sparse-switch-end", sym.SPARSE_SWITCH_END);
+        words.put("default", sym.DEFAULT);
 
         // Access flags
-        reserved_words.put("public", new token(sym.PUBLIC));
-        reserved_words.put("private", new token(sym.PRIVATE));
-        reserved_words.put("protected", new token(sym.PROTECTED));
-        reserved_words.put("static", new token(sym.STATIC));
-        reserved_words.put("final", new token(sym.FINAL));
-        reserved_words.put("synchronized", new token(sym.SYNCHRONIZED));
-        reserved_words.put("declared_synchronized", new token(
-                sym.DECLARED_SYNCHRONIZED));
-        reserved_words.put("volatile", new token(sym.VOLATILE));
-        reserved_words.put("transient", new token(sym.TRANSIENT));
-        reserved_words.put("native", new token(sym.NATIVE));
-        reserved_words.put("interface", new token(sym.INTERFACE));
-        reserved_words.put("abstract", new token(sym.ABSTRACT));
+        words.put("public", sym.PUBLIC);
+        words.put("private", sym.PRIVATE);
+        words.put("protected", sym.PROTECTED);
+        words.put("static", sym.STATIC);
+        words.put("final", sym.FINAL);
+        words.put("synchronized", sym.SYNCHRONIZED);
+        words.put("declared_synchronized", sym.DECLARED_SYNCHRONIZED);
+        words.put("volatile", sym.VOLATILE);
+        words.put("transient", sym.TRANSIENT);
+        words.put("native", sym.NATIVE);
+        words.put("interface", sym.INTERFACE);
+        words.put("abstract", sym.ABSTRACT);
 
-        reserved_words.put("annotation", new token(sym.ANNOTATION));
-        reserved_words.put("enum", new token(sym.ENUM));
-        reserved_words.put("bridge", new token(sym.BRIDGE));
-        reserved_words.put("varargs", new token(sym.VARARGS));
-        reserved_words.put("fpstrict", new token(sym.STRICT));
-        reserved_words.put("synthetic", new token(sym.SYNTHETIC));
+        words.put("annotation", sym.ANNOTATION);
+        words.put("enum", sym.ENUM);
+        words.put("bridge", sym.BRIDGE);
+        words.put("varargs", sym.VARARGS);
+        words.put("fpstrict", sym.STRICT);
+        words.put("synthetic", sym.SYNTHETIC);
+
+        reserved_words = Collections.unmodifiableMap(words);
     }
 }
@@ -22,9 +22,11 @@ import dex.reader.DexFileReader.MethodsIdItem;
 import dex.reader.DexFileReader.ProtIdItem;
 import dex.structure.DexClass;
 import dex.structure.DexFile;
+import dex.structure.DexMethodReference;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /* package */final class DexFileImpl implements DexFile {
@@ -38,6 +40,7 @@ import java.util.List;
     private final DexBuffer buffer;
 
     private List<DexClass> classes = null;
+    private List<DexMethodReference> referencedMethods = null;
 
     public DexFileImpl(DexBuffer buffer, String[] stringPool, int[] typeIds,
             ProtIdItem[] protoIds, FieldIdItem[] fieldIdItems,
@@ -68,6 +71,59 @@ import java.util.List;
         return classes;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see dex.reader.DexFile#getReferencedMethods()
+     */
+    public synchronized List<DexMethodReference> getReferencedMethods() {
+        if (referencedMethods == null) {
+            boolean[] definedTypes = new boolean[typeIds.length];
+            for (ClassDefItem classDefItem : classDefItems) {
+                definedTypes[classDefItem.class_idx] = true;
+            }
+            // prototypes are shared by many methods, decode each only once
+            List<List<String>> parameterTypes = new ArrayList<List<String>>(
+                    Collections.<List<String>> nCopies(protoIdItems.length, null));
+            DexBuffer b = buffer.createCopy();
+
+            referencedMethods = new ArrayList<DexMethodReference>();
+            for (MethodsIdItem methodIdItem : methodIdItems) {
+                if (definedTypes[methodIdItem.class_idx]) {
+                    continue;
+                }
+                ProtIdItem protoIdItem = protoIdItems[methodIdItem.proto_idx];
+                List<String> methodParameterTypes = parameterTypes
+                        .get(methodIdItem.proto_idx);
+                if (methodParameterTypes == null) {
+                    methodParameterTypes = readTypeList(b,
+                            protoIdItem.parameter_off);
+                    parameterTypes.set(methodIdItem.proto_idx,
+                            methodParameterTypes);
+                }
+                referencedMethods.add(new DexMethodReferenceImpl(
+                        stringPool[typeIds[methodIdItem.class_idx]],
+                        stringPool[methodIdItem.name_idx],
+                        methodParameterTypes,
+                        stringPool[typeIds[protoIdItem.return_type_idx]]));
+            }
+        }
+        return referencedMethods;
+    }
+
+    private List<String> readTypeList(DexBuffer b, int offset) {
+        if (offset == 0) {
+            return Collections.emptyList();
+        }
+        b.setPosition(offset);
+        int size = b.readUInt();
+        List<String> types = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            types.add(stringPool[typeIds[b.readUShort()]]);
+        }
+        return Collections.unmodifiableList(types);
+    }
+
     @Override
     public String toString() {
         StringBuilder b = new StringBuilder();
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dex.reader;
+
+import dex.structure.DexMethodReference;
+
+import java.util.List;
+
+/* package */final class DexMethodReferenceImpl implements DexMethodReference {
+
+    private final String declaringClass;
+    private final String name;
+    private final List<String> parameterTypes;
+    private final String returnType;
+
+    public DexMethodReferenceImpl(String declaringClass, String name,
+            List<String> parameterTypes, String returnType) {
+        this.declaringClass = declaringClass;
+        this.name = name;
+        this.parameterTypes = parameterTypes;
+        this.returnType = returnType;
+    }
+
+    public String getDeclaringClass() {
+        return declaringClass;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public String getReturnType() {
+        return returnType;
+    }
+
+    @Override
+    public String toString() {
+        return declaringClass + "." + name + parameterTypes + returnType;
+    }
+}
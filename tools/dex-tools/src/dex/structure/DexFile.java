@@ -33,4 +33,15 @@ public interface DexFile extends NamedElement {
      */
     public List<DexClass> getDefinedClasses();
 
+    /**
+     * Returns a list of {@code DexMethodReference} elements for all methods
+     * that are referenced by, but not declared in, this {@code DexFile}.
+     * Methods are considered external if their declaring class is not one of
+     * the defined classes.
+     * 
+     * @return a list of methods referenced from outside of this {@code
+     *         DexFile}
+     */
+    public List<DexMethodReference> getReferencedMethods();
+
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dex.structure;
+
+import java.util.List;
+
+/**
+ * {@code DexMethodReference} represents a method that is referenced from a
+ * dex file, identified by its declaring class, name and prototype. All types
+ * are type descriptors, e.g. {@code Ljava/lang/Object;}.
+ */
+public interface DexMethodReference extends NamedElement {
+
+    /**
+     * Returns the type descriptor of the class declaring the referenced
+     * method.
+     *
+     * @return the type descriptor of the declaring class
+     */
+    public String getDeclaringClass();
+
+    /**
+     * Returns the type descriptors of the parameters of the referenced method.
+     *
+     * @return the type descriptors of the parameters
+     */
+    public List<String> getParameterTypes();
+
+    public String getReturnType();
+}
@@ -87,6 +87,8 @@ import signature.model.Kind;
 import signature.model.Modifier;
 import signature.model.impl.SigAnnotationElement;
 import signature.model.impl.SigArrayType;
+import signature.model.impl.SigClassDefinition;
+import signature.model.util.StructuralHash;
 
 import java.util.Arrays;
 import java.util.HashMap;
@@ -183,6 +185,11 @@ public class ApiComparator implements IApiComparator {
         assert from.getName().equals(to.getName());
         assert from.getPackageName().equals(to.getPackageName());
 
+        // structurally identical classes do not have any delta
+        if (sameStructure(from, to)) {
+            return null;
+        }
+
         SigClassDefinitionDelta classDelta = null;
 
         // modifiers
@@ -1399,7 +1406,7 @@ public class ApiComparator implements IApiComparator {
 
         if (from != null && to != null) {
 
-            if (from.getClass() != to.getClass()) {
+            if (!sameDeclarationKind(from, to)) {
                 delta = new SigGenericDeclarationDelta(from, to);
             } else if (from instanceof IClassDefinition) {
                 IClassDefinition fromDeclaringClass = (IClassDefinition) from;
@@ -1464,6 +1471,19 @@ public class ApiComparator implements IApiComparator {
         return delta;
     }
 
+    /**
+     * Compares the kind of two declaration sites. The implementation classes
+     * may differ, e.g. if one api has been loaded lazily.
+     */
+    private boolean sameDeclarationKind(IGenericDeclaration from,
+            IGenericDeclaration to) {
+        return (from instanceof IClassDefinition
+                && to instanceof IClassDefinition)
+                || (from instanceof IConstructor
+                        && to instanceof IConstructor)
+                || (from instanceof IMethod && to instanceof IMethod);
+    }
+
     private int getPositionOf(ITypeVariableDefinition variable,
             IGenericDeclaration declaration) {
         return declaration.getTypeParameters().indexOf(variable);
@@ -1682,6 +1702,17 @@ public class ApiComparator implements IApiComparator {
     }
 
 
+    private boolean sameStructure(IClassDefinition from,
+            IClassDefinition to) {
+        if (from instanceof SigClassDefinition
+                && to instanceof SigClassDefinition) {
+            long fromHash = ((SigClassDefinition) from).getStructuralHash();
+            long toHash = ((SigClassDefinition) to).getStructuralHash();
+            return fromHash != StructuralHash.UNKNOWN && fromHash == toHash;
+        }
+        return false;
+    }
+
     private boolean sameClassDefinition(IClassDefinition from,
             IClassDefinition to) {
         boolean sameName = from.getName().equals(to.getName());
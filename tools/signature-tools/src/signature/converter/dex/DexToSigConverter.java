@@ -83,6 +83,7 @@ import signature.model.impl.SigMethod;
 import signature.model.impl.SigPackage;
 import signature.model.impl.SigParameter;
 import signature.model.impl.Uninitialized;
+import signature.model.util.StructuralHash;
 import signature.model.util.TypePool;
 import dex.structure.DexAnnotation;
 import dex.structure.DexAnnotationAttribute;
@@ -131,6 +132,7 @@ public final class DexToSigConverter implements IClassInitializer {
         SigApi api = new SigApi(apiName, visibility);
         api.setPackages(convertPackages(dexFiles));
         factory.replaceAllUninitialiezWithNull();
+        StructuralHash.computeAll(api);
         return api;
     }
 
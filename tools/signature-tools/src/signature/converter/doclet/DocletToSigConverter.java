@@ -61,6 +61,7 @@ import signature.model.impl.SigParameter;
 import signature.model.impl.SigPrimitiveType;
 import signature.model.impl.SigTypeVariableDefinition;
 import signature.model.impl.SigTypeVariableReference;
+import signature.model.util.StructuralHash;
 import signature.model.util.TypePool;
 
 import com.sun.javadoc.AnnotationDesc;
@@ -105,6 +106,7 @@ public class DocletToSigConverter {
 
         SigApi sources = new SigApi(name, visibility);
         sources.setPackages(packages);
+        StructuralHash.computeAll(sources);
         return sources;
     }
 
@@ -16,6 +16,7 @@
 
 package signature.io.html;
 
+import org.antlr.stringtemplate.AutoIndentWriter;
 import org.antlr.stringtemplate.StringTemplate;
 
 import signature.Version;
@@ -28,20 +29,57 @@ import signature.io.IApiDeltaExternalizer;
 import signature.model.IClassDefinition;
 import signature.model.IPackage;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes an {@link IApiDelta} as a set of HTML pages. Every page is streamed
+ * straight to its file and the package and class pages, which do not depend
+ * on each other, are rendered concurrently.
+ */
 public class HtmlDeltaExternalizer implements IApiDeltaExternalizer {
 
     private static final String OVERVIEW_PAGE_NAME = "changes.html";
     private static final String STYLE_SHEET_NAME = "styles.css";
     private static final String DELTA_FOLDER = "changes" + File.separator;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int threadCount;
+
+    public HtmlDeltaExternalizer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threadCount
+     *            the number of threads rendering package and class pages
+     */
+    public HtmlDeltaExternalizer(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be >= 1");
+        }
+        this.threadCount = threadCount;
+    }
 
     public void externalize(String location, IApiDelta apiDelta)
             throws IOException {
@@ -63,48 +101,82 @@ public class HtmlDeltaExternalizer implements IApiDeltaExternalizer {
         commonInfos.put("to_desc", apiDelta.getTo().getName());
 
         // write overview page
-        StringBuilder content = new StringBuilder();
         ApiOverviewPage apiOverviewPage = new ApiOverviewPage(apiDelta,
                 commonInfos);
-        apiOverviewPage.writeTo(content);
-        writeToFile(location + OVERVIEW_PAGE_NAME, content.toString());
+        writeToFile(location + OVERVIEW_PAGE_NAME, apiOverviewPage);
+
+        // the remaining pages only read the common infos and may be written
+        // concurrently
+        commonInfos = Collections.unmodifiableMap(commonInfos);
 
-        // write package overview
         Set<IPackageDelta> changedPackages = SigDelta.getChanged(apiDelta
                 .getPackageDeltas());
-        if (!changedPackages.isEmpty()) {
+        if (changedPackages.isEmpty()) {
+            return;
+        }
 
-            File file = new File(location + DELTA_FOLDER);
-            if (!file.exists()) {
-                file.mkdir();
-            }
+        File file = new File(location + DELTA_FOLDER);
+        if (!file.exists()) {
+            file.mkdir();
+        }
 
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Void>> pages = new ArrayList<Future<Void>>();
             for (IPackageDelta packageDelta : changedPackages) {
-                content = new StringBuilder();
-                PackageOverviewPage packagePage = new PackageOverviewPage(
-                        packageDelta, commonInfos);
-                packagePage.writeTo(content);
+                // write package overview
                 IPackage aPackage = getAnElement(packageDelta);
                 String packageOverviewFileName = location + DELTA_FOLDER
                         + "pkg_" + aPackage.getName() + ".html";
-                writeToFile(packageOverviewFileName, content.toString());
+                pages.add(submitPage(executor, packageOverviewFileName,
+                        new PackageOverviewPage(packageDelta, commonInfos)));
 
                 // write class overviews
                 for (IClassDefinitionDelta classDelta : packageDelta
                         .getClassDeltas()) {
-                    content = new StringBuilder();
-                    ClassOverviewPage classPage = new ClassOverviewPage(
-                            classDelta, commonInfos);
-                    classPage.writeTo(content);
                     IClassDefinition aClass = getAnElement(classDelta);
                     String classOverviewFileName = location + DELTA_FOLDER
                             + aPackage.getName() + "." + aClass.getName()
                             + ".html";
-                    writeToFile(classOverviewFileName, content.toString());
+                    pages.add(submitPage(executor, classOverviewFileName,
+                            new ClassOverviewPage(classDelta, commonInfos)));
                 }
             }
+            for (Future<Void> page : pages) {
+                awaitPage(page);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Future<Void> submitPage(ExecutorService executor,
+            final String fileName, final IEmitter page) {
+        return executor.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                writeToFile(fileName, page);
+                return null;
+            }
+        });
+    }
+
+    private static void awaitPage(Future<Void> page) throws IOException {
+        try {
+            page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while writing pages");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
         }
-        // write class overview
     }
 
     private static <T> T getAnElement(IDelta<T> delta) {
@@ -116,16 +188,27 @@ public class HtmlDeltaExternalizer implements IApiDeltaExternalizer {
     }
 
     private void copyStyleSheet(String directory) throws IOException {
-        StringTemplate template = TemplateStore.getStringTemplate("Styles");
+        final StringTemplate template = TemplateStore
+                .getStringTemplate("Styles");
         template.setAttribute("version", Version.VERSION);
-        writeToFile(directory + STYLE_SHEET_NAME, template.toString());
+        writeToFile(directory + STYLE_SHEET_NAME, new IEmitter() {
+            public void writeTo(Writer out) throws IOException {
+                template.write(new AutoIndentWriter(out));
+            }
+        });
     }
 
-    private void writeToFile(String fileName, String content)
+    private void writeToFile(String fileName, IEmitter page)
             throws IOException {
-        FileOutputStream fileOutputStream = new FileOutputStream(fileName);
-        fileOutputStream.write(content.getBytes());
-        fileOutputStream.flush();
-        fileOutputStream.close();
+        FileChannel channel = new FileOutputStream(fileName).getChannel();
+        try {
+            Writer out = new BufferedWriter(Channels.newWriter(channel,
+                    Charset.defaultCharset().newEncoder(), BUFFER_SIZE),
+                    BUFFER_SIZE);
+            page.writeTo(out);
+            out.flush();
+        } finally {
+            channel.close();
+        }
     }
 }
@@ -16,6 +16,14 @@
 
 package signature.io.html;
 
+import java.io.IOException;
+import java.io.Writer;
+
 public interface IEmitter {
-    void writeTo(StringBuilder b);
+    /**
+     * Renders this page directly to the given writer. Pages are streamed
+     * rather than built up in memory, so a single page never has to be
+     * held as a whole.
+     */
+    void writeTo(Writer out) throws IOException;
 }
@@ -20,14 +20,22 @@ import signature.converter.Visibility;
 import signature.io.IApiExternalizer;
 import signature.io.IApiLoader;
 import signature.model.IApi;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.Set;
 
+/**
+ * Stores and loads APIs as binary signature files.
+ * <p>
+ * APIs are written in the compact format of {@link CompactApiWriter}. The
+ * loader accepts compact files as well as files which were written with Java
+ * serialization by earlier versions of this tool.
+ */
 public class BinaryApi implements IApiExternalizer, IApiLoader {
 
     public void externalizeApi(String fileName, IApi api) throws IOException {
@@ -40,12 +48,13 @@ public class BinaryApi implements IApiExternalizer, IApiLoader {
         File file = new File(directory, getFileName(api));
         file.createNewFile();
 
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(
                 file));
-        oos.writeObject(api);
-
-        oos.flush();
-        oos.close();
+        try {
+            new CompactApiWriter().write(api, out);
+        } finally {
+            out.close();
+        }
     }
 
     private String getFileName(IApi api) {
@@ -55,9 +64,6 @@ public class BinaryApi implements IApiExternalizer, IApiLoader {
     public IApi loadApi(String name, Visibility visibility,
             Set<String> fileNames, Set<String> packageNames) throws
             IOException {
-        System.err
-                .println("Binary signature loader ignores visibility and " +
-                        "package names.");
         if (fileNames.size() != 1) {
             throw new IllegalArgumentException(
                     "Only one file can be processed by the binary signature " +
@@ -65,6 +71,14 @@ public class BinaryApi implements IApiExternalizer, IApiLoader {
         }
         String fileName = fileNames.iterator().next();
         File file = new File(fileName);
+        if (CompactApiReader.isCompactFormat(file)) {
+            System.err.println("Binary signature loader ignores visibility.");
+            return new CompactApiReader(file).getApi(name, packageNames);
+        }
+
+        System.err
+                .println("Binary signature loader ignores visibility and " +
+                        "package names.");
         ObjectInputStream ois = new ObjectInputStream(
                 new FileInputStream(file));
         IApi sig = null;
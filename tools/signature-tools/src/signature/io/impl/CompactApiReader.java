@@ -0,0 +1,719 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import static signature.io.impl.CompactApiWriter.KIND_ANNOTATION_FIELD;
+import static signature.io.impl.CompactApiWriter.KIND_ENUM_CONSTANT;
+import static signature.io.impl.CompactFormat.*;
+
+import signature.converter.Visibility;
+import signature.io.impl.CompactFormat.Input;
+import signature.model.IAnnotation;
+import signature.model.IAnnotationElement;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IConstructor;
+import signature.model.IEnumConstant;
+import signature.model.IExecutableMember;
+import signature.model.IField;
+import signature.model.IGenericDeclaration;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.Kind;
+import signature.model.Modifier;
+import signature.model.impl.SigAnnotation;
+import signature.model.impl.SigAnnotationElement;
+import signature.model.impl.SigAnnotationField;
+import signature.model.impl.SigApi;
+import signature.model.impl.SigArrayType;
+import signature.model.impl.SigClassReference;
+import signature.model.impl.SigConstructor;
+import signature.model.impl.SigEnumConstant;
+import signature.model.impl.SigExecutableMember;
+import signature.model.impl.SigField;
+import signature.model.impl.SigMethod;
+import signature.model.impl.SigParameter;
+import signature.model.impl.SigParameterizedType;
+import signature.model.impl.SigPrimitiveType;
+import signature.model.impl.SigTypeVariableDefinition;
+import signature.model.impl.SigTypeVariableReference;
+import signature.model.impl.SigWildcardType;
+import signature.model.util.TypePool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads an api written by {@link CompactApiWriter}.
+ * <p>
+ * The file is memory mapped and only the string, class and package tables are
+ * decoded up front. The classes of a package are materialized the first time
+ * the package or one of its classes is inspected, strings and type references
+ * are decoded on first use.
+ */
+class CompactApiReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int UNLOADED = 0;
+    private static final int LOADING = 1;
+    private static final int LOADED = 2;
+
+    private final ByteBuffer buffer;
+    private final int dataOffset;
+    private final int stringsOffset;
+    private final int typesOffset;
+    private final String apiName;
+    private final Visibility visibility;
+
+    private final String[] strings;
+    private final ITypeReference[] types;
+    private final LazyClassDefinition[] classes;
+    private final int[] bodyOffsets;
+    private final Members[] members;
+    private final Segment[] segments;
+
+    /** Members of a materialized class, in the order they were written. */
+    private static class Members {
+        int detailsOffset;
+        IExecutableMember[] executables;
+        SigField[] fields;
+        SigEnumConstant[] enumConstants;
+        SigAnnotationField[] annotationFields;
+    }
+
+    private static class Segment {
+        String name;
+        boolean api;
+        int annotationsOffset;
+        int[] classIds;
+        int state = UNLOADED;
+        LazyPackage aPackage;
+    }
+
+    /**
+     * Returns whether the given file starts with the compact format magic.
+     */
+    static boolean isCompactFormat(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.length() >= HEADER_SIZE && raf.readInt() == MAGIC;
+        } finally {
+            raf.close();
+        }
+    }
+
+    CompactApiReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the channel is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+        } finally {
+            raf.close();
+        }
+
+        Input header = new Input(buffer, 0);
+        if (header.readInt() != MAGIC) {
+            throw new IOException(file + " is not a compact signature file");
+        }
+        int version = header.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported signature file version "
+                    + version + " in " + file);
+        }
+        dataOffset = header.readInt();
+        stringsOffset = header.readInt();
+        typesOffset = header.readInt();
+        int classesOffset = header.readInt();
+        int segmentsOffset = header.readInt();
+        int nameId = header.readInt();
+        int visibilityOrdinal = header.readInt();
+
+        strings = new String[buffer.getInt(stringsOffset)];
+        types = new ITypeReference[buffer.getInt(typesOffset)];
+        apiName = string(nameId);
+        visibility = visibilityOrdinal == 0 ? null
+                : Visibility.values()[visibilityOrdinal - 1];
+
+        Input in = new Input(buffer, classesOffset);
+        int classCount = in.readVarint();
+        classes = new LazyClassDefinition[classCount];
+        bodyOffsets = new int[classCount];
+        members = new Members[classCount];
+        for (int i = 0; i < classCount; i++) {
+            String packageName = string(in.readVarint());
+            String name = string(in.readVarint());
+            int segment = in.readVarint() - 1;
+            bodyOffsets[i] = in.readVarint() - 1;
+            classes[i] = new LazyClassDefinition(this, segment, packageName,
+                    name);
+            if (version >= VERSION_STRUCTURAL_HASH) {
+                long structuralHash = in.readVarlong();
+                if (version >= VERSION_HIERARCHY_HASH) {
+                    classes[i].setStructuralHash(structuralHash);
+                }
+            }
+            if (bodyOffsets[i] < 0) {
+                // class is only referenced from the api
+                TypePool.replaceUninitializedWithNull(classes[i]);
+            }
+        }
+
+        in = new Input(buffer, segmentsOffset);
+        segments = new Segment[in.readVarint()];
+        for (int i = 0; i < segments.length; i++) {
+            Segment segment = new Segment();
+            segment.name = string(in.readVarint());
+            segment.api = (in.readVarint() & SEGMENT_API) != 0;
+            segment.annotationsOffset = in.readVarint() - 1;
+            segment.classIds = new int[in.readVarint()];
+            for (int j = 0; j < segment.classIds.length; j++) {
+                segment.classIds[j] = in.readVarint();
+            }
+            if (segment.api) {
+                segment.aPackage = new LazyPackage(this, i, segment.name);
+            }
+            segments[i] = segment;
+        }
+    }
+
+    String getApiName() {
+        return apiName;
+    }
+
+    /**
+     * Returns an api containing the packages of this file. Packages are
+     * materialized on demand.
+     * 
+     * @param name
+     *            the name of the api, or {@code null} to use the stored name
+     * @param packageNames
+     *            the packages to include, all packages if empty
+     */
+    IApi getApi(String name, Set<String> packageNames) {
+        SigApi api = new SigApi(name != null ? name : apiName, visibility);
+        Set<IPackage> packages = new HashSet<IPackage>();
+        for (Segment segment : segments) {
+            if (segment.api && (packageNames == null || packageNames.isEmpty()
+                    || packageNames.contains(segment.name))) {
+                packages.add(segment.aPackage);
+            }
+        }
+        api.setPackages(packages);
+        return api;
+    }
+
+    /**
+     * Materializes all classes of the given segment, if not already done.
+     * Classes of a segment are loaded in two phases, first all members are
+     * created, then their types and annotations are resolved. Type variables
+     * and member references are only resolved after the first phase, so
+     * recursive requests for a segment which is currently loading can be
+     * ignored.
+     */
+    synchronized void ensureLoaded(int segmentIndex) {
+        if (segmentIndex < 0) {
+            return;
+        }
+        Segment segment = segments[segmentIndex];
+        if (segment.state != UNLOADED) {
+            return;
+        }
+        segment.state = LOADING;
+        for (int classId : segment.classIds) {
+            readSkeleton(classId);
+        }
+        for (int classId : segment.classIds) {
+            readDetails(classId);
+        }
+        if (segment.api) {
+            Set<IClassDefinition> packageClasses =
+                    new HashSet<IClassDefinition>();
+            for (int classId : segment.classIds) {
+                packageClasses.add(classes[classId]);
+            }
+            segment.aPackage.setClasses(packageClasses);
+            Set<IAnnotation> annotations = Collections.emptySet();
+            if (segment.annotationsOffset >= 0) {
+                annotations = readAnnotations(new Input(buffer, dataOffset
+                        + segment.annotationsOffset));
+            }
+            segment.aPackage.setAnnotations(annotations);
+        }
+        segment.state = LOADED;
+    }
+
+    private String string(int id) {
+        String s = strings[id];
+        if (s == null) {
+            int entries = stringsOffset + 4 + 4 * strings.length;
+            Input in = new Input(buffer, entries
+                    + buffer.getInt(stringsOffset + 4 + 4 * id));
+            byte[] bytes = new byte[in.readVarint()];
+            ByteBuffer source = buffer.duplicate();
+            source.position(in.position());
+            source.get(bytes);
+            s = new String(bytes, UTF_8);
+            strings[id] = s;
+        }
+        return s;
+    }
+
+    private ITypeReference type(int id) {
+        ITypeReference type = types[id];
+        if (type == null) {
+            int entries = typesOffset + 4 + 4 * types.length;
+            type = readType(new Input(buffer, entries
+                    + buffer.getInt(typesOffset + 4 + 4 * id)));
+            types[id] = type;
+        }
+        return type;
+    }
+
+    private ITypeReference nullableType(int id) {
+        return id == 0 ? null : type(id - 1);
+    }
+
+    private ITypeReference readType(Input in) {
+        switch (in.readVarint()) {
+        case TYPE_PRIMITIVE:
+            return SigPrimitiveType.values()[in.readVarint()];
+        case TYPE_CLASS:
+            return new SigClassReference(classes[in.readVarint()]);
+        case TYPE_ARRAY:
+            return new SigArrayType(type(in.readVarint()));
+        case TYPE_PARAMETERIZED: {
+            ITypeReference ownerType = nullableType(in.readVarint());
+            SigClassReference rawType = new SigClassReference(
+                    classes[in.readVarint()]);
+            return new SigParameterizedType(ownerType, rawType,
+                    readTypeList(in));
+        }
+        case TYPE_WILDCARD: {
+            ITypeReference lowerBound = nullableType(in.readVarint());
+            return new SigWildcardType(lowerBound, readTypeList(in));
+        }
+        case TYPE_VARIABLE: {
+            int classId = in.readVarint();
+            int slot = in.readVarint();
+            String name = string(in.readVarint());
+            ensureLoaded(classes[classId].getSegment());
+            List<ITypeVariableDefinition> typeParameters;
+            if (slot == 0) {
+                typeParameters = classes[classId].getTypeParameters();
+            } else {
+                typeParameters = members(classId).executables[slot - 1]
+                        .getTypeParameters();
+            }
+            for (ITypeVariableDefinition typeParameter : typeParameters) {
+                if (typeParameter.getName().equals(name)) {
+                    return new SigTypeVariableReference(typeParameter);
+                }
+            }
+            throw new IllegalStateException("Unknown type variable " + name
+                    + " in " + classes[classId].getQualifiedName());
+        }
+        default:
+            throw new IllegalStateException("Corrupt type table");
+        }
+    }
+
+    private List<ITypeReference> readTypeList(Input in) {
+        int count = in.readVarint();
+        List<ITypeReference> list = new ArrayList<ITypeReference>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(type(in.readVarint()));
+        }
+        return list;
+    }
+
+    private List<ITypeReference> readNullableTypeList(Input in) {
+        int count = in.readVarint() - 1;
+        if (count < 0) {
+            return null;
+        }
+        List<ITypeReference> list = new ArrayList<ITypeReference>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(type(in.readVarint()));
+        }
+        return list;
+    }
+
+    private Set<ITypeReference> readNullableTypeSet(Input in) {
+        List<ITypeReference> list = readNullableTypeList(in);
+        return list == null ? null : new HashSet<ITypeReference>(list);
+    }
+
+    private IClassDefinition nullableClass(int id) {
+        return id == 0 ? null : classes[id - 1];
+    }
+
+    private Members members(int classId) {
+        Members classMembers = members[classId];
+        if (classMembers == null) {
+            throw new IllegalStateException("Class "
+                    + classes[classId].getQualifiedName()
+                    + " has not been materialized");
+        }
+        return classMembers;
+    }
+
+    private static Set<Modifier> readModifiers(Input in) {
+        int mask = in.readVarint() - 1;
+        if (mask < 0) {
+            return null;
+        }
+        Set<Modifier> modifiers = EnumSet.noneOf(Modifier.class);
+        for (Modifier modifier : Modifier.values()) {
+            if ((mask & (1 << modifier.ordinal())) != 0) {
+                modifiers.add(modifier);
+            }
+        }
+        return modifiers;
+    }
+
+    private List<ITypeVariableDefinition> readTypeParameterNames(Input in,
+            IGenericDeclaration declaration) {
+        int count = in.readVarint() - 1;
+        if (count < 0) {
+            return null;
+        }
+        List<ITypeVariableDefinition> typeParameters =
+                new ArrayList<ITypeVariableDefinition>(count);
+        for (int i = 0; i < count; i++) {
+            typeParameters.add(new SigTypeVariableDefinition(string(in
+                    .readVarint()), declaration));
+        }
+        return typeParameters;
+    }
+
+    private void readTypeParameterBounds(Input in,
+            List<ITypeVariableDefinition> typeParameters) {
+        if (typeParameters != null) {
+            for (ITypeVariableDefinition typeParameter : typeParameters) {
+                ((SigTypeVariableDefinition) typeParameter)
+                        .setUpperBounds(readNullableTypeList(in));
+            }
+        }
+    }
+
+    private String[] readNames(Input in) {
+        int count = in.readVarint() - 1;
+        if (count < 0) {
+            return null;
+        }
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = string(in.readVarint());
+        }
+        return names;
+    }
+
+    private static <T> Set<T> asSet(T[] elements) {
+        if (elements == null) {
+            return null;
+        }
+        Set<T> set = new HashSet<T>(elements.length * 2);
+        Collections.addAll(set, elements);
+        return set;
+    }
+
+    private void readSkeleton(int classId) {
+        LazyClassDefinition clazz = classes[classId];
+        Members classMembers = new Members();
+        Input in = new Input(buffer, dataOffset + bodyOffsets[classId]);
+
+        clazz.setKind(Kind.values()[in.readVarint() - 1]);
+        clazz.setTypeParameters(readTypeParameterNames(in, clazz));
+
+        int constructorCount = in.readVarint() - 1;
+        IConstructor[] constructors = null;
+        if (constructorCount >= 0) {
+            constructors = new IConstructor[constructorCount];
+            for (int i = 0; i < constructorCount; i++) {
+                SigConstructor constructor = new SigConstructor(string(in
+                        .readVarint()));
+                constructor.setTypeParameters(readTypeParameterNames(in,
+                        constructor));
+                constructors[i] = constructor;
+            }
+        }
+        int methodCount = in.readVarint() - 1;
+        IMethod[] methods = null;
+        if (methodCount >= 0) {
+            methods = new IMethod[methodCount];
+            for (int i = 0; i < methodCount; i++) {
+                SigMethod method = new SigMethod(string(in.readVarint()));
+                method.setTypeParameters(readTypeParameterNames(in, method));
+                methods[i] = method;
+            }
+        }
+        classMembers.executables = new IExecutableMember[Math.max(
+                constructorCount, 0)
+                + Math.max(methodCount, 0)];
+        if (constructors != null) {
+            System.arraycopy(constructors, 0, classMembers.executables, 0,
+                    constructorCount);
+        }
+        if (methods != null) {
+            System.arraycopy(methods, 0, classMembers.executables, Math.max(
+                    constructorCount, 0), methodCount);
+        }
+        clazz.setConstructors(asSet(constructors));
+        clazz.setMethods(asSet(methods));
+
+        String[] names = readNames(in);
+        if (names != null) {
+            classMembers.fields = new SigField[names.length];
+            for (int i = 0; i < names.length; i++) {
+                classMembers.fields[i] = new SigField(names[i]);
+            }
+        }
+        names = readNames(in);
+        if (names != null) {
+            classMembers.enumConstants = new SigEnumConstant[names.length];
+            for (int i = 0; i < names.length; i++) {
+                classMembers.enumConstants[i] = new SigEnumConstant(names[i]);
+            }
+            for (SigEnumConstant enumConstant : classMembers.enumConstants) {
+                int ordinal = in.readVarint() - 1;
+                if (ordinal >= 0) {
+                    enumConstant.setOrdinal(ordinal);
+                }
+            }
+        }
+        names = readNames(in);
+        if (names != null) {
+            classMembers.annotationFields =
+                    new SigAnnotationField[names.length];
+            for (int i = 0; i < names.length; i++) {
+                classMembers.annotationFields[i] = new SigAnnotationField(
+                        names[i]);
+            }
+        }
+        clazz.setFields(classMembers.fields == null ? null
+                : new HashSet<IField>(asSet(classMembers.fields)));
+        clazz.setEnumConstants(classMembers.enumConstants == null ? null
+                : new HashSet<IEnumConstant>(asSet(
+                        classMembers.enumConstants)));
+        clazz.setAnnotationFields(classMembers.annotationFields == null ? null
+                : new HashSet<IAnnotationField>(asSet(
+                        classMembers.annotationFields)));
+
+        classMembers.detailsOffset = in.position();
+        members[classId] = classMembers;
+    }
+
+    private void readDetails(int classId) {
+        LazyClassDefinition clazz = classes[classId];
+        Members classMembers = members[classId];
+        Input in = new Input(buffer, classMembers.detailsOffset);
+
+        clazz.setModifiers(readModifiers(in));
+        clazz.setDeclaringClass(nullableClass(in.readVarint()));
+        clazz.setSuperClass(nullableType(in.readVarint()));
+        clazz.setInterfaces(readNullableTypeSet(in));
+        int innerClassCount = in.readVarint() - 1;
+        if (innerClassCount < 0) {
+            clazz.setInnerClasses(null);
+        } else {
+            Set<IClassDefinition> innerClasses =
+                    new HashSet<IClassDefinition>();
+            for (int i = 0; i < innerClassCount; i++) {
+                innerClasses.add(classes[in.readVarint()]);
+            }
+            clazz.setInnerClasses(innerClasses);
+        }
+        clazz.setAnnotations(readAnnotations(in));
+        readTypeParameterBounds(in, clazz.getTypeParameters());
+
+        for (IExecutableMember executable : classMembers.executables) {
+            readExecutable(in, (SigExecutableMember) executable);
+            if (executable instanceof SigMethod) {
+                ((SigMethod) executable).setReturnType(nullableType(in
+                        .readVarint()));
+            }
+        }
+        readFields(in, classMembers.fields);
+        readFields(in, classMembers.enumConstants);
+        readFields(in, classMembers.annotationFields);
+        if (classMembers.annotationFields != null) {
+            for (SigAnnotationField annotationField
+                    : classMembers.annotationFields) {
+                annotationField.setDefaultValue(readValue(in));
+            }
+        }
+    }
+
+    private void readExecutable(Input in, SigExecutableMember executable) {
+        executable.setModifiers(readModifiers(in));
+        executable.setDeclaringClass(nullableClass(in.readVarint()));
+        int parameterCount = in.readVarint() - 1;
+        if (parameterCount < 0) {
+            executable.setParameters(null);
+        } else {
+            List<IParameter> parameters = new ArrayList<IParameter>(
+                    parameterCount);
+            for (int i = 0; i < parameterCount; i++) {
+                SigParameter parameter = new SigParameter(nullableType(in
+                        .readVarint()));
+                parameter.setAnnotations(readAnnotations(in));
+                parameters.add(parameter);
+            }
+            executable.setParameters(parameters);
+        }
+        executable.setExceptions(readNullableTypeSet(in));
+        readTypeParameterBounds(in, executable.getTypeParameters());
+        executable.setAnnotations(readAnnotations(in));
+    }
+
+    private void readFields(Input in, SigField[] fields) {
+        if (fields != null) {
+            for (SigField field : fields) {
+                field.setModifiers(readModifiers(in));
+                field.setType(nullableType(in.readVarint()));
+                field.setAnnotations(readAnnotations(in));
+            }
+        }
+    }
+
+    private Set<IAnnotation> readAnnotations(Input in) {
+        int count = in.readVarint() - 1;
+        if (count < 0) {
+            return null;
+        }
+        Set<IAnnotation> annotations = new HashSet<IAnnotation>();
+        for (int i = 0; i < count; i++) {
+            annotations.add(readAnnotation(in));
+        }
+        return annotations;
+    }
+
+    private IAnnotation readAnnotation(Input in) {
+        SigAnnotation annotation = new SigAnnotation();
+        IClassDefinition type = nullableClass(in.readVarint());
+        annotation.setType(type == null ? null : new SigClassReference(type));
+        int count = in.readVarint() - 1;
+        if (count < 0) {
+            annotation.setElements(null);
+        } else {
+            Set<IAnnotationElement> elements =
+                    new HashSet<IAnnotationElement>();
+            for (int i = 0; i < count; i++) {
+                SigAnnotationElement element = new SigAnnotationElement();
+                element.setDeclaringField((IAnnotationField) readMember(in));
+                element.setValue(readValue(in));
+                elements.add(element);
+            }
+            annotation.setElements(elements);
+        }
+        return annotation;
+    }
+
+    private IField readMember(Input in) {
+        switch (in.readVarint()) {
+        case MEMBER_NULL:
+            return null;
+        case MEMBER_DECLARED: {
+            int classId = in.readVarint();
+            int kind = in.readVarint();
+            int slot = in.readVarint();
+            ensureLoaded(classes[classId].getSegment());
+            Members classMembers = members(classId);
+            if (kind == KIND_ENUM_CONSTANT) {
+                return classMembers.enumConstants[slot];
+            } else if (kind == KIND_ANNOTATION_FIELD) {
+                return classMembers.annotationFields[slot];
+            }
+            return classMembers.fields[slot];
+        }
+        case MEMBER_DETACHED: {
+            int kind = in.readVarint();
+            String name = string(in.readVarint());
+            SigField field;
+            if (kind == KIND_ENUM_CONSTANT) {
+                field = new SigEnumConstant(name);
+            } else if (kind == KIND_ANNOTATION_FIELD) {
+                field = new SigAnnotationField(name);
+            } else {
+                field = new SigField(name);
+            }
+            field.setModifiers(readModifiers(in));
+            field.setType(nullableType(in.readVarint()));
+            return field;
+        }
+        default:
+            throw new IllegalStateException("Corrupt member reference");
+        }
+    }
+
+    private Object readValue(Input in) {
+        switch (in.readVarint()) {
+        case VALUE_NULL:
+            return null;
+        case VALUE_BOOLEAN:
+            return in.readVarint() != 0;
+        case VALUE_BYTE:
+            return (byte) in.readVarint();
+        case VALUE_CHAR:
+            return (char) in.readVarint();
+        case VALUE_SHORT:
+            return (short) in.readVarint();
+        case VALUE_INT:
+            return in.readVarint();
+        case VALUE_LONG:
+            return in.readVarlong();
+        case VALUE_FLOAT:
+            return Float.intBitsToFloat(in.readInt());
+        case VALUE_DOUBLE:
+            return Double.longBitsToDouble(in.readVarlong());
+        case VALUE_STRING:
+            return string(in.readVarint());
+        case VALUE_ARRAY: {
+            Object[] values = new Object[in.readVarint()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readValue(in);
+            }
+            return values;
+        }
+        case VALUE_ANNOTATION:
+            return readAnnotation(in);
+        case VALUE_FIELD:
+        case VALUE_ENUM_CONSTANT:
+            return readMember(in);
+        case VALUE_TYPE:
+            return type(in.readVarint());
+        default:
+            throw new IllegalStateException("Corrupt annotation value");
+        }
+    }
+}
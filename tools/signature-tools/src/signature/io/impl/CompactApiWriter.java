@@ -0,0 +1,755 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import static signature.io.impl.CompactFormat.*;
+
+import signature.io.impl.CompactFormat.Output;
+import signature.model.IAnnotatableElement;
+import signature.model.IAnnotation;
+import signature.model.IAnnotationElement;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IArrayType;
+import signature.model.IClassDefinition;
+import signature.model.IClassReference;
+import signature.model.IConstructor;
+import signature.model.IEnumConstant;
+import signature.model.IExecutableMember;
+import signature.model.IField;
+import signature.model.IGenericDeclaration;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.IParameterizedType;
+import signature.model.IPrimitiveType;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.ITypeVariableReference;
+import signature.model.IWildcardType;
+import signature.model.Modifier;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.SigPrimitiveType;
+import signature.model.impl.Uninitialized;
+import signature.model.util.StructuralHash;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes an {@link IApi} in the compact binary signature format described in
+ * {@link CompactFormat}.
+ * <p>
+ * Strings and type references are interned, every class definition which is
+ * reachable from the api is written once, and classes are grouped per package
+ * so that {@link CompactApiReader} can materialize packages independently.
+ * <br>
+ * Note: This class is not thread save
+ */
+class CompactApiWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, Integer> stringIds =
+            new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    private final Map<String, Integer> typeIds = new HashMap<String, Integer>();
+    private final List<Output> types = new ArrayList<Output>();
+
+    private final Map<IClassDefinition, Integer> classIds =
+            new HashMap<IClassDefinition, Integer>();
+    private final List<ClassInfo> classes = new ArrayList<ClassInfo>();
+
+    /** Maps declared members to their {@link MemberSlot}. */
+    private final Map<Object, MemberSlot> memberSlots =
+            new IdentityHashMap<Object, MemberSlot>();
+
+    private final Output data = new Output();
+
+    private static class ClassInfo {
+        final IClassDefinition definition;
+        final boolean hasBody;
+        int segment = -1;
+        int bodyOffset = -1;
+        List<IConstructor> constructors;
+        List<IMethod> methods;
+        List<IField> fields;
+        List<IEnumConstant> enumConstants;
+        List<IAnnotationField> annotationFields;
+
+        ClassInfo(IClassDefinition definition, boolean hasBody) {
+            this.definition = definition;
+            this.hasBody = hasBody;
+        }
+    }
+
+    private static class MemberSlot {
+        final int classId;
+        final int kind;
+        final int slot;
+
+        MemberSlot(int classId, int kind, int slot) {
+            this.classId = classId;
+            this.kind = kind;
+            this.slot = slot;
+        }
+    }
+
+    // member kinds, used for member references
+    static final int KIND_FIELD = 0;
+    static final int KIND_ENUM_CONSTANT = 1;
+    static final int KIND_ANNOTATION_FIELD = 2;
+    static final int KIND_EXECUTABLE = 3;
+
+    public void write(IApi api, OutputStream out) throws IOException {
+        int nameId = stringId(api.getName());
+
+        // api packages form the first segments, in iteration order
+        List<IPackage> packages = new ArrayList<IPackage>(api.getPackages());
+        for (int i = 0; i < packages.size(); i++) {
+            for (IClassDefinition clazz : packages.get(i).getClasses()) {
+                classes.get(classId(clazz)).segment = i;
+            }
+        }
+        int[] packageAnnotations = new int[packages.size()];
+        for (int i = 0; i < packages.size(); i++) {
+            Set<IAnnotation> annotations = packages.get(i).getAnnotations();
+            if (annotations == null || annotations.isEmpty()) {
+                packageAnnotations[i] = -1;
+            } else {
+                packageAnnotations[i] = data.size();
+                Output o = new Output();
+                writeAnnotations(o, annotations);
+                data.writeOutput(o);
+            }
+        }
+
+        // classes list grows while bodies are written
+        for (int i = 0; i < classes.size(); i++) {
+            ClassInfo info = classes.get(i);
+            if (info.hasBody) {
+                Output o = new Output();
+                writeClassBody(o, info);
+                info.bodyOffset = data.size();
+                data.writeOutput(o);
+            }
+        }
+
+        // classes which are not part of an api package are grouped per
+        // package name into auxiliary segments
+        Map<String, List<Integer>> auxiliary =
+                new LinkedHashMap<String, List<Integer>>();
+        List<List<Integer>> segmentClasses = new ArrayList<List<Integer>>();
+        for (int i = 0; i < packages.size(); i++) {
+            segmentClasses.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < classes.size(); i++) {
+            ClassInfo info = classes.get(i);
+            if (info.segment >= 0) {
+                segmentClasses.get(info.segment).add(i);
+            } else if (info.hasBody) {
+                String packageName = info.definition.getPackageName();
+                List<Integer> members = auxiliary.get(packageName);
+                if (members == null) {
+                    members = new ArrayList<Integer>();
+                    auxiliary.put(packageName, members);
+                }
+                members.add(i);
+            }
+        }
+        for (List<Integer> members : auxiliary.values()) {
+            int segment = segmentClasses.size();
+            segmentClasses.add(members);
+            for (int classId : members) {
+                classes.get(classId).segment = segment;
+            }
+        }
+
+        Output segments = new Output();
+        segments.writeVarint(segmentClasses.size());
+        int segment = 0;
+        for (IPackage aPackage : packages) {
+            segments.writeVarint(stringId(aPackage.getName()));
+            segments.writeVarint(SEGMENT_API);
+            segments.writeVarint(packageAnnotations[segment] + 1);
+            writeClassIds(segments, segmentClasses.get(segment));
+            segment++;
+        }
+        for (Map.Entry<String, List<Integer>> entry : auxiliary.entrySet()) {
+            segments.writeVarint(stringId(entry.getKey()));
+            segments.writeVarint(0);
+            segments.writeVarint(0);
+            writeClassIds(segments, entry.getValue());
+        }
+
+        Output classTable = new Output();
+        classTable.writeVarint(classes.size());
+        for (ClassInfo info : classes) {
+            classTable.writeVarint(stringId(info.definition.getPackageName()));
+            classTable.writeVarint(stringId(info.definition.getName()));
+            classTable.writeVarint(info.segment + 1);
+            classTable.writeVarint(info.bodyOffset + 1);
+            classTable.writeVarlong(structuralHash(info, packages.size()));
+        }
+
+        Output typeTable = indexed(types);
+
+        List<Output> encodedStrings = new ArrayList<Output>(strings.size());
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(UTF_8);
+            Output o = new Output();
+            o.writeVarint(bytes.length);
+            o.write(bytes, 0, bytes.length);
+            encodedStrings.add(o);
+        }
+        Output stringTable = indexed(encodedStrings);
+
+        int dataOffset = HEADER_SIZE;
+        int stringsOffset = dataOffset + data.size();
+        int typesOffset = stringsOffset + stringTable.size();
+        int classesOffset = typesOffset + typeTable.size();
+        int segmentsOffset = classesOffset + classTable.size();
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(dataOffset);
+        dos.writeInt(stringsOffset);
+        dos.writeInt(typesOffset);
+        dos.writeInt(classesOffset);
+        dos.writeInt(segmentsOffset);
+        dos.writeInt(nameId);
+        dos.writeInt(api.getVisibility() == null ? 0 : api.getVisibility()
+                .ordinal() + 1);
+        data.writeTo(dos);
+        stringTable.writeTo(dos);
+        typeTable.writeTo(dos);
+        classTable.writeTo(dos);
+        segments.writeTo(dos);
+        dos.flush();
+    }
+
+    /**
+     * Returns the stored structural hash of a class, computing it for api
+     * classes which have been created without one.
+     */
+    private static long structuralHash(ClassInfo info, int apiSegments) {
+        long hash = StructuralHash.UNKNOWN;
+        if (info.definition instanceof SigClassDefinition) {
+            hash = ((SigClassDefinition) info.definition).getStructuralHash();
+        }
+        if (hash == StructuralHash.UNKNOWN && info.hasBody
+                && info.segment < apiSegments) {
+            hash = StructuralHash.compute(info.definition);
+        }
+        return hash;
+    }
+
+    /**
+     * Concatenates the given entries, preceded by their count and a fixed
+     * width offset index which allows random access.
+     */
+    private static Output indexed(List<Output> entries) {
+        Output o = new Output();
+        o.writeInt(entries.size());
+        int offset = 0;
+        for (Output entry : entries) {
+            o.writeInt(offset);
+            offset += entry.size();
+        }
+        for (Output entry : entries) {
+            o.writeOutput(entry);
+        }
+        return o;
+    }
+
+    private static void writeClassIds(Output o, List<Integer> classIds) {
+        o.writeVarint(classIds.size());
+        for (int classId : classIds) {
+            o.writeVarint(classId);
+        }
+    }
+
+    private static <T> T initialized(T value) {
+        return Uninitialized.isInitialized(value) ? value : null;
+    }
+
+    private int stringId(String s) {
+        Integer id = stringIds.get(s);
+        if (id == null) {
+            id = strings.size();
+            strings.add(s);
+            stringIds.put(s, id);
+        }
+        return id;
+    }
+
+    private int classId(IClassDefinition clazz) {
+        Integer id = classIds.get(clazz);
+        if (id == null) {
+            id = classes.size();
+            ClassInfo info = new ClassInfo(clazz, initialized(clazz.getKind())
+                    != null);
+            classes.add(info);
+            classIds.put(clazz, id);
+            if (info.hasBody) {
+                registerMembers(id, info);
+            }
+        }
+        return id;
+    }
+
+    private int nullableClassId(IClassDefinition clazz) {
+        clazz = initialized(clazz);
+        return clazz == null ? 0 : classId(clazz) + 1;
+    }
+
+    /**
+     * Snapshots the members of a class definition, so that references to them
+     * can be written before the body of the declaring class.
+     */
+    private void registerMembers(int classId, ClassInfo info) {
+        IClassDefinition clazz = info.definition;
+        info.constructors = snapshot(clazz.getConstructors());
+        info.methods = snapshot(clazz.getMethods());
+        info.fields = snapshot(clazz.getFields());
+        info.enumConstants = snapshot(clazz.getEnumConstants());
+        info.annotationFields = snapshot(clazz.getAnnotationFields());
+
+        int slot = 1;
+        if (info.constructors != null) {
+            for (IConstructor constructor : info.constructors) {
+                memberSlots.put(constructor, new MemberSlot(classId,
+                        KIND_EXECUTABLE, slot++));
+            }
+        }
+        if (info.methods != null) {
+            for (IMethod method : info.methods) {
+                memberSlots.put(method, new MemberSlot(classId,
+                        KIND_EXECUTABLE, slot++));
+            }
+        }
+        registerFields(classId, KIND_FIELD, info.fields);
+        registerFields(classId, KIND_ENUM_CONSTANT, info.enumConstants);
+        registerFields(classId, KIND_ANNOTATION_FIELD, info.annotationFields);
+    }
+
+    private void registerFields(int classId, int kind,
+            List<? extends IField> fields) {
+        if (fields != null) {
+            int slot = 0;
+            for (IField field : fields) {
+                memberSlots.put(field, new MemberSlot(classId, kind, slot++));
+            }
+        }
+    }
+
+    private static <T> List<T> snapshot(Collection<T> elements) {
+        elements = initialized(elements);
+        return elements == null ? null : new ArrayList<T>(elements);
+    }
+
+    private int typeId(ITypeReference type) {
+        Output o = new Output();
+        if (type instanceof IPrimitiveType) {
+            o.writeVarint(TYPE_PRIMITIVE);
+            o.writeVarint(SigPrimitiveType.valueOfTypeName(
+                    ((IPrimitiveType) type).getName()).ordinal());
+        } else if (type instanceof IClassReference) {
+            o.writeVarint(TYPE_CLASS);
+            o.writeVarint(classId(((IClassReference) type)
+                    .getClassDefinition()));
+        } else if (type instanceof IArrayType) {
+            int componentType = typeId(((IArrayType) type).getComponentType());
+            o.writeVarint(TYPE_ARRAY);
+            o.writeVarint(componentType);
+        } else if (type instanceof IParameterizedType) {
+            IParameterizedType parameterizedType = (IParameterizedType) type;
+            ITypeReference ownerType = parameterizedType.getOwnerType();
+            if (ownerType instanceof IClassReference
+                    && !Uninitialized.isInitialized(
+                            ((IClassReference) ownerType)
+                                    .getClassDefinition())) {
+                ownerType = null;
+            }
+            int owner = nullableTypeId(ownerType);
+            int rawType = classId(parameterizedType.getRawType()
+                    .getClassDefinition());
+            int[] arguments = typeIds(parameterizedType.getTypeArguments());
+            o.writeVarint(TYPE_PARAMETERIZED);
+            o.writeVarint(owner);
+            o.writeVarint(rawType);
+            writeIds(o, arguments);
+        } else if (type instanceof IWildcardType) {
+            IWildcardType wildcardType = (IWildcardType) type;
+            int lowerBound = nullableTypeId(wildcardType.getLowerBound());
+            int[] upperBounds = typeIds(wildcardType.getUpperBounds());
+            o.writeVarint(TYPE_WILDCARD);
+            o.writeVarint(lowerBound);
+            writeIds(o, upperBounds);
+        } else if (type instanceof ITypeVariableReference) {
+            ITypeVariableDefinition definition = ((ITypeVariableReference) type)
+                    .getTypeVariableDefinition();
+            IGenericDeclaration declaration = definition
+                    .getGenericDeclaration();
+            int classId;
+            int slot;
+            if (declaration instanceof IClassDefinition) {
+                classId = classId((IClassDefinition) declaration);
+                slot = 0;
+            } else {
+                // registers the members of the declaring class
+                nullableClassId(declaration.getDeclaringClass());
+                MemberSlot memberSlot = memberSlots.get(declaration);
+                if (memberSlot == null) {
+                    throw new IllegalStateException("Declaration of type "
+                            + "variable " + definition.getName()
+                            + " is not a member of "
+                            + declaration.getDeclaringClass());
+                }
+                classId = memberSlot.classId;
+                slot = memberSlot.slot;
+            }
+            o.writeVarint(TYPE_VARIABLE);
+            o.writeVarint(classId);
+            o.writeVarint(slot);
+            o.writeVarint(stringId(definition.getName()));
+        } else {
+            throw new IllegalArgumentException("Unknown type reference: "
+                    + type);
+        }
+
+        String key = o.toKey();
+        Integer id = typeIds.get(key);
+        if (id == null) {
+            id = types.size();
+            types.add(o);
+            typeIds.put(key, id);
+        }
+        return id;
+    }
+
+    private int nullableTypeId(ITypeReference type) {
+        type = initialized(type);
+        return type == null ? 0 : typeId(type) + 1;
+    }
+
+    private int[] typeIds(Collection<ITypeReference> types) {
+        int[] ids = new int[types.size()];
+        int i = 0;
+        for (ITypeReference type : types) {
+            ids[i++] = typeId(type);
+        }
+        return ids;
+    }
+
+    private static void writeIds(Output o, int[] ids) {
+        o.writeVarint(ids.length);
+        for (int id : ids) {
+            o.writeVarint(id);
+        }
+    }
+
+    private void writeTypes(Output o, Collection<ITypeReference> types) {
+        types = initialized(types);
+        if (types == null) {
+            o.writeVarint(0);
+        } else {
+            int[] ids = typeIds(types);
+            o.writeVarint(ids.length + 1);
+            for (int id : ids) {
+                o.writeVarint(id);
+            }
+        }
+    }
+
+    private static void writeModifiers(Output o, Set<Modifier> modifiers) {
+        modifiers = initialized(modifiers);
+        if (modifiers == null) {
+            o.writeVarint(0);
+        } else {
+            int mask = 0;
+            for (Modifier modifier : modifiers) {
+                mask |= 1 << modifier.ordinal();
+            }
+            o.writeVarint(mask + 1);
+        }
+    }
+
+    private void writeTypeParameterNames(Output o,
+            List<ITypeVariableDefinition> typeParameters) {
+        typeParameters = initialized(typeParameters);
+        if (typeParameters == null) {
+            o.writeVarint(0);
+        } else {
+            o.writeVarint(typeParameters.size() + 1);
+            for (ITypeVariableDefinition typeParameter : typeParameters) {
+                o.writeVarint(stringId(typeParameter.getName()));
+            }
+        }
+    }
+
+    private void writeTypeParameterBounds(Output o,
+            List<ITypeVariableDefinition> typeParameters) {
+        typeParameters = initialized(typeParameters);
+        if (typeParameters != null) {
+            for (ITypeVariableDefinition typeParameter : typeParameters) {
+                writeTypes(o, typeParameter.getUpperBounds());
+            }
+        }
+    }
+
+    private void writeFieldNames(Output o, List<? extends IField> fields) {
+        if (fields == null) {
+            o.writeVarint(0);
+        } else {
+            o.writeVarint(fields.size() + 1);
+            for (IField field : fields) {
+                o.writeVarint(stringId(field.getName()));
+            }
+        }
+    }
+
+    private void writeExecutableSkeletons(Output o,
+            List<? extends IExecutableMember> executables) {
+        if (executables == null) {
+            o.writeVarint(0);
+        } else {
+            o.writeVarint(executables.size() + 1);
+            for (IExecutableMember executable : executables) {
+                o.writeVarint(stringId(executable.getName()));
+                writeTypeParameterNames(o, executable.getTypeParameters());
+            }
+        }
+    }
+
+    private void writeClassBody(Output o, ClassInfo info) {
+        IClassDefinition clazz = info.definition;
+
+        // skeleton, everything which may be referenced from other bodies
+        o.writeVarint(clazz.getKind().ordinal() + 1);
+        writeTypeParameterNames(o, clazz.getTypeParameters());
+        writeExecutableSkeletons(o, info.constructors);
+        writeExecutableSkeletons(o, info.methods);
+        writeFieldNames(o, info.fields);
+        writeFieldNames(o, info.enumConstants);
+        if (info.enumConstants != null) {
+            for (IEnumConstant enumConstant : info.enumConstants) {
+                int ordinal;
+                try {
+                    ordinal = enumConstant.getOrdinal();
+                } catch (UnsupportedOperationException e) {
+                    ordinal = -1;
+                }
+                o.writeVarint(ordinal + 1);
+            }
+        }
+        writeFieldNames(o, info.annotationFields);
+
+        // details
+        writeModifiers(o, clazz.getModifiers());
+        o.writeVarint(nullableClassId(clazz.getDeclaringClass()));
+        o.writeVarint(nullableTypeId(clazz.getSuperClass()));
+        writeTypes(o, clazz.getInterfaces());
+        Set<IClassDefinition> innerClasses = initialized(clazz
+                .getInnerClasses());
+        if (innerClasses == null) {
+            o.writeVarint(0);
+        } else {
+            o.writeVarint(innerClasses.size() + 1);
+            for (IClassDefinition innerClass : innerClasses) {
+                o.writeVarint(classId(innerClass));
+            }
+        }
+        writeAnnotations(o, clazz);
+        writeTypeParameterBounds(o, clazz.getTypeParameters());
+        if (info.constructors != null) {
+            for (IConstructor constructor : info.constructors) {
+                writeExecutable(o, constructor);
+            }
+        }
+        if (info.methods != null) {
+            for (IMethod method : info.methods) {
+                writeExecutable(o, method);
+                o.writeVarint(nullableTypeId(method.getReturnType()));
+            }
+        }
+        writeFields(o, info.fields);
+        writeFields(o, info.enumConstants);
+        writeFields(o, info.annotationFields);
+        if (info.annotationFields != null) {
+            for (IAnnotationField annotationField : info.annotationFields) {
+                writeValue(o, annotationField.getDefaultValue());
+            }
+        }
+    }
+
+    private void writeExecutable(Output o, IExecutableMember executable) {
+        writeModifiers(o, executable.getModifiers());
+        o.writeVarint(nullableClassId(executable.getDeclaringClass()));
+        List<IParameter> parameters = initialized(executable.getParameters());
+        if (parameters == null) {
+            o.writeVarint(0);
+        } else {
+            o.writeVarint(parameters.size() + 1);
+            for (IParameter parameter : parameters) {
+                o.writeVarint(nullableTypeId(parameter.getType()));
+                writeAnnotations(o, parameter);
+            }
+        }
+        writeTypes(o, executable.getExceptions());
+        writeTypeParameterBounds(o, executable.getTypeParameters());
+        writeAnnotations(o, executable);
+    }
+
+    private void writeFields(Output o, List<? extends IField> fields) {
+        if (fields != null) {
+            for (IField field : fields) {
+                writeModifiers(o, field.getModifiers());
+                o.writeVarint(nullableTypeId(field.getType()));
+                writeAnnotations(o, field);
+            }
+        }
+    }
+
+    private void writeAnnotations(Output o, IAnnotatableElement element) {
+        writeAnnotations(o, initialized(element.getAnnotations()));
+    }
+
+    private void writeAnnotations(Output o, Set<IAnnotation> annotations) {
+        if (annotations == null) {
+            o.writeVarint(0);
+        } else {
+            o.writeVarint(annotations.size() + 1);
+            for (IAnnotation annotation : annotations) {
+                writeAnnotation(o, annotation);
+            }
+        }
+    }
+
+    private void writeAnnotation(Output o, IAnnotation annotation) {
+        IClassReference type = initialized(annotation.getType());
+        o.writeVarint(type == null ? 0 : classId(type.getClassDefinition())
+                + 1);
+        Set<IAnnotationElement> elements = initialized(annotation
+                .getElements());
+        if (elements == null) {
+            o.writeVarint(0);
+        } else {
+            o.writeVarint(elements.size() + 1);
+            for (IAnnotationElement element : elements) {
+                writeMemberReference(o, element.getDeclaringField());
+                writeValue(o, element.getValue());
+            }
+        }
+    }
+
+    private void writeMemberReference(Output o, IField field) {
+        field = initialized(field);
+        if (field == null) {
+            o.writeVarint(MEMBER_NULL);
+            return;
+        }
+        MemberSlot memberSlot = memberSlots.get(field);
+        if (memberSlot != null) {
+            o.writeVarint(MEMBER_DECLARED);
+            o.writeVarint(memberSlot.classId);
+            o.writeVarint(memberSlot.kind);
+            o.writeVarint(memberSlot.slot);
+        } else {
+            // field of a class which is not part of the model
+            int kind = KIND_FIELD;
+            if (field instanceof IEnumConstant) {
+                kind = KIND_ENUM_CONSTANT;
+            } else if (field instanceof IAnnotationField) {
+                kind = KIND_ANNOTATION_FIELD;
+            }
+            o.writeVarint(MEMBER_DETACHED);
+            o.writeVarint(kind);
+            o.writeVarint(stringId(field.getName()));
+            writeModifiers(o, field.getModifiers());
+            o.writeVarint(nullableTypeId(field.getType()));
+        }
+    }
+
+    private void writeValue(Output o, Object value) {
+        value = initialized(value);
+        if (value == null) {
+            o.writeVarint(VALUE_NULL);
+        } else if (value instanceof Boolean) {
+            o.writeVarint(VALUE_BOOLEAN);
+            o.writeVarint(((Boolean) value) ? 1 : 0);
+        } else if (value instanceof Byte) {
+            o.writeVarint(VALUE_BYTE);
+            o.writeVarint((Byte) value);
+        } else if (value instanceof Character) {
+            o.writeVarint(VALUE_CHAR);
+            o.writeVarint((Character) value);
+        } else if (value instanceof Short) {
+            o.writeVarint(VALUE_SHORT);
+            o.writeVarint((Short) value);
+        } else if (value instanceof Integer) {
+            o.writeVarint(VALUE_INT);
+            o.writeVarint((Integer) value);
+        } else if (value instanceof Long) {
+            o.writeVarint(VALUE_LONG);
+            o.writeVarlong((Long) value);
+        } else if (value instanceof Float) {
+            o.writeVarint(VALUE_FLOAT);
+            o.writeInt(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Double) {
+            o.writeVarint(VALUE_DOUBLE);
+            o.writeVarlong(Double.doubleToRawLongBits((Double) value));
+        } else if (value instanceof String) {
+            o.writeVarint(VALUE_STRING);
+            o.writeVarint(stringId((String) value));
+        } else if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            o.writeVarint(VALUE_ARRAY);
+            o.writeVarint(values.length);
+            for (Object element : values) {
+                writeValue(o, element);
+            }
+        } else if (value instanceof IAnnotation) {
+            o.writeVarint(VALUE_ANNOTATION);
+            writeAnnotation(o, (IAnnotation) value);
+        } else if (value instanceof IEnumConstant) {
+            o.writeVarint(VALUE_ENUM_CONSTANT);
+            writeMemberReference(o, (IField) value);
+        } else if (value instanceof IField) {
+            o.writeVarint(VALUE_FIELD);
+            writeMemberReference(o, (IField) value);
+        } else if (value instanceof ITypeReference) {
+            o.writeVarint(VALUE_TYPE);
+            o.writeVarint(typeId((ITypeReference) value));
+        } else {
+            throw new IllegalArgumentException("Unsupported annotation value: "
+                    + value.getClass());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and primitive encoders shared by {@link CompactApiWriter} and
+ * {@link CompactApiReader}.
+ * <p>
+ * A compact signature file has the following layout:
+ * 
+ * <pre>
+ * header   : magic, version, offsets of the sections below, api name and
+ *            visibility (fixed size, big endian ints)
+ * data     : class bodies and package annotation blobs
+ * strings  : count, offset index, UTF-8 encoded strings
+ * types    : count, offset index, interned type references
+ * classes  : one entry per class definition (name, segment, body offset,
+ *            structural hash)
+ * segments : one entry per package (name, api flag, annotations, classes)
+ * </pre>
+ * 
+ * All counts and indices within sections are unsigned LEB128 varints.
+ * Nullable counts and indices are stored biased by one, zero meaning
+ * {@code null}.
+ */
+final class CompactFormat {
+
+    /** "SIGC" */
+    static final int MAGIC = 0x53494743;
+    static final int VERSION = 3;
+    /** First version which stores structural hashes in the class table. */
+    static final int VERSION_STRUCTURAL_HASH = 2;
+    /**
+     * First version whose structural hashes cover super types and exception
+     * hierarchies, older hashes are ignored.
+     */
+    static final int VERSION_HIERARCHY_HASH = 3;
+    static final int HEADER_SIZE = 9 * 4;
+
+    static final int SEGMENT_API = 1;
+
+    // type reference tags
+    static final int TYPE_PRIMITIVE = 1;
+    static final int TYPE_CLASS = 2;
+    static final int TYPE_ARRAY = 3;
+    static final int TYPE_PARAMETERIZED = 4;
+    static final int TYPE_WILDCARD = 5;
+    static final int TYPE_VARIABLE = 6;
+
+    // annotation value tags
+    static final int VALUE_NULL = 0;
+    static final int VALUE_BOOLEAN = 1;
+    static final int VALUE_BYTE = 2;
+    static final int VALUE_CHAR = 3;
+    static final int VALUE_SHORT = 4;
+    static final int VALUE_INT = 5;
+    static final int VALUE_LONG = 6;
+    static final int VALUE_FLOAT = 7;
+    static final int VALUE_DOUBLE = 8;
+    static final int VALUE_STRING = 9;
+    static final int VALUE_ARRAY = 10;
+    static final int VALUE_ANNOTATION = 11;
+    static final int VALUE_FIELD = 12;
+    static final int VALUE_ENUM_CONSTANT = 13;
+    static final int VALUE_TYPE = 14;
+
+    // member reference tags
+    static final int MEMBER_NULL = 0;
+    static final int MEMBER_DECLARED = 1;
+    static final int MEMBER_DETACHED = 2;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private CompactFormat() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Growable byte sink with varint support.
+     */
+    static class Output extends ByteArrayOutputStream {
+
+        Output() {
+            super(256);
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeVarlong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeOutput(Output other) {
+            write(other.buf, 0, other.count);
+        }
+
+        /**
+         * Returns the written bytes as a string key suitable for hashing,
+         * without copying the bytes twice.
+         */
+        String toKey() {
+            char[] chars = new char[count];
+            for (int i = 0; i < count; i++) {
+                chars[i] = (char) (buf[i] & 0xFF);
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Sequential reader over a region of a (possibly memory mapped) buffer.
+     * Instances are cheap and not thread safe.
+     */
+    static class Input {
+        private final ByteBuffer buffer;
+        private int position;
+
+        Input(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        int position() {
+            return position;
+        }
+
+        int readByte() {
+            return buffer.get(position++) & 0xFF;
+        }
+
+        int readVarint() {
+            int result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        long readVarlong() {
+            long result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        int readInt() {
+            int value = buffer.getInt(position);
+            position += 4;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import signature.model.IAnnotation;
+import signature.model.IClassDefinition;
+import signature.model.impl.SigPackage;
+
+import java.util.Set;
+
+/**
+ * Package whose classes and annotations are materialized by a
+ * {@link CompactApiReader} on first access.
+ */
+@SuppressWarnings("serial")
+class LazyPackage extends SigPackage {
+
+    private final transient CompactApiReader reader;
+    private final int segment;
+
+    LazyPackage(CompactApiReader reader, int segment, String name) {
+        super(name);
+        this.reader = reader;
+        this.segment = segment;
+    }
+
+    @Override
+    public Set<IClassDefinition> getClasses() {
+        if (reader != null) {
+            reader.ensureLoaded(segment);
+        }
+        return super.getClasses();
+    }
+
+    @Override
+    public Set<IAnnotation> getAnnotations() {
+        if (reader != null) {
+            reader.ensureLoaded(segment);
+        }
+        return super.getAnnotations();
+    }
+}
@@ -32,11 +32,17 @@ import signature.model.ITypeVariableDefinition;
 import signature.model.Kind;
 import signature.model.Modifier;
 import signature.model.util.ModelUtil;
+import signature.model.util.StructuralHash;
 
-@SuppressWarnings("serial")
 public class SigClassDefinition extends SigAnnotatableElement implements
         IClassDefinition, Serializable {
 
+    /**
+     * Fixed to the value computed for the original layout of this class, so
+     * signature files written with Java serialization remain readable.
+     */
+    private static final long serialVersionUID = 4919413598852350232L;
+
     private String name;
     private Kind kind = Kind.UNINITIALIZED;
     private ITypeReference superClass = Uninitialized.unset();
@@ -52,6 +58,7 @@ public class SigClassDefinition extends SigAnnotatableElement implements
     private List<ITypeVariableDefinition> typeParameters = Uninitialized
             .unset();
     private String packageName;
+    private long structuralHash = StructuralHash.UNKNOWN;
 
     public SigClassDefinition(String packageName, String name) {
         this.packageName = packageName;
@@ -171,6 +178,20 @@ public class SigClassDefinition extends SigAnnotatableElement implements
         this.typeParameters = typeParameters;
     }
 
+    /**
+     * Returns the structural hash of this class definition, or
+     * {@link StructuralHash#UNKNOWN} if it has not been computed.
+     * 
+     * @return the structural hash of this class definition
+     */
+    public long getStructuralHash() {
+        return structuralHash;
+    }
+
+    public void setStructuralHash(long structuralHash) {
+        this.structuralHash = structuralHash;
+    }
+
     @Override
     public int hashCode() {
         return SigClassDefinition.hashCode(this);
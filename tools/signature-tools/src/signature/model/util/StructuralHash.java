@@ -0,0 +1,500 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.model.util;
+
+import signature.model.IAnnotatableElement;
+import signature.model.IAnnotation;
+import signature.model.IAnnotationElement;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IArrayType;
+import signature.model.IClassDefinition;
+import signature.model.IClassReference;
+import signature.model.IConstructor;
+import signature.model.IEnumConstant;
+import signature.model.IExecutableMember;
+import signature.model.IField;
+import signature.model.IGenericDeclaration;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.IParameterizedType;
+import signature.model.IPrimitiveType;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.ITypeVariableReference;
+import signature.model.IWildcardType;
+import signature.model.Kind;
+import signature.model.Modifier;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.Uninitialized;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Computes a structural hash of a class definition.
+ * <p>
+ * The hash covers everything the comparator inspects when two classes are
+ * compared: kind, modifiers, type parameters, super types, members and
+ * annotations. The comparator also looks into other classes, it inherits
+ * methods and interfaces from all super types and normalizes thrown
+ * exceptions with their super class chains, so the structure of all super
+ * types and the super class chains of all thrown exceptions are part of the
+ * hash as well. Unordered elements are sorted, so two classes with equal
+ * hashes do not have any delta, independent of the converter which created
+ * them. Inner classes are hashed separately, only their names are part of
+ * the hash of the enclosing class.
+ */
+public final class StructuralHash {
+
+    /** Hash value of classes whose hash has not been computed. */
+    public static final long UNKNOWN = 0;
+
+    private StructuralHash() {
+    }
+
+    /**
+     * Returns the structural hash of the given class, never
+     * {@link #UNKNOWN}.
+     * 
+     * @param clazz
+     *            an initialized class definition
+     * @return the structural hash of the given class
+     */
+    public static long compute(IClassDefinition clazz) {
+        StringBuilder builder = new StringBuilder();
+        appendClass(builder, clazz);
+        appendSuperTypes(builder, clazz);
+        appendExceptionHierarchies(builder, clazz);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(builder.toString().getBytes(
+                    "UTF-8"));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (bytes[i] & 0xFF);
+            }
+            return hash == UNKNOWN ? 1 : hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes and stores the structural hashes of all classes of the given
+     * api.
+     * 
+     * @param api
+     *            a completely converted api
+     */
+    public static void computeAll(IApi api) {
+        for (IPackage aPackage : api.getPackages()) {
+            for (IClassDefinition clazz : aPackage.getClasses()) {
+                if (clazz instanceof SigClassDefinition) {
+                    ((SigClassDefinition) clazz).setStructuralHash(
+                            compute(clazz));
+                }
+            }
+        }
+    }
+
+    private static <T> T initialized(T value) {
+        return Uninitialized.isInitialized(value) ? value : null;
+    }
+
+    private static void appendClass(StringBuilder b, IClassDefinition clazz) {
+        b.append(initialized(clazz.getKind())).append(' ');
+        appendModifiers(b, clazz.getModifiers());
+        b.append(clazz.getQualifiedName());
+        appendTypeParameters(b, clazz.getTypeParameters());
+        IClassDefinition declaringClass = initialized(clazz
+                .getDeclaringClass());
+        if (declaringClass != null) {
+            b.append(" in ").append(declaringClass.getQualifiedName());
+        }
+        b.append(" extends ");
+        appendType(b, clazz.getSuperClass());
+        b.append(" implements ");
+        appendTypes(b, clazz.getInterfaces(), true);
+        appendAnnotations(b, clazz);
+
+        List<String> members = new ArrayList<String>();
+        Set<IClassDefinition> innerClasses = initialized(clazz
+                .getInnerClasses());
+        if (innerClasses != null) {
+            for (IClassDefinition innerClass : innerClasses) {
+                members.add("class " + innerClass.getQualifiedName());
+            }
+        }
+        Set<IConstructor> constructors = initialized(clazz.getConstructors());
+        if (constructors != null) {
+            for (IConstructor constructor : constructors) {
+                StringBuilder m = new StringBuilder("constructor ");
+                appendExecutable(m, constructor);
+                members.add(m.toString());
+            }
+        }
+        Set<IMethod> methods = initialized(clazz.getMethods());
+        if (methods != null) {
+            for (IMethod method : methods) {
+                StringBuilder m = new StringBuilder("method ");
+                appendType(m, method.getReturnType());
+                m.append(' ');
+                appendExecutable(m, method);
+                members.add(m.toString());
+            }
+        }
+        appendFields(members, "field ", clazz.getFields());
+        appendFields(members, "enum ", clazz.getEnumConstants());
+        Set<IAnnotationField> annotationFields = initialized(clazz
+                .getAnnotationFields());
+        if (annotationFields != null) {
+            for (IAnnotationField field : annotationFields) {
+                StringBuilder m = new StringBuilder("element ");
+                appendField(m, field);
+                m.append(" default ");
+                appendValue(m, field.getDefaultValue());
+                members.add(m.toString());
+            }
+        }
+        Collections.sort(members);
+        for (String member : members) {
+            b.append('\n').append(member);
+        }
+    }
+
+    /**
+     * Appends the structure of all direct and indirect super types, the
+     * comparator searches their methods and interfaces.
+     */
+    private static void appendSuperTypes(StringBuilder b,
+            IClassDefinition clazz) {
+        Set<IClassDefinition> superTypes = new HashSet<IClassDefinition>();
+        collectSuperTypes(clazz, superTypes);
+        superTypes.remove(clazz);
+        List<String> elements = new ArrayList<String>(superTypes.size());
+        for (IClassDefinition superType : superTypes) {
+            StringBuilder s = new StringBuilder("\nsuper ");
+            appendClass(s, superType);
+            elements.add(s.toString());
+        }
+        Collections.sort(elements);
+        for (String element : elements) {
+            b.append(element);
+        }
+    }
+
+    private static void collectSuperTypes(IClassDefinition clazz,
+            Set<IClassDefinition> superTypes) {
+        if (clazz == null || !superTypes.add(clazz)) {
+            return;
+        }
+        ITypeReference superClass = initialized(clazz.getSuperClass());
+        if (superClass != null) {
+            collectSuperTypes(getClassDefinition(superClass), superTypes);
+        }
+        Set<ITypeReference> interfaces = initialized(clazz.getInterfaces());
+        if (interfaces != null) {
+            for (ITypeReference interfaze : interfaces) {
+                collectSuperTypes(getClassDefinition(interfaze), superTypes);
+            }
+        }
+    }
+
+    /**
+     * Appends the super class chains of all thrown exceptions, the
+     * comparator drops runtime exceptions and exceptions whose super class
+     * is thrown as well.
+     */
+    private static void appendExceptionHierarchies(StringBuilder b,
+            IClassDefinition clazz) {
+        Set<String> chains = new TreeSet<String>();
+        collectExceptionChains(initialized(clazz.getConstructors()), chains);
+        collectExceptionChains(initialized(clazz.getMethods()), chains);
+        for (String chain : chains) {
+            b.append("\nthrows ").append(chain);
+        }
+    }
+
+    private static void collectExceptionChains(
+            Set<? extends IExecutableMember> executables, Set<String> chains) {
+        if (executables == null) {
+            return;
+        }
+        for (IExecutableMember executable : executables) {
+            Set<ITypeReference> exceptions = initialized(executable
+                    .getExceptions());
+            if (exceptions == null) {
+                continue;
+            }
+            for (ITypeReference exception : exceptions) {
+                StringBuilder chain = new StringBuilder();
+                Set<IClassDefinition> visited = new HashSet<IClassDefinition>();
+                IClassDefinition definition = getClassDefinition(exception);
+                while (definition != null && visited.add(definition)) {
+                    chain.append(definition.getQualifiedName()).append('<');
+                    ITypeReference superClass = initialized(definition
+                            .getSuperClass());
+                    definition = superClass == null ? null
+                            : getClassDefinition(superClass);
+                }
+                chains.add(chain.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns the definition of the given class or parameterized type, null
+     * for other types. Definitions of classes outside of the api only have a
+     * name.
+     */
+    private static IClassDefinition getClassDefinition(ITypeReference type) {
+        if (type instanceof IClassReference) {
+            return ((IClassReference) type).getClassDefinition();
+        } else if (type instanceof IParameterizedType) {
+            return ((IParameterizedType) type).getRawType()
+                    .getClassDefinition();
+        }
+        return null;
+    }
+
+    private static void appendFields(List<String> members, String prefix,
+            Set<? extends IField> fields) {
+        fields = initialized(fields);
+        if (fields != null) {
+            for (IField field : fields) {
+                StringBuilder m = new StringBuilder(prefix);
+                appendField(m, field);
+                members.add(m.toString());
+            }
+        }
+    }
+
+    private static void appendField(StringBuilder b, IField field) {
+        appendModifiers(b, field.getModifiers());
+        appendType(b, field.getType());
+        b.append(' ').append(field.getName());
+        appendAnnotations(b, field);
+    }
+
+    private static void appendExecutable(StringBuilder b,
+            IExecutableMember executable) {
+        appendModifiers(b, executable.getModifiers());
+        b.append(executable.getName());
+        appendTypeParameters(b, executable.getTypeParameters());
+        b.append('(');
+        List<IParameter> parameters = initialized(executable.getParameters());
+        if (parameters != null) {
+            for (IParameter parameter : parameters) {
+                appendType(b, parameter.getType());
+                appendAnnotations(b, parameter);
+                b.append(',');
+            }
+        }
+        b.append(") throws ");
+        appendTypes(b, executable.getExceptions(), true);
+        appendAnnotations(b, executable);
+    }
+
+    private static void appendModifiers(StringBuilder b,
+            Set<Modifier> modifiers) {
+        modifiers = initialized(modifiers);
+        if (modifiers != null) {
+            b.append(Modifier.toString(modifiers));
+        }
+    }
+
+    private static void appendTypeParameters(StringBuilder b,
+            List<ITypeVariableDefinition> typeParameters) {
+        typeParameters = initialized(typeParameters);
+        if (typeParameters != null && !typeParameters.isEmpty()) {
+            b.append('<');
+            for (ITypeVariableDefinition typeParameter : typeParameters) {
+                b.append(typeParameter.getName()).append(" extends ");
+                appendTypes(b, typeParameter.getUpperBounds(), false);
+                b.append(',');
+            }
+            b.append('>');
+        }
+    }
+
+    private static void appendTypes(StringBuilder b,
+            Collection<ITypeReference> types, boolean unordered) {
+        types = initialized(types);
+        if (types == null) {
+            b.append("null");
+            return;
+        }
+        List<String> elements = new ArrayList<String>(types.size());
+        for (ITypeReference type : types) {
+            StringBuilder t = new StringBuilder();
+            appendType(t, type);
+            elements.add(t.toString());
+        }
+        if (unordered) {
+            Collections.sort(elements);
+        }
+        b.append('[');
+        for (String element : elements) {
+            b.append(element).append(',');
+        }
+        b.append(']');
+    }
+
+    private static void appendType(StringBuilder b, ITypeReference type) {
+        type = initialized(type);
+        if (type == null) {
+            b.append("null");
+        } else if (type instanceof IPrimitiveType) {
+            b.append(((IPrimitiveType) type).getName());
+        } else if (type instanceof IClassReference) {
+            IClassDefinition definition = ((IClassReference) type)
+                    .getClassDefinition();
+            b.append(definition.getQualifiedName());
+            Kind kind = initialized(definition.getKind());
+            if (kind != null) {
+                b.append('/').append(kind);
+            }
+        } else if (type instanceof IArrayType) {
+            appendType(b, ((IArrayType) type).getComponentType());
+            b.append("[]");
+        } else if (type instanceof IParameterizedType) {
+            IParameterizedType parameterizedType = (IParameterizedType) type;
+            ITypeReference ownerType = parameterizedType.getOwnerType();
+            if (ownerType instanceof IClassReference
+                    && !Uninitialized.isInitialized(
+                            ((IClassReference) ownerType)
+                                    .getClassDefinition())) {
+                ownerType = null;
+            }
+            if (ownerType != null) {
+                appendType(b, ownerType);
+                b.append("::");
+            }
+            appendType(b, parameterizedType.getRawType());
+            b.append('<');
+            appendTypes(b, parameterizedType.getTypeArguments(), false);
+            b.append('>');
+        } else if (type instanceof IWildcardType) {
+            IWildcardType wildcardType = (IWildcardType) type;
+            b.append("? super ");
+            appendType(b, wildcardType.getLowerBound());
+            b.append(" extends ");
+            appendTypes(b, wildcardType.getUpperBounds(), false);
+        } else if (type instanceof ITypeVariableReference) {
+            ITypeVariableDefinition definition = ((ITypeVariableReference) type)
+                    .getTypeVariableDefinition();
+            b.append(definition.getName()).append('@');
+            IGenericDeclaration declaration = definition
+                    .getGenericDeclaration();
+            if (declaration instanceof IClassDefinition) {
+                b.append(((IClassDefinition) declaration).getQualifiedName());
+            } else if (declaration instanceof IExecutableMember) {
+                b.append(((IExecutableMember) declaration).getName());
+            }
+            List<ITypeVariableDefinition> typeParameters = declaration == null
+                    ? null : initialized(declaration.getTypeParameters());
+            if (typeParameters != null) {
+                b.append('#').append(typeParameters.indexOf(definition));
+            }
+        } else {
+            b.append(type);
+        }
+    }
+
+    private static void appendAnnotations(StringBuilder b,
+            IAnnotatableElement element) {
+        Set<IAnnotation> annotations = initialized(element.getAnnotations());
+        if (annotations == null || annotations.isEmpty()) {
+            return;
+        }
+        List<String> elements = new ArrayList<String>(annotations.size());
+        for (IAnnotation annotation : annotations) {
+            StringBuilder a = new StringBuilder();
+            appendAnnotation(a, annotation);
+            elements.add(a.toString());
+        }
+        Collections.sort(elements);
+        for (String annotation : elements) {
+            b.append(' ').append(annotation);
+        }
+    }
+
+    private static void appendAnnotation(StringBuilder b,
+            IAnnotation annotation) {
+        b.append('@');
+        appendType(b, annotation.getType());
+        Set<IAnnotationElement> elements = initialized(annotation
+                .getElements());
+        if (elements == null) {
+            return;
+        }
+        List<String> values = new ArrayList<String>(elements.size());
+        for (IAnnotationElement element : elements) {
+            StringBuilder v = new StringBuilder();
+            IAnnotationField field = initialized(element.getDeclaringField());
+            v.append(field == null ? null : field.getName()).append('=');
+            appendValue(v, element.getValue());
+            values.add(v.toString());
+        }
+        Collections.sort(values);
+        b.append('(');
+        for (String value : values) {
+            b.append(value).append(',');
+        }
+        b.append(')');
+    }
+
+    private static void appendValue(StringBuilder b, Object value) {
+        value = initialized(value);
+        if (value instanceof Object[]) {
+            b.append('{');
+            for (Object element : (Object[]) value) {
+                appendValue(b, element);
+                b.append(',');
+            }
+            b.append('}');
+        } else if (value instanceof IAnnotation) {
+            appendAnnotation(b, (IAnnotation) value);
+        } else if (value instanceof IEnumConstant) {
+            b.append("enum ").append(((IEnumConstant) value).getName());
+        } else if (value instanceof IField) {
+            b.append("field ").append(((IField) value).getName());
+        } else if (value instanceof ITypeReference) {
+            appendType(b, (ITypeReference) value);
+            b.append(".class");
+        } else if (value instanceof String) {
+            b.append('"').append(value).append('"');
+        } else if (value != null) {
+            b.append(value.getClass().getSimpleName()).append(':')
+                    .append(value);
+        } else {
+            b.append("null");
+        }
+    }
+}
@@ -153,7 +153,7 @@ public class TypePool implements ITypeFactory {
         }
     }
 
-    private static void replaceUninitializedWithNull(
+    public static void replaceUninitializedWithNull(
             SigClassDefinition clazz) {
         if (clazz == null) {
             return;
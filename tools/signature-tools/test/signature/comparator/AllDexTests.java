@@ -26,7 +26,8 @@ import signature.converter.util.ITestSourceConverter;
     AllDexTests.DexPackageCompareTest.class,
     AllDexTests.DexClassCompareTest.class,
     AllDexTests.DexMethodCompareTests.class,
-    AllDexTests.DexAnnotationCompareTest.class
+    AllDexTests.DexAnnotationCompareTest.class,
+    AllDexTests.DexBinaryApiCompareTest.class
 })
 public class AllDexTests {
     private static ITestSourceConverter newConverter(){
@@ -56,6 +57,12 @@ public class AllDexTests {
             return newConverter();
         }
     }
+
+    public static class DexBinaryApiCompareTest extends BinaryApiCompareTest {
+        @Override public ITestSourceConverter createConverter() {
+            return newConverter();
+        }
+    }
     
     
 }
\ No newline at end of file
@@ -25,7 +25,8 @@ import signature.converter.util.ITestSourceConverter;
 @Suite.SuiteClasses({
     AllDocletTests.DocletPackageCompareTest.class,
     AllDocletTests.DocletClassCompareTest.class,
-    AllDocletTests.DocletMethodCompareTests.class
+    AllDocletTests.DocletMethodCompareTests.class,
+    AllDocletTests.DocletBinaryApiCompareTest.class
 })
 public class AllDocletTests {
     private static ITestSourceConverter newConverter(){
@@ -49,4 +50,11 @@ public class AllDocletTests {
             return newConverter();
         }
     }
+
+    public static class DocletBinaryApiCompareTest
+            extends BinaryApiCompareTest {
+        @Override public ITestSourceConverter createConverter() {
+            return newConverter();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.comparator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import signature.comparator.util.AbstractComparatorTest;
+import signature.converter.util.CompilationUnit;
+import signature.io.impl.BinaryApi;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IClassReference;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Stores converted apis with {@link BinaryApi}, loads them again and compares
+ * them with the original.
+ */
+public abstract class BinaryApiCompareTest extends AbstractComparatorTest {
+
+    private IApi roundTrip(IApi api, String... packageNames)
+            throws IOException {
+        File directory = File.createTempFile("binary-api", "");
+        directory.delete();
+        BinaryApi binaryApi = new BinaryApi();
+        binaryApi.externalizeApi(directory.getPath(), api);
+        File file = new File(directory, api.getName().replaceAll(" ", "_")
+                .concat(".sig"));
+        Set<String> packages = new HashSet<String>(Arrays
+                .asList(packageNames));
+        IApi loaded = binaryApi.loadApi(null, null, Collections
+                .singleton(file.getPath()), packages);
+        file.delete();
+        directory.delete();
+        return loaded;
+    }
+
+    @Test
+    public void testGenericClass() throws IOException {
+        CompilationUnit A = new CompilationUnit("a.A",
+                "package a; " +
+                "import java.util.List; " +
+                "public class A<T extends Comparable<T>> {" +
+                "  public A(List<? super T> l) {}" +
+                "  public <E extends T> E m(T t, List<? extends E> l) {" +
+                "    return null;" +
+                "  }" +
+                "  public class I<S> {" +
+                "    public T f;" +
+                "    public S g;" +
+                "  }" +
+                "}");
+        IApi api = convert(A);
+        assertNull(compare(api, roundTrip(api)));
+    }
+
+    @Test
+    public void testAnnotations() throws IOException {
+        CompilationUnit E = new CompilationUnit("a.E",
+                "package a; " +
+                "public enum E { X, Y }");
+        CompilationUnit A = new CompilationUnit("a.A",
+                "package a; " +
+                "public @interface A {" +
+                "  E e() default E.X;" +
+                "  String[] s() default {\"a\", \"b\"};" +
+                "  Class<?> c() default Object.class;" +
+                "}");
+        CompilationUnit B = new CompilationUnit("a.B",
+                "package a; " +
+                "@A(e = E.Y, s = {}) " +
+                "public class B {" +
+                "  @Deprecated public static final long L = 1L;" +
+                "  public void m(@A int i) {}" +
+                "}");
+        IApi api = convert(E, A, B);
+        assertNull(compare(api, roundTrip(api)));
+    }
+
+    @Test
+    public void testPackageFilter() throws IOException {
+        CompilationUnit A = new CompilationUnit("a.A",
+                "package a; " +
+                "public class A {}");
+        CompilationUnit B = new CompilationUnit("b.B",
+                "package b; " +
+                "public class B extends a.A {}");
+        IApi api = convert(A, B);
+        IApi loaded = roundTrip(api, "b");
+        assertEquals(1, loaded.getPackages().size());
+        IClassDefinition b = loaded.getPackages().iterator().next()
+                .getClasses().iterator().next();
+        assertEquals("a.A", ((IClassReference) b.getSuperClass())
+                .getClassDefinition().getQualifiedName());
+    }
+}
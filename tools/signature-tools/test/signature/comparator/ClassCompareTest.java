@@ -17,6 +17,7 @@
 package signature.comparator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
@@ -31,6 +32,10 @@ import signature.compare.model.DeltaType;
 import signature.compare.model.ITypeReferenceDelta;
 import signature.converter.util.CompilationUnit;
 import signature.model.IApi;
+import signature.model.IPackage;
+import signature.model.impl.SigClassDefinition;
+import signature.model.util.ModelUtil;
+import signature.model.util.StructuralHash;
 
 import java.io.IOException;
 import java.lang.reflect.ParameterizedType;
@@ -384,5 +389,62 @@ public abstract class ClassCompareTest extends AbstractComparatorTest {
           System.out.println("compare took :" + (System.currentTimeMillis() -start) + "ms");
           assertNull(apiDelta);
     }
-    
-}
\ No newline at end of file
+
+    @Test
+    public void compareStructuralHashes() throws IOException{
+         CompilationUnit A0 = new CompilationUnit("a.A", 
+                    "package a; " +
+                    "public class A<T> {" +
+                    "  public T m(java.util.List<? extends T> l) {return null;}" +
+                    "}");
+         CompilationUnit A1 = new CompilationUnit("a.A", 
+                    "package a; " +
+                    "public class A<T> {" +
+                    "  public T m(java.util.List<? super T> l) {return null;}" +
+                    "}");
+          long hash0 = getStructuralHash(convert(A0));
+          assertFalse(hash0 == StructuralHash.UNKNOWN);
+          assertEquals(hash0, getStructuralHash(convert(A0)));
+          
+          IApi fromApi = convert(A0);
+          IApi toApi = convert(A1);
+          assertFalse(hash0 == getStructuralHash(toApi));
+          assertNotNull(compare(fromApi, toApi));
+    }
+
+    @Test
+    public void compareChangedExceptionHierarchy() throws IOException{
+         CompilationUnit E0 = new CompilationUnit("a.E", 
+                    "package a; " +
+                    "public class E extends Exception {}");
+         CompilationUnit E1 = new CompilationUnit("a.E", 
+                    "package a; " +
+                    "public class E extends RuntimeException {}");
+         CompilationUnit C = new CompilationUnit("a.C", 
+                    "package a; " +
+                    "public class C {" +
+                    "  public void m() throws E {}" +
+                    "}");
+          IApi fromApi = convert(E0, C);
+          IApi toApi = convert(E1, C);
+          IApiDelta apiDelta = compare(fromApi, toApi);
+          assertNotNull(apiDelta);
+          // the unchanged declaration of C must still be compared, m no
+          // longer throws a checked exception
+          IClassDefinitionDelta cDelta = null;
+          for (IClassDefinitionDelta classDelta : apiDelta.getPackageDeltas()
+                  .iterator().next().getClassDeltas()) {
+              if ("C".equals(classDelta.getFrom().getName())) {
+                  cDelta = classDelta;
+              }
+          }
+          assertNotNull(cDelta);
+          assertEquals(1, cDelta.getMethodDeltas().size());
+    }
+
+    private long getStructuralHash(IApi api) {
+        IPackage aPackage = ModelUtil.getPackage(api, "a");
+        return ((SigClassDefinition) ModelUtil.getClass(aPackage, "A"))
+                .getStructuralHash();
+    }
+}
@@ -130,6 +130,20 @@ public class CtsBuildHelper {
         return new File(getRepositoryDir(), "logs");
     }
 
+    /**
+     * @return a {@link File} representing the directory to cache collected device info.
+     */
+    public File getDeviceInfoCacheDir() {
+        return new File(getRepositoryDir(), "device-info-cache");
+    }
+
+    /**
+     * @return a {@link File} representing the history of performance metrics from all results
+     */
+    public File getMetricsHistoryFile() {
+        return new File(getRepositoryDir(), "metrics-history");
+    }
+
     /**
      * @return a {@link File} representing the test cases directory
      */
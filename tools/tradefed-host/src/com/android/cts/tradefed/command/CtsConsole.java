@@ -20,6 +20,8 @@ import com.android.cts.tradefed.build.CtsBuildProvider;
 import com.android.cts.tradefed.result.ITestResultRepo;
 import com.android.cts.tradefed.result.ITestSummary;
 import com.android.cts.tradefed.result.PlanCreator;
+import com.android.cts.tradefed.result.RegressionDetector;
+import com.android.cts.tradefed.result.SessionMetricsHistory;
 import com.android.cts.tradefed.result.TestResultRepo;
 import com.android.cts.tradefed.testtype.ITestPackageRepo;
 import com.android.cts.tradefed.testtype.TestPackageRepo;
@@ -48,6 +50,7 @@ import java.util.Set;
 public class CtsConsole extends Console {
 
     protected static final String ADD_PATTERN = "a(?:dd)?";
+    protected static final String CHECK_PATTERN = "check";
 
     private IFolderBuildInfo mBuildInfo = null;
     private CtsBuildHelper mBuildHelper = null;
@@ -129,6 +132,26 @@ public class CtsConsole extends Console {
                 "%s help:" + LINE_SEPARATOR +
                 "\tderivedplan      Add a derived plan" + LINE_SEPARATOR,
                 ADD_PATTERN));
+
+        ArgRunnable<CaptureList> checkRegressionsCommand = new ArgRunnable<CaptureList>() {
+            @Override
+            public void run(CaptureList args) {
+                // Skip 2 tokens to get past checkPattern and "regressions"
+                String[] flatArgs = new String[args.size() - 2];
+                for (int i = 2; i < args.size(); i++) {
+                    flatArgs[i - 2] = args.get(i).get(0);
+                }
+                CtsBuildHelper ctsBuild = getCtsBuildHelper();
+                if (ctsBuild != null) {
+                    checkRegressions(ctsBuild, flatArgs);
+                }
+            }
+        };
+        trie.put(checkRegressionsCommand, CHECK_PATTERN, "r(?:egressions)?", null);
+        commandHelp.put(CHECK_PATTERN, String.format(
+                "%s help:" + LINE_SEPARATOR +
+                "\tr[egressions]   Check a session for performance regressions" + LINE_SEPARATOR,
+                CHECK_PATTERN));
     }
 
     @Override
@@ -177,6 +200,10 @@ public class CtsConsole extends Console {
         helpBuilder.append("  add derivedplan --plan plane_name --session/-s session_id -r ");
         helpBuilder.append("[pass/fail/notExecuted/timeout]: derive a plan from the given ");
         helpBuilder.append("session\n");
+        helpBuilder.append("Check:\n");
+        helpBuilder.append("  check r/regressions [--session/-s session_id]: compare the ");
+        helpBuilder.append("performance metrics of a session with earlier sessions on the same ");
+        helpBuilder.append("device\n");
         helpBuilder.append("Dump:\n");
         helpBuilder.append("  d/dump l/logs: dump the tradefed logs for all running invocations\n");
         helpBuilder.append("Options:\n");
@@ -233,6 +260,39 @@ public class CtsConsole extends Console {
         }
     }
 
+    private void checkRegressions(CtsBuildHelper ctsBuild, String[] flatArgs) {
+        RegressionDetector detector = new RegressionDetector();
+        List<RegressionDetector.Regression> regressions;
+        try {
+            ArgsOptionParser optionParser = new ArgsOptionParser(detector);
+            optionParser.parse(Arrays.asList(flatArgs));
+            regressions = detector.checkRegressions(ctsBuild);
+        } catch (ConfigurationException e) {
+            printLine("Error: " + e.getMessage());
+            printLine(ArgsOptionParser.getOptionHelp(false, detector));
+            return;
+        }
+        if (regressions.isEmpty()) {
+            printLine("No performance regressions found");
+            return;
+        }
+        TableFormatter tableFormatter = new TableFormatter();
+        List<List<String>> table = new ArrayList<List<String>>();
+        table.add(Arrays.asList("Package", "Test", "Metric", "Value", "Baseline", "Change",
+                "Score"));
+        for (RegressionDetector.Regression regression : regressions) {
+            SessionMetricsHistory.Series series = regression.getSeries();
+            table.add(Arrays.asList(series.getPackage(),
+                    series.getTest(),
+                    series.getMetric(),
+                    String.format("%.4g %s", regression.getValue(), series.getUnit()),
+                    String.format("%.4g %s", regression.getBaseline(), series.getUnit()),
+                    String.format("%+.1f%%", regression.getChange() * 100),
+                    String.format("%.1f", regression.getScore())));
+        }
+        tableFormatter.displayTable(table, new PrintWriter(System.out, true));
+    }
+
     private IFolderBuildInfo getCtsBuildInfo() {
         if (mBuildInfo == null) {
             try {
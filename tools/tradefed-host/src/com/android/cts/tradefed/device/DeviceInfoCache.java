@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.device;
+
+import com.android.ddmlib.Log;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A host-side cache of the info collected from devices, keyed by the device serial and build
+ * fingerprint.
+ * <p/>
+ * Each device and build gets its own directory, holding the run metrics of each device info
+ * instrumentation in a properties file, and the files pulled from the device. Entries are
+ * written to a temporary file first and renamed into place, so concurrent shards sharing the
+ * cache never see a partially written entry.
+ * <p/>
+ * The files are copied into a new versioned directory, which is published by renaming a pointer
+ * file holding its name into place. A version that was replaced is only deleted once it has not
+ * been current for {@link #STALE_VERSION_MS}, so a shard still copying it is not affected.
+ */
+public class DeviceInfoCache {
+
+    private static final String LOG_TAG = "DeviceInfoCache";
+    private static final String METRICS_FILE_EXT = ".properties";
+    private static final String FILES_DIR_PREFIX = "files-";
+    private static final String FILES_POINTER_NAME = "files.current";
+    static final long STALE_VERSION_MS = 10 * 60 * 1000;
+
+    private final File mCacheDir;
+
+    /**
+     * @param cacheDir the directory to store the cache in. Created on first write.
+     */
+    public DeviceInfoCache(File cacheDir) {
+        mCacheDir = cacheDir;
+    }
+
+    /**
+     * @return the run metrics cached for the given run, or <code>null</code> if none were cached
+     */
+    Map<String, String> getMetrics(String serial, String fingerprint, String runName) {
+        File metricsFile = new File(getEntryDir(serial, fingerprint), runName + METRICS_FILE_EXT);
+        if (!metricsFile.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(metricsFile));
+            properties.load(in);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Could not read %s: %s", metricsFile, e.getMessage()));
+            return null;
+        } finally {
+            StreamUtil.close(in);
+        }
+        Map<String, String> metrics = new HashMap<String, String>();
+        for (String key : properties.stringPropertyNames()) {
+            metrics.put(key, properties.getProperty(key));
+        }
+        return metrics;
+    }
+
+    /**
+     * Stores the run metrics of the given run.
+     */
+    void putMetrics(String serial, String fingerprint, String runName,
+            Map<String, String> metrics) {
+        Properties properties = new Properties();
+        for (Map.Entry<String, String> metric : metrics.entrySet()) {
+            if (metric.getValue() != null) {
+                properties.setProperty(metric.getKey(), metric.getValue());
+            }
+        }
+        File entryDir = getEntryDir(serial, fingerprint);
+        OutputStream out = null;
+        File tmpFile = null;
+        try {
+            entryDir.mkdirs();
+            tmpFile = File.createTempFile(runName, METRICS_FILE_EXT, entryDir);
+            out = new BufferedOutputStream(new FileOutputStream(tmpFile));
+            properties.store(out, fingerprint);
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(new File(entryDir, runName + METRICS_FILE_EXT))) {
+                throw new IOException("Could not rename " + tmpFile);
+            }
+            tmpFile = null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Could not cache device info of %s: %s", serial,
+                    e.getMessage()));
+        } finally {
+            StreamUtil.close(out);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the directory of files cached for the device, or <code>null</code> if none were
+     *         cached
+     */
+    File getFiles(String serial, String fingerprint) {
+        File entryDir = getEntryDir(serial, fingerprint);
+        File pointerFile = new File(entryDir, FILES_POINTER_NAME);
+        if (!pointerFile.isFile()) {
+            return null;
+        }
+        try {
+            String name = FileUtil.readStringFromFile(pointerFile).trim();
+            File filesDir = new File(entryDir, name);
+            return name.startsWith(FILES_DIR_PREFIX) && filesDir.isDirectory() ? filesDir : null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Could not read %s: %s", pointerFile, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Stores a copy of the given directory of files pulled from the device.
+     */
+    void putFiles(String serial, String fingerprint, File srcDir) {
+        File entryDir = getEntryDir(serial, fingerprint);
+        File filesDir = null;
+        File tmpFile = null;
+        try {
+            entryDir.mkdirs();
+            File previousDir = getFiles(serial, fingerprint);
+            filesDir = FileUtil.createTempDir(FILES_DIR_PREFIX, entryDir);
+            FileUtil.recursiveCopy(srcDir, filesDir);
+            tmpFile = File.createTempFile(FILES_POINTER_NAME, null, entryDir);
+            FileUtil.writeToFile(filesDir.getName(), tmpFile);
+            if (!tmpFile.renameTo(new File(entryDir, FILES_POINTER_NAME))) {
+                throw new IOException("Could not rename " + tmpFile);
+            }
+            tmpFile = null;
+            if (previousDir != null) {
+                // start the grace period of the replaced version
+                previousDir.setLastModified(System.currentTimeMillis());
+            }
+            deleteStaleFiles(entryDir, filesDir, previousDir);
+            filesDir = null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Could not cache device info files of %s: %s", serial,
+                    e.getMessage()));
+        } finally {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            if (filesDir != null) {
+                FileUtil.recursiveDelete(filesDir);
+            }
+        }
+    }
+
+    /**
+     * Deletes the versions of the files that have not been current for
+     * {@link #STALE_VERSION_MS}, along with versions left behind by writers that failed.
+     */
+    private void deleteStaleFiles(File entryDir, File currentDir, File previousDir) {
+        long staleTime = System.currentTimeMillis() - STALE_VERSION_MS;
+        File[] versions = entryDir.listFiles();
+        if (versions == null) {
+            return;
+        }
+        for (File version : versions) {
+            if (version.getName().startsWith(FILES_DIR_PREFIX) && !version.equals(currentDir)
+                    && !version.equals(previousDir) && version.lastModified() < staleTime) {
+                FileUtil.recursiveDelete(version);
+            }
+        }
+    }
+
+    /**
+     * Removes everything cached for the device.
+     */
+    public void invalidate(String serial, String fingerprint) {
+        FileUtil.recursiveDelete(getEntryDir(serial, fingerprint));
+    }
+
+    private File getEntryDir(String serial, String fingerprint) {
+        String name = String.format("%s_%s", serial.replaceAll("[^\\w.-]", "_"),
+                sha1(fingerprint));
+        return new File(mCacheDir, name);
+    }
+
+    private static String sha1(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
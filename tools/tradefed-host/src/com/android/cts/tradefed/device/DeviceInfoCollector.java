@@ -24,11 +24,20 @@ import com.android.tradefed.build.IFolderBuildInfo;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.ResultForwarder;
 import com.android.tradefed.testtype.InstrumentationTest;
+import com.android.tradefed.util.FileUtil;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * Collects info from device under test.
@@ -36,6 +45,14 @@ import java.util.Set;
  * This class simply serves as a conduit for grabbing info from device using the device info
  * collector apk, and forwarding that data directly to the {@link ITestInvocationListener} as run
  * metrics.
+ * <p/>
+ * If a {@link DeviceInfoCache} is given, the collected info is cached by device serial and build
+ * fingerprint, and replayed to the listener on later runs instead of installing and running the
+ * collector apks again. Optionally the fields that may change without a new build are refreshed
+ * from the device. The fields tied to the SIM are not cached and are left out when cached info is
+ * used. Fields like the encryption state and storage devices can only be read on the device, so
+ * cached info is only used while the device reports the same encryption state and storage
+ * volumes as when it was cached.
  */
 public class DeviceInfoCollector {
 
@@ -50,6 +67,30 @@ public class DeviceInfoCollector {
     private static final String EXTENDED_INSTRUMENTATION_NAME =
             "com.android.compatibility.common.deviceinfo.DeviceInfoInstrument";
     private static final String DEVICE_INFO_FILES = "device-info-files";
+    private static final String FINGERPRINT_PROPERTY = "ro.build.fingerprint";
+
+    // device info fields that can change without a new build, and can be read from the shell
+    private static final String PARTITIONS_METRIC = "partitions";
+    private static final String NETWORK_METRIC = "network";
+    private static final String NETWORK_PROPERTY = "gsm.operator.alpha";
+    private static final String PROCESSES_METRIC = "processes";
+    private static final String PROCESS_STATUS_COMMAND = "for p in /proc/[0-9]*; do "
+            + "echo pid:${p#/proc/}; cat $p/statm; grep -E '^(Name|Uid|Gid):' $p/status; "
+            + "done 2>/dev/null";
+    // processes allowed to run as root, as in RootProcessScanner of the device info apk
+    private static final Pattern ROOT_PROCESS_WHITELIST_PATTERN = Pattern.compile(
+            "debuggerd|debuggerd64|healthd|init|installd|lmkd|netd|servicemanager|ueventd|vold"
+            + "|watchdogd|zygote");
+
+    // the device state the cached info was collected in, for the fields that can change without
+    // a new build but can only be read on the device, like encryption and storage devices
+    private static final String DEVICE_STATE_METRIC = "deviceInfoCacheState";
+    private static final String DEVICE_STATE_COMMAND =
+            "echo crypto=$(getprop ro.crypto.state); ls /storage 2>/dev/null";
+
+    // device info fields that depend on the SIM and can only be read through the telephony
+    // manager on the device, so they are never cached
+    private static final String[] UNCACHED_METRICS = {"imei", "imsi", "phoneNumber"};
 
     public static final Set<String> IDS = new HashSet<String>();
     public static final Set<String> EXTENDED_IDS = new HashSet<String>();
@@ -71,8 +112,49 @@ public class DeviceInfoCollector {
      */
     public static void collectDeviceInfo(ITestDevice device, String abi, File testApkDir,
             ITestInvocationListener listener) throws DeviceNotAvailableException {
-        runInstrumentation(device, abi, testApkDir, listener, APK_NAME, APP_PACKAGE_NAME,
+        collectDeviceInfo(device, abi, testApkDir, listener, null, false);
+    }
+
+    /**
+     * Forwards the device info cached for the device to the listener, or installs and runs the
+     * device info collector instrumentation and caches its results if none were cached.
+     *
+     * @param device
+     * @param listener
+     * @param cache the cache to use, or <code>null</code> to always collect the info
+     * @param refreshVolatile whether to refresh the fields of cached info that can change
+     *        without a new build
+     * @throws DeviceNotAvailableException
+     */
+    public static void collectDeviceInfo(ITestDevice device, String abi, File testApkDir,
+            ITestInvocationListener listener, DeviceInfoCache cache, boolean refreshVolatile)
+            throws DeviceNotAvailableException {
+        String runName = AbiUtils.createId(abi, APP_PACKAGE_NAME);
+        String fingerprint = cache != null ? device.getProperty(FINGERPRINT_PROPERTY) : null;
+        String deviceState = fingerprint != null ? getDeviceState(device) : null;
+        if (fingerprint != null) {
+            Map<String, String> metrics = cache.getMetrics(device.getSerialNumber(), fingerprint,
+                    runName);
+            if (isDeviceStateCurrent(metrics, deviceState)) {
+                Log.i(LOG_TAG, String.format("Using cached device info of %s",
+                        device.getSerialNumber()));
+                removeUncachedMetrics(metrics);
+                if (refreshVolatile) {
+                    refreshVolatileMetrics(device, metrics);
+                }
+                forwardMetrics(runName, metrics, listener);
+                return;
+            }
+        }
+        MetricsRecorder recorder = new MetricsRecorder(listener);
+        runInstrumentation(device, abi, testApkDir, recorder, APK_NAME, APP_PACKAGE_NAME,
             INSTRUMENTATION_NAME);
+        if (fingerprint != null && recorder.isComplete()) {
+            Map<String, String> metrics = new HashMap<String, String>(recorder.getMetrics());
+            removeUncachedMetrics(metrics);
+            metrics.put(DEVICE_STATE_METRIC, deviceState);
+            cache.putMetrics(device.getSerialNumber(), fingerprint, runName, metrics);
+        }
     }
 
     /**
@@ -86,13 +168,189 @@ public class DeviceInfoCollector {
     public static void collectExtendedDeviceInfo(ITestDevice device, String abi, File testApkDir,
             ITestInvocationListener listener, IBuildInfo buildInfo)
             throws DeviceNotAvailableException {
+        collectExtendedDeviceInfo(device, abi, testApkDir, listener, buildInfo, null);
+    }
+
+    /**
+     * Copies the extended device info files cached for the device to the result directory and
+     * forwards the cached results to the listener, or installs and runs the extended device info
+     * collector instrumentation and caches its results if none were cached.
+     *
+     * @param device
+     * @param listener
+     * @param cache the cache to use, or <code>null</code> to always collect the info
+     * @throws DeviceNotAvailableException
+     */
+    public static void collectExtendedDeviceInfo(ITestDevice device, String abi, File testApkDir,
+            ITestInvocationListener listener, IBuildInfo buildInfo, DeviceInfoCache cache)
+            throws DeviceNotAvailableException {
+        String runName = AbiUtils.createId(abi, EXTENDED_APP_PACKAGE_NAME);
+        String fingerprint = cache != null ? device.getProperty(FINGERPRINT_PROPERTY) : null;
+        String deviceState = fingerprint != null ? getDeviceState(device) : null;
+        if (fingerprint != null) {
+            Map<String, String> metrics = cache.getMetrics(device.getSerialNumber(), fingerprint,
+                    runName);
+            File cachedFiles = cache.getFiles(device.getSerialNumber(), fingerprint);
+            File localResultDir = getLocalResultDir(buildInfo);
+            if (isDeviceStateCurrent(metrics, deviceState) && cachedFiles != null
+                    && localResultDir != null
+                    && copyCachedFiles(cachedFiles, localResultDir)) {
+                Log.i(LOG_TAG, String.format("Using cached extended device info of %s",
+                        device.getSerialNumber()));
+                forwardMetrics(runName, metrics, listener);
+                return;
+            }
+        }
         // Clear files in device test result directory
         String deviceResultDir = getDeviceResultDir(device);
         device.executeShellCommand(String.format("rm -rf %s", deviceResultDir));
-        runInstrumentation(device, abi, testApkDir, listener, EXTENDED_APK_NAME,
+        MetricsRecorder recorder = new MetricsRecorder(listener);
+        runInstrumentation(device, abi, testApkDir, recorder, EXTENDED_APK_NAME,
             EXTENDED_APP_PACKAGE_NAME, EXTENDED_INSTRUMENTATION_NAME);
         // Copy files in remote result directory to local directory
-        pullExtendedDeviceInfoResults(device, buildInfo);
+        File localResultDir = pullExtendedDeviceInfoResults(device, buildInfo);
+        if (fingerprint != null && recorder.isComplete() && localResultDir != null) {
+            Map<String, String> metrics = new HashMap<String, String>(recorder.getMetrics());
+            metrics.put(DEVICE_STATE_METRIC, deviceState);
+            cache.putFiles(device.getSerialNumber(), fingerprint, localResultDir);
+            cache.putMetrics(device.getSerialNumber(), fingerprint, runName, metrics);
+        }
+    }
+
+    /**
+     * Reads the device state that cached device info is only valid for: the encryption state and
+     * the mounted storage volumes.
+     */
+    private static String getDeviceState(ITestDevice device) throws DeviceNotAvailableException {
+        return parseDeviceState(device.executeShellCommand(DEVICE_STATE_COMMAND));
+    }
+
+    /**
+     * Turns the output of {@link #DEVICE_STATE_COMMAND} into a string that does not depend on the
+     * order the storage volumes are listed in.
+     * <p/>
+     * Exposed for unit testing.
+     */
+    static String parseDeviceState(String output) {
+        if (output == null) {
+            return "";
+        }
+        List<String> lines = new ArrayList<String>();
+        for (String line : output.split("\r?\n")) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line.trim());
+            }
+        }
+        // storage volumes may be listed in any order
+        Collections.sort(lines);
+        StringBuilder state = new StringBuilder();
+        for (String line : lines) {
+            state.append(line).append(';');
+        }
+        return state.toString();
+    }
+
+    /**
+     * Checks that the cached metrics were collected in the given device state, and removes the
+     * recorded state so it is not forwarded.
+     * <p/>
+     * Exposed for unit testing.
+     */
+    static boolean isDeviceStateCurrent(Map<String, String> metrics, String deviceState) {
+        if (metrics == null) {
+            return false;
+        }
+        String cachedState = metrics.remove(DEVICE_STATE_METRIC);
+        if (!deviceState.equals(cachedState)) {
+            Log.i(LOG_TAG, "Device state changed since device info was cached, collecting again");
+            return false;
+        }
+        return true;
+    }
+
+    private static void removeUncachedMetrics(Map<String, String> metrics) {
+        for (String metric : UNCACHED_METRICS) {
+            metrics.remove(metric);
+        }
+    }
+
+    /**
+     * Reads the fields of the device info that can change without a new build from the device
+     * shell, in the same format the device info instrumentation reports them.
+     */
+    private static void refreshVolatileMetrics(ITestDevice device, Map<String, String> metrics)
+            throws DeviceNotAvailableException {
+        String df = device.executeShellCommand("df");
+        if (df != null) {
+            StringBuilder partitions = new StringBuilder();
+            for (String line : df.split("\r?\n")) {
+                if (!line.isEmpty()) {
+                    partitions.append(line).append(';');
+                }
+            }
+            metrics.put(PARTITIONS_METRIC, partitions.toString());
+        }
+        String network = device.getProperty(NETWORK_PROPERTY);
+        metrics.put(NETWORK_METRIC, network != null ? network.trim() : "");
+        String processStatus = device.executeShellCommand(PROCESS_STATUS_COMMAND);
+        if (processStatus != null) {
+            metrics.put(PROCESSES_METRIC, parseRootProcesses(processStatus));
+        }
+    }
+
+    /**
+     * Picks the root processes that are not kernel threads or whitelisted from the output of
+     * {@link #PROCESS_STATUS_COMMAND}, in the format of the device info instrumentation.
+     * <p/>
+     * Exposed for unit testing.
+     */
+    static String parseRootProcesses(String processStatus) {
+        StringBuilder processes = new StringBuilder();
+        String name = null;
+        boolean kernel = true;
+        boolean root = false;
+        for (String line : (processStatus + "\npid:").split("\r?\n")) {
+            if (line.startsWith("pid:")) {
+                if (name != null && !kernel && root
+                        && !ROOT_PROCESS_WHITELIST_PATTERN.matcher(name).matches()) {
+                    processes.append(name).append(":0;");
+                }
+                name = null;
+                kernel = true;
+                root = false;
+            } else if (line.startsWith("Name:")) {
+                name = line.substring("Name:".length()).trim().split("\\s+")[0];
+            } else if (line.startsWith("Uid:") || line.startsWith("Gid:")) {
+                for (String id : line.substring(4).trim().split("\\s+")) {
+                    root |= "0".equals(id);
+                }
+            } else if (!line.trim().isEmpty()) {
+                // statm, all zero for kernel threads
+                for (String value : line.trim().split("\\s+")) {
+                    kernel &= "0".equals(value);
+                }
+            }
+        }
+        return processes.toString();
+    }
+
+    private static void forwardMetrics(String runName, Map<String, String> metrics,
+            ITestInvocationListener listener) {
+        listener.testRunStarted(runName, 0);
+        listener.testRunEnded(0, metrics);
+    }
+
+    private static boolean copyCachedFiles(File cachedFiles, File localResultDir) {
+        File localFilesDir = new File(localResultDir, DEVICE_INFO_FILES);
+        try {
+            localFilesDir.mkdirs();
+            FileUtil.recursiveCopy(cachedFiles, localFilesDir);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, String.format("Failed to copy cached device info files: %s",
+                    e.getMessage()));
+            return false;
+        }
     }
 
     private static void runInstrumentation(ITestDevice device, String abi, File testApkDir,
@@ -116,17 +374,15 @@ public class DeviceInfoCollector {
         instrTest.run(listener);
     }
 
-    private static void pullExtendedDeviceInfoResults(ITestDevice device, IBuildInfo buildInfo)
+    /**
+     * @return the local directory the device info files were pulled to, or <code>null</code> if
+     *         they could not be pulled
+     */
+    private static File pullExtendedDeviceInfoResults(ITestDevice device, IBuildInfo buildInfo)
             throws DeviceNotAvailableException {
-        if (!(buildInfo instanceof IFolderBuildInfo)) {
-            Log.e(LOG_TAG, "Invalid instance of buildInfo");
-            return;
-        }
-        File localResultDir = new File(buildInfo.getBuildAttributes().get(
-                CtsXmlResultReporter.CTS_RESULT_DIR));
-        if (localResultDir == null || !localResultDir.isDirectory()) {
-            Log.e(LOG_TAG, "Local result directory is null or is not a directory");
-            return;
+        File localResultDir = getLocalResultDir(buildInfo);
+        if (localResultDir == null) {
+            return null;
         }
 
         localResultDir = new File(localResultDir, DEVICE_INFO_FILES);
@@ -140,7 +396,23 @@ public class DeviceInfoCollector {
                 deviceResultDir, localResultDir.getAbsolutePath());
         if (!execute(command)) {
             Log.e(LOG_TAG, String.format("Failed to run %s", command));
+            return null;
+        }
+        return localResultDir;
+    }
+
+    private static File getLocalResultDir(IBuildInfo buildInfo) {
+        if (!(buildInfo instanceof IFolderBuildInfo)) {
+            Log.e(LOG_TAG, "Invalid instance of buildInfo");
+            return null;
         }
+        File localResultDir = new File(buildInfo.getBuildAttributes().get(
+                CtsXmlResultReporter.CTS_RESULT_DIR));
+        if (localResultDir == null || !localResultDir.isDirectory()) {
+            Log.e(LOG_TAG, "Local result directory is null or is not a directory");
+            return null;
+        }
+        return localResultDir;
     }
 
     private static boolean execute(String command) {
@@ -162,4 +434,39 @@ public class DeviceInfoCollector {
         }
         return String.format("%s/%s", externalStorePath, DEVICE_INFO_FILES);
     }
+
+    /**
+     * Forwards the results of a device info instrumentation, keeping its run metrics so they can
+     * be cached if the run completed.
+     */
+    private static class MetricsRecorder extends ResultForwarder {
+        private final Map<String, String> mMetrics = new HashMap<String, String>();
+        private boolean mComplete = false;
+        private boolean mFailed = false;
+
+        MetricsRecorder(ITestInvocationListener listener) {
+            super(listener);
+        }
+
+        @Override
+        public void testRunFailed(String errorMessage) {
+            mFailed = true;
+            super.testRunFailed(errorMessage);
+        }
+
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            mMetrics.putAll(runMetrics);
+            mComplete = true;
+            super.testRunEnded(elapsedTime, runMetrics);
+        }
+
+        boolean isComplete() {
+            return mComplete && !mFailed && !mMetrics.isEmpty();
+        }
+
+        Map<String, String> getMetrics() {
+            return mMetrics;
+        }
+    }
 }
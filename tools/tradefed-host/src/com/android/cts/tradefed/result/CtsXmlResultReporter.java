@@ -40,6 +40,7 @@ import com.android.tradefed.util.StreamUtil;
 
 import org.kxml2.io.KXmlSerializer;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -47,8 +48,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Writes results to an XML files in the CTS format.
@@ -101,12 +111,19 @@ public class CtsXmlResultReporter
     @Option(name = "use-log-saver", description = "Also saves generated result XML with log saver")
     private boolean mUseLogSaver = false;
 
+    @Option(name = "compression-threads", description = "number of threads compressing logs " +
+            "and the result zip. Defaults to the number of processors.")
+    private int mCompressionThreads = 0;
+
     protected IBuildInfo mBuildInfo;
     private String mStartTime;
     private String mDeviceSerial;
     private TestResults mResults = new TestResults();
     private TestPackageResult mCurrentPkgResult = null;
     private Test mCurrentTest = null;
+    // failed tests of the current package by "<abi> <class name>_<test name>", the suffix of
+    // their failure artifact names prefixed with the package's abi
+    private Map<String, Test> mFailedTests = new HashMap<>();
     private boolean mIsDeviceInfoRun = false;
     private boolean mIsExtendedDeviceInfoRun = false;
     private ResultReporter mReporter;
@@ -114,6 +131,9 @@ public class CtsXmlResultReporter
     private String mSuiteName;
     private String mReferenceUrl;
     private ILogSaver mLogSaver;
+    // compresses logs while tests run, and the result zip at the end
+    private ExecutorService mCompressionExecutor;
+    private List<Future<?>> mPendingLogs = new ArrayList<>();
 
     public void setReportDir(File reportDir) {
         mReportDir = reportDir;
@@ -130,6 +150,7 @@ public class CtsXmlResultReporter
     @Override
     public void invocationStarted(IBuildInfo buildInfo) {
         mBuildInfo = buildInfo;
+        mCompressionExecutor = createCompressionExecutor();
         if (!(buildInfo instanceof IFolderBuildInfo)) {
             throw new IllegalArgumentException("build info is not a IFolderBuildInfo");
         }
@@ -170,6 +191,19 @@ public class CtsXmlResultReporter
         mLogDir.mkdirs();
     }
 
+    private ExecutorService createCompressionExecutor() {
+        int threads = mCompressionThreads > 0 ? mCompressionThreads :
+                Runtime.getRuntime().availableProcessors();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CtsXmlResultReporter-compression");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     /**
      * Create a unique directory for saving results.
      * <p/>
@@ -224,28 +258,153 @@ public class CtsXmlResultReporter
     @Override
     public void testLog(String dataName, LogDataType dataType, InputStreamSource dataStream) {
         try {
-            File logFile = getLogFileSaver().saveAndZipLogData(dataName, dataType,
+            if (mCompressionExecutor == null || dataType.isCompressed()) {
+                // saveAndZipLogData stores already compressed data as is
+                File logFile = getLogFileSaver().saveAndZipLogData(dataName, dataType,
+                        dataStream.createInputStream());
+                logResult(String.format("Saved log %s", logFile.getName()));
+                return;
+            }
+            // the stream is only valid during this call, so save it as is and compress it while
+            // the tests go on
+            final File rawFile = getLogFileSaver().saveLogData(dataName, dataType,
                     dataStream.createInputStream());
+            final File logFile = getZippedLogFile(rawFile, dataType);
+            mPendingLogs.add(mCompressionExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    compressLog(rawFile, logFile, getZipEntryName(rawFile));
+                }
+            }));
             logResult(String.format("Saved log %s", logFile.getName()));
         } catch (IOException e) {
             CLog.e("Failed to write log for %s", dataName);
         }
     }
 
+    /**
+     * Return the file to zip a saved log to. Like the files of
+     * {@link LogFileSaver#saveAndZipLogData}, it is named "&lt;data name&gt;_&lt;unique id&gt;.zip".
+     * <p/>
+     * Exposed for unit testing.
+     */
+    static File getZippedLogFile(File rawFile, LogDataType dataType) {
+        String name = rawFile.getName();
+        String suffix = "." + dataType.getFileExt();
+        if (name.endsWith(suffix)) {
+            name = name.substring(0, name.length() - suffix.length());
+        }
+        return new File(rawFile.getParentFile(), name + "." + LogDataType.ZIP.getFileExt());
+    }
+
+    /**
+     * Return the name of the zip entry of a saved log. Like the entries of
+     * {@link LogFileSaver#saveAndZipLogData}, it is "&lt;data name&gt;.&lt;extension&gt;", without
+     * the unique id {@link LogFileSaver#saveLogData} adds to the file name.
+     * <p/>
+     * Exposed for unit testing.
+     */
+    static String getZipEntryName(File rawFile) {
+        String name = rawFile.getName();
+        int idStart = name.lastIndexOf('_');
+        int extStart = name.lastIndexOf('.');
+        if (idStart < 0 || extStart < idStart) {
+            return name;
+        }
+        return name.substring(0, idStart) + name.substring(extStart);
+    }
+
+    /**
+     * Zip a saved log, and delete the uncompressed log if that succeeds.
+     */
+    private void compressLog(File rawFile, File logFile, String entryName) {
+        InputStream in = null;
+        ZipOutputStream out = null;
+        boolean compressed = false;
+        try {
+            in = new FileInputStream(rawFile);
+            out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)));
+            out.putNextEntry(new ZipEntry(entryName));
+            StreamUtil.copyStreams(in, out);
+            out.closeEntry();
+            out.close();
+            out = null;
+            compressed = true;
+        } catch (IOException e) {
+            CLog.e("Failed to compress log %s, keeping it uncompressed", rawFile.getName());
+        } finally {
+            StreamUtil.close(in);
+            StreamUtil.close(out);
+        }
+        if (compressed) {
+            rawFile.delete();
+        } else {
+            logFile.delete();
+        }
+    }
+
+    /**
+     * Wait for the logs still being compressed, and stop the compression threads.
+     */
+    private void shutdownCompression() {
+        if (mCompressionExecutor == null) {
+            return;
+        }
+        try {
+            for (Future<?> pendingLog : mPendingLogs) {
+                pendingLog.get();
+            }
+        } catch (InterruptedException e) {
+            CLog.w("Interrupted while compressing logs");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            CLog.e(e);
+        } finally {
+            mPendingLogs.clear();
+            mCompressionExecutor.shutdown();
+            mCompressionExecutor = null;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void testLogSaved(String dataName, LogDataType dataType, InputStreamSource dataStream,
             LogFile logFile) {
-        if (mIncludeTestLogTags && mCurrentTest != null) {
+        if (mIncludeTestLogTags) {
+            Test test = getLogTarget(dataName);
+            if (test == null) {
+                return;
+            }
             TestLog log = TestLog.fromDataName(dataName, logFile.getUrl());
             if (log != null) {
-                mCurrentTest.addTestLog(log);
+                test.addTestLog(log);
             }
         }
     }
 
+    /**
+     * Return the {@link Test} a log belongs to. Failure artifacts named
+     * "<type>-<class name>_<test name>" may be saved after later tests have started, so they are
+     * matched against the failed tests of the current package first.
+     */
+    private Test getLogTarget(String dataName) {
+        int typeEnd = dataName == null ? -1 : dataName.indexOf('-');
+        if (typeEnd >= 0 && mCurrentPkgResult != null) {
+            Test test = mFailedTests.get(getFailedTestKey(mCurrentPkgResult.getAbi(),
+                    dataName.substring(typeEnd + 1)));
+            if (test != null) {
+                return test;
+            }
+        }
+        return mCurrentTest;
+    }
+
+    private static String getFailedTestKey(String abi, String artifactSuffix) {
+        return String.format("%s %s", abi, artifactSuffix);
+    }
+
     /**
      * Return the {@link LogFileSaver} to use.
      * <p/>
@@ -264,6 +423,8 @@ public class CtsXmlResultReporter
     public void testRunStarted(String id, int numTests) {
         mIsDeviceInfoRun = DeviceInfoCollector.IDS.contains(id);
         mIsExtendedDeviceInfoRun = DeviceInfoCollector.EXTENDED_IDS.contains(id);
+        // the artifacts of the previous package have been forwarded by the end of its run
+        mFailedTests.clear();
         if (!mIsDeviceInfoRun && !mIsExtendedDeviceInfoRun) {
             mCurrentPkgResult = mResults.getOrCreatePackage(id);
             mCurrentPkgResult.setDeviceSerial(mDeviceSerial);
@@ -287,6 +448,11 @@ public class CtsXmlResultReporter
     public void testFailed(TestIdentifier test, String trace) {
         if (!mIsDeviceInfoRun && !mIsExtendedDeviceInfoRun) {
             mCurrentPkgResult.reportTestFailure(test, CtsTestStatus.FAIL, trace);
+            if (mCurrentTest != null) {
+                mFailedTests.put(getFailedTestKey(mCurrentPkgResult.getAbi(),
+                        String.format("%s_%s", test.getClassName(), test.getTestName())),
+                        mCurrentTest);
+            }
         }
     }
 
@@ -350,6 +516,7 @@ public class CtsXmlResultReporter
         if (mReportDir == null || mStartTime == null) {
             // invocationStarted must have failed, abort
             CLog.w("Unable to create XML report");
+            shutdownCompression();
             return;
         }
 
@@ -375,6 +542,7 @@ public class CtsXmlResultReporter
         } catch (IOException e) {
             CLog.e(e);
         }
+        shutdownCompression();
     }
 
     private void logResult(String format, Object... args) {
@@ -476,14 +644,29 @@ public class CtsXmlResultReporter
 
     /**
      * Zip the contents of the given results directory.
+     * <p/>
+     * The files are compressed in parallel. If that fails, for example because the zip would be
+     * too large for the classic zip format, the directory is zipped again with {@link FileUtil}.
      *
      * @param resultsDir
      */
     private void zipResults(File resultsDir) {
+        // create a file in parent directory, with same name as resultsDir
+        File zipResultFile = new File(resultsDir.getParent(), String.format("%s.zip",
+                resultsDir.getName()));
+        try {
+            long startTime = System.currentTimeMillis();
+            ParallelZipWriter zipWriter = new ParallelZipWriter(zipResultFile,
+                    mCompressionExecutor);
+            zipWriter.addDirectory(resultsDir);
+            zipWriter.close();
+            CLog.d("Zipped %s in %d ms", resultsDir.getName(),
+                    System.currentTimeMillis() - startTime);
+            return;
+        } catch (IOException e) {
+            CLog.w("Failed to zip %s in parallel: %s", resultsDir.getName(), e.getMessage());
+        }
         try {
-            // create a file in parent directory, with same name as resultsDir
-            File zipResultFile = new File(resultsDir.getParent(), String.format("%s.zip",
-                    resultsDir.getName()));
             FileUtil.createZip(resultsDir, zipResultFile);
         } catch (IOException e) {
             Log.w(LOG_TAG, String.format("Failed to create zip for %s", resultsDir.getName()));
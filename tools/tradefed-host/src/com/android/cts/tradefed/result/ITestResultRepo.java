@@ -45,4 +45,10 @@ public interface ITestResultRepo {
      */
     public File getReportDir(int sessionId);
 
+    /**
+     * @return the number of sessions in the repository. Session ids range from 0 to this value,
+     * exclusive
+     */
+    public int getSessionCount();
+
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.cts.util.AbiUtils;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.tests.getinfo.DeviceInfoConstants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Extracts the performance summaries of all tests, the build fingerprint of the device they ran
+ * on and the start time of the session, from a CTS result XML.
+ * <p/>
+ * Only the elements needed for that are looked at, so this is much cheaper than parsing the full
+ * {@link TestResults}.
+ */
+class MetricsXmlParser extends AbstractXmlPullParser {
+
+    private static final String NAME_ATTR = "name";
+    private static final String APP_PACKAGE_NAME_ATTR = "appPackageName";
+    private static final String ABI_ATTR = "abi";
+    private static final String SUMMARY_TAG = "Summary";
+    private static final String MESSAGE_ATTR = "message";
+    private static final String SCORETYPE_ATTR = "scoreType";
+    private static final String UNIT_ATTR = "unit";
+
+    /**
+     * A performance summary reported by one test.
+     */
+    static class Metric {
+        final String mPackage;
+        final String mTest;
+        final String mMessage;
+        final String mScoreType;
+        final String mUnit;
+        final double mValue;
+
+        Metric(String pkg, String test, String message, String scoreType, String unit,
+                double value) {
+            mPackage = pkg;
+            mTest = test;
+            mMessage = message;
+            mScoreType = scoreType;
+            mUnit = unit;
+            mValue = value;
+        }
+    }
+
+    private String mFingerprint = "unknown";
+    private long mStartTime = -1;
+    private final List<Metric> mMetrics = new ArrayList<Metric>();
+
+    // position in the result tree while parsing
+    private String mPackage = null;
+    private final LinkedList<String> mSuiteNames = new LinkedList<String>();
+    private String mTestCaseName = null;
+    private String mTestName = null;
+
+    public String getFingerprint() {
+        return mFingerprint;
+    }
+
+    public List<Metric> getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return the time the session started in ms since the epoch, or -1 if it is unknown
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    @Override
+    void parse(XmlPullParser parser) throws XmlPullParserException, IOException {
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                String tag = parser.getName();
+                if (tag.equals(CtsXmlResultReporter.RESULT_TAG)) {
+                    mStartTime = TimeUtil.parseTimestamp(getAttribute(parser,
+                            CtsXmlResultReporter.STARTTIME_ATTR));
+                } else if (tag.equals(DeviceInfoResult.BUILD_TAG)) {
+                    String fingerprint = getAttribute(parser,
+                            DeviceInfoConstants.BUILD_FINGERPRINT);
+                    if (fingerprint != null) {
+                        mFingerprint = fingerprint;
+                    }
+                } else if (tag.equals(TestPackageResult.TAG)) {
+                    mPackage = AbiUtils.createId(getAttribute(parser, ABI_ATTR),
+                            getAttribute(parser, APP_PACKAGE_NAME_ATTR));
+                } else if (tag.equals(TestSuite.TAG)) {
+                    mSuiteNames.addLast(getAttribute(parser, NAME_ATTR));
+                } else if (tag.equals(TestCase.TAG)) {
+                    mTestCaseName = getAttribute(parser, NAME_ATTR);
+                } else if (tag.equals(Test.TAG)) {
+                    mTestName = getAttribute(parser, NAME_ATTR);
+                } else if (tag.equals(SUMMARY_TAG) && mTestName != null) {
+                    parseSummary(parser);
+                }
+            } else if (eventType == XmlPullParser.END_TAG) {
+                String tag = parser.getName();
+                if (tag.equals(TestPackageResult.TAG)) {
+                    mPackage = null;
+                } else if (tag.equals(TestSuite.TAG)) {
+                    mSuiteNames.removeLast();
+                } else if (tag.equals(TestCase.TAG)) {
+                    mTestCaseName = null;
+                } else if (tag.equals(Test.TAG)) {
+                    mTestName = null;
+                }
+            }
+            eventType = parser.next();
+        }
+    }
+
+    private void parseSummary(XmlPullParser parser) throws XmlPullParserException, IOException {
+        String message = getAttribute(parser, MESSAGE_ATTR);
+        String scoreType = getAttribute(parser, SCORETYPE_ATTR);
+        String unit = getAttribute(parser, UNIT_ATTR);
+        String value = parser.nextText();
+        if (mPackage == null || message == null || value == null) {
+            return;
+        }
+        try {
+            mMetrics.add(new Metric(mPackage, getTestName(), message, scoreType, unit,
+                    Double.parseDouble(value.trim())));
+        } catch (NumberFormatException e) {
+            // not a numeric summary, nothing to compare
+        }
+    }
+
+    private String getTestName() {
+        StringBuilder className = new StringBuilder();
+        for (String suiteName : mSuiteNames) {
+            className.append(suiteName).append('.');
+        }
+        className.append(mTestCaseName);
+        return className.append('#').append(mTestName).toString();
+    }
+}
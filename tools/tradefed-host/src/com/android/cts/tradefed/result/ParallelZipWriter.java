@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a zip file whose entries are compressed in parallel.
+ * <p/>
+ * Each added file is deflated by a task on the given executor into a temporary file next to the
+ * zip, as soon as it is added. {@link #close()} then only has to copy the compressed data into
+ * the archive in the order the entries were added, and write the central directory.
+ * <p/>
+ * Only the classic zip format is written, so archives over 4 GB or with over 65535 entries fail
+ * with an {@link IOException}.
+ */
+class ParallelZipWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_SIZE = 0xffffffffL;
+    private static final int MAX_ENTRIES = 0xffff;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int VERSION = 20;
+    // names are UTF-8
+    private static final int FLAGS = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int DIRECTORY_ATTRIBUTE = 0x10;
+
+    /**
+     * An entry of the archive, with its data compressed.
+     */
+    private static class Entry {
+        final String mName;
+        final boolean mIsDirectory;
+        final long mDosTime;
+        // the compression task, null for directories
+        Future<?> mCompression = null;
+        File mData = null;
+        long mCrc = 0;
+        long mSize = 0;
+        long mCompressedSize = 0;
+        long mOffset = 0;
+
+        Entry(String name, boolean isDirectory, long lastModified) {
+            mName = name;
+            mIsDirectory = isDirectory;
+            mDosTime = toDosTime(lastModified);
+        }
+    }
+
+    private final File mZipFile;
+    private final ExecutorService mExecutor;
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+
+    /**
+     * @param zipFile the zip file to write
+     * @param executor the {@link ExecutorService} to compress the entries on
+     */
+    ParallelZipWriter(File zipFile, ExecutorService executor) {
+        mZipFile = zipFile;
+        mExecutor = executor;
+    }
+
+    /**
+     * Add a directory and all its contents, under the name of the directory. This is the same
+     * layout as {@link FileUtil#createZip(File, File)}.
+     */
+    void addDirectory(File dir) {
+        addDirectory(dir, dir.getName() + "/");
+    }
+
+    private void addDirectory(File dir, String entryName) {
+        mEntries.add(new Entry(entryName, true, dir.lastModified()));
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                addDirectory(child, entryName + child.getName() + "/");
+            } else {
+                addFile(child, entryName + child.getName());
+            }
+        }
+    }
+
+    /**
+     * Add a file, and start compressing it.
+     *
+     * @param file the file to add. It must not change until {@link #close()}
+     * @param entryName the name of the file in the archive
+     */
+    void addFile(final File file, String entryName) {
+        final Entry entry = new Entry(entryName, false, file.lastModified());
+        entry.mCompression = mExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                compress(file, entry);
+                return null;
+            }
+        });
+        mEntries.add(entry);
+    }
+
+    private void compress(File file, Entry entry) throws IOException {
+        entry.mData = FileUtil.createTempFile(mZipFile.getName() + "_", ".deflate",
+                mZipFile.getAbsoluteFile().getParentFile());
+        InputStream in = null;
+        CountingOutputStream compressed = null;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+            compressed = new CountingOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(entry.mData), BUFFER_SIZE));
+            DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater,
+                    BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+                size += read;
+            }
+            out.finish();
+            out.flush();
+            entry.mCrc = crc.getValue();
+            entry.mSize = size;
+            entry.mCompressedSize = compressed.getCount();
+        } finally {
+            deflater.end();
+            StreamUtil.close(in);
+            StreamUtil.close(compressed);
+        }
+    }
+
+    /**
+     * Wait for all entries to be compressed and write the archive. If it fails, the partial zip
+     * file is deleted.
+     */
+    void close() throws IOException {
+        CountingOutputStream out = null;
+        boolean success = false;
+        try {
+            if (mEntries.size() > MAX_ENTRIES) {
+                throw new IOException("Too many entries for " + mZipFile.getName());
+            }
+            out = new CountingOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(mZipFile), BUFFER_SIZE));
+            for (Entry entry : mEntries) {
+                waitForCompression(entry);
+                entry.mOffset = out.getCount();
+                writeLocalHeader(out, entry);
+                if (entry.mData != null) {
+                    copy(entry.mData, out);
+                    entry.mData.delete();
+                }
+            }
+            long centralOffset = out.getCount();
+            for (Entry entry : mEntries) {
+                writeCentralHeader(out, entry);
+            }
+            writeEnd(out, mEntries.size(), centralOffset, out.getCount() - centralOffset);
+            out.close();
+            out = null;
+            success = true;
+        } finally {
+            StreamUtil.close(out);
+            if (!success) {
+                // let the remaining tasks finish so their compressed data can be deleted
+                for (Entry entry : mEntries) {
+                    try {
+                        waitForCompression(entry);
+                    } catch (IOException e) {
+                        // already failing
+                    }
+                    if (entry.mData != null) {
+                        entry.mData.delete();
+                    }
+                }
+                mZipFile.delete();
+            }
+        }
+    }
+
+    private static void waitForCompression(Entry entry) throws IOException {
+        if (entry.mCompression == null) {
+            return;
+        }
+        try {
+            entry.mCompression.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + entry.mName, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void copy(File file, OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            StreamUtil.close(in);
+        }
+    }
+
+    private static void writeLocalHeader(CountingOutputStream out, Entry entry)
+            throws IOException {
+        byte[] name = entry.mName.getBytes(UTF_8);
+        checkSize(entry.mCompressedSize);
+        checkSize(entry.mSize);
+        checkSize(entry.mOffset);
+        writeInt(out, LOCAL_HEADER_SIGNATURE);
+        writeShort(out, VERSION);
+        writeShort(out, FLAGS);
+        writeShort(out, entry.mIsDirectory ? METHOD_STORED : METHOD_DEFLATED);
+        writeInt(out, entry.mDosTime);
+        writeInt(out, entry.mCrc);
+        writeInt(out, entry.mCompressedSize);
+        writeInt(out, entry.mSize);
+        writeShort(out, name.length);
+        // extra field length
+        writeShort(out, 0);
+        out.write(name);
+    }
+
+    private static void writeCentralHeader(CountingOutputStream out, Entry entry)
+            throws IOException {
+        byte[] name = entry.mName.getBytes(UTF_8);
+        writeInt(out, CENTRAL_HEADER_SIGNATURE);
+        // version made by, version needed to extract
+        writeShort(out, VERSION);
+        writeShort(out, VERSION);
+        writeShort(out, FLAGS);
+        writeShort(out, entry.mIsDirectory ? METHOD_STORED : METHOD_DEFLATED);
+        writeInt(out, entry.mDosTime);
+        writeInt(out, entry.mCrc);
+        writeInt(out, entry.mCompressedSize);
+        writeInt(out, entry.mSize);
+        writeShort(out, name.length);
+        // extra field length, comment length, disk number, internal attributes
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeInt(out, entry.mIsDirectory ? DIRECTORY_ATTRIBUTE : 0);
+        writeInt(out, entry.mOffset);
+        out.write(name);
+    }
+
+    private static void writeEnd(CountingOutputStream out, int entryCount, long centralOffset,
+            long centralSize) throws IOException {
+        checkSize(centralOffset);
+        checkSize(centralSize);
+        writeInt(out, END_SIGNATURE);
+        // disk number, disk with the central directory
+        writeShort(out, 0);
+        writeShort(out, 0);
+        // entries on this disk, total entries
+        writeShort(out, entryCount);
+        writeShort(out, entryCount);
+        writeInt(out, centralSize);
+        writeInt(out, centralOffset);
+        // comment length
+        writeShort(out, 0);
+    }
+
+    private static void checkSize(long size) throws IOException {
+        if (size > MAX_SIZE) {
+            throw new IOException("Zip file too large");
+        }
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, long value) throws IOException {
+        writeShort(out, (int) (value & 0xffff));
+        writeShort(out, (int) ((value >>> 16) & 0xffff));
+    }
+
+    /**
+     * Convert a time in ms since the epoch to the MS-DOS date and time of zip entries.
+     */
+    private static long toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            // 1980-01-01 00:00, the earliest representable time
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    /**
+     * An {@link OutputStream} that counts the bytes written through it.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream mOut;
+        private long mCount = 0;
+
+        CountingOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+            mCount += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+}
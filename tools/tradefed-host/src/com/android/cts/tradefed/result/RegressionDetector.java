@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.cts.tradefed.build.CtsBuildHelper;
+import com.android.tradefed.config.ConfigurationException;
+import com.android.tradefed.config.Option;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the performance summaries of a CTS session with those of earlier sessions on the same
+ * device, and reports the ones that got significantly worse.
+ * <p/>
+ * The baseline of a metric is the median of its values in the last sessions that started before
+ * the checked one, and the spread is the median absolute deviation of those values, which keeps
+ * a few noisy sessions from hiding or faking a regression. A value regresses when it is worse than the baseline by both the threshold number
+ * of spreads and the minimum relative change.
+ */
+public class RegressionDetector {
+
+    static final String LOWER_BETTER = "lower_better";
+    static final String HIGHER_BETTER = "higher_better";
+
+    /** scales the median absolute deviation to a standard deviation for normal data */
+    private static final double MAD_SCALE = 1.4826;
+
+    @Option (name = "session", shortName = 's',
+            description = "the session id to check. Defaults to the latest session.")
+    private Integer mSessionId = null;
+
+    @Option (name = "window",
+            description = "the maximum number of earlier sessions to use as the baseline.")
+    private int mWindow = 10;
+
+    @Option (name = "min-baseline",
+            description = "the minimum number of earlier sessions with a value needed to " +
+            "check a metric.")
+    private int mMinBaseline = 5;
+
+    @Option (name = "threshold",
+            description = "how many spreads from the baseline a value must be to regress.")
+    private double mThreshold = 3.0;
+
+    @Option (name = "min-change",
+            description = "the minimum relative change from the baseline to regress, in percent.")
+    private double mMinChange = 5.0;
+
+    @Option (name = "by-build",
+            description = "only compare with earlier sessions of the exact same build, " +
+            "instead of all builds of the same device.")
+    private boolean mByBuild = false;
+
+    /**
+     * A metric that got worse.
+     */
+    public static class Regression {
+        private final SessionMetricsHistory.Series mSeries;
+        private final double mValue;
+        private final double mBaseline;
+        private final double mScore;
+
+        Regression(SessionMetricsHistory.Series series, double value, double baseline,
+                double score) {
+            mSeries = series;
+            mValue = value;
+            mBaseline = baseline;
+            mScore = score;
+        }
+
+        public SessionMetricsHistory.Series getSeries() {
+            return mSeries;
+        }
+
+        public double getValue() {
+            return mValue;
+        }
+
+        public double getBaseline() {
+            return mBaseline;
+        }
+
+        /**
+         * @return the change from the baseline, relative to the baseline
+         */
+        public double getChange() {
+            return (mValue - mBaseline) / Math.abs(mBaseline);
+        }
+
+        /**
+         * @return how many spreads the value is from the baseline. Infinite if all baseline
+         * values were equal
+         */
+        public double getScore() {
+            return mScore;
+        }
+    }
+
+    /**
+     * Create an empty {@link RegressionDetector}.
+     * <p/>
+     * All {@link Option} fields must be populated via
+     * {@link com.android.tradefed.config.ArgsOptionParser}
+     */
+    public RegressionDetector() {
+    }
+
+    /**
+     * Create a {@link RegressionDetector} using the specified option values.
+     */
+    public RegressionDetector(int window, int minBaseline, double threshold, double minChange,
+            boolean byBuild) {
+        mWindow = window;
+        mMinBaseline = minBaseline;
+        mThreshold = threshold;
+        mMinChange = minChange;
+        mByBuild = byBuild;
+    }
+
+    /**
+     * Bring the metrics history of the given build up to date with its results, and check the
+     * session given by the options for regressions.
+     *
+     * @return the regressions, worst first
+     * @throws ConfigurationException if an option has an invalid value
+     */
+    public List<Regression> checkRegressions(CtsBuildHelper build)
+            throws ConfigurationException {
+        if (mWindow < 1 || mMinBaseline < 1 || mMinBaseline > mWindow) {
+            throw new ConfigurationException("Expected 1 <= --min-baseline <= --window");
+        }
+        ITestResultRepo repo = new TestResultRepo(build.getResultsDir());
+        int sessionId = mSessionId == null ? repo.getSessionCount() - 1 : mSessionId;
+        if (sessionId < 0 || sessionId >= repo.getSessionCount()) {
+            throw new ConfigurationException(String.format("Could not find session with id %d",
+                    sessionId));
+        }
+        SessionMetricsHistory history = new SessionMetricsHistory(build.getMetricsHistoryFile());
+        if (history.update(repo) > 0) {
+            try {
+                history.save();
+            } catch (IOException e) {
+                // the history is rebuilt from the results next time
+                CLog.w("Failed to save metrics history: %s", e.getMessage());
+            }
+        }
+        return findRegressions(history, repo.getReportDir(sessionId).getName());
+    }
+
+    /**
+     * Check the given session for regressions against the sessions that started before it.
+     *
+     * @return the regressions, worst first
+     */
+    List<Regression> findRegressions(SessionMetricsHistory history, String sessionName) {
+        // the position of each session in start time order
+        Map<String, Integer> sessionOrder = new HashMap<String, Integer>();
+        for (String session : history.getSessionsByStartTime()) {
+            sessionOrder.put(session, sessionOrder.size());
+        }
+        Integer checkedOrder = sessionOrder.get(sessionName);
+        if (checkedOrder == null) {
+            return new ArrayList<Regression>();
+        }
+
+        // the metrics of the session, by the key of the baseline they are compared with
+        Map<String, List<Integer>> checkedRows = new HashMap<String, List<Integer>>();
+        for (int row = 0; row < history.getRowCount(); row++) {
+            if (history.getRowSession(row).equals(sessionName) && isComparable(history, row)) {
+                String key = getBaselineKey(history.getRowSeries(row));
+                List<Integer> rows = checkedRows.get(key);
+                if (rows == null) {
+                    rows = new ArrayList<Integer>(1);
+                    checkedRows.put(key, rows);
+                }
+                rows.add(row);
+            }
+        }
+        // the values of the earlier sessions, by baseline key and then by session order
+        Map<String, TreeMap<Integer, List<Double>>> historyValues =
+                new HashMap<String, TreeMap<Integer, List<Double>>>();
+        for (int row = 0; row < history.getRowCount(); row++) {
+            int order = sessionOrder.get(history.getRowSession(row));
+            if (order >= checkedOrder) {
+                continue;
+            }
+            String key = getBaselineKey(history.getRowSeries(row));
+            if (checkedRows.containsKey(key)) {
+                TreeMap<Integer, List<Double>> sessionValues = historyValues.get(key);
+                if (sessionValues == null) {
+                    sessionValues = new TreeMap<Integer, List<Double>>();
+                    historyValues.put(key, sessionValues);
+                }
+                List<Double> values = sessionValues.get(order);
+                if (values == null) {
+                    values = new ArrayList<Double>(1);
+                    sessionValues.put(order, values);
+                }
+                values.add(history.getRowValue(row));
+            }
+        }
+
+        List<Regression> regressions = new ArrayList<Regression>();
+        for (Map.Entry<String, List<Integer>> entry : checkedRows.entrySet()) {
+            double[] baseline = getBaseline(historyValues.get(entry.getKey()));
+            if (baseline == null) {
+                continue;
+            }
+            for (int row : entry.getValue()) {
+                Regression regression = check(history.getRowSeries(row),
+                        history.getRowValue(row), baseline);
+                if (regression != null) {
+                    regressions.add(regression);
+                }
+            }
+        }
+        Collections.sort(regressions, new Comparator<Regression>() {
+            @Override
+            public int compare(Regression r0, Regression r1) {
+                return Double.compare(r1.getScore(), r0.getScore());
+            }
+        });
+        return regressions;
+    }
+
+    private static boolean isComparable(SessionMetricsHistory history, int row) {
+        String scoreType = history.getRowSeries(row).getScoreType();
+        return LOWER_BETTER.equals(scoreType) || HIGHER_BETTER.equals(scoreType);
+    }
+
+    /**
+     * @return the key of the series whose values are comparable with the given series
+     */
+    private String getBaselineKey(SessionMetricsHistory.Series series) {
+        String fingerprint = series.getFingerprint();
+        if (!mByBuild) {
+            // brand/product/device:release/id/incremental:type/tags
+            int end = fingerprint.indexOf(':');
+            if (end >= 0) {
+                fingerprint = fingerprint.substring(0, end);
+            }
+        }
+        return fingerprint + '|' + series.getPackage() + '|' + series.getTest() + '|'
+                + series.getMetric();
+    }
+
+    /**
+     * @return the values of the last sessions sorted by value, or <code>null</code> if there are
+     * not enough sessions
+     */
+    private double[] getBaseline(TreeMap<Integer, List<Double>> sessionValues) {
+        if (sessionValues == null || sessionValues.size() < mMinBaseline) {
+            return null;
+        }
+        List<Double> window = new ArrayList<Double>();
+        int sessions = mWindow;
+        for (List<Double> values : sessionValues.descendingMap().values()) {
+            window.addAll(values);
+            if (--sessions == 0) {
+                break;
+            }
+        }
+        double[] values = new double[window.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = window.get(i);
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private Regression check(SessionMetricsHistory.Series series, double value, double[] baseline) {
+        double median = median(baseline);
+        double worsening = LOWER_BETTER.equals(series.getScoreType()) ?
+                value - median : median - value;
+        if (!(worsening > 0)) {
+            return null;
+        }
+        if (median != 0 && worsening / Math.abs(median) * 100 < mMinChange) {
+            return null;
+        }
+        double[] deviations = new double[baseline.length];
+        for (int i = 0; i < baseline.length; i++) {
+            deviations[i] = Math.abs(baseline[i] - median);
+        }
+        Arrays.sort(deviations);
+        double spread = MAD_SCALE * median(deviations);
+        double score = spread > 0 ? worsening / spread : Double.POSITIVE_INFINITY;
+        if (score < mThreshold) {
+            return null;
+        }
+        return new Regression(series, value, median, score);
+    }
+
+    /**
+     * @return the median of the given sorted values
+     */
+    private static double median(double[] sorted) {
+        int middle = sorted.length / 2;
+        if (sorted.length % 2 == 1) {
+            return sorted[middle];
+        }
+        return (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+}
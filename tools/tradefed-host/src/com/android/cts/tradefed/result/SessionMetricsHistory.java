@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The history of the performance summaries reported in every CTS session, used to compare them
+ * across sessions.
+ * <p/>
+ * Each sample is one row of three columns: the series it belongs to, that is the build
+ * fingerprint, package, test and metric, the session that reported it, and its value. Series and
+ * sessions are kept in dictionaries, so a row is just two ints and a double. Each session also
+ * records when it started, which orders the sessions. The history is saved to a single file,
+ * and {@link #update(ITestResultRepo)} only parses the result XML of sessions it has not seen
+ * before.
+ */
+public class SessionMetricsHistory {
+
+    // "CTSM"
+    private static final int MAGIC = 0x4354534d;
+    private static final int VERSION = 2;
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * One metric of one test, as reported by one build.
+     */
+    public static class Series {
+        private final String mFingerprint;
+        private final String mPackage;
+        private final String mTest;
+        private final String mMetric;
+        private final String mScoreType;
+        private final String mUnit;
+
+        Series(String fingerprint, String pkg, String test, String metric, String scoreType,
+                String unit) {
+            mFingerprint = fingerprint;
+            mPackage = pkg;
+            mTest = test;
+            mMetric = metric;
+            mScoreType = scoreType == null ? "" : scoreType;
+            mUnit = unit == null ? "" : unit;
+        }
+
+        public String getFingerprint() {
+            return mFingerprint;
+        }
+
+        public String getPackage() {
+            return mPackage;
+        }
+
+        public String getTest() {
+            return mTest;
+        }
+
+        public String getMetric() {
+            return mMetric;
+        }
+
+        public String getScoreType() {
+            return mScoreType;
+        }
+
+        public String getUnit() {
+            return mUnit;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Series)) {
+                return false;
+            }
+            Series other = (Series) obj;
+            return mFingerprint.equals(other.mFingerprint) && mPackage.equals(other.mPackage)
+                    && mTest.equals(other.mTest) && mMetric.equals(other.mMetric);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[] {mFingerprint, mPackage, mTest, mMetric});
+        }
+    }
+
+    private final File mHistoryFile;
+
+    // dictionaries, the index of an entry is its id in the columns
+    private final List<String> mSessions = new ArrayList<String>();
+    private final List<Long> mSessionStartTimes = new ArrayList<Long>();
+    private final Map<String, Integer> mSessionIds = new HashMap<String, Integer>();
+    private final List<Series> mSeries = new ArrayList<Series>();
+    private final Map<Series, Integer> mSeriesIds = new HashMap<Series, Integer>();
+
+    // columns
+    private int[] mSeriesColumn = new int[INITIAL_CAPACITY];
+    private int[] mSessionColumn = new int[INITIAL_CAPACITY];
+    private double[] mValueColumn = new double[INITIAL_CAPACITY];
+    private int mRowCount = 0;
+
+    /**
+     * Create a {@link SessionMetricsHistory}, loading the given history file if it exists.
+     * <p/>
+     * A history file that cannot be read is ignored, the history is then rebuilt from the
+     * results.
+     */
+    public SessionMetricsHistory(File historyFile) {
+        mHistoryFile = historyFile;
+        if (mHistoryFile.isFile()) {
+            try {
+                load();
+            } catch (IOException e) {
+                CLog.w("Ignoring unreadable metrics history %s: %s", mHistoryFile,
+                        e.getMessage());
+                clear();
+            }
+        }
+    }
+
+    /**
+     * Adds the performance summaries of all sessions in the given repository that are not in
+     * the history yet.
+     *
+     * @return the number of sessions added
+     */
+    public int update(ITestResultRepo repo) {
+        int added = 0;
+        for (int i = 0; i < repo.getSessionCount(); i++) {
+            File resultDir = repo.getReportDir(i);
+            if (mSessionIds.containsKey(resultDir.getName())) {
+                continue;
+            }
+            MetricsXmlParser parser = new MetricsXmlParser();
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(new File(resultDir,
+                        CtsXmlResultReporter.TEST_RESULT_FILE_NAME)));
+                parser.parse(reader);
+            } catch (ParseException e) {
+                CLog.w("Skipping session %d: %s", i, e.getMessage());
+                continue;
+            } catch (FileNotFoundException e) {
+                CLog.w("Skipping session %d: %s", i, e.getMessage());
+                continue;
+            } finally {
+                StreamUtil.close(reader);
+            }
+            long startTime = parser.getStartTime();
+            if (startTime < 0) {
+                // the result directory is named after the time the session was created
+                startTime = TimeUtil.parseResultTimestamp(resultDir.getName());
+            }
+            addSession(resultDir.getName(), startTime, parser.getFingerprint(),
+                    parser.getMetrics());
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Adds the performance summaries of one session.
+     *
+     * @param startTime the time the session started in ms since the epoch, or a negative value
+     *        if it is unknown
+     */
+    void addSession(String sessionName, long startTime, String fingerprint,
+            List<MetricsXmlParser.Metric> metrics) {
+        int sessionId = getSessionId(sessionName, startTime);
+        for (MetricsXmlParser.Metric metric : metrics) {
+            Series series = new Series(fingerprint, metric.mPackage, metric.mTest,
+                    metric.mMessage, metric.mScoreType, metric.mUnit);
+            addRow(getSeriesId(series), sessionId, metric.mValue);
+        }
+    }
+
+    /**
+     * Writes the history to its file. The file is replaced atomically, so a concurrent reader
+     * never sees a partially written history.
+     */
+    public void save() throws IOException {
+        File parent = mHistoryFile.getAbsoluteFile().getParentFile();
+        FileUtil.mkdirsRWX(parent);
+        File tmpFile = FileUtil.createTempFile(mHistoryFile.getName(), ".tmp", parent);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mSessions.size());
+            for (int i = 0; i < mSessions.size(); i++) {
+                out.writeUTF(mSessions.get(i));
+                out.writeLong(mSessionStartTimes.get(i));
+            }
+            out.writeInt(mSeries.size());
+            for (Series series : mSeries) {
+                out.writeUTF(series.mFingerprint);
+                out.writeUTF(series.mPackage);
+                out.writeUTF(series.mTest);
+                out.writeUTF(series.mMetric);
+                out.writeUTF(series.mScoreType);
+                out.writeUTF(series.mUnit);
+            }
+            out.writeInt(mRowCount);
+            for (int i = 0; i < mRowCount; i++) {
+                out.writeInt(mSeriesColumn[i]);
+            }
+            for (int i = 0; i < mRowCount; i++) {
+                out.writeInt(mSessionColumn[i]);
+            }
+            for (int i = 0; i < mRowCount; i++) {
+                out.writeDouble(mValueColumn[i]);
+            }
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(mHistoryFile)) {
+                throw new IOException("Could not rename " + tmpFile + " to " + mHistoryFile);
+            }
+        } finally {
+            StreamUtil.close(out);
+            tmpFile.delete();
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(mHistoryFile)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a metrics history");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported version " + version);
+            }
+            int sessionCount = in.readInt();
+            for (int i = 0; i < sessionCount; i++) {
+                getSessionId(in.readUTF(), in.readLong());
+            }
+            int seriesCount = in.readInt();
+            for (int i = 0; i < seriesCount; i++) {
+                getSeriesId(new Series(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                        in.readUTF(), in.readUTF()));
+            }
+            int rowCount = in.readInt();
+            ensureCapacity(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                mSeriesColumn[i] = checkId(in.readInt(), seriesCount);
+            }
+            for (int i = 0; i < rowCount; i++) {
+                mSessionColumn[i] = checkId(in.readInt(), sessionCount);
+            }
+            for (int i = 0; i < rowCount; i++) {
+                mValueColumn[i] = in.readDouble();
+            }
+            mRowCount = rowCount;
+        } finally {
+            StreamUtil.close(in);
+        }
+    }
+
+    private static int checkId(int id, int count) throws IOException {
+        if (id < 0 || id >= count) {
+            throw new IOException("corrupt metrics history");
+        }
+        return id;
+    }
+
+    private void clear() {
+        mSessions.clear();
+        mSessionStartTimes.clear();
+        mSessionIds.clear();
+        mSeries.clear();
+        mSeriesIds.clear();
+        mRowCount = 0;
+    }
+
+    private int getSessionId(String sessionName, long startTime) {
+        Integer id = mSessionIds.get(sessionName);
+        if (id == null) {
+            id = mSessions.size();
+            mSessions.add(sessionName);
+            mSessionStartTimes.add(startTime);
+            mSessionIds.put(sessionName, id);
+        }
+        return id;
+    }
+
+    private int getSeriesId(Series series) {
+        Integer id = mSeriesIds.get(series);
+        if (id == null) {
+            id = mSeries.size();
+            mSeries.add(series);
+            mSeriesIds.put(series, id);
+        }
+        return id;
+    }
+
+    private void addRow(int seriesId, int sessionId, double value) {
+        ensureCapacity(mRowCount + 1);
+        mSeriesColumn[mRowCount] = seriesId;
+        mSessionColumn[mRowCount] = sessionId;
+        mValueColumn[mRowCount] = value;
+        mRowCount++;
+    }
+
+    private void ensureCapacity(int rowCount) {
+        if (rowCount > mValueColumn.length) {
+            int capacity = Math.max(rowCount, mValueColumn.length * 2);
+            mSeriesColumn = Arrays.copyOf(mSeriesColumn, capacity);
+            mSessionColumn = Arrays.copyOf(mSessionColumn, capacity);
+            mValueColumn = Arrays.copyOf(mValueColumn, capacity);
+        }
+    }
+
+    /**
+     * @return true if the session with the given result directory name is in the history
+     */
+    public boolean containsSession(String sessionName) {
+        return mSessionIds.containsKey(sessionName);
+    }
+
+    /**
+     * @return the names of all sessions in the order they started. Sessions whose start time is
+     * unknown come first, and sessions that started at the same time are in result directory
+     * name order.
+     */
+    List<String> getSessionsByStartTime() {
+        Integer[] ids = new Integer[mSessions.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        Arrays.sort(ids, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer id0, Integer id1) {
+                int result = Long.compare(mSessionStartTimes.get(id0),
+                        mSessionStartTimes.get(id1));
+                return result != 0 ? result : mSessions.get(id0).compareTo(mSessions.get(id1));
+            }
+        });
+        List<String> sessions = new ArrayList<String>(ids.length);
+        for (int id : ids) {
+            sessions.add(mSessions.get(id));
+        }
+        return sessions;
+    }
+
+    int getRowCount() {
+        return mRowCount;
+    }
+
+    Series getRowSeries(int row) {
+        return mSeries.get(mSeriesColumn[row]);
+    }
+
+    String getRowSession(int row) {
+        return mSessions.get(mSessionColumn[row]);
+    }
+
+    double getRowValue(int row) {
+        return mValueColumn[row];
+    }
+}
@@ -65,6 +65,14 @@ public class TestResultRepo implements ITestResultRepo {
         return mResultDirs.get(sessionId);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSessionCount() {
+        return mResultDirs.size();
+    }
+
     private ITestSummary parseSummary(int id, File resultDir) {
         TestSummaryXml result = new TestSummaryXml(id, resultDir.getName());
         try {
@@ -15,6 +15,7 @@
  */
 package com.android.cts.tradefed.result;
 
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
@@ -68,6 +69,15 @@ class TimeUtil {
         return dateFormat.format(new Date(time));
     }
 
+    /**
+     * Parse a timestamp in the format of {@link #getTimestamp(long)}.
+     *
+     * @return the epoch time in ms, or -1 if the timestamp could not be parsed
+     */
+    static long parseTimestamp(String timestamp) {
+        return parse(new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy"), timestamp);
+    }
+
     /**
      * Return the current timestamp in a compressed format, used to uniquely identify results.
      * <p/>
@@ -78,4 +88,21 @@ class TimeUtil {
         return dateFormat.format(new Date());
     }
 
+    /**
+     * Parse a timestamp in the format of {@link #getResultTimestamp()}.
+     *
+     * @return the epoch time in ms, or -1 if the timestamp could not be parsed
+     */
+    static long parseResultTimestamp(String timestamp) {
+        return parse(new SimpleDateFormat("yyyy.MM.dd_HH.mm.ss"), timestamp);
+    }
+
+    private static long parse(SimpleDateFormat dateFormat, String timestamp) {
+        if (timestamp == null) {
+            return -1;
+        }
+        Date date = dateFormat.parse(timestamp, new ParsePosition(0));
+        return date != null ? date.getTime() : -1;
+    }
+
 }
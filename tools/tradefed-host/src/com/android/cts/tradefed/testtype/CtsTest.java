@@ -17,6 +17,7 @@
 package com.android.cts.tradefed.testtype;
 
 import com.android.cts.tradefed.build.CtsBuildHelper;
+import com.android.cts.tradefed.device.DeviceInfoCache;
 import com.android.cts.tradefed.device.DeviceInfoCollector;
 import com.android.cts.tradefed.result.CtsTestStatus;
 import com.android.cts.tradefed.result.PlanCreator;
@@ -59,9 +60,9 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -96,6 +97,11 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
     public static final String PACKAGE_NAME_METRIC = "packageName";
     public static final String PACKAGE_ABI_METRIC = "packageAbi";
     public static final String PACKAGE_DIGEST_METRIC = "packageDigest";
+    public static final String REBOOT_COUNT_METRIC = "rebootCount";
+    public static final String REBOOT_TIME_METRIC = "rebootTimeMs";
+
+    private static final String HEALTH_REBOOT_POLICY = "health";
+    private static final String INTERVAL_REBOOT_POLICY = "interval";
 
     @Option(name = PLAN_OPTION, description = "the test plan to run.",
             importance = Importance.IF_UNSET)
@@ -132,6 +138,17 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         "the test report.")
     private boolean mSkipDeviceInfo = false;
 
+    @Option(name = "device-info-cache", description =
+        "flag to control whether to reuse the device info collected in a previous run on the " +
+        "same device and build fingerprint, instead of collecting it again.")
+    private boolean mUseDeviceInfoCache = true;
+
+    @Option(name = "refresh-volatile-device-info", description =
+        "flag to control whether to refresh the device info fields that can change without a " +
+        "new build, like partitions, network and root processes, when reusing cached device " +
+        "info.")
+    private boolean mRefreshVolatileDeviceInfo = true;
+
     @Option(name = "resume", description =
         "flag to attempt to automatically resume aborted test run on another connected device. ")
     private boolean mResume = false;
@@ -162,10 +179,40 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             "Additional wait time in ms after boot complete.")
     private int mRebootWaitTimeMSec = 2 * 60 * 1000;
 
+    @Option(name = "reboot-policy", description =
+            "When to reboot the device between packages. \"interval\" reboots every " +
+            "--reboot-interval min and around some known packages, \"health\" reboots when " +
+            "the device health sampled after each package crosses the --reboot-* thresholds. " +
+            "Default is interval.")
+    private String mRebootPolicy = INTERVAL_REBOOT_POLICY;
+
     @Option(name = "reboot-interval", description =
-            "Interval between each reboot in min.")
+            "Interval between each reboot in min when --reboot-policy is interval.")
     private int mRebootIntervalMin = 30;
 
+    @Option(name = "reboot-min-available-memory", description =
+            "Reboot when less memory in kB is available on the device after a package. " +
+            "0 to disable.")
+    private long mRebootMinAvailableMemKb = 200 * 1024;
+
+    @Option(name = "reboot-max-process-growth", description =
+            "Reboot when more processes than this were started and not stopped since the last " +
+            "reboot. 0 to disable.")
+    private int mRebootMaxProcessGrowth = 100;
+
+    @Option(name = "reboot-max-failure-rate", description =
+            "Reboot when a larger fraction of the tests of a package failed. 0 to disable.")
+    private float mRebootMaxFailureRate = 0.5f;
+
+    @Option(name = "reboot-min-test-count", description =
+            "The min number of tests a package must have run for --reboot-max-failure-rate " +
+            "to apply.")
+    private int mRebootMinTestCount = 10;
+
+    @Option(name = "reboot-on-run-failure", description =
+            "Reboot when a test run failed, e.g. because the instrumentation crashed.")
+    private boolean mRebootOnRunFailure = true;
+
     @Option(name = "screenshot-on-failure", description =
             "take a screenshot on every test failure.")
     private boolean mScreenshotOnFailures = false;
@@ -186,6 +233,32 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             "Should be an amount that can comfortably fit in memory.")
     private int mMaxLogcatBytes = 500 * 1024; // 500K
 
+    @Option(name = "async-failure-capture", description =
+            "capture the bugreports, screenshots and logcat snapshots requested for failed tests " +
+            "in the background instead of blocking the next test.")
+    private boolean mAsyncFailureCapture = true;
+
+    @Option(name = "bugreport-min-interval", description =
+            "The minimum time in ms between two bugreports taken on test failures when " +
+            "--async-failure-capture is on. Failures in between do not trigger a bugreport.")
+    private long mMinBugreportIntervalMs = 5 * 60 * 1000;
+
+    @Option(name = "failure-capture-queue-size", description =
+            "The max number of failure captures waiting to be taken when " +
+            "--async-failure-capture is on. Further captures are dropped.")
+    private int mMaxQueuedFailureCaptures = 30;
+
+    @Option(name = "failure-capture-timeout", description =
+            "The max time in ms to wait for pending failure captures at the end of each test " +
+            "package when --async-failure-capture is on.")
+    private long mFailureCaptureTimeoutMs = 5 * 60 * 1000;
+
+    @Option(name = "logcat-buffer-size", description =
+            "The size in bytes of the host-side buffer the device logcat is streamed into when " +
+            "--logcat-on-failure and --async-failure-capture are on. The logcat of failed tests " +
+            "is cut from this buffer. 0 to pull the logcat from the device on each failure.")
+    private int mLogcatBufferBytes = 16 * 1024 * 1024; // 16M
+
     @Option(name = "collect-deqp-logs", description =
             "Collect dEQP logs from the device.")
     private boolean mCollectDeqpLogs = false;
@@ -204,8 +277,10 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
     private ITestDevice mDevice = null;
     private CtsBuildHelper mCtsBuild = null;
     private IBuildInfo mBuildInfo = null;
-    // last reboot time
-    private long mPrevRebootTime;
+    private IRebootPolicy mRebootPolicyImpl = null;
+    // number of reboots and time spent rebooting in this run
+    private int mRebootCount = 0;
+    private long mRebootTimeMs = 0;
     // The list of packages to run. populated in {@code setupTestPackageList}
     // This is a member variable so that run can be called more than once
     // and the test run is resumed.
@@ -496,14 +571,30 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
 
         checkFields();
         setupTestPackageList(abiSet);
-        if (mBugreport) {
-            listener = new FailedTestBugreportGenerator(listener, getDevice());
-        }
-        if (mScreenshotOnFailures) {
-            listener = new FailedTestScreenshotGenerator(listener, getDevice());
-        }
-        if (mLogcatOnFailures) {
-            listener = new FailedTestLogcatGenerator(listener, getDevice(), mMaxLogcatBytes);
+        FailureArtifactCollector artifactCollector = null;
+        LogcatRingBuffer logcatBuffer = null;
+        if (mAsyncFailureCapture) {
+            if (mBugreport || mScreenshotOnFailures || mLogcatOnFailures) {
+                artifactCollector = new FailureArtifactCollector(listener, getDevice(),
+                        mBugreport, mScreenshotOnFailures, mLogcatOnFailures, mMaxLogcatBytes,
+                        mMinBugreportIntervalMs, mMaxQueuedFailureCaptures,
+                        mFailureCaptureTimeoutMs);
+                listener = artifactCollector;
+                if (mLogcatOnFailures && mLogcatBufferBytes > 0) {
+                    logcatBuffer = createLogcatBuffer();
+                    artifactCollector.setLogcatBuffer(logcatBuffer);
+                }
+            }
+        } else {
+            if (mBugreport) {
+                listener = new FailedTestBugreportGenerator(listener, getDevice());
+            }
+            if (mScreenshotOnFailures) {
+                listener = new FailedTestScreenshotGenerator(listener, getDevice());
+            }
+            if (mLogcatOnFailures) {
+                listener = new FailedTestLogcatGenerator(listener, getDevice(), mMaxLogcatBytes);
+            }
         }
 
         // Setup the a map of Test id to ResultFilter
@@ -526,7 +617,10 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             collectDeviceInfo(getDevice(), mCtsBuild, listener);
             preRebootIfNecessary(mTestPackageList);
 
-            mPrevRebootTime = System.currentTimeMillis();
+            if (mTestPackageList.size() > 1 && isRebootEnabled()) {
+                mRebootPolicyImpl = createRebootPolicy();
+                mRebootPolicyImpl.reset(getDevice());
+            }
             int remainingPackageCount = mTestPackageList.size();
             Log.logAndDisplay(LogLevel.INFO, LOG_TAG,
                 String.format("Start test run of %,d packages, containing %,d tests",
@@ -578,11 +672,13 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
 
                 forwardPackageDetails(testPackage.getPackageDef(), listener);
                 performPackagePrepareSetup(testPackage.getPackageDef());
-                test.run(filterMap.get(testPackage.getPackageDef().getId()));
+                PackageResultCounter results = new PackageResultCounter(
+                        filterMap.get(testPackage.getPackageDef().getId()));
+                test.run(results);
                 performPackagePreparerTearDown(testPackage.getPackageDef());
                 if (i < mTestPackageList.size() - 1) {
                     TestPackage nextPackage = mTestPackageList.get(i + 1);
-                    rebootIfNecessary(testPackage, nextPackage);
+                    rebootIfNecessary(testPackage, results, nextPackage);
                     changeToHomeScreen();
                 }
                 // Track of the last complete test package index for resume
@@ -599,6 +695,9 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             }
 
             uninstallPrequisiteApks(uninstallPackages);
+            Log.logAndDisplay(LogLevel.INFO, LOG_TAG, String.format(
+                    "Rebooted %d times, spent %d s rebooting", mRebootCount,
+                    mRebootTimeMs / 1000));
 
         } catch (RuntimeException e) {
             CLog.e(e);
@@ -610,6 +709,12 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             for (ResultFilter filter : filterMap.values()) {
                 filter.reportUnexecutedTests();
             }
+            if (artifactCollector != null) {
+                artifactCollector.close();
+            }
+            if (logcatBuffer != null) {
+                logcatBuffer.stop();
+            }
         }
     }
 
@@ -728,38 +833,43 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         rebootDevice();
     }
 
-    private void rebootIfNecessary(TestPackage testFinished, TestPackage testToRun)
-            throws DeviceNotAvailableException {
-        // If there comes spurious failure like INJECT_EVENTS for a package,
-        // reboot it before running it.
-        // Also reboot after package which is know to leave pop-up behind
-        final List<String> rebootAfterList = Arrays.asList(
-                "CtsMediaTestCases",
-                "CtsAccessibilityTestCases");
-        final List<String> rebootBeforeList = Arrays.asList(
-                "CtsAnimationTestCases",
-                "CtsGraphicsTestCases",
-                "CtsViewTestCases",
-                "CtsWidgetTestCases" );
-        long intervalInMSec = mRebootIntervalMin * 60 * 1000;
-        if (mDisableReboot || mDevice.getSerialNumber().startsWith("emulator-")) {
+    private boolean isRebootEnabled() {
+        return !mDisableReboot && !mDevice.getSerialNumber().startsWith("emulator-");
+    }
+
+    private IRebootPolicy createRebootPolicy() {
+        if (HEALTH_REBOOT_POLICY.equals(mRebootPolicy)) {
+            return new HealthRebootPolicy(mRebootMinAvailableMemKb, mRebootMaxProcessGrowth,
+                    mRebootMaxFailureRate, mRebootMinTestCount, mRebootOnRunFailure);
+        }
+        if (!INTERVAL_REBOOT_POLICY.equals(mRebootPolicy)) {
+            throw new IllegalArgumentException(String.format(
+                    "Unknown reboot policy %s. Use %s or %s", mRebootPolicy,
+                    INTERVAL_REBOOT_POLICY, HEALTH_REBOOT_POLICY));
+        }
+        return new IntervalRebootPolicy(mRebootIntervalMin * 60 * 1000L);
+    }
+
+    private void rebootIfNecessary(TestPackage testFinished, PackageResultCounter results,
+            TestPackage testToRun) throws DeviceNotAvailableException {
+        if (mRebootPolicyImpl == null) {
             return;
         }
-        long currentTime = System.currentTimeMillis();
-        if (((currentTime - mPrevRebootTime) > intervalInMSec) ||
-                rebootAfterList.contains(testFinished.getPackageDef().getName()) ||
-                rebootBeforeList.contains(testToRun.getPackageDef().getName()) ) {
-            Log.i(LOG_TAG,
-                    String.format("Rebooting after running package %s, before package %s",
+        String reason = mRebootPolicyImpl.getRebootReason(mDevice, testFinished.getPackageDef(),
+                results, testToRun.getPackageDef());
+        if (reason != null) {
+            Log.logAndDisplay(LogLevel.INFO, LOG_TAG,
+                    String.format("Rebooting after running package %s, before package %s: %s",
                             testFinished.getPackageDef().getName(),
-                            testToRun.getPackageDef().getName()));
+                            testToRun.getPackageDef().getName(), reason));
             rebootDevice();
-            mPrevRebootTime = System.currentTimeMillis();
+            mRebootPolicyImpl.reset(mDevice);
         }
     }
 
     private void rebootDevice() throws DeviceNotAvailableException {
         final int TIMEOUT_MS = 10 * 60 * 1000;
+        long startTime = System.currentTimeMillis();
         TestDeviceOptions options = mDevice.getOptions();
         // store default value and increase time-out for reboot
         int rebootTimeout = options.getRebootTimeout();
@@ -780,6 +890,8 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         } catch (InterruptedException e) {
             Log.i(LOG_TAG, "Boot wait interrupted");
         }
+        mRebootCount++;
+        mRebootTimeMs += System.currentTimeMillis() - startTime;
     }
 
     /**
@@ -1075,9 +1187,14 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             ITestInvocationListener listener) throws DeviceNotAvailableException {
         if (!mSkipDeviceInfo) {
             String abi = AbiFormatter.getDefaultAbi(device, "");
-            DeviceInfoCollector.collectDeviceInfo(device, abi, ctsBuild.getTestCasesDir(), listener);
+            DeviceInfoCache cache = null;
+            if (mUseDeviceInfoCache) {
+                cache = new DeviceInfoCache(ctsBuild.getDeviceInfoCacheDir());
+            }
+            DeviceInfoCollector.collectDeviceInfo(device, abi, ctsBuild.getTestCasesDir(), listener,
+                cache, mRefreshVolatileDeviceInfo);
             DeviceInfoCollector.collectExtendedDeviceInfo(
-                device, abi, ctsBuild.getTestCasesDir(), listener, mBuildInfo);
+                device, abi, ctsBuild.getTestCasesDir(), listener, mBuildInfo, cache);
         }
     }
 
@@ -1090,6 +1207,23 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         return new TestPackageRepo(mCtsBuild.getTestCasesDir(), mIncludeKnownFailures);
     }
 
+    /**
+     * Create and start the {@link LogcatRingBuffer} the logcat of failed tests is cut from.
+     *
+     * @return the buffer or null if it could not be created
+     */
+    private LogcatRingBuffer createLogcatBuffer() {
+        try {
+            LogcatRingBuffer buffer = new LogcatRingBuffer(getDevice(), mLogcatBufferBytes);
+            buffer.start();
+            return buffer;
+        } catch (IOException e) {
+            CLog.e("Failed to create logcat buffer, capturing logcat from the device instead");
+            CLog.e(e);
+            return null;
+        }
+    }
+
     /**
      * Factory method for creating a {@link TestPlan}.
      * <p/>
@@ -1177,15 +1311,18 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
     }
 
     /**
-     * Forward the digest and package name to the listener as a metric
+     * Forward the digest and package name to the listener as a metric, along with the number of
+     * reboots and the time spent rebooting so far
      *
      * @param listener Handles test results
      */
-    private static void forwardPackageDetails(ITestPackageDef def, ITestInvocationListener listener) {
-        Map<String, String> metrics = new HashMap<>(3);
+    private void forwardPackageDetails(ITestPackageDef def, ITestInvocationListener listener) {
+        Map<String, String> metrics = new HashMap<>(5);
         metrics.put(PACKAGE_NAME_METRIC, def.getName());
         metrics.put(PACKAGE_ABI_METRIC, def.getAbi().getName());
         metrics.put(PACKAGE_DIGEST_METRIC, def.getDigest());
+        metrics.put(REBOOT_COUNT_METRIC, Integer.toString(mRebootCount));
+        metrics.put(REBOOT_TIME_METRIC, Long.toString(mRebootTimeMs));
         listener.testRunStarted(def.getId(), 0);
         listener.testRunEnded(0, metrics);
     }
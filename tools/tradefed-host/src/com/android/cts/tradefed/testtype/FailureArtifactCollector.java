@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.result.ByteArrayInputStreamSource;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.result.LogDataType;
+import com.android.tradefed.result.ResultForwarder;
+import com.android.tradefed.util.RunUtil;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ResultForwarder} that captures bugreports, screenshots and logcat snapshots of failed
+ * tests in the background.
+ * <p/>
+ * Captures of each artifact type run one at a time on their own per-device thread with a
+ * bounded queue, so a burst of failures never blocks the next test and a screenshot is never
+ * delayed by a bugreport that takes minutes; captures that do not fit into the queue are dropped.
+ * Captured artifacts are forwarded to {@link #testLog} from the thread calling the listener, at
+ * the next callback, and pending captures are waited for before a test run ends. Captures of a
+ * run that do not complete by its end are dropped, so that they are not forwarded while the next
+ * run is in progress. While a bugreport is in progress, or within the minimum bugreport interval,
+ * further failures do not trigger another bugreport.
+ * <p/>
+ * If a {@link LogcatRingBuffer} is set, logcat excerpts are cut from it by the start and end time
+ * of the failed test instead of being pulled from the device.
+ */
+class FailureArtifactCollector extends ResultForwarder {
+
+    /** The kinds of artifacts captured on failure */
+    enum ArtifactType {
+        SCREENSHOT("screenshot-", LogDataType.PNG),
+        BUGREPORT("bug-", LogDataType.TEXT),
+        LOGCAT("logcat-", LogDataType.TEXT);
+
+        private final String mPrefix;
+        private final LogDataType mDataType;
+
+        private ArtifactType(String prefix, LogDataType dataType) {
+            mPrefix = prefix;
+            mDataType = dataType;
+        }
+    }
+
+    /** Time to wait before a logcat snapshot so that the failure stack trace makes it in */
+    static final long LOGCAT_DELAY_MS = 2 * 1000;
+
+    private final ITestDevice mDevice;
+    private final Map<ArtifactType, ThreadPoolExecutor> mExecutors =
+            new EnumMap<>(ArtifactType.class);
+    private final boolean mBugreport;
+    private final boolean mScreenshot;
+    private final boolean mLogcat;
+    private final int mMaxLogcatBytes;
+    private final long mMinBugreportIntervalMs;
+    private final long mFlushTimeoutMs;
+    private LogcatRingBuffer mLogcatBuffer = null;
+
+    /** Captured artifacts waiting to be forwarded */
+    private final Queue<Artifact> mCaptured = new ConcurrentLinkedQueue<>();
+    /** Captures not yet completed. Only accessed from the listener thread. */
+    private final List<Future<?>> mPending = new ArrayList<>();
+    /** Number of the current test run, to drop the captures of earlier runs */
+    private final AtomicInteger mRunNumber = new AtomicInteger();
+    private Future<?> mBugreportCapture = null;
+    private long mLastBugreportTime = 0;
+    private long mTestStartTime = 0;
+    /** Name of the logcat excerpt to cut when the current test ends, null if it passed */
+    private String mFailedTestLogcatName = null;
+    /** Logcat excerpts waiting for the output after the test end to arrive */
+    private final List<LogcatSlice> mPendingSlices = new ArrayList<>();
+
+    private final AtomicInteger mCaptureCount = new AtomicInteger();
+    private final AtomicInteger mDroppedCount = new AtomicInteger();
+    private final AtomicInteger mSkippedBugreportCount = new AtomicInteger();
+    private final AtomicLong mTotalLatencyMs = new AtomicLong();
+    private final AtomicLong mMaxLatencyMs = new AtomicLong();
+
+    /** A captured artifact */
+    private static class Artifact {
+        final String mDataName;
+        final LogDataType mDataType;
+        final InputStreamSource mSource;
+        final int mRunNumber;
+
+        Artifact(String dataName, LogDataType dataType, InputStreamSource source,
+                int runNumber) {
+            mDataName = dataName;
+            mDataType = dataType;
+            mSource = source;
+            mRunNumber = runNumber;
+        }
+    }
+
+    /** A failed test's time window to cut from the logcat buffer */
+    private static class LogcatSlice {
+        final String mDataName;
+        final long mStartTime;
+        final long mEndTime;
+
+        LogcatSlice(String dataName, long startTime, long endTime) {
+            mDataName = dataName;
+            mStartTime = startTime;
+            mEndTime = endTime;
+        }
+    }
+
+    /**
+     * Create a {@link FailureArtifactCollector}.
+     *
+     * @param listener the {@link ITestInvocationListener} to forward results and artifacts to
+     * @param device the {@link ITestDevice} to capture artifacts from
+     * @param bugreport whether to capture a bugreport on failure
+     * @param screenshot whether to capture a screenshot on failure
+     * @param logcat whether to capture a logcat snapshot on failure
+     * @param maxLogcatBytes the max number of logcat bytes to capture
+     * @param minBugreportIntervalMs the minimum time between two bugreports
+     * @param maxQueuedCaptures the max number of captures of each type waiting for their
+     *        capture thread
+     * @param flushTimeoutMs the max time to wait for pending captures at the end of a test run
+     */
+    FailureArtifactCollector(ITestInvocationListener listener, ITestDevice device,
+            boolean bugreport, boolean screenshot, boolean logcat, int maxLogcatBytes,
+            long minBugreportIntervalMs, int maxQueuedCaptures, long flushTimeoutMs) {
+        super(listener);
+        mDevice = device;
+        mBugreport = bugreport;
+        mScreenshot = screenshot;
+        mLogcat = logcat;
+        mMaxLogcatBytes = maxLogcatBytes;
+        mMinBugreportIntervalMs = minBugreportIntervalMs;
+        mFlushTimeoutMs = flushTimeoutMs;
+        for (ArtifactType type : ArtifactType.values()) {
+            // threads are only started by the first capture of their type
+            mExecutors.put(type, createExecutor(String.format("FailureArtifactCollector-%s-%s",
+                    type.name().toLowerCase(), device.getSerialNumber()), maxQueuedCaptures));
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(final String threadName,
+            int maxQueuedCaptures) {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueuedCaptures), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Cut logcat excerpts from the given buffer instead of capturing them from the device.
+     */
+    void setLogcatBuffer(LogcatRingBuffer logcatBuffer) {
+        mLogcatBuffer = logcatBuffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(TestIdentifier test) {
+        forwardCaptured();
+        mTestStartTime = System.currentTimeMillis();
+        mFailedTestLogcatName = null;
+        super.testStarted(test);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testFailed(TestIdentifier test, String trace) {
+        super.testFailed(test, trace);
+        long failureTime = System.currentTimeMillis();
+        // the screenshot first, as it is the most sensitive to the delay
+        if (mScreenshot) {
+            capture(ArtifactType.SCREENSHOT, test, failureTime);
+        }
+        if (mBugreport) {
+            if (mBugreportCapture != null && !mBugreportCapture.isDone()) {
+                mSkippedBugreportCount.incrementAndGet();
+                CLog.i("Skipping bugreport for %s, a bugreport is already being captured", test);
+            } else if (mLastBugreportTime != 0
+                    && failureTime - mLastBugreportTime < mMinBugreportIntervalMs) {
+                mSkippedBugreportCount.incrementAndGet();
+                CLog.i("Skipping bugreport for %s, last bugreport was taken %d ms ago", test,
+                        failureTime - mLastBugreportTime);
+            } else {
+                mBugreportCapture = capture(ArtifactType.BUGREPORT, test, failureTime);
+                if (mBugreportCapture != null) {
+                    mLastBugreportTime = failureTime;
+                }
+            }
+        }
+        if (mLogcat) {
+            if (mLogcatBuffer != null) {
+                mFailedTestLogcatName = getDataName(ArtifactType.LOGCAT, test);
+            } else {
+                capture(ArtifactType.LOGCAT, test, failureTime);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        super.testEnded(test, testMetrics);
+        addPendingSlice();
+        forwardCaptured();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunFailed(String errorMessage) {
+        addPendingSlice();
+        forwardCaptured();
+        super.testRunFailed(errorMessage);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        addPendingSlice();
+        waitForPendingSlices();
+        waitForPendingCaptures(mFlushTimeoutMs);
+        forwardCaptured();
+        endRun();
+        super.testRunEnded(elapsedTime, runMetrics);
+    }
+
+    /**
+     * Wait for the pending captures, forward them and stop the capture thread. Captures that do
+     * not complete within the flush timeout are dropped.
+     */
+    void close() {
+        addPendingSlice();
+        waitForPendingSlices();
+        waitForPendingCaptures(mFlushTimeoutMs);
+        forwardCaptured();
+        endRun();
+        for (ThreadPoolExecutor executor : mExecutors.values()) {
+            // captures already running are counted as dropped once they complete
+            mDroppedCount.addAndGet(executor.shutdownNow().size());
+        }
+        int captured = mCaptureCount.get();
+        CLog.i("Captured %d failure artifacts from %s, average latency %d ms, max latency %d ms, "
+                + "%d captures dropped, %d bugreports skipped", captured,
+                mDevice.getSerialNumber(), captured == 0 ? 0 : mTotalLatencyMs.get() / captured,
+                mMaxLatencyMs.get(), mDroppedCount.get(), mSkippedBugreportCount.get());
+    }
+
+    /**
+     * @return the number of artifacts captured so far.
+     */
+    int getCaptureCount() {
+        return mCaptureCount.get();
+    }
+
+    /**
+     * @return the number of captures that were dropped because the queue was full, they failed,
+     *         or did not complete in time.
+     */
+    int getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * @return the number of failures for which no bugreport was taken because of rate limiting.
+     */
+    int getSkippedBugreportCount() {
+        return mSkippedBugreportCount.get();
+    }
+
+    /**
+     * @return the average time in ms between a test failure and its artifact being captured.
+     */
+    long getAverageLatencyMs() {
+        int captured = mCaptureCount.get();
+        return captured == 0 ? 0 : mTotalLatencyMs.get() / captured;
+    }
+
+    /**
+     * @return the max time in ms between a test failure and its artifact being captured.
+     */
+    long getMaxLatencyMs() {
+        return mMaxLatencyMs.get();
+    }
+
+    /**
+     * Queue a capture of the given artifact.
+     *
+     * @return the {@link Future} of the capture or null if it was dropped.
+     */
+    private Future<?> capture(final ArtifactType type, TestIdentifier test,
+            final long failureTime) {
+        final String dataName = getDataName(type, test);
+        final int runNumber = mRunNumber.get();
+        try {
+            Future<?> future = mExecutors.get(type).submit(new Runnable() {
+                @Override
+                public void run() {
+                    captureArtifact(type, dataName, failureTime, runNumber);
+                }
+            });
+            mPending.add(future);
+            return future;
+        } catch (RejectedExecutionException e) {
+            mDroppedCount.incrementAndGet();
+            CLog.w("Too many pending failure captures on %s, dropping %s",
+                    mDevice.getSerialNumber(), dataName);
+            return null;
+        }
+    }
+
+    private static String getDataName(ArtifactType type, TestIdentifier test) {
+        return String.format("%s%s_%s", type.mPrefix, test.getClassName(), test.getTestName());
+    }
+
+    /**
+     * Capture an artifact. Runs on the capture thread of its type.
+     */
+    private void captureArtifact(ArtifactType type, String dataName, long failureTime,
+            int runNumber) {
+        if (runNumber != mRunNumber.get()) {
+            // queued during a run that has ended since
+            mDroppedCount.incrementAndGet();
+            return;
+        }
+        InputStreamSource source = null;
+        try {
+            switch (type) {
+                case SCREENSHOT:
+                    source = mDevice.getScreenshot();
+                    break;
+                case BUGREPORT:
+                    source = mDevice.getBugreport();
+                    break;
+                case LOGCAT:
+                    long delay = failureTime + LOGCAT_DELAY_MS - System.currentTimeMillis();
+                    if (delay > 0) {
+                        RunUtil.getDefault().sleep(delay);
+                    }
+                    source = mDevice.getLogcat(mMaxLogcatBytes);
+                    break;
+            }
+        } catch (DeviceNotAvailableException e) {
+            CLog.e("Device %s became unavailable while capturing %s, %s",
+                    mDevice.getSerialNumber(), dataName, e.toString());
+        } catch (RuntimeException e) {
+            CLog.e("Failed to capture %s from %s", dataName, mDevice.getSerialNumber());
+            CLog.e(e);
+        }
+        if (source == null) {
+            mDroppedCount.incrementAndGet();
+            return;
+        }
+        if (runNumber != mRunNumber.get()) {
+            mDroppedCount.incrementAndGet();
+            CLog.w("Dropping %s, it was captured after its test run ended", dataName);
+            source.cancel();
+            return;
+        }
+        recordCapture(failureTime);
+        mCaptured.add(new Artifact(dataName, type.mDataType, source, runNumber));
+    }
+
+    private void recordCapture(long failureTime) {
+        long latency = System.currentTimeMillis() - failureTime;
+        mTotalLatencyMs.addAndGet(latency);
+        long max;
+        do {
+            max = mMaxLatencyMs.get();
+        } while (latency > max && !mMaxLatencyMs.compareAndSet(max, latency));
+        mCaptureCount.incrementAndGet();
+    }
+
+    /**
+     * Queue the logcat excerpt of the current test if it failed.
+     */
+    private void addPendingSlice() {
+        if (mFailedTestLogcatName != null) {
+            mPendingSlices.add(new LogcatSlice(mFailedTestLogcatName, mTestStartTime,
+                    System.currentTimeMillis()));
+            mFailedTestLogcatName = null;
+        }
+    }
+
+    /**
+     * Cut the logcat excerpts whose output after the test end had time to arrive.
+     */
+    private void cutLogcatSlices() {
+        long now = System.currentTimeMillis();
+        Iterator<LogcatSlice> iterator = mPendingSlices.iterator();
+        while (iterator.hasNext()) {
+            LogcatSlice slice = iterator.next();
+            if (slice.mEndTime + LOGCAT_DELAY_MS > now) {
+                // slices are in end time order
+                break;
+            }
+            byte[] logcat = mLogcatBuffer.getSlice(slice.mStartTime,
+                    slice.mEndTime + LOGCAT_DELAY_MS, mMaxLogcatBytes);
+            recordCapture(slice.mEndTime);
+            mCaptured.add(new Artifact(slice.mDataName, ArtifactType.LOGCAT.mDataType,
+                    new ByteArrayInputStreamSource(logcat), mRunNumber.get()));
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Wait until all pending logcat excerpts can be cut.
+     */
+    private void waitForPendingSlices() {
+        if (!mPendingSlices.isEmpty()) {
+            long lastEndTime = mPendingSlices.get(mPendingSlices.size() - 1).mEndTime;
+            long delay = lastEndTime + LOGCAT_DELAY_MS - System.currentTimeMillis();
+            if (delay > 0) {
+                RunUtil.getDefault().sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Forward the artifacts captured so far to the listener.
+     */
+    private void forwardCaptured() {
+        if (!mPendingSlices.isEmpty()) {
+            cutLogcatSlices();
+        }
+        Artifact artifact;
+        while ((artifact = mCaptured.poll()) != null) {
+            try {
+                if (artifact.mRunNumber == mRunNumber.get()) {
+                    super.testLog(artifact.mDataName, artifact.mDataType, artifact.mSource);
+                } else {
+                    // completed just as its test run ended
+                    mDroppedCount.incrementAndGet();
+                    CLog.w("Dropping %s, it was captured after its test run ended",
+                            artifact.mDataName);
+                }
+            } finally {
+                artifact.mSource.cancel();
+            }
+        }
+        Iterator<Future<?>> iterator = mPending.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * End the current test run. Captures of the run that are still queued or running are dropped
+     * once they start or complete, instead of being forwarded during the next run, where they
+     * would be attributed to its tests.
+     */
+    private void endRun() {
+        int incomplete = 0;
+        for (Future<?> future : mPending) {
+            if (!future.isDone()) {
+                incomplete++;
+            }
+        }
+        if (incomplete > 0) {
+            CLog.w("Dropping %d failure captures on %s that did not complete by the end of the "
+                    + "test run", incomplete, mDevice.getSerialNumber());
+        }
+        mPending.clear();
+        mRunNumber.incrementAndGet();
+    }
+
+    /**
+     * Wait up to the given time for all pending captures to complete.
+     */
+    private void waitForPendingCaptures(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Future<?> future : mPending) {
+            long remaining = deadline - System.currentTimeMillis();
+            try {
+                future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                CLog.w("Timed out waiting for failure captures on %s", mDevice.getSerialNumber());
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                CLog.e(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+
+/**
+ * An {@link IRebootPolicy} that reboots the device only when cheap health signals sampled between
+ * packages cross their thresholds: the memory available on the device, the number of processes
+ * started since the last reboot, the failure rate of the last package and crashed
+ * instrumentation runs.
+ * <p/>
+ * A threshold of 0 disables the corresponding check.
+ */
+class HealthRebootPolicy implements IRebootPolicy {
+
+    /** One round trip returns both the memory info and the process directories. */
+    static final String HEALTH_COMMAND = "cat /proc/meminfo; ls /proc";
+
+    private final long mMinAvailableMemKb;
+    private final int mMaxProcessGrowth;
+    private final float mMaxFailureRate;
+    private final int mMinTestCount;
+    private final boolean mRebootOnRunFailure;
+
+    private int mBaseProcessCount = -1;
+
+    /**
+     * @param minAvailableMemKb reboot when less memory in kB is available on the device
+     * @param maxProcessGrowth reboot when more processes than this are running compared to right
+     *        after the last reboot
+     * @param maxFailureRate reboot when a larger fraction of the tests of a package failed
+     * @param minTestCount the min number of tests a package must have run for its failure rate
+     *        to be considered
+     * @param rebootOnRunFailure reboot when a test run failed, e.g. because the instrumentation
+     *        crashed
+     */
+    HealthRebootPolicy(long minAvailableMemKb, int maxProcessGrowth, float maxFailureRate,
+            int minTestCount, boolean rebootOnRunFailure) {
+        mMinAvailableMemKb = minAvailableMemKb;
+        mMaxProcessGrowth = maxProcessGrowth;
+        mMaxFailureRate = maxFailureRate;
+        mMinTestCount = minTestCount;
+        mRebootOnRunFailure = rebootOnRunFailure;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset(ITestDevice device) throws DeviceNotAvailableException {
+        mBaseProcessCount = sample(device).getProcessCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getRebootReason(ITestDevice device, ITestPackageDef finished,
+            PackageResultCounter results, ITestPackageDef next)
+            throws DeviceNotAvailableException {
+        if (mRebootOnRunFailure && results.getRunFailureCount() > 0) {
+            return String.format("%d failed test runs in %s", results.getRunFailureCount(),
+                    finished.getName());
+        }
+        if (mMaxFailureRate > 0 && results.getTestCount() >= mMinTestCount
+                && results.getFailureRate() > mMaxFailureRate) {
+            return String.format("%d of %d tests failed in %s", results.getFailedCount(),
+                    results.getTestCount(), finished.getName());
+        }
+        if (mMinAvailableMemKb <= 0 && mMaxProcessGrowth <= 0) {
+            return null;
+        }
+        HealthSample health = sample(device);
+        CLog.d("Device health after %s: %d kB available, %d processes", finished.getName(),
+                health.getAvailableMemKb(), health.getProcessCount());
+        if (mMinAvailableMemKb > 0 && health.getAvailableMemKb() >= 0
+                && health.getAvailableMemKb() < mMinAvailableMemKb) {
+            return String.format("only %d kB memory available", health.getAvailableMemKb());
+        }
+        if (mMaxProcessGrowth > 0 && mBaseProcessCount >= 0 && health.getProcessCount() >= 0
+                && health.getProcessCount() - mBaseProcessCount > mMaxProcessGrowth) {
+            return String.format("%d processes running, %d after the last reboot",
+                    health.getProcessCount(), mBaseProcessCount);
+        }
+        return null;
+    }
+
+    private HealthSample sample(ITestDevice device) throws DeviceNotAvailableException {
+        return HealthSample.parse(device.executeShellCommand(HEALTH_COMMAND));
+    }
+
+    /**
+     * The health signals sampled from the device. Values that could not be read are -1.
+     */
+    static class HealthSample {
+        private final long mAvailableMemKb;
+        private final int mProcessCount;
+
+        HealthSample(long availableMemKb, int processCount) {
+            mAvailableMemKb = availableMemKb;
+            mProcessCount = processCount;
+        }
+
+        long getAvailableMemKb() {
+            return mAvailableMemKb;
+        }
+
+        int getProcessCount() {
+            return mProcessCount;
+        }
+
+        /**
+         * Parses the output of {@link HealthRebootPolicy#HEALTH_COMMAND}.
+         * <p/>
+         * Kernels without MemAvailable report the free and cached memory instead.
+         */
+        static HealthSample parse(String output) {
+            long available = -1;
+            long free = -1;
+            long cached = -1;
+            int processCount = 0;
+            if (output == null) {
+                return new HealthSample(-1, -1);
+            }
+            for (String line : output.split("\r?\n")) {
+                int colon = line.indexOf(':');
+                if (colon >= 0) {
+                    String key = line.substring(0, colon).trim();
+                    if ("MemAvailable".equals(key)) {
+                        available = parseKb(line.substring(colon + 1));
+                    } else if ("MemFree".equals(key)) {
+                        free = parseKb(line.substring(colon + 1));
+                    } else if ("Cached".equals(key)) {
+                        cached = parseKb(line.substring(colon + 1));
+                    }
+                    continue;
+                }
+                for (String entry : line.trim().split("\\s+")) {
+                    if (isPid(entry)) {
+                        processCount++;
+                    }
+                }
+            }
+            if (available < 0 && free >= 0) {
+                available = free + Math.max(cached, 0);
+            }
+            return new HealthSample(available, processCount > 0 ? processCount : -1);
+        }
+
+        private static long parseKb(String value) {
+            String[] parts = value.trim().split("\\s+");
+            try {
+                return Long.parseLong(parts[0]);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private static boolean isPid(String entry) {
+            if (entry.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < entry.length(); i++) {
+                if (!Character.isDigit(entry.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
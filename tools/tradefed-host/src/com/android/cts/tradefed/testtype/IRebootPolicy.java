@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+
+/**
+ * Decides whether the device should be rebooted between two test packages.
+ */
+interface IRebootPolicy {
+
+    /**
+     * Records the state of a freshly (re)booted device. Called at the start of the test run and
+     * after every reboot.
+     *
+     * @param device the device under test
+     * @throws DeviceNotAvailableException
+     */
+    void reset(ITestDevice device) throws DeviceNotAvailableException;
+
+    /**
+     * Checks whether the device should be rebooted before running the next package.
+     *
+     * @param device the device under test
+     * @param finished the package that just finished
+     * @param results the results of the package that just finished
+     * @param next the package that runs next
+     * @return a short description of why the device should be rebooted, or <code>null</code> if
+     *         no reboot is needed
+     * @throws DeviceNotAvailableException
+     */
+    String getRebootReason(ITestDevice device, ITestPackageDef finished,
+            PackageResultCounter results, ITestPackageDef next)
+            throws DeviceNotAvailableException;
+}
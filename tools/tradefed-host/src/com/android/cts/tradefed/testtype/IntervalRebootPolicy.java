@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.tradefed.device.ITestDevice;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An {@link IRebootPolicy} that reboots the device at a fixed interval, and around the packages
+ * known to leave the device in a bad state.
+ */
+class IntervalRebootPolicy implements IRebootPolicy {
+
+    // If there comes spurious failure like INJECT_EVENTS for a package,
+    // reboot it before running it.
+    // Also reboot after package which is know to leave pop-up behind
+    private static final List<String> REBOOT_AFTER_LIST = Arrays.asList(
+            "CtsMediaTestCases",
+            "CtsAccessibilityTestCases");
+    private static final List<String> REBOOT_BEFORE_LIST = Arrays.asList(
+            "CtsAnimationTestCases",
+            "CtsGraphicsTestCases",
+            "CtsViewTestCases",
+            "CtsWidgetTestCases");
+
+    private final long mIntervalMs;
+    private long mPrevRebootTime;
+
+    /**
+     * @param intervalMs the max time in ms between two reboots
+     */
+    IntervalRebootPolicy(long intervalMs) {
+        mIntervalMs = intervalMs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset(ITestDevice device) {
+        mPrevRebootTime = System.currentTimeMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getRebootReason(ITestDevice device, ITestPackageDef finished,
+            PackageResultCounter results, ITestPackageDef next) {
+        if (REBOOT_AFTER_LIST.contains(finished.getName())) {
+            return String.format("%s is known to leave the device in a bad state",
+                    finished.getName());
+        }
+        if (REBOOT_BEFORE_LIST.contains(next.getName())) {
+            return String.format("%s needs a freshly booted device", next.getName());
+        }
+        if (System.currentTimeMillis() - mPrevRebootTime > mIntervalMs) {
+            return String.format("no reboot in the last %d min", mIntervalMs / (60 * 1000));
+        }
+        return null;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.RunUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the logcat of a device into a fixed-size, memory-mapped ring buffer on the host.
+ * <p/>
+ * Every chunk of output is indexed by the host time it was received at, so the logcat of a time
+ * window, e.g. the one of a failed test, can be cut from the buffer without another transfer
+ * from the device. Once the buffer is full the oldest output is overwritten.
+ * <p/>
+ * If the logcat has to be restarted, e.g. after a reboot, it is resumed from the timestamp of the
+ * last line received, so the device's log buffer is not dumped again with the current host time.
+ */
+class LogcatRingBuffer {
+
+    private static final String LOGCAT_CMD = "logcat -v threadtime";
+    /** Number of chunks that can be indexed. Older chunks are merged into their successors. */
+    private static final int INDEX_SIZE = 64 * 1024;
+    private static final long RESTART_DELAY_MS = 5 * 1000;
+
+    private final ITestDevice mDevice;
+    private final int mCapacity;
+    private final File mFile;
+    private final MappedByteBuffer mBuffer;
+
+    // index of chunk start positions by receive time, as a ring of INDEX_SIZE entries
+    private final long[] mIndexTimes = new long[INDEX_SIZE];
+    private final long[] mIndexPositions = new long[INDEX_SIZE];
+    private long mIndexFirst = 0;
+    private long mIndexEnd = 0;
+    /** Total number of bytes written so far */
+    private long mTotal = 0;
+    /** Whether the oldest byte still in the buffer starts a line */
+    private boolean mOldestIsLineStart = true;
+
+    private volatile boolean mStopped = false;
+    private Thread mReaderThread = null;
+
+    /**
+     * Create a {@link LogcatRingBuffer}.
+     *
+     * @param device the {@link ITestDevice} to stream the logcat from
+     * @param capacity the size of the ring buffer in bytes
+     * @throws IOException if the backing file cannot be created
+     */
+    LogcatRingBuffer(ITestDevice device, int capacity) throws IOException {
+        mDevice = device;
+        mCapacity = capacity;
+        mFile = File.createTempFile("logcat-buffer", ".bin");
+        mFile.deleteOnExit();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(capacity);
+            mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Start streaming the logcat in the background. The stream is restarted if the shell
+     * command ends, e.g. after a reboot.
+     */
+    synchronized void start() {
+        if (mReaderThread != null) {
+            return;
+        }
+        final LogcatReceiver receiver = new LogcatReceiver();
+        mReaderThread = new Thread("LogcatRingBuffer-" + mDevice.getSerialNumber()) {
+            @Override
+            public void run() {
+                while (!mStopped) {
+                    try {
+                        mDevice.executeShellCommand(receiver.restart(), receiver, 0,
+                                TimeUnit.MILLISECONDS, 0);
+                    } catch (DeviceNotAvailableException e) {
+                        CLog.w("Device %s became unavailable while streaming logcat, %s",
+                                mDevice.getSerialNumber(), e.toString());
+                    } catch (RuntimeException e) {
+                        CLog.e(e);
+                    }
+                    if (!mStopped) {
+                        RunUtil.getDefault().sleep(RESTART_DELAY_MS);
+                    }
+                }
+            }
+        };
+        mReaderThread.setDaemon(true);
+        mReaderThread.start();
+    }
+
+    /**
+     * Stop streaming the logcat and delete the backing file.
+     */
+    void stop() {
+        mStopped = true;
+        Thread readerThread;
+        synchronized (this) {
+            readerThread = mReaderThread;
+        }
+        if (readerThread != null) {
+            try {
+                readerThread.join(RESTART_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mFile.delete();
+    }
+
+    /**
+     * Append output received at the given host time.
+     */
+    synchronized void append(byte[] data, int offset, int length, long timeMs) {
+        if (length <= 0) {
+            return;
+        }
+        if (length > mCapacity) {
+            offset += length - mCapacity;
+            mTotal += length - mCapacity;
+            length = mCapacity;
+            mOldestIsLineStart = data[offset - 1] == '\n';
+        } else if (mTotal + length > mCapacity) {
+            // remember whether the new oldest byte starts a line before overwriting its
+            // predecessor
+            long oldest = mTotal + length - mCapacity;
+            byte previous = oldest - 1 >= mTotal ? data[offset + (int) (oldest - 1 - mTotal)]
+                    : byteAt(oldest - 1);
+            mOldestIsLineStart = previous == '\n';
+        }
+        addIndexEntry(timeMs, mTotal);
+        int position = (int) (mTotal % mCapacity);
+        int first = Math.min(length, mCapacity - position);
+        mBuffer.position(position);
+        mBuffer.put(data, offset, first);
+        if (first < length) {
+            mBuffer.position(0);
+            mBuffer.put(data, offset + first, length - first);
+        }
+        mTotal += length;
+    }
+
+    /**
+     * Return the complete lines received between {@code startMs} and {@code endMs}, inclusive.
+     * If there are more than {@code maxBytes}, only the last {@code maxBytes} are returned.
+     */
+    synchronized byte[] getSlice(long startMs, long endMs, int maxBytes) {
+        long oldest = Math.max(0, mTotal - mCapacity);
+        long from = Math.max(findPosition(startMs, false), oldest);
+        long to = findPosition(endMs, true);
+        if (to - from > maxBytes) {
+            from = to - maxBytes;
+        }
+        if (from >= to) {
+            return new byte[0];
+        }
+        byte[] bytes = read(from, to);
+        int begin = 0;
+        // drop the partial first line
+        boolean lineStart = from == oldest ? mOldestIsLineStart : byteAt(from - 1) == '\n';
+        if (!lineStart) {
+            while (begin < bytes.length && bytes[begin] != '\n') {
+                begin++;
+            }
+            begin++;
+        }
+        // drop the partial last line
+        int end = bytes.length;
+        while (end > begin && bytes[end - 1] != '\n') {
+            end--;
+        }
+        if (begin >= end) {
+            return new byte[0];
+        }
+        return Arrays.copyOfRange(bytes, begin, end);
+    }
+
+    /**
+     * @return the total number of bytes received so far.
+     */
+    synchronized long getTotalBytes() {
+        return mTotal;
+    }
+
+    private void addIndexEntry(long timeMs, long position) {
+        if (mIndexEnd > mIndexFirst && mIndexTimes[slot(mIndexEnd - 1)] >= timeMs) {
+            // received within the same ms as the previous chunk, or the clock went back
+            return;
+        }
+        if (mIndexEnd - mIndexFirst == INDEX_SIZE) {
+            mIndexFirst++;
+        }
+        mIndexTimes[slot(mIndexEnd)] = timeMs;
+        mIndexPositions[slot(mIndexEnd)] = position;
+        mIndexEnd++;
+    }
+
+    /**
+     * Find the start position of the first chunk received after {@code timeMs}, or at
+     * {@code timeMs} too if not {@code after}. Returns the total size if there is none.
+     */
+    private long findPosition(long timeMs, boolean after) {
+        long low = mIndexFirst;
+        long high = mIndexEnd;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            long time = mIndexTimes[slot(mid)];
+            if (time < timeMs || (after && time == timeMs)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == mIndexEnd ? mTotal : mIndexPositions[slot(low)];
+    }
+
+    private byte[] read(long from, long to) {
+        byte[] bytes = new byte[(int) (to - from)];
+        ByteBuffer buffer = mBuffer.duplicate();
+        int position = (int) (from % mCapacity);
+        int first = Math.min(bytes.length, mCapacity - position);
+        buffer.position(position);
+        buffer.get(bytes, 0, first);
+        if (first < bytes.length) {
+            buffer.position(0);
+            buffer.get(bytes, first, bytes.length - first);
+        }
+        return bytes;
+    }
+
+    private byte byteAt(long position) {
+        return mBuffer.get((int) (position % mCapacity));
+    }
+
+    private static int slot(long index) {
+        return (int) (index % INDEX_SIZE);
+    }
+
+    /**
+     * Receives the output of the logcat command and appends it to the buffer line by line.
+     * <p/>
+     * Keeps track of the timestamp of the last line received, so that a restarted logcat can
+     * resume from it. As logcat -T also prints the lines at the given time, the lines already
+     * received with that timestamp are skipped after a restart.
+     * <p/>
+     * Only used by the reader thread.
+     */
+    class LogcatReceiver implements IShellOutputReceiver {
+        /** Length of a threadtime timestamp, e.g. "01-31 12:34:56.789" */
+        private static final int TIMESTAMP_LENGTH = 18;
+
+        private final ByteArrayOutputStream mLine = new ByteArrayOutputStream();
+        private String mLastTimestamp = null;
+        /** Number of lines received with the last timestamp */
+        private int mLastTimestampLines = 0;
+        /** Number of lines with the last timestamp still to skip after a restart */
+        private int mSkipLines = 0;
+
+        /**
+         * Prepare for a (re)start of the logcat.
+         *
+         * @return the logcat command to run
+         */
+        String restart() {
+            // a partial line of the previous run is never completed
+            mLine.reset();
+            if (mLastTimestamp == null) {
+                return LOGCAT_CMD;
+            }
+            mSkipLines = mLastTimestampLines;
+            return String.format("%s -T '%s'", LOGCAT_CMD, mLastTimestamp);
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            addOutput(data, offset, length, System.currentTimeMillis());
+        }
+
+        /**
+         * Append the complete lines of the given output received at the given host time. A
+         * trailing partial line is held back until it is completed.
+         */
+        void addOutput(byte[] data, int offset, int length, long timeMs) {
+            ByteArrayOutputStream lines = new ByteArrayOutputStream(length);
+            int lineStart = offset;
+            for (int i = offset; i < offset + length; i++) {
+                if (data[i] == '\n') {
+                    mLine.write(data, lineStart, i + 1 - lineStart);
+                    lineStart = i + 1;
+                    byte[] line = mLine.toByteArray();
+                    mLine.reset();
+                    if (acceptLine(line)) {
+                        lines.write(line, 0, line.length);
+                    }
+                }
+            }
+            mLine.write(data, lineStart, offset + length - lineStart);
+            if (lines.size() > 0) {
+                append(lines.toByteArray(), 0, lines.size(), timeMs);
+            }
+        }
+
+        /**
+         * Track the timestamp of the line.
+         *
+         * @return false if the line was already received before the logcat was restarted
+         */
+        private boolean acceptLine(byte[] line) {
+            String timestamp = getTimestamp(line);
+            if (mSkipLines > 0) {
+                if (timestamp == null) {
+                    // e.g. the "beginning of" markers printed again by the restarted logcat
+                    return false;
+                }
+                if (timestamp.equals(mLastTimestamp)) {
+                    mSkipLines--;
+                    return false;
+                }
+                mSkipLines = 0;
+            }
+            if (timestamp != null) {
+                if (timestamp.equals(mLastTimestamp)) {
+                    mLastTimestampLines++;
+                } else {
+                    mLastTimestamp = timestamp;
+                    mLastTimestampLines = 1;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the threadtime timestamp the line starts with, or null if there is none
+         */
+        private String getTimestamp(byte[] line) {
+            if (line.length <= TIMESTAMP_LENGTH || line[TIMESTAMP_LENGTH] != ' ') {
+                return null;
+            }
+            for (int i = 0; i < TIMESTAMP_LENGTH; i++) {
+                byte b = line[i];
+                boolean valid;
+                switch (i) {
+                    case 2:
+                        valid = b == '-';
+                        break;
+                    case 5:
+                        valid = b == ' ';
+                        break;
+                    case 8:
+                    case 11:
+                        valid = b == ':';
+                        break;
+                    case 14:
+                        valid = b == '.';
+                        break;
+                    default:
+                        valid = b >= '0' && b <= '9';
+                        break;
+                }
+                if (!valid) {
+                    return null;
+                }
+            }
+            return new String(line, 0, TIMESTAMP_LENGTH);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mStopped;
+        }
+    }
+}
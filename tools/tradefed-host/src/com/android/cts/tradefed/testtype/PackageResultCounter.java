@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.ResultForwarder;
+
+/**
+ * A {@link ResultForwarder} that counts the tests, failures and failed runs of a test package.
+ */
+class PackageResultCounter extends ResultForwarder {
+
+    private int mTestCount = 0;
+    private int mFailedCount = 0;
+    private int mRunFailureCount = 0;
+
+    PackageResultCounter(ITestInvocationListener listener) {
+        super(listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(TestIdentifier test) {
+        mTestCount++;
+        super.testStarted(test);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testFailed(TestIdentifier test, String trace) {
+        mFailedCount++;
+        super.testFailed(test, trace);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunFailed(String errorMessage) {
+        mRunFailureCount++;
+        super.testRunFailed(errorMessage);
+    }
+
+    /**
+     * @return the number of tests started
+     */
+    int getTestCount() {
+        return mTestCount;
+    }
+
+    /**
+     * @return the number of failed tests
+     */
+    int getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * @return the number of failed test runs, e.g. because the instrumentation crashed
+     */
+    int getRunFailureCount() {
+        return mRunFailureCount;
+    }
+
+    /**
+     * @return the fraction of started tests that failed, or 0 if no test was started
+     */
+    float getFailureRate() {
+        if (mTestCount == 0) {
+            return 0;
+        }
+        return (float) mFailedCount / mTestCount;
+    }
+}
@@ -15,8 +15,13 @@
  */
 package com.android.cts.tradefed;
 
+import com.android.cts.tradefed.device.DeviceInfoCacheTest;
+import com.android.cts.tradefed.device.DeviceInfoCollectorTest;
 import com.android.cts.tradefed.result.CtsXmlResultReporterTest;
 import com.android.cts.tradefed.result.DeviceInfoResultTest;
+import com.android.cts.tradefed.result.ParallelZipWriterTest;
+import com.android.cts.tradefed.result.RegressionDetectorTest;
+import com.android.cts.tradefed.result.SessionMetricsHistoryTest;
 import com.android.cts.tradefed.result.TestPackageResultTest;
 import com.android.cts.tradefed.result.TestResultsTest;
 import com.android.cts.tradefed.result.TestSummaryXmlTest;
@@ -25,8 +30,11 @@ import com.android.cts.tradefed.result.TestLogTest;
 import com.android.cts.tradefed.testtype.Abi;
 import com.android.cts.tradefed.testtype.CtsTestTest;
 import com.android.cts.tradefed.testtype.DeqpTestRunnerTest;
+import com.android.cts.tradefed.testtype.FailureArtifactCollectorTest;
 import com.android.cts.tradefed.testtype.GeeTestTest;
+import com.android.cts.tradefed.testtype.HealthRebootPolicyTest;
 import com.android.cts.tradefed.testtype.JarHostTestTest;
+import com.android.cts.tradefed.testtype.LogcatRingBufferTest;
 import com.android.cts.tradefed.testtype.TestFilterTest;
 import com.android.cts.tradefed.testtype.TestPackageDefTest;
 import com.android.cts.tradefed.testtype.TestPackageXmlParserTest;
@@ -50,9 +58,16 @@ public class UnitTests extends TestSuite {
     public UnitTests() {
         super();
 
+        // device package
+        addTestSuite(DeviceInfoCacheTest.class);
+        addTestSuite(DeviceInfoCollectorTest.class);
+
         // result package
         addTestSuite(CtsXmlResultReporterTest.class);
         addTestSuite(DeviceInfoResultTest.class);
+        addTestSuite(ParallelZipWriterTest.class);
+        addTestSuite(RegressionDetectorTest.class);
+        addTestSuite(SessionMetricsHistoryTest.class);
         addTestSuite(TestPackageResultTest.class);
         addTestSuite(TestResultsTest.class);
         addTestSuite(TestSummaryXmlTest.class);
@@ -62,8 +77,11 @@ public class UnitTests extends TestSuite {
         // testtype package
         addTestSuite(CtsTestTest.class);
         addTestSuite(DeqpTestRunnerTest.class);
+        addTestSuite(FailureArtifactCollectorTest.class);
         addTestSuite(GeeTestTest.class);
+        addTestSuite(HealthRebootPolicyTest.class);
         addTestSuite(JarHostTestTest.class);
+        addTestSuite(LogcatRingBufferTest.class);
         addTestSuite(TestFilterTest.class);
         addTestSuite(TestPackageDefTest.class);
         addTestSuite(TestPackageXmlParserTest.class);
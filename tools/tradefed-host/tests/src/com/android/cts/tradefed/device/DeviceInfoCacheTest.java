@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.device;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link DeviceInfoCache}.
+ */
+public class DeviceInfoCacheTest extends TestCase {
+
+    private static final String SERIAL = "emulator-5554";
+    private static final String FINGERPRINT =
+            "generic/sdk/generic:5.0/LRX21M/1234:eng/test-keys";
+    private static final String RUN_NAME = "armeabi-v7a android.tests.devicesetup";
+
+    private File mCacheDir;
+    private DeviceInfoCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheDir = FileUtil.createTempDir("device-info-cache");
+        mCache = new DeviceInfoCache(mCacheDir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mCacheDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test that cached metrics are read back for the same device and fingerprint only.
+     */
+    public void testMetrics() {
+        assertNull(mCache.getMetrics(SERIAL, FINGERPRINT, RUN_NAME));
+
+        Map<String, String> metrics = new HashMap<String, String>();
+        metrics.put("buildFingerprint", FINGERPRINT);
+        metrics.put("partitions", "Filesystem Size Used Free;/system 1G 800M 200M;");
+        mCache.putMetrics(SERIAL, FINGERPRINT, RUN_NAME, metrics);
+
+        assertEquals(metrics, mCache.getMetrics(SERIAL, FINGERPRINT, RUN_NAME));
+        assertNull(mCache.getMetrics(SERIAL, FINGERPRINT + "2", RUN_NAME));
+        assertNull(mCache.getMetrics("other", FINGERPRINT, RUN_NAME));
+        assertNull(mCache.getMetrics(SERIAL, FINGERPRINT, "x86 android.tests.devicesetup"));
+    }
+
+    /**
+     * Test that cached files are copied and replaced as a whole.
+     */
+    public void testFiles() throws Exception {
+        assertNull(mCache.getFiles(SERIAL, FINGERPRINT));
+
+        File srcDir = FileUtil.createTempDir("device-info-files");
+        try {
+            FileUtil.writeToFile("{}", new File(srcDir, "Foo.deviceinfo.json"));
+            mCache.putFiles(SERIAL, FINGERPRINT, srcDir);
+            File cached = mCache.getFiles(SERIAL, FINGERPRINT);
+            assertNotNull(cached);
+            assertTrue(new File(cached, "Foo.deviceinfo.json").isFile());
+
+            FileUtil.deleteFile(new File(srcDir, "Foo.deviceinfo.json"));
+            FileUtil.writeToFile("{}", new File(srcDir, "Bar.deviceinfo.json"));
+            mCache.putFiles(SERIAL, FINGERPRINT, srcDir);
+            File previous = cached;
+            cached = mCache.getFiles(SERIAL, FINGERPRINT);
+            assertFalse(new File(cached, "Foo.deviceinfo.json").exists());
+            assertTrue(new File(cached, "Bar.deviceinfo.json").isFile());
+            // a shard that looked up the replaced version can still copy it
+            assertTrue(new File(previous, "Foo.deviceinfo.json").isFile());
+        } finally {
+            FileUtil.recursiveDelete(srcDir);
+        }
+    }
+
+    /**
+     * Test that replaced versions of the files are deleted once they are stale.
+     */
+    public void testFiles_deleteStale() throws Exception {
+        File srcDir = FileUtil.createTempDir("device-info-files");
+        try {
+            FileUtil.writeToFile("{}", new File(srcDir, "Foo.deviceinfo.json"));
+            mCache.putFiles(SERIAL, FINGERPRINT, srcDir);
+            File first = mCache.getFiles(SERIAL, FINGERPRINT);
+            mCache.putFiles(SERIAL, FINGERPRINT, srcDir);
+            File second = mCache.getFiles(SERIAL, FINGERPRINT);
+            assertFalse(first.equals(second));
+            first.setLastModified(
+                    System.currentTimeMillis() - DeviceInfoCache.STALE_VERSION_MS * 2);
+            mCache.putFiles(SERIAL, FINGERPRINT, srcDir);
+            File third = mCache.getFiles(SERIAL, FINGERPRINT);
+            assertFalse(first.exists());
+            assertTrue(second.isDirectory());
+            assertTrue(new File(third, "Foo.deviceinfo.json").isFile());
+        } finally {
+            FileUtil.recursiveDelete(srcDir);
+        }
+    }
+
+    /**
+     * Test that invalidating an entry removes everything cached for the device.
+     */
+    public void testInvalidate() {
+        Map<String, String> metrics = new HashMap<String, String>();
+        metrics.put("buildFingerprint", FINGERPRINT);
+        mCache.putMetrics(SERIAL, FINGERPRINT, RUN_NAME, metrics);
+        mCache.invalidate(SERIAL, FINGERPRINT);
+        assertNull(mCache.getMetrics(SERIAL, FINGERPRINT, RUN_NAME));
+    }
+}
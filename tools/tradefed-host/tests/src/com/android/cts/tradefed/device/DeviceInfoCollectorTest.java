@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.device;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link DeviceInfoCollector}.
+ */
+public class DeviceInfoCollectorTest extends TestCase {
+
+    private static final String PROCESS_STATUS =
+            "pid:1\n" +
+            "260 120 80 30 0 110 0\n" +
+            "Name:\tinit\n" +
+            "Uid:\t0\t0\t0\t0\n" +
+            "Gid:\t0\t0\t0\t0\n" +
+            "pid:2\n" +
+            "0 0 0 0 0 0 0\n" +
+            "Name:\tkthreadd\n" +
+            "Uid:\t0\t0\t0\t0\n" +
+            "Gid:\t0\t0\t0\t0\n" +
+            "pid:150\n" +
+            "2000 300 200 10 0 400 0\n" +
+            "Name:\tsurfaceflinger\n" +
+            "Uid:\t1000\t1000\t1000\t1000\n" +
+            "Gid:\t1003\t1003\t1003\t1003\n" +
+            "pid:160\n" +
+            "900 200 100 5 0 300 0\n" +
+            "Name:\trild\n" +
+            "Uid:\t1001\t1001\t1001\t1001\n" +
+            "Gid:\t0\t0\t0\t0\n" +
+            "pid:170\n" +
+            "Name:\tgone\n" +
+            "pid:180\n" +
+            "1200 250 150 8 0 350 0\n" +
+            "Name:\tsu\n" +
+            "Uid:\t2000\t0\t0\t0\n" +
+            "Gid:\t2000\t2000\t2000\t2000\n";
+
+    /**
+     * Test that only root processes that are neither kernel threads nor whitelisted are kept.
+     */
+    public void testParseRootProcesses() {
+        assertEquals("rild:0;su:0;", DeviceInfoCollector.parseRootProcesses(PROCESS_STATUS));
+    }
+
+    /**
+     * Test that no output gives no processes.
+     */
+    public void testParseRootProcesses_empty() {
+        assertEquals("", DeviceInfoCollector.parseRootProcesses(""));
+    }
+
+    /**
+     * Test that the device state does not depend on the order storage volumes are listed in.
+     */
+    public void testParseDeviceState() {
+        String state = DeviceInfoCollector.parseDeviceState(
+                "crypto=encrypted\r\nemulated\r\nself\r\n1234-ABCD\r\n");
+        assertEquals(state, DeviceInfoCollector.parseDeviceState(
+                "crypto=encrypted\n1234-ABCD\nself\nemulated\n"));
+        assertFalse(state.equals(DeviceInfoCollector.parseDeviceState(
+                "crypto=encrypted\nself\nemulated\n")));
+        assertFalse(state.equals(DeviceInfoCollector.parseDeviceState(
+                "crypto=unencrypted\n1234-ABCD\nself\nemulated\n")));
+        assertEquals("", DeviceInfoCollector.parseDeviceState(null));
+    }
+
+    /**
+     * Test that cached metrics are only used in the device state they were collected in, and
+     * that the recorded state is not forwarded.
+     */
+    public void testIsDeviceStateCurrent() {
+        String state = DeviceInfoCollector.parseDeviceState("crypto=encrypted\nemulated\n");
+        assertFalse(DeviceInfoCollector.isDeviceStateCurrent(null, state));
+
+        Map<String, String> metrics = new HashMap<String, String>();
+        metrics.put("encrypted", "1");
+        assertFalse(DeviceInfoCollector.isDeviceStateCurrent(metrics, state));
+
+        metrics.put("deviceInfoCacheState", state);
+        assertTrue(DeviceInfoCollector.isDeviceStateCurrent(metrics, state));
+        assertFalse(metrics.containsKey("deviceInfoCacheState"));
+        assertEquals("1", metrics.get("encrypted"));
+
+        metrics.put("deviceInfoCacheState", state);
+        assertFalse(DeviceInfoCollector.isDeviceStateCurrent(metrics,
+                DeviceInfoCollector.parseDeviceState("crypto=unencrypted\nemulated\n")));
+    }
+}
@@ -229,6 +229,69 @@ public class CtsXmlResultReporterTest extends TestCase {
         EasyMock.verify(mMockBuild);
     }
 
+    /**
+     * Test that a failure artifact saved after the next test started is attributed to the
+     * failed test.
+     */
+    public void testIncludeTestLogTags_afterNextTest() {
+        Map<String, String> emptyMap = Collections.emptyMap();
+        final TestIdentifier failedId = new TestIdentifier("FooTest", "testFoo");
+        final TestIdentifier passedId = new TestIdentifier("FooTest", "testZoo");
+        mResultReporter.setIncludeTestLogTags(true);
+
+        EasyMock.replay(mMockBuild);
+        mResultReporter.invocationStarted(mMockBuild);
+        mResultReporter.testRunStarted(AbiUtils.createId(UnitTests.ABI.getName(), "run"), 2);
+        mResultReporter.testStarted(failedId);
+        mResultReporter.testFailed(failedId, "trace");
+        mResultReporter.testEnded(failedId, emptyMap);
+        mResultReporter.testStarted(passedId);
+        mResultReporter.testLogSaved("logcat-FooTest_testFoo", LogDataType.TEXT, null,
+                new LogFile("path", "url"));
+        mResultReporter.testEnded(passedId, emptyMap);
+        mResultReporter.testRunEnded(3, emptyMap);
+        mResultReporter.invocationEnded(1);
+
+        final String output = getOutput();
+        final String testLogTag = String.format("<TestLog type=\"logcat\" url=\"url\" />");
+        int logIndex = output.indexOf(testLogTag);
+        assertTrue(output, logIndex > output.indexOf("name=\"testFoo\""));
+        assertTrue(output, logIndex < output.indexOf("name=\"testZoo\""));
+        EasyMock.verify(mMockBuild);
+    }
+
+    /**
+     * Test that a failure artifact is not attributed to a test of the same name that failed in
+     * an earlier package.
+     */
+    public void testIncludeTestLogTags_otherPackage() {
+        Map<String, String> emptyMap = Collections.emptyMap();
+        final TestIdentifier failedId = new TestIdentifier("FooTest", "testFoo");
+        final TestIdentifier passedId = new TestIdentifier("FooTest", "testZoo");
+        mResultReporter.setIncludeTestLogTags(true);
+
+        EasyMock.replay(mMockBuild);
+        mResultReporter.invocationStarted(mMockBuild);
+        mResultReporter.testRunStarted(AbiUtils.createId(UnitTests.ABI.getName(), "run"), 1);
+        mResultReporter.testStarted(failedId);
+        mResultReporter.testFailed(failedId, "trace");
+        mResultReporter.testEnded(failedId, emptyMap);
+        mResultReporter.testRunEnded(3, emptyMap);
+        mResultReporter.testRunStarted(AbiUtils.createId("arm64-v8a", "run"), 1);
+        mResultReporter.testStarted(passedId);
+        mResultReporter.testLogSaved("logcat-FooTest_testFoo", LogDataType.TEXT, null,
+                new LogFile("path", "url"));
+        mResultReporter.testEnded(passedId, emptyMap);
+        mResultReporter.testRunEnded(3, emptyMap);
+        mResultReporter.invocationEnded(1);
+
+        final String output = getOutput();
+        final String testLogTag = String.format("<TestLog type=\"logcat\" url=\"url\" />");
+        int logIndex = output.indexOf(testLogTag);
+        assertTrue(output, logIndex > output.indexOf("abi=\"arm64-v8a\""));
+        EasyMock.verify(mMockBuild);
+    }
+
     public void testDeviceSetup() {
         Map<String, String> emptyMap = Collections.emptyMap();
         final TestIdentifier testId = new TestIdentifier("android.tests.devicesetup", "TestDeviceSetup");
@@ -246,6 +309,17 @@ public class CtsXmlResultReporterTest extends TestCase {
         EasyMock.verify(mMockBuild);
     }
 
+    /**
+     * Test that compressed logs are named like the ones of LogFileSaver#saveAndZipLogData.
+     */
+    public void testZippedLogNames() {
+        File rawFile = new File("logs", "bugreport-FooTest_testFoo_1234.txt");
+        assertEquals(new File("logs", "bugreport-FooTest_testFoo_1234.zip"),
+                CtsXmlResultReporter.getZippedLogFile(rawFile, LogDataType.BUGREPORT));
+        assertEquals("bugreport-FooTest_testFoo.txt",
+                CtsXmlResultReporter.getZipEntryName(rawFile));
+    }
+
     /**
      * Gets the output produced, stripping it of extraneous whitespace characters.
      */
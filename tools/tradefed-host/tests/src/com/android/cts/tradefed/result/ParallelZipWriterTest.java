@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ParallelZipWriter}.
+ */
+public class ParallelZipWriterTest extends TestCase {
+
+    private File mTmpDir;
+    private ExecutorService mExecutor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTmpDir = FileUtil.createTempDir("zip");
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        FileUtil.recursiveDelete(mTmpDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test that a zipped directory can be read back, with the same layout as
+     * {@link FileUtil#createZip(File, File)}.
+     */
+    public void testAddDirectory() throws IOException {
+        File resultDir = new File(mTmpDir, "2014.01.01_00.00.00");
+        File logDir = new File(resultDir, "logs");
+        assertTrue(logDir.mkdirs());
+        StringBuilder largeData = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            largeData.append("line ").append(i).append('\n');
+        }
+        FileUtil.writeToFile("<TestResult/>", new File(resultDir, "testResult.xml"));
+        FileUtil.writeToFile("", new File(resultDir, "empty.txt"));
+        FileUtil.writeToFile(largeData.toString(), new File(logDir, "log.txt"));
+
+        File zipFile = new File(mTmpDir, "2014.01.01_00.00.00.zip");
+        ParallelZipWriter writer = new ParallelZipWriter(zipFile, mExecutor);
+        writer.addDirectory(resultDir);
+        writer.close();
+
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            List<String> names = new ArrayList<String>();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                names.add(entries.nextElement().getName());
+            }
+            Collections.sort(names);
+            assertEquals("[2014.01.01_00.00.00/, 2014.01.01_00.00.00/empty.txt, " +
+                    "2014.01.01_00.00.00/logs/, 2014.01.01_00.00.00/logs/log.txt, " +
+                    "2014.01.01_00.00.00/testResult.xml]", names.toString());
+            assertTrue(zip.getEntry("2014.01.01_00.00.00/logs/").isDirectory());
+            assertEquals("<TestResult/>", read(zip, "2014.01.01_00.00.00/testResult.xml"));
+            assertEquals("", read(zip, "2014.01.01_00.00.00/empty.txt"));
+            assertEquals(largeData.toString(), read(zip, "2014.01.01_00.00.00/logs/log.txt"));
+            ZipEntry logEntry = zip.getEntry("2014.01.01_00.00.00/logs/log.txt");
+            assertTrue(logEntry.getCompressedSize() < logEntry.getSize());
+        } finally {
+            zip.close();
+        }
+        // only the result dir and the zip are left
+        assertEquals(2, mTmpDir.list().length);
+    }
+
+    /**
+     * Test that a failure to compress a file deletes the partial zip and the compressed data.
+     */
+    public void testClose_missingFile() throws IOException {
+        FileUtil.writeToFile("data", new File(mTmpDir, "present.txt"));
+        File zipFile = new File(mTmpDir, "result.zip");
+        ParallelZipWriter writer = new ParallelZipWriter(zipFile, mExecutor);
+        writer.addFile(new File(mTmpDir, "present.txt"), "present.txt");
+        writer.addFile(new File(mTmpDir, "missing.txt"), "missing.txt");
+        try {
+            writer.close();
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(zipFile.exists());
+        assertEquals(1, mTmpDir.list().length);
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        InputStream in = zip.getInputStream(zip.getEntry(name));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            StreamUtil.close(in);
+        }
+    }
+}
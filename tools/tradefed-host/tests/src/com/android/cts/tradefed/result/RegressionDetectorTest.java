@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link RegressionDetector}.
+ */
+public class RegressionDetectorTest extends TestCase {
+
+    private static final String FINGERPRINT = "brand/product/device:5.0/LRX/1:user/keys";
+    private static final double[] HISTORY = {10.0, 10.4, 9.8, 10.1, 9.9, 10.2};
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    private SessionMetricsHistory mHistory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHistory = new SessionMetricsHistory(new File("does-not-exist"));
+        for (int i = 0; i < HISTORY.length; i++) {
+            addSession(i, FINGERPRINT, RegressionDetector.LOWER_BETTER, HISTORY[i]);
+        }
+    }
+
+    /**
+     * Test that a value far worse than the history is reported.
+     */
+    public void testFindRegressions() {
+        addSession(HISTORY.length, FINGERPRINT, RegressionDetector.LOWER_BETTER, 12.0);
+        List<RegressionDetector.Regression> regressions = findRegressions(false);
+        assertEquals(1, regressions.size());
+        RegressionDetector.Regression regression = regressions.get(0);
+        assertEquals(12.0, regression.getValue());
+        assertEquals(10.05, regression.getBaseline(), 1e-9);
+        assertEquals(1.95 / 10.05, regression.getChange(), 1e-9);
+        assertTrue(regression.getScore() > 3);
+    }
+
+    /**
+     * Test that values within the noise of the history, or better than it, are not reported.
+     */
+    public void testFindRegressions_none() {
+        addSession(HISTORY.length, FINGERPRINT, RegressionDetector.LOWER_BETTER, 10.3);
+        assertTrue(findRegressions(false).isEmpty());
+        addSession(HISTORY.length + 1, FINGERPRINT, RegressionDetector.LOWER_BETTER, 5.0);
+        assertTrue(findRegressions(false).isEmpty());
+    }
+
+    /**
+     * Test that a significant but small change is not reported.
+     */
+    public void testFindRegressions_minChange() {
+        mHistory = new SessionMetricsHistory(new File("does-not-exist"));
+        for (int i = 0; i < 5; i++) {
+            addSession(i, FINGERPRINT, RegressionDetector.LOWER_BETTER, 100.0);
+        }
+        addSession(5, FINGERPRINT, RegressionDetector.LOWER_BETTER, 101.0);
+        assertTrue(findRegressions(false).isEmpty());
+        addSession(6, FINGERPRINT, RegressionDetector.LOWER_BETTER, 110.0);
+        assertEquals(1, findRegressions(false).size());
+        assertTrue(Double.isInfinite(findRegressions(false).get(0).getScore()));
+    }
+
+    /**
+     * Test that a drop of a higher_better metric is reported.
+     */
+    public void testFindRegressions_higherBetter() {
+        mHistory = new SessionMetricsHistory(new File("does-not-exist"));
+        for (int i = 0; i < HISTORY.length; i++) {
+            addSession(i, FINGERPRINT, RegressionDetector.HIGHER_BETTER, HISTORY[i]);
+        }
+        addSession(HISTORY.length, FINGERPRINT, RegressionDetector.HIGHER_BETTER, 12.0);
+        assertTrue(findRegressions(false).isEmpty());
+        addSession(HISTORY.length + 1, FINGERPRINT, RegressionDetector.HIGHER_BETTER, 8.0);
+        assertEquals(1, findRegressions(false).size());
+    }
+
+    /**
+     * Test that metrics without enough history or without a direction are not checked.
+     */
+    public void testFindRegressions_notComparable() {
+        addSession(HISTORY.length, "brand/product/other:5.0/LRX/1:user/keys",
+                RegressionDetector.LOWER_BETTER, 20.0);
+        assertTrue(findRegressions(false).isEmpty());
+        mHistory = new SessionMetricsHistory(new File("does-not-exist"));
+        for (int i = 0; i < HISTORY.length; i++) {
+            addSession(i, FINGERPRINT, "neutral", HISTORY[i]);
+        }
+        addSession(HISTORY.length, FINGERPRINT, "neutral", 20.0);
+        assertTrue(findRegressions(false).isEmpty());
+    }
+
+    /**
+     * Test that other builds of the same device are only compared with when not checking by
+     * build.
+     */
+    public void testFindRegressions_byBuild() {
+        addSession(HISTORY.length, "brand/product/device:5.0/LRX/2:user/keys",
+                RegressionDetector.LOWER_BETTER, 20.0);
+        assertEquals(1, findRegressions(false).size());
+        assertTrue(findRegressions(true).isEmpty());
+    }
+
+    /**
+     * Test that sessions are compared in start time order, not in result directory name order.
+     */
+    public void testFindRegressions_startTimeOrder() {
+        // e.g. a continued session, which keeps the start time of the session it continues
+        String sessionName = "2014.02.01_00.00.00";
+        mHistory.addSession(sessionName, -DAY_MS, FINGERPRINT,
+                Collections.singletonList(createMetric(RegressionDetector.LOWER_BETTER, 20.0)));
+        RegressionDetector detector = new RegressionDetector(10, 5, 3.0, 5.0, false);
+        assertTrue(detector.findRegressions(mHistory, sessionName).isEmpty());
+    }
+
+    /**
+     * Test that the window and the minimum baseline count sessions, not values.
+     */
+    public void testFindRegressions_sessionWindow() {
+        mHistory = new SessionMetricsHistory(new File("does-not-exist"));
+        addSession(0, FINGERPRINT, 1000.0);
+        addSession(1, FINGERPRINT, 10.0, 10.0, 10.0);
+        addSession(2, FINGERPRINT, 100.0);
+        addSession(3, FINGERPRINT, 60.0);
+        RegressionDetector detector = new RegressionDetector(2, 2, 3.0, 5.0, false);
+        List<RegressionDetector.Regression> regressions =
+                detector.findRegressions(mHistory, getSessionName(3));
+        assertEquals(1, regressions.size());
+        assertEquals(10.0, regressions.get(0).getBaseline());
+
+        mHistory = new SessionMetricsHistory(new File("does-not-exist"));
+        addSession(0, FINGERPRINT, 10.0, 10.0, 10.0);
+        addSession(1, FINGERPRINT, 60.0);
+        detector = new RegressionDetector(10, 2, 3.0, 5.0, false);
+        assertTrue(detector.findRegressions(mHistory, getSessionName(1)).isEmpty());
+    }
+
+    private void addSession(int index, String fingerprint, String scoreType, double value) {
+        mHistory.addSession(getSessionName(index), index * DAY_MS, fingerprint,
+                Collections.singletonList(createMetric(scoreType, value)));
+    }
+
+    private void addSession(int index, String fingerprint, double... values) {
+        List<MetricsXmlParser.Metric> metrics = new ArrayList<MetricsXmlParser.Metric>();
+        for (double value : values) {
+            metrics.add(createMetric(RegressionDetector.LOWER_BETTER, value));
+        }
+        mHistory.addSession(getSessionName(index), index * DAY_MS, fingerprint, metrics);
+    }
+
+    private static MetricsXmlParser.Metric createMetric(String scoreType, double value) {
+        return new MetricsXmlParser.Metric("armeabi-v7a android.foo", "android.foo.FooTest#test",
+                "time", scoreType, "ms", value);
+    }
+
+    private List<RegressionDetector.Regression> findRegressions(boolean byBuild) {
+        RegressionDetector detector = new RegressionDetector(10, 5, 3.0, 5.0, byBuild);
+        return detector.findRegressions(mHistory, getLatestSessionName());
+    }
+
+    private String getLatestSessionName() {
+        List<String> sessions = mHistory.getSessionsByStartTime();
+        return sessions.get(sessions.size() - 1);
+    }
+
+    private static String getSessionName(int index) {
+        return String.format("2014.01.%02d_00.00.00", index + 1);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SessionMetricsHistory} and {@link MetricsXmlParser}.
+ */
+public class SessionMetricsHistoryTest extends TestCase {
+
+    static final long START_TIME = 1282342383000L;
+
+    static final String TEST_DATA =
+        "<TestResult starttime=\"" + TimeUtil.getTimestamp(START_TIME) + "\">" +
+            "<DeviceInfo>" +
+                "<BuildInfo build_fingerprint=\"brand/product/device:5.0/LRX/1:user/keys\"/>" +
+            "</DeviceInfo>" +
+            "<TestPackage appPackageName=\"android.foo\" abi=\"armeabi-v7a\">" +
+                "<TestSuite name=\"android\">" +
+                    "<TestSuite name=\"foo\">" +
+                        "<TestCase name=\"FooTest\">" +
+                            "<Test name=\"testFast\" result=\"pass\">" +
+                                "<Summary message=\"time\" scoreType=\"lower_better\" " +
+                                        "unit=\"ms\" target=\"0\">12.5</Summary>" +
+                            "</Test>" +
+                            "<Test name=\"testNoSummary\" result=\"pass\"/>" +
+                            "<Test name=\"testText\" result=\"pass\">" +
+                                "<Summary message=\"text\" scoreType=\"neutral\">n/a</Summary>" +
+                            "</Test>" +
+                        "</TestCase>" +
+                    "</TestSuite>" +
+                "</TestSuite>" +
+            "</TestPackage>" +
+            "<Summary failed=\"0\" notExecuted=\"0\" pass=\"3\" timeout=\"0\"/>" +
+        "</TestResult>";
+
+    private File mTmpDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTmpDir = FileUtil.createTempDir("metrics");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTmpDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test parsing the summaries from result XML, skipping the non numeric ones and the summary
+     * of the whole session.
+     */
+    public void testParse() throws ParseException {
+        MetricsXmlParser parser = new MetricsXmlParser();
+        parser.parse(new StringReader(TEST_DATA));
+        assertEquals("brand/product/device:5.0/LRX/1:user/keys", parser.getFingerprint());
+        assertEquals(START_TIME, parser.getStartTime());
+        List<MetricsXmlParser.Metric> metrics = parser.getMetrics();
+        assertEquals(1, metrics.size());
+        MetricsXmlParser.Metric metric = metrics.get(0);
+        assertEquals("armeabi-v7a android.foo", metric.mPackage);
+        assertEquals("android.foo.FooTest#testFast", metric.mTest);
+        assertEquals("time", metric.mMessage);
+        assertEquals("lower_better", metric.mScoreType);
+        assertEquals("ms", metric.mUnit);
+        assertEquals(12.5, metric.mValue);
+    }
+
+    /**
+     * Test that a saved store loads back the same rows.
+     */
+    public void testSaveAndLoad() throws IOException {
+        File historyFile = new File(mTmpDir, "metrics-history");
+        SessionMetricsHistory history = new SessionMetricsHistory(historyFile);
+        history.addSession("2014.01.01_00.00.00", 2000, "fp", Arrays.asList(
+                createMetric("test1", 1.0), createMetric("test2", 2.0)));
+        history.addSession("2014.01.02_00.00.00", 1000, "fp",
+                Arrays.asList(createMetric("test1", 3.0)));
+        history.save();
+
+        SessionMetricsHistory loaded = new SessionMetricsHistory(historyFile);
+        assertTrue(loaded.containsSession("2014.01.01_00.00.00"));
+        assertTrue(loaded.containsSession("2014.01.02_00.00.00"));
+        assertFalse(loaded.containsSession("2014.01.03_00.00.00"));
+        assertEquals(3, loaded.getRowCount());
+        for (int row = 0; row < 3; row++) {
+            assertEquals(history.getRowSeries(row), loaded.getRowSeries(row));
+            assertEquals(history.getRowSession(row), loaded.getRowSession(row));
+            assertEquals(history.getRowValue(row), loaded.getRowValue(row));
+        }
+        assertEquals("test2", loaded.getRowSeries(1).getTest());
+        assertEquals("ms", loaded.getRowSeries(1).getUnit());
+        assertEquals("2014.01.02_00.00.00", loaded.getRowSession(2));
+        assertEquals(3.0, loaded.getRowValue(2));
+        assertEquals(Arrays.asList("2014.01.02_00.00.00", "2014.01.01_00.00.00"),
+                loaded.getSessionsByStartTime());
+    }
+
+    /**
+     * Test that sessions are ordered by start time, then by name.
+     */
+    public void testGetSessionsByStartTime() {
+        SessionMetricsHistory history = new SessionMetricsHistory(
+                new File(mTmpDir, "does-not-exist"));
+        List<MetricsXmlParser.Metric> metrics = Arrays.asList(createMetric("test", 1.0));
+        history.addSession("2014.01.03_00.00.00", 1000, "fp", metrics);
+        history.addSession("2014.01.02_00.00.00", 3000, "fp", metrics);
+        history.addSession("2014.01.05_00.00.00", 2000, "fp", metrics);
+        history.addSession("2014.01.04_00.00.00", 2000, "fp", metrics);
+        history.addSession("2014.01.01_00.00.00", -1, "fp", metrics);
+        assertEquals(Arrays.asList("2014.01.01_00.00.00", "2014.01.03_00.00.00",
+                "2014.01.04_00.00.00", "2014.01.05_00.00.00", "2014.01.02_00.00.00"),
+                history.getSessionsByStartTime());
+    }
+
+    /**
+     * Test that an unreadable store file is ignored.
+     */
+    public void testLoad_corrupt() throws IOException {
+        File historyFile = new File(mTmpDir, "metrics-history");
+        FileUtil.writeToFile("garbage", historyFile);
+        SessionMetricsHistory history = new SessionMetricsHistory(historyFile);
+        assertEquals(0, history.getRowCount());
+    }
+
+    static MetricsXmlParser.Metric createMetric(String test, double value) {
+        return new MetricsXmlParser.Metric("armeabi-v7a android.foo", test, "time",
+                RegressionDetector.LOWER_BETTER, "ms", value);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.result.ByteArrayInputStreamSource;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.result.LogDataType;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Unit tests for {@link FailureArtifactCollector}.
+ */
+public class FailureArtifactCollectorTest extends TestCase {
+
+    private static final TestIdentifier TEST_FOO = new TestIdentifier("FooTest", "testFoo");
+    private static final TestIdentifier TEST_BAR = new TestIdentifier("FooTest", "testBar");
+    private static final TestIdentifier TEST_BAZ = new TestIdentifier("FooTest", "testBaz");
+    private static final Map<String, String> EMPTY_MAP = Collections.emptyMap();
+    private static final long TIMEOUT_MS = 10 * 1000;
+
+    private ITestDevice mMockDevice;
+    private ITestInvocationListener mMockListener;
+    private InputStreamSource mSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+        EasyMock.expect(mMockDevice.getSerialNumber()).andStubReturn("serial");
+        mMockListener = EasyMock.createMock(ITestInvocationListener.class);
+        mSource = new ByteArrayInputStreamSource(new byte[0]);
+    }
+
+    /**
+     * Test that a screenshot captured in the background is forwarded before the run ends.
+     */
+    public void testScreenshot() throws Exception {
+        EasyMock.expect(mMockDevice.getScreenshot()).andReturn(mSource);
+        mMockListener.testStarted(TEST_FOO);
+        mMockListener.testFailed(TEST_FOO, "trace");
+        mMockListener.testEnded(TEST_FOO, EMPTY_MAP);
+        mMockListener.testLog("screenshot-FooTest_testFoo", LogDataType.PNG, mSource);
+        mMockListener.testRunEnded(0, EMPTY_MAP);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        FailureArtifactCollector collector = new FailureArtifactCollector(mMockListener,
+                mMockDevice, false, true, false, 0, 0, 10, TIMEOUT_MS);
+        runTest(collector, TEST_FOO, true);
+        collector.testRunEnded(0, EMPTY_MAP);
+        collector.close();
+
+        EasyMock.verify(mMockDevice, mMockListener);
+        assertEquals(1, collector.getCaptureCount());
+        assertEquals(0, collector.getDroppedCount());
+    }
+
+    /**
+     * Test that only one bugreport is taken for a burst of failures.
+     */
+    public void testBugreport_rateLimited() throws Exception {
+        EasyMock.expect(mMockDevice.getBugreport()).andReturn(mSource).once();
+        mMockListener = EasyMock.createNiceMock(ITestInvocationListener.class);
+        mMockListener.testLog("bug-FooTest_testFoo", LogDataType.TEXT, mSource);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        FailureArtifactCollector collector = new FailureArtifactCollector(mMockListener,
+                mMockDevice, true, false, false, 0, 60 * 60 * 1000, 10, TIMEOUT_MS);
+        runTest(collector, TEST_FOO, true);
+        runTest(collector, TEST_BAR, true);
+        collector.testRunEnded(0, EMPTY_MAP);
+        collector.close();
+
+        EasyMock.verify(mMockDevice, mMockListener);
+        assertEquals(1, collector.getCaptureCount());
+        assertEquals(1, collector.getSkippedBugreportCount());
+    }
+
+    /**
+     * Test that captures which do not fit into the queue are dropped instead of blocking.
+     */
+    public void testQueueFull() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        EasyMock.expect(mMockDevice.getScreenshot()).andAnswer(new IAnswer<InputStreamSource>() {
+            @Override
+            public InputStreamSource answer() throws Throwable {
+                latch.await();
+                return mSource;
+            }
+        }).times(2);
+        mMockListener = EasyMock.createNiceMock(ITestInvocationListener.class);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        FailureArtifactCollector collector = new FailureArtifactCollector(mMockListener,
+                mMockDevice, false, true, false, 0, 0, 1, TIMEOUT_MS);
+        // the first capture blocks the capture thread, the second one is queued
+        runTest(collector, TEST_FOO, true);
+        runTest(collector, TEST_BAR, true);
+        runTest(collector, TEST_BAZ, true);
+        latch.countDown();
+        collector.testRunEnded(0, EMPTY_MAP);
+        collector.close();
+
+        EasyMock.verify(mMockDevice, mMockListener);
+        assertEquals(2, collector.getCaptureCount());
+        assertEquals(1, collector.getDroppedCount());
+    }
+
+    /**
+     * Test that a screenshot is not queued behind a bugreport in progress.
+     */
+    public void testScreenshot_duringBugreport() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        EasyMock.expect(mMockDevice.getBugreport()).andAnswer(new IAnswer<InputStreamSource>() {
+            @Override
+            public InputStreamSource answer() throws Throwable {
+                latch.await();
+                return mSource;
+            }
+        });
+        EasyMock.expect(mMockDevice.getScreenshot()).andAnswer(new IAnswer<InputStreamSource>() {
+            @Override
+            public InputStreamSource answer() throws Throwable {
+                latch.countDown();
+                return mSource;
+            }
+        });
+        mMockListener = EasyMock.createNiceMock(ITestInvocationListener.class);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        FailureArtifactCollector collector = new FailureArtifactCollector(mMockListener,
+                mMockDevice, true, true, false, 0, 0, 10, TIMEOUT_MS);
+        runTest(collector, TEST_FOO, true);
+        // the bugreport only completes once the screenshot was taken
+        collector.testRunEnded(0, EMPTY_MAP);
+        collector.close();
+
+        EasyMock.verify(mMockDevice, mMockListener);
+        assertEquals(2, collector.getCaptureCount());
+        assertEquals(0, collector.getDroppedCount());
+    }
+
+    /**
+     * Test that a capture which does not complete by the end of its test run is dropped instead
+     * of being forwarded during the next run.
+     */
+    public void testCapture_afterRunEnded() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        EasyMock.expect(mMockDevice.getBugreport()).andAnswer(new IAnswer<InputStreamSource>() {
+            @Override
+            public InputStreamSource answer() throws Throwable {
+                latch.await();
+                return mSource;
+            }
+        });
+        mMockListener.testStarted(TEST_FOO);
+        mMockListener.testFailed(TEST_FOO, "trace");
+        mMockListener.testEnded(TEST_FOO, EMPTY_MAP);
+        mMockListener.testRunEnded(0, EMPTY_MAP);
+        mMockListener.testStarted(TEST_BAR);
+        mMockListener.testEnded(TEST_BAR, EMPTY_MAP);
+        mMockListener.testRunEnded(0, EMPTY_MAP);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        FailureArtifactCollector collector = new FailureArtifactCollector(mMockListener,
+                mMockDevice, true, false, false, 0, 0, 10, 0);
+        runTest(collector, TEST_FOO, true);
+        collector.testRunEnded(0, EMPTY_MAP);
+        latch.countDown();
+        runTest(collector, TEST_BAR, false);
+        collector.testRunEnded(0, EMPTY_MAP);
+        // the bugreport is dropped on the capture thread once it completes
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (collector.getDroppedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        collector.close();
+
+        EasyMock.verify(mMockDevice, mMockListener);
+        assertEquals(0, collector.getCaptureCount());
+        assertEquals(1, collector.getDroppedCount());
+    }
+
+    /**
+     * Test that the logcat of a failed test is cut from the logcat buffer.
+     */
+    public void testLogcatBuffer() throws Exception {
+        mMockListener = EasyMock.createNiceMock(ITestInvocationListener.class);
+        mMockListener.testLog(EasyMock.eq("logcat-FooTest_testFoo"),
+                EasyMock.eq(LogDataType.TEXT), (InputStreamSource) EasyMock.anyObject());
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        LogcatRingBuffer buffer = new LogcatRingBuffer(mMockDevice, 1024);
+        try {
+            FailureArtifactCollector collector = new FailureArtifactCollector(mMockListener,
+                    mMockDevice, false, false, true, 1024, 0, 10, TIMEOUT_MS);
+            collector.setLogcatBuffer(buffer);
+            collector.testStarted(TEST_FOO);
+            byte[] line = "failure\n".getBytes();
+            buffer.append(line, 0, line.length, System.currentTimeMillis());
+            collector.testFailed(TEST_FOO, "trace");
+            collector.testEnded(TEST_FOO, EMPTY_MAP);
+            collector.testRunEnded(0, EMPTY_MAP);
+            collector.close();
+
+            EasyMock.verify(mMockDevice, mMockListener);
+            assertEquals(1, collector.getCaptureCount());
+        } finally {
+            buffer.stop();
+        }
+    }
+
+    /**
+     * Test that a passing test does not trigger any capture.
+     */
+    public void testPass() throws Exception {
+        mMockListener.testStarted(TEST_FOO);
+        mMockListener.testEnded(TEST_FOO, EMPTY_MAP);
+        mMockListener.testRunEnded(0, EMPTY_MAP);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        FailureArtifactCollector collector = new FailureArtifactCollector(mMockListener,
+                mMockDevice, true, true, true, 0, 0, 10, TIMEOUT_MS);
+        runTest(collector, TEST_FOO, false);
+        collector.testRunEnded(0, EMPTY_MAP);
+        collector.close();
+
+        EasyMock.verify(mMockDevice, mMockListener);
+        assertEquals(0, collector.getCaptureCount());
+    }
+
+    private void runTest(FailureArtifactCollector collector, TestIdentifier test,
+            boolean fail) {
+        collector.testStarted(test);
+        if (fail) {
+            collector.testFailed(test, "trace");
+        }
+        collector.testEnded(test, EMPTY_MAP);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.result.ITestInvocationListener;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link HealthRebootPolicy}.
+ */
+public class HealthRebootPolicyTest extends TestCase {
+
+    private static final Map<String, String> EMPTY_MAP = Collections.emptyMap();
+    private static final String MEMINFO =
+            "MemTotal:        1877280 kB\n" +
+            "MemFree:           52000 kB\n" +
+            "MemAvailable:     %d kB\n" +
+            "Buffers:           20148 kB\n" +
+            "Cached:           400312 kB\n";
+
+    private ITestDevice mMockDevice;
+    private ITestPackageDef mMockFinished;
+    private ITestPackageDef mMockNext;
+    private PackageResultCounter mResults;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+        mMockFinished = EasyMock.createMock(ITestPackageDef.class);
+        EasyMock.expect(mMockFinished.getName()).andStubReturn("CtsFooTestCases");
+        mMockNext = EasyMock.createMock(ITestPackageDef.class);
+        EasyMock.expect(mMockNext.getName()).andStubReturn("CtsBarTestCases");
+        mResults = new PackageResultCounter(
+                EasyMock.createNiceMock(ITestInvocationListener.class));
+    }
+
+    /**
+     * Test that a healthy device is not rebooted.
+     */
+    public void testHealthy() throws Exception {
+        expectHealth(500 * 1024, 200);
+        expectHealth(400 * 1024, 250);
+        replayMocks();
+
+        HealthRebootPolicy policy = new HealthRebootPolicy(200 * 1024, 100, 0.5f, 10, true);
+        policy.reset(mMockDevice);
+        runTests(20, 5);
+        assertNull(policy.getRebootReason(mMockDevice, mMockFinished, mResults, mMockNext));
+        EasyMock.verify(mMockDevice);
+    }
+
+    /**
+     * Test that the device is rebooted when little memory is left.
+     */
+    public void testLowMemory() throws Exception {
+        expectHealth(500 * 1024, 200);
+        expectHealth(100 * 1024, 200);
+        replayMocks();
+
+        HealthRebootPolicy policy = new HealthRebootPolicy(200 * 1024, 100, 0.5f, 10, true);
+        policy.reset(mMockDevice);
+        assertNotNull(policy.getRebootReason(mMockDevice, mMockFinished, mResults, mMockNext));
+        EasyMock.verify(mMockDevice);
+    }
+
+    /**
+     * Test that the device is rebooted when processes pile up since the last reboot.
+     */
+    public void testProcessGrowth() throws Exception {
+        expectHealth(500 * 1024, 200);
+        expectHealth(500 * 1024, 301);
+        replayMocks();
+
+        HealthRebootPolicy policy = new HealthRebootPolicy(200 * 1024, 100, 0.5f, 10, true);
+        policy.reset(mMockDevice);
+        assertNotNull(policy.getRebootReason(mMockDevice, mMockFinished, mResults, mMockNext));
+        EasyMock.verify(mMockDevice);
+    }
+
+    /**
+     * Test that a high failure rate triggers a reboot without sampling the device, and that
+     * packages with few tests are ignored.
+     */
+    public void testFailureRate() throws Exception {
+        expectHealth(500 * 1024, 200);
+        expectHealth(500 * 1024, 200);
+        replayMocks();
+
+        HealthRebootPolicy policy = new HealthRebootPolicy(200 * 1024, 100, 0.5f, 10, true);
+        policy.reset(mMockDevice);
+        runTests(4, 4);
+        assertNull(policy.getRebootReason(mMockDevice, mMockFinished, mResults, mMockNext));
+        runTests(16, 8);
+        assertEquals(20, mResults.getTestCount());
+        assertEquals(12, mResults.getFailedCount());
+        assertNotNull(policy.getRebootReason(mMockDevice, mMockFinished, mResults, mMockNext));
+        EasyMock.verify(mMockDevice);
+    }
+
+    /**
+     * Test that a crashed instrumentation triggers a reboot.
+     */
+    public void testRunFailure() throws Exception {
+        expectHealth(500 * 1024, 200);
+        replayMocks();
+
+        HealthRebootPolicy policy = new HealthRebootPolicy(200 * 1024, 100, 0.5f, 10, true);
+        policy.reset(mMockDevice);
+        mResults.testRunFailed("Instrumentation run failed due to 'Process crashed.'");
+        assertEquals(1, mResults.getRunFailureCount());
+        assertNotNull(policy.getRebootReason(mMockDevice, mMockFinished, mResults, mMockNext));
+        EasyMock.verify(mMockDevice);
+    }
+
+    /**
+     * Test parsing the health of a device whose kernel does not report MemAvailable.
+     */
+    public void testParse_noMemAvailable() {
+        HealthRebootPolicy.HealthSample sample = HealthRebootPolicy.HealthSample.parse(
+                "MemTotal: 1000 kB\nMemFree: 100 kB\nCached: 200 kB\n" +
+                "1 2 self\n345\nnet\n");
+        assertEquals(300, sample.getAvailableMemKb());
+        assertEquals(3, sample.getProcessCount());
+
+        sample = HealthRebootPolicy.HealthSample.parse("/system/bin/sh: cat: not found\n");
+        assertEquals(-1, sample.getAvailableMemKb());
+        assertEquals(-1, sample.getProcessCount());
+    }
+
+    private void expectHealth(long availableKb, int processCount) throws Exception {
+        StringBuilder output = new StringBuilder(String.format(MEMINFO, availableKb));
+        for (int pid = 1; pid <= processCount; pid++) {
+            output.append(pid).append('\n');
+        }
+        output.append("self\nmeminfo\nnet\n");
+        EasyMock.expect(mMockDevice.executeShellCommand(HealthRebootPolicy.HEALTH_COMMAND))
+                .andReturn(output.toString());
+    }
+
+    private void runTests(int count, int failures) {
+        for (int i = 0; i < count; i++) {
+            TestIdentifier test = new TestIdentifier("FooTest", "test" + i);
+            mResults.testStarted(test);
+            if (i < failures) {
+                mResults.testFailed(test, "trace");
+            }
+            mResults.testEnded(test, EMPTY_MAP);
+        }
+    }
+
+    private void replayMocks() {
+        EasyMock.replay(mMockDevice, mMockFinished, mMockNext);
+    }
+}
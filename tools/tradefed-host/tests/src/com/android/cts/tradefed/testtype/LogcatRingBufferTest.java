@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LogcatRingBuffer}.
+ */
+public class LogcatRingBufferTest extends TestCase {
+
+    private LogcatRingBuffer mBuffer;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mBuffer != null) {
+            mBuffer.stop();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Test that a slice contains the lines received within its time window.
+     */
+    public void testGetSlice() throws Exception {
+        // the buffer is fed directly, so it does not need a device
+        mBuffer = new LogcatRingBuffer(null, 1024);
+        append("a\nb\n", 100);
+        append("c\n", 200);
+        append("d\n", 300);
+        assertEquals("c\n", slice(150, 250, 1024));
+        assertEquals("c\nd\n", slice(200, 300, 1024));
+        assertEquals("a\nb\nc\nd\n", slice(0, 1000, 1024));
+        assertEquals("", slice(400, 500, 1024));
+    }
+
+    /**
+     * Test that lines split across chunks are only returned if complete.
+     */
+    public void testGetSlice_partialLines() throws Exception {
+        mBuffer = new LogcatRingBuffer(null, 1024);
+        append("x1\nx2", 100);
+        append("tail\ny\nz", 200);
+        append("end\n", 300);
+        assertEquals("y\n", slice(200, 200, 1024));
+        assertEquals("x1\n", slice(100, 100, 1024));
+        assertEquals("y\nzend\n", slice(200, 300, 1024));
+    }
+
+    /**
+     * Test that only the last lines fitting into the max size are returned.
+     */
+    public void testGetSlice_maxBytes() throws Exception {
+        mBuffer = new LogcatRingBuffer(null, 1024);
+        append("line1\nline2\nline3\n", 100);
+        assertEquals("line3\n", slice(100, 100, 8));
+    }
+
+    /**
+     * Test that the oldest output is overwritten once the buffer is full.
+     */
+    public void testGetSlice_wrapAround() throws Exception {
+        mBuffer = new LogcatRingBuffer(null, 16);
+        append("111\n", 100);
+        append("222\n", 200);
+        append("333\n", 300);
+        append("444\n", 400);
+        append("555\n", 500);
+        assertEquals(20, mBuffer.getTotalBytes());
+        assertEquals("", slice(100, 100, 1024));
+        assertEquals("222\n333\n", slice(0, 300, 1024));
+        assertEquals("222\n333\n444\n555\n", slice(0, 500, 1024));
+        append("66666666\n", 600);
+        assertEquals("555\n66666666\n", slice(0, 600, 1024));
+    }
+
+    /**
+     * Test that the receiver appends complete lines and holds back a partial one.
+     */
+    public void testReceiver_partialLines() throws Exception {
+        mBuffer = new LogcatRingBuffer(null, 1024);
+        LogcatRingBuffer.LogcatReceiver receiver = mBuffer.new LogcatReceiver();
+        assertEquals("logcat -v threadtime", receiver.restart());
+        receive(receiver, "01-31 12:00:00.000  1  1 I a: x\n01-31 12:00:00.100  1", 100);
+        receive(receiver, "  1 I b: y\n", 200);
+        assertEquals("01-31 12:00:00.000  1  1 I a: x\n", slice(100, 100, 1024));
+        assertEquals("01-31 12:00:00.100  1  1 I b: y\n", slice(200, 200, 1024));
+    }
+
+    /**
+     * Test that a restarted logcat resumes from the last timestamp and that the lines already
+     * received with that timestamp are skipped.
+     */
+    public void testReceiver_restart() throws Exception {
+        mBuffer = new LogcatRingBuffer(null, 1024);
+        LogcatRingBuffer.LogcatReceiver receiver = mBuffer.new LogcatReceiver();
+        receiver.restart();
+        receive(receiver, "--------- beginning of main\n"
+                + "01-31 12:00:00.000  1  1 I a: old\n"
+                + "01-31 12:00:01.000  1  1 I a: one\n"
+                + "01-31 12:00:01.000  1  1 I a: two\n"
+                + "01-31 12:00:01.000  1  1 I a: part", 100);
+        assertEquals("logcat -v threadtime -T '01-31 12:00:01.000'", receiver.restart());
+        receive(receiver, "--------- beginning of main\n"
+                + "01-31 12:00:01.000  1  1 I a: one\n"
+                + "01-31 12:00:01.000  1  1 I a: two\n"
+                + "01-31 12:00:02.000  1  1 I a: new\n", 200);
+        assertEquals("01-31 12:00:02.000  1  1 I a: new\n", slice(200, 200, 1024));
+        assertEquals("logcat -v threadtime -T '01-31 12:00:02.000'", receiver.restart());
+    }
+
+    private void receive(LogcatRingBuffer.LogcatReceiver receiver, String data, long timeMs) {
+        byte[] bytes = data.getBytes();
+        receiver.addOutput(bytes, 0, bytes.length, timeMs);
+    }
+
+    private void append(String data, long timeMs) {
+        byte[] bytes = data.getBytes();
+        mBuffer.append(bytes, 0, bytes.length, timeMs);
+    }
+
+    private String slice(long startMs, long endMs, int maxBytes) {
+        return new String(mBuffer.getSlice(startMs, endMs, maxBytes));
+    }
+}
@@ -20,7 +20,7 @@ include $(CLEAR_VARS)
 
 LOCAL_MODULE := descGen
 
-LOCAL_SRC_FILES := CollectAllTests.java DescriptionGenerator.java VogarUtils.java
+LOCAL_SRC_FILES := ClassInfo.java CollectAllTests.java DescriptionGenerator.java VogarUtils.java
 
 LOCAL_CLASSPATH := $(HOST_JDK_TOOLS_JAR)
 
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The parts of a class file that are needed to find tests: the modifiers,
+ * super class, runtime visible annotations and methods of a class. Reading
+ * these from the class file avoids loading and linking the class.
+ */
+public class ClassInfo {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_ABSTRACT = 0x0400;
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private static final String INNER_CLASSES = "InnerClasses";
+
+    /** Binary name of the class, such as "android.app.cts.ActivityTest". */
+    final String mName;
+
+    /** Binary name of the super class, or null for java.lang.Object. */
+    final String mSuperName;
+
+    /** Modifiers as reported by {@link Class#getModifiers()}. */
+    final int mModifiers;
+
+    /** Binary names of the runtime visible annotation types. */
+    final Set<String> mAnnotations;
+
+    /** Methods and constructors in declaration order. */
+    final List<MethodInfo> mMethods;
+
+    private ClassInfo(String name, String superName, int modifiers, Set<String> annotations,
+            List<MethodInfo> methods) {
+        mName = name;
+        mSuperName = superName;
+        mModifiers = modifiers;
+        mAnnotations = annotations;
+        mMethods = methods;
+    }
+
+    static class MethodInfo {
+        final String mName;
+        final String mDescriptor;
+        final int mModifiers;
+        final Set<String> mAnnotations;
+
+        MethodInfo(String name, String descriptor, int modifiers, Set<String> annotations) {
+            mName = name;
+            mDescriptor = descriptor;
+            mModifiers = modifiers;
+            mAnnotations = annotations;
+        }
+
+        boolean isPublic() {
+            return (mModifiers & ACC_PUBLIC) != 0;
+        }
+    }
+
+    boolean isPublic() {
+        return (mModifiers & ACC_PUBLIC) != 0;
+    }
+
+    boolean isAbstract() {
+        return (mModifiers & ACC_ABSTRACT) != 0;
+    }
+
+    /**
+     * @return true iff the class declares a public constructor with the given
+     *     descriptor, such as "()V"
+     */
+    boolean hasPublicConstructor(String descriptor) {
+        for (MethodInfo method : mMethods) {
+            if (method.mName.equals("<init>") && method.mDescriptor.equals(descriptor)
+                    && method.isPublic()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static ClassInfo read(byte[] classFile) throws IOException {
+        return read(new ByteArrayInputStream(classFile));
+    }
+
+    static ClassInfo read(InputStream classFile) throws IOException {
+        DataInputStream in = new DataInputStream(classFile);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        int constantPoolCount = in.readUnsignedShort();
+        String[] utf8 = new String[constantPoolCount];
+        int[] classNameIndex = new int[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classNameIndex[i] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    in.skipBytes(2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    in.skipBytes(3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    in.skipBytes(4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.skipBytes(8);
+                    i++; // takes two entries
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+
+        int modifiers = in.readUnsignedShort();
+        String internalName = utf8[classNameIndex[in.readUnsignedShort()]];
+        int superClass = in.readUnsignedShort();
+        String superName = superClass != 0 ? toBinaryName(utf8[classNameIndex[superClass]]) : null;
+        in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+
+        int fieldCount = in.readUnsignedShort();
+        for (int i = 0; i < fieldCount; i++) {
+            in.skipBytes(6);
+            skipAttributes(in);
+        }
+
+        int methodCount = in.readUnsignedShort();
+        List<MethodInfo> methods = new ArrayList<MethodInfo>(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            int methodModifiers = in.readUnsignedShort();
+            String name = utf8[in.readUnsignedShort()];
+            String descriptor = utf8[in.readUnsignedShort()];
+            Set<String> annotations = Collections.emptySet();
+            int attributeCount = in.readUnsignedShort();
+            for (int a = 0; a < attributeCount; a++) {
+                String attributeName = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                if (attributeName.equals(RUNTIME_VISIBLE_ANNOTATIONS)) {
+                    annotations = readAnnotations(in, utf8);
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+            methods.add(new MethodInfo(name, descriptor, methodModifiers, annotations));
+        }
+
+        Set<String> annotations = Collections.emptySet();
+        int attributeCount = in.readUnsignedShort();
+        for (int a = 0; a < attributeCount; a++) {
+            String attributeName = utf8[in.readUnsignedShort()];
+            int length = in.readInt();
+            if (attributeName.equals(RUNTIME_VISIBLE_ANNOTATIONS)) {
+                annotations = readAnnotations(in, utf8);
+            } else if (attributeName.equals(INNER_CLASSES)) {
+                // Member classes report the modifiers of their declaration, e.g. private.
+                int classes = in.readUnsignedShort();
+                for (int c = 0; c < classes; c++) {
+                    int innerClass = in.readUnsignedShort();
+                    in.skipBytes(4);
+                    int innerModifiers = in.readUnsignedShort();
+                    if (internalName.equals(utf8[classNameIndex[innerClass]])) {
+                        modifiers = innerModifiers;
+                    }
+                }
+            } else {
+                in.skipBytes(length);
+            }
+        }
+
+        return new ClassInfo(toBinaryName(internalName), superName, modifiers, annotations,
+                methods);
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attributeCount = in.readUnsignedShort();
+        for (int a = 0; a < attributeCount; a++) {
+            in.skipBytes(2);
+            in.skipBytes(in.readInt());
+        }
+    }
+
+    private static Set<String> readAnnotations(DataInputStream in, String[] utf8)
+            throws IOException {
+        int count = in.readUnsignedShort();
+        Set<String> annotations = new HashSet<String>(count * 2);
+        for (int i = 0; i < count; i++) {
+            annotations.add(readAnnotation(in, utf8));
+        }
+        return annotations;
+    }
+
+    /** Reads an annotation and returns the binary name of its type. */
+    private static String readAnnotation(DataInputStream in, String[] utf8) throws IOException {
+        String descriptor = utf8[in.readUnsignedShort()];
+        int pairs = in.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            in.skipBytes(2); // element name
+            skipElementValue(in, utf8);
+        }
+        // strip 'L' and ';'
+        return toBinaryName(descriptor.substring(1, descriptor.length() - 1));
+    }
+
+    private static void skipElementValue(DataInputStream in, String[] utf8) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                in.skipBytes(4);
+                break;
+            case '@':
+                readAnnotation(in, utf8);
+                break;
+            case '[':
+                int values = in.readUnsignedShort();
+                for (int i = 0; i < values; i++) {
+                    skipElementValue(in, utf8);
+                }
+                break;
+            default:
+                // constants and classes
+                in.skipBytes(2);
+                break;
+        }
+    }
+
+    private static String toBinaryName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+}
@@ -15,7 +15,6 @@
  */
 import com.android.cts.util.AbiUtils;
 
-import org.junit.runner.RunWith;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -24,29 +23,37 @@ import org.w3c.dom.NodeList;
 import vogar.Expectation;
 import vogar.ExpectationStore;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
-import junit.framework.TestCase;
-
 public class CollectAllTests extends DescriptionGenerator {
 
     private static final String ATTRIBUTE_RUNNER = "runner";
@@ -59,6 +66,11 @@ public class CollectAllTests extends DescriptionGenerator {
     private static final String ATTRIBUTE_JAR_PATH = "jarPath";
     private static final String ATTRIBUTE_JAVA_PACKAGE_FILTER = "javaPackageFilter";
 
+    private static final String OBJECT = "java.lang.Object";
+    private static final String JUNIT3_TEST_CASE = "junit.framework.TestCase";
+    private static final String JUNIT4_RUN_WITH = "org.junit.runner.RunWith";
+    private static final String JUNIT4_TEST = "org.junit.Test";
+
     private static final String JAR_PATH = "LOCAL_JAR_PATH :=";
     private static final String TEST_TYPE = "LOCAL_TEST_TYPE :";
 
@@ -98,7 +110,7 @@ public class CollectAllTests extends DescriptionGenerator {
             javaPackagePrefixes = new String[0];
         }
 
-        String architecture = args[4];
+        final String architecture = args[4];
         if (architecture == null || architecture.equals("")) {
             System.err.println("Invalid architecture");
             System.exit(1);
@@ -180,7 +192,7 @@ public class CollectAllTests extends DescriptionGenerator {
             System.exit(1);
             return;
         }
-        ExpectationStore[] expectations = new ExpectationStore[] {
+        final ExpectationStore[] expectations = new ExpectationStore[] {
             libcoreVogarExpectationStore, ctsVogarExpectationStore
         };
 
@@ -195,71 +207,51 @@ public class CollectAllTests extends DescriptionGenerator {
 
         Map<String,TestClass> testCases = new LinkedHashMap<String, TestClass>();
 
-        Enumeration<JarEntry> jarEntries = jarFile.entries();
-        while (jarEntries.hasMoreElements()) {
-            JarEntry jarEntry = jarEntries.nextElement();
-            String name = jarEntry.getName();
-            if (!name.endsWith(".class")) {
-                continue;
-            }
-            String className
-                    = name.substring(0, name.length() - ".class".length()).replace('/', '.');
-
-            boolean matchesPrefix = false;
-            if (javaPackagePrefixes.length > 0) {
-                for (String javaPackagePrefix : javaPackagePrefixes) {
-                    if (className.startsWith(javaPackagePrefix)) {
-                        matchesPrefix = true;
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            final ClassHierarchy hierarchy = new ClassHierarchy(
+                    readClasses(jarFile, executor), CollectAllTests.class.getClassLoader());
+
+            List<Future<ClassTests>> results = new ArrayList<Future<ClassTests>>();
+            for (final ClassInfo classInfo : hierarchy.mJarClasses.values()) {
+                boolean matchesPrefix = false;
+                if (javaPackagePrefixes.length > 0) {
+                    for (String javaPackagePrefix : javaPackagePrefixes) {
+                        if (classInfo.mName.startsWith(javaPackagePrefix)) {
+                            matchesPrefix = true;
+                        }
                     }
-                }
-            } else {
-                matchesPrefix = true;
-            }
-
-            if (!matchesPrefix) {
-                continue;
-            }
-
-            try {
-                Class<?> klass = Class.forName(className,
-                                               false,
-                                               CollectAllTests.class.getClassLoader());
-                final int modifiers = klass.getModifiers();
-                if (Modifier.isAbstract(modifiers) || !Modifier.isPublic(modifiers)) {
-                    continue;
+                } else {
+                    matchesPrefix = true;
                 }
 
-                final boolean isJunit4Class = isJunit4Class(klass);
-                if (!isJunit4Class && !isJunit3Test(klass)) {
+                if (!matchesPrefix) {
                     continue;
                 }
 
-                try {
-                    klass.getConstructor(new Class<?>[] { String.class } );
-                    addToTests(expectations, architecture, testCases, klass);
-                    continue;
-                } catch (NoSuchMethodException e) {
-                } catch (SecurityException e) {
-                    System.out.println("Known bug (Working as intended): problem with class "
-                            + className);
-                    e.printStackTrace();
-                }
+                results.add(executor.submit(new Callable<ClassTests>() {
+                    @Override
+                    public ClassTests call() throws IOException {
+                        return collectTests(expectations, architecture, hierarchy, classInfo);
+                    }
+                }));
+            }
 
-                try {
-                    klass.getConstructor(new Class<?>[0]);
-                    addToTests(expectations, architecture, testCases, klass);
-                    continue;
-                } catch (NoSuchMethodException e) {
-                } catch (SecurityException e) {
-                    System.out.println("Known bug (Working as intended): problem with class "
-                            + className);
-                    e.printStackTrace();
+            // Report in jar order regardless of which class finished first.
+            for (Future<ClassTests> result : results) {
+                ClassTests classTests = getResult(result);
+                System.out.print(classTests.mLog);
+                if (classTests.mTestClass != null) {
+                    testCases.put(classTests.mTestClass.mName, classTests.mTestClass);
                 }
-            } catch (ClassNotFoundException e) {
-                System.out.println("class not found " + className);
-                e.printStackTrace();
-                System.exit(1);
             }
+        } catch (IOException e) {
+            System.err.println("cannot read jarfile " + jarFileName);
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            executor.shutdownNow();
         }
 
         for (Iterator<TestClass> iterator = testCases.values().iterator(); iterator.hasNext();) {
@@ -337,76 +329,186 @@ public class CollectAllTests extends DescriptionGenerator {
         }
     }
 
-    private static String getKnownFailure(final Class<?> testClass,
-            final String testName) {
-        return getAnnotation(testClass, testName, KNOWN_FAILURE);
-    }
+    /** The tests found in a class and the messages logged while looking for them. */
+    private static class ClassTests {
+        private final StringBuilder mLog = new StringBuilder();
+        private TestClass mTestClass;
 
-    private static boolean isKnownFailure(final Class<?> testClass,
-            final String testName) {
-        return getAnnotation(testClass, testName, KNOWN_FAILURE) != null;
+        private void log(String message) {
+            mLog.append(message).append('\n');
+        }
     }
 
-    private static boolean isSuppressed(final Class<?> testClass,
-            final String testName)  {
-        return getAnnotation(testClass, testName, SUPPRESSED_TEST) != null;
-    }
+    /**
+     * Classes of the test jar, plus the classes on the class path that they extend. Classes
+     * outside of the jar are read from the class files of the class loader, never loaded.
+     */
+    private static class ClassHierarchy {
+        private final Map<String, ClassInfo> mJarClasses;
+        private final ClassLoader mClassLoader;
+        private final ConcurrentMap<String, ClassInfo> mClassPathClasses =
+                new ConcurrentHashMap<String, ClassInfo>();
+
+        ClassHierarchy(Map<String, ClassInfo> jarClasses, ClassLoader classLoader) {
+            mJarClasses = jarClasses;
+            mClassLoader = classLoader;
+        }
 
-    private static String getAnnotation(final Class<?> testClass,
-            final String testName, final String annotationName) {
-        try {
-            Method testMethod = testClass.getMethod(testName, (Class[])null);
-            Annotation[] annotations = testMethod.getAnnotations();
-            for (Annotation annot : annotations) {
-
-                if (annot.annotationType().getName().equals(annotationName)) {
-                    String annotStr = annot.toString();
-                    String knownFailure = null;
-                    if (annotStr.contains("(value=")) {
-                        knownFailure =
-                            annotStr.substring(annotStr.indexOf("=") + 1,
-                                    annotStr.length() - 1);
+        ClassInfo get(String className) throws IOException {
+            ClassInfo classInfo = mJarClasses.get(className);
+            if (classInfo == null) {
+                classInfo = mClassPathClasses.get(className);
+            }
+            if (classInfo != null) {
+                return classInfo;
+            }
+            InputStream in = mClassLoader.getResourceAsStream(
+                    className.replace('.', '/') + ".class");
+            if (in == null) {
+                throw new FileNotFoundException("class not found " + className);
+            }
+            try {
+                classInfo = ClassInfo.read(new BufferedInputStream(in));
+            } finally {
+                in.close();
+            }
+            ClassInfo previous = mClassPathClasses.putIfAbsent(className, classInfo);
+            return previous != null ? previous : classInfo;
+        }
 
-                    }
+        /**
+         * @return the class followed by its super classes, excluding java.lang.Object
+         */
+        List<ClassInfo> getSuperClassChain(ClassInfo classInfo) throws IOException {
+            List<ClassInfo> chain = new ArrayList<ClassInfo>();
+            for (ClassInfo c = classInfo; c != null;
+                    c = c.mSuperName == null || c.mSuperName.equals(OBJECT)
+                            ? null : get(c.mSuperName)) {
+                chain.add(c);
+            }
+            return chain;
+        }
+    }
 
-                    if (knownFailure == null) {
-                        knownFailure = "true";
+    /**
+     * Reads all classes of the jar in parallel.
+     *
+     * @return the classes by name, in the order of the jar entries
+     */
+    private static Map<String, ClassInfo> readClasses(final JarFile jarFile,
+            ExecutorService executor) throws IOException {
+        List<Future<ClassInfo>> classes = new ArrayList<Future<ClassInfo>>();
+        Enumeration<JarEntry> jarEntries = jarFile.entries();
+        while (jarEntries.hasMoreElements()) {
+            final JarEntry jarEntry = jarEntries.nextElement();
+            if (!jarEntry.getName().endsWith(".class")) {
+                continue;
+            }
+            classes.add(executor.submit(new Callable<ClassInfo>() {
+                @Override
+                public ClassInfo call() throws IOException {
+                    InputStream in = jarFile.getInputStream(jarEntry);
+                    try {
+                        return ClassInfo.read(new BufferedInputStream(in));
+                    } finally {
+                        in.close();
                     }
-
-                    return knownFailure;
                 }
+            }));
+        }
+
+        Map<String, ClassInfo> result = new LinkedHashMap<String, ClassInfo>();
+        for (Future<ClassInfo> classInfo : classes) {
+            ClassInfo c = getResult(classInfo);
+            result.put(c.mName, c);
+        }
+        return result;
+    }
 
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static ClassTests collectTests(ExpectationStore[] expectations,
+                                           String architecture,
+                                           ClassHierarchy hierarchy,
+                                           ClassInfo classInfo) throws IOException {
+        ClassTests classTests = new ClassTests();
+        if (classInfo.isAbstract() || !classInfo.isPublic()) {
+            return classTests;
+        }
 
-        } catch (NoSuchMethodException e) {
+        List<ClassInfo> superClassChain = hierarchy.getSuperClassChain(classInfo);
+        Collection<ClassInfo.MethodInfo> publicMethods = getPublicMethods(superClassChain);
+
+        // Check for JUnit 4 first, so that the @RunWith message is also logged for JUnit 3 tests.
+        final boolean isJunit4Class = isJunit4Class(classTests, superClassChain, publicMethods);
+        final boolean isJunit3Test = isJunit3Test(superClassChain);
+        if (!isJunit4Class && !isJunit3Test) {
+            return classTests;
         }
 
-        return null;
+        if (classInfo.hasPublicConstructor("(Ljava/lang/String;)V")
+                || classInfo.hasPublicConstructor("()V")) {
+            addToTests(expectations, architecture, classTests, classInfo, isJunit3Test,
+                    publicMethods);
+        }
+        return classTests;
+    }
+
+    /**
+     * Returns the public methods of a class including inherited ones, like
+     * {@link Class#getMethods()} does for a concrete class. Overridden methods are only
+     * returned once, for the most derived class.
+     */
+    private static Collection<ClassInfo.MethodInfo> getPublicMethods(
+            List<ClassInfo> superClassChain) {
+        Map<String, ClassInfo.MethodInfo> methods =
+                new LinkedHashMap<String, ClassInfo.MethodInfo>();
+        for (ClassInfo classInfo : superClassChain) {
+            for (ClassInfo.MethodInfo method : classInfo.mMethods) {
+                if (!method.isPublic() || method.mName.startsWith("<")) {
+                    continue;
+                }
+                String signature = method.mName + method.mDescriptor;
+                if (!methods.containsKey(signature)) {
+                    methods.put(signature, method);
+                }
+            }
+        }
+        return methods.values();
     }
 
     private static void addToTests(ExpectationStore[] expectations,
                                    String architecture,
-                                   Map<String,TestClass> testCases,
-                                   Class<?> testClass) {
+                                   ClassTests classTests,
+                                   ClassInfo testClass,
+                                   boolean isJunit3Test,
+                                   Collection<ClassInfo.MethodInfo> publicMethods) {
         Set<String> testNames = new HashSet<String>();
 
-        boolean isJunit3Test = isJunit3Test(testClass);
-
-        Method[] testMethods = testClass.getMethods();
-        for (Method testMethod : testMethods) {
-            String testName = testMethod.getName();
+        for (ClassInfo.MethodInfo testMethod : publicMethods) {
+            String testName = testMethod.mName;
             if (testNames.contains(testName)) {
                 continue;
             }
 
             /* Make sure the method has the right signature. */
-            if (!Modifier.isPublic(testMethod.getModifiers())) {
-                continue;
-            }
-            if (!testMethod.getReturnType().equals(Void.TYPE)) {
-                continue;
-            }
-            if (testMethod.getParameterTypes().length != 0) {
+            if (!testMethod.mDescriptor.equals("()V")) {
                 continue;
             }
 
@@ -416,30 +518,30 @@ public class CollectAllTests extends DescriptionGenerator {
             }
 
             testNames.add(testName);
-            addToTests(expectations, architecture, testCases, testClass, testName);
+            addToTests(expectations, architecture, classTests, testClass, testMethod);
         }
     }
 
     private static void addToTests(ExpectationStore[] expectations,
                                    String architecture,
-                                   Map<String,TestClass> testCases,
-                                   Class<?> test,
-                                   String testName) {
+                                   ClassTests classTests,
+                                   ClassInfo test,
+                                   ClassInfo.MethodInfo testMethod) {
 
-        String testClassName = test.getName();
-        String knownFailure = getKnownFailure(test, testName);
+        String testClassName = test.mName;
+        String testName = testMethod.mName;
 
-        if (isKnownFailure(test, testName)) {
-            System.out.println("ignoring known failure: " + test + "#" + testName);
+        if (testMethod.mAnnotations.contains(KNOWN_FAILURE)) {
+            classTests.log("ignoring known failure: class " + testClassName + "#" + testName);
             return;
-        } else if (isSuppressed(test, testName)) {
-            System.out.println("ignoring suppressed test: " + test + "#" + testName);
+        } else if (testMethod.mAnnotations.contains(SUPPRESSED_TEST)) {
+            classTests.log("ignoring suppressed test: class " + testClassName + "#" + testName);
             return;
         } else if (VogarUtils.isVogarKnownFailure(expectations,
                                                   testClassName,
                                                   testName)) {
-            System.out.println("ignoring expectation known failure: " + test
-                               + "#" + testName);
+            classTests.log("ignoring expectation known failure: class " + testClassName
+                           + "#" + testName);
             return;
         }
 
@@ -450,34 +552,38 @@ public class CollectAllTests extends DescriptionGenerator {
         int timeoutInMinutes = VogarUtils.timeoutInMinutes(expectations,
                                                            testClassName,
                                                            testName);
-        TestClass testClass;
-        if (testCases.containsKey(testClassName)) {
-            testClass = testCases.get(testClassName);
-        } else {
-            testClass = new TestClass(testClassName, new ArrayList<TestMethod>());
-            testCases.put(testClassName, testClass);
+        if (classTests.mTestClass == null) {
+            classTests.mTestClass = new TestClass(testClassName, new ArrayList<TestMethod>());
         }
 
-        testClass.mCases.add(new TestMethod(testName, "", "", supportedAbis,
-              knownFailure, false, false, timeoutInMinutes));
+        // Known failures were skipped above, so there is no known failure reason to record.
+        classTests.mTestClass.mCases.add(new TestMethod(testName, "", "", supportedAbis,
+              null, false, false, timeoutInMinutes));
     }
 
-    private static boolean isJunit3Test(Class<?> klass) {
-        return TestCase.class.isAssignableFrom(klass);
+    private static boolean isJunit3Test(List<ClassInfo> superClassChain) {
+        for (ClassInfo classInfo : superClassChain) {
+            if (classInfo.mName.equals(JUNIT3_TEST_CASE)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private static boolean isJunit4Class(Class<?> klass) {
-        for (Annotation a : klass.getAnnotations()) {
-            if (RunWith.class.isAssignableFrom(a.annotationType())) {
+    private static boolean isJunit4Class(ClassTests classTests, List<ClassInfo> superClassChain,
+            Collection<ClassInfo.MethodInfo> publicMethods) {
+        // @RunWith is inherited, so look at the super classes as well.
+        for (ClassInfo classInfo : superClassChain) {
+            if (classInfo.mAnnotations.contains(JUNIT4_RUN_WITH)) {
                 // @RunWith is currently not supported for CTS tests because tradefed cannot handle
                 // a single test spawning other tests with different names.
-                System.out.println("Skipping test class " + klass.getName()
+                classTests.log("Skipping test class " + superClassChain.get(0).mName
                         + ": JUnit4 @RunWith is not supported");
                 return false;
             }
         }
 
-        for (Method m : klass.getMethods()) {
+        for (ClassInfo.MethodInfo m : publicMethods) {
             if (isJunit4TestMethod(m)) {
                 return true;
             }
@@ -486,14 +592,8 @@ public class CollectAllTests extends DescriptionGenerator {
         return false;
     }
 
-    private static boolean isJunit4TestMethod(Method method) {
-        for (Annotation a : method.getAnnotations()) {
-            if (org.junit.Test.class.isAssignableFrom(a.annotationType())) {
-                return true;
-            }
-        }
-
-        return false;
+    private static boolean isJunit4TestMethod(ClassInfo.MethodInfo method) {
+        return method.mAnnotations.contains(JUNIT4_TEST);
     }
 
     /**
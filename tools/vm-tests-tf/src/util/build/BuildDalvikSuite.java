@@ -25,14 +25,14 @@ import junit.framework.TestResult;
 import junit.framework.TestSuite;
 import junit.textui.TestRunner;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -43,6 +43,11 @@ import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -190,36 +195,27 @@ public class BuildDalvikSuite {
         }
         li.add(method);
     }
-    private String curJunitFileName = null;
-    private String curJunitName = null;
-    private String curJunitFileData = "";
-
-    private SourceBuildStep hostJunitBuildStep;
-
-    private void flushHostJunitFile() {
-        if (curJunitFileName != null) {
-            File toWrite = new File(curJunitFileName);
-            String absPath = toWrite.getAbsolutePath();
-            // add to java source files for later compilation
-            hostJunitBuildStep.addSourceFile(absPath);
-            // write file
-            curJunitFileData += "\n}\n";
-            writeToFileMkdir(toWrite, curJunitFileData);
+    /*
+     * The generated sources of one junit test class. Test classes are generated
+     * in parallel, the build steps are then set up in the order of the map.
+     */
+    private class TestClassData {
+        String fqcn, pName;
+        File hostJunitFile;
+        List<TestMethodData> methods = new ArrayList<TestMethodData>();
+    }
 
-            curJunitFileName = null;
-            curJunitFileData = "";
-        }
+    private class TestMethodData {
+        String method;
+        MethodData md;
+        Set<String> dependentTestClassNames;
+        File sourceFile;
     }
 
-    private void openCTSHostFileFor(String pName, String classOnlyName) {
-        // flush previous JunitFile
-        flushHostJunitFile();
-        String sourceName = "JUnit_" + classOnlyName;
+    private final Set<String> handledDependants = new HashSet<String>();
 
-        // prepare current testcase-file
-        curJunitFileName = HOSTJUNIT_SRC_OUTPUT_FOLDER + "/" + pName.replaceAll("\\.","/") + "/" +
-        sourceName + ".java";
-        curJunitFileData = getWarningMessage() +
+    private String getCTSHostFileHeader(String pName, String sourceName) {
+        return getWarningMessage() +
         "package " + pName + ";\n" +
         "import java.io.IOException;\n" +
         "import java.util.concurrent.TimeUnit;\n\n" +
@@ -251,9 +247,9 @@ public class BuildDalvikSuite {
         return "//Autogenerated code by " + this.getClass().getName() + "; do not edit.\n";
     }
 
-    private void addCTSHostMethod(String pName, String method, MethodData md,
-            Set<String> dependentTestClassNames) {
-        curJunitFileData += "public void " + method + "() throws Exception {\n";
+    private void addCTSHostMethod(StringBuilder junitData, String pName, String method,
+            MethodData md, Set<String> dependentTestClassNames) {
+        junitData.append("public void " + method + "() throws Exception {\n");
         final String targetCoreJarPath = String.format("%s/dot/junit/dexcore.jar",
                 TARGET_JAR_ROOT_PATH);
 
@@ -275,86 +271,152 @@ public class BuildDalvikSuite {
 
         //"dot.junit.opcodes.add_double_2addr.Main_testN2";
         String mainclass = pName + ".Main_" + method;
-        curJunitFileData += getShellExecJavaLine(cp, mainclass);
-        curJunitFileData += "\n}\n\n";
+        junitData.append(getShellExecJavaLine(cp, mainclass));
+        junitData.append("\n}\n\n");
     }
 
-    private void handleTests() throws IOException {
-        System.out.println("collected " + testMethodsCnt + " test methods in " +
-                testClassCnt + " junit test classes");
-        String datafileContent = "";
-        Set<BuildStep> targets = new TreeSet<BuildStep>();
+    /**
+     * Parses the test methods of the given junit test class and writes the host junit
+     * file and the Main_testXXX sources for it. Called concurrently for all test classes.
+     */
+    private TestClassData generateTestClass(String fqcn, List<String> methods)
+            throws IOException {
+        TestClassData data = new TestClassData();
+        data.fqcn = fqcn;
+        int lastDotPos = fqcn.lastIndexOf('.');
+        String pName = fqcn.substring(0, lastDotPos);
+        String classOnlyName = fqcn.substring(lastDotPos + 1);
+        data.pName = pName;
 
-        SourceBuildStep srcBuildStep;
-        hostJunitBuildStep = new JavacBuildStep(
-            HOSTJUNIT_CLASSES_OUTPUT_FOLDER, CLASS_PATH);
+        String sourceName = "JUnit_" + classOnlyName;
+        data.hostJunitFile = new File(HOSTJUNIT_SRC_OUTPUT_FOLDER + "/" +
+                pName.replaceAll("\\.","/") + "/" + sourceName + ".java");
+        StringBuilder junitData = new StringBuilder(getCTSHostFileHeader(pName, sourceName));
+
+        junitData.append("\n" +
+                "protected IAbi mAbi;\n" +
+                "@Override\n" +
+                "public void setAbi(IAbi abi) {\n" +
+                "    mAbi = abi;\n" +
+                "}\n\n");
+
+        Collections.sort(methods, new Comparator<String>() {
+            public int compare(String s1, String s2) {
+                // TODO sort according: test ... N, B, E, VFE
+                return s1.compareTo(s2);
+            }
+        });
+        for (String method : methods) {
+            // e.g. testN1
+            if (!method.startsWith("test")) {
+                throw new RuntimeException("no test method: " + method);
+            }
 
-        srcBuildStep = new JavacBuildStep(CLASSES_OUTPUT_FOLDER, CLASS_PATH);
+            // generate the Main_xx java class
 
-        for (Entry<String, List<String>> entry : map.entrySet()) {
+            // a Main_testXXX.java contains:
+            // package <packagenamehere>;
+            // public class Main_testxxx {
+            // public static void main(String[] args) {
+            // new dxc.junit.opcodes.aaload.Test_aaload().testN1();
+            // }
+            // }
+            MethodData md = parseTestMethod(pName, classOnlyName, method);
+            String methodContent = md.methodBody;
 
-            String fqcn = entry.getKey();
-            int lastDotPos = fqcn.lastIndexOf('.');
-            String pName = fqcn.substring(0, lastDotPos);
-            String classOnlyName = fqcn.substring(lastDotPos + 1);
-            String instPrefix = "new " + classOnlyName + "()";
+            Set<String> dependentTestClassNames = parseTestClassName(pName,
+                    classOnlyName, methodContent);
 
-            openCTSHostFileFor(pName, classOnlyName);
+            addCTSHostMethod(junitData, pName, method, md, dependentTestClassNames);
 
-            curJunitFileData += "\n" +
-                    "protected IAbi mAbi;\n" +
-                    "@Override\n" +
-                    "public void setAbi(IAbi abi) {\n" +
-                    "    mAbi = abi;\n" +
-                    "}\n\n";
 
-            List<String> methods = entry.getValue();
-            Collections.sort(methods, new Comparator<String>() {
-                public int compare(String s1, String s2) {
-                    // TODO sort according: test ... N, B, E, VFE
-                    return s1.compareTo(s2);
-                }
-            });
-            for (String method : methods) {
-                // e.g. testN1
-                if (!method.startsWith("test")) {
-                    throw new RuntimeException("no test method: " + method);
-                }
+            if (dependentTestClassNames.isEmpty()) {
+                continue;
+            }
 
-                // generate the Main_xx java class
 
-                // a Main_testXXX.java contains:
-                // package <packagenamehere>;
-                // public class Main_testxxx {
-                // public static void main(String[] args) {
-                // new dxc.junit.opcodes.aaload.Test_aaload().testN1();
-                // }
-                // }
-                MethodData md = parseTestMethod(pName, classOnlyName, method);
-                String methodContent = md.methodBody;
+            TestMethodData methodData = new TestMethodData();
+            methodData.method = method;
+            methodData.md = md;
+            methodData.dependentTestClassNames = dependentTestClassNames;
+            String content = getWarningMessage() +
+            "package " + pName + ";\n" +
+            "import " + pName + ".d.*;\n" +
+            "import dot.junit.*;\n" +
+            "public class Main_" + method + " extends DxAbstractMain {\n" +
+            "    public static void main(String[] args) throws Exception {" +
+            methodContent + "\n}\n";
+
+            methodData.sourceFile = getFileFromPackage(pName, method);
+            writeToFile(methodData.sourceFile, content);
+            data.methods.add(methodData);
+        }
 
-                Set<String> dependentTestClassNames = parseTestClassName(pName,
-                        classOnlyName, methodContent);
+        junitData.append("\n}\n");
+        writeToFileMkdir(data.hostJunitFile, junitData.toString());
+        return data;
+    }
 
-                addCTSHostMethod(pName, method, md, dependentTestClassNames);
+    private List<TestClassData> generateTestClasses() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<TestClassData>> futures =
+                    new ArrayList<Future<TestClassData>>(map.size());
+            for (final Entry<String, List<String>> entry : map.entrySet()) {
+                futures.add(executor.submit(new Callable<TestClassData>() {
+                    @Override
+                    public TestClassData call() throws IOException {
+                        return generateTestClass(entry.getKey(), entry.getValue());
+                    }
+                }));
+            }
+            List<TestClassData> testClasses = new ArrayList<TestClassData>(futures.size());
+            for (Future<TestClassData> future : futures) {
+                testClasses.add(future.get());
+            }
+            return testClasses;
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while generating test sources", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
+    private void handleTests() throws IOException {
+        System.out.println("collected " + testMethodsCnt + " test methods in " +
+                testClassCnt + " junit test classes");
+        StringBuilder datafileContent = new StringBuilder();
+        Set<BuildStep> targets = new TreeSet<BuildStep>();
 
-                if (dependentTestClassNames.isEmpty()) {
-                    continue;
-                }
+        SourceBuildStep srcBuildStep;
+        SourceBuildStep hostJunitBuildStep = new JavacBuildStep(
+            HOSTJUNIT_CLASSES_OUTPUT_FOLDER, CLASS_PATH);
+
+        srcBuildStep = new JavacBuildStep(CLASSES_OUTPUT_FOLDER, CLASS_PATH);
 
+        for (TestClassData testClass : generateTestClasses()) {
 
-                String content = getWarningMessage() +
-                "package " + pName + ";\n" +
-                "import " + pName + ".d.*;\n" +
-                "import dot.junit.*;\n" +
-                "public class Main_" + method + " extends DxAbstractMain {\n" +
-                "    public static void main(String[] args) throws Exception {" +
-                methodContent + "\n}\n";
+            String fqcn = testClass.fqcn;
+            String pName = testClass.pName;
 
-                File sourceFile = getFileFromPackage(pName, method);
+            // add to java source files for later compilation
+            hostJunitBuildStep.addSourceFile(testClass.hostJunitFile.getAbsolutePath());
+
+            for (TestMethodData testMethod : testClass.methods) {
+                String method = testMethod.method;
+                MethodData md = testMethod.md;
+                Set<String> dependentTestClassNames = testMethod.dependentTestClassNames;
+                File sourceFile = testMethod.sourceFile;
 
-                writeToFile(sourceFile, content);
                 if (useJack) {
                     File jackFile = new File(CLASSES_OUTPUT_FOLDER + "/" +
                             getFileName(pName, method, ".jack"));
@@ -451,7 +513,7 @@ public class BuildDalvikSuite {
 
                 line += ";" + description + ";" + comment + ";" + details;
 
-                datafileContent += line + "\n";
+                datafileContent.append(line).append('\n');
                 generateBuildStepFor(pName, method, dependentTestClassNames,
                         targets);
             }
@@ -459,12 +521,9 @@ public class BuildDalvikSuite {
 
         }
 
-        // write latest HOSTJUNIT generated file.
-        flushHostJunitFile();
-
         File scriptDataDir = new File(OUTPUT_FOLDER + "/data/");
         scriptDataDir.mkdirs();
-        writeToFile(new File(scriptDataDir, "scriptdata"), datafileContent);
+        writeToFile(new File(scriptDataDir, "scriptdata"), datafileContent.toString());
 
         if (!hostJunitBuildStep.build()) {
             System.out.println("main javac cts-host-hostjunit-classes build step failed");
@@ -498,6 +557,10 @@ public class BuildDalvikSuite {
     private void generateBuildStepForDependant(String dependentTestClassName,
             Set<BuildStep> targets) {
 
+        // several tests share the same dependant, only set it up once
+        if (!handledDependants.add(dependentTestClassName)) {
+            return;
+        }
         File sourceFolder = new File(JAVASRC_FOLDER);
         String fileName = dependentTestClassName.replace('.', '/').trim();
 
@@ -808,7 +871,8 @@ public class BuildDalvikSuite {
 
     private void writeToFileMkdir(File file, String content) {
         File parent = file.getParentFile();
-        if (!parent.exists() && !parent.mkdirs()) {
+        // other threads may be creating the same directory
+        if (!parent.mkdirs() && !parent.isDirectory()) {
             throw new RuntimeException("failed to create directory: " + parent.getAbsolutePath());
         }
         writeToFile(file, content);
@@ -816,25 +880,23 @@ public class BuildDalvikSuite {
 
     private void writeToFile(File file, String content) {
         try {
-            if (file.exists() && file.length() == content.length()) {
-                FileReader reader = new FileReader(file);
-                char[] charContents = new char[(int) file.length()];
-                reader.read(charContents);
-                reader.close();
-                String contents = new String(charContents);
-                if (contents.equals(content)) {
-                    // System.out.println("skipping identical: "
-                    // + file.getAbsolutePath());
-                    return;
-                }
+            byte[] bytes = content.getBytes("utf-8");
+            if (file.isFile() && file.length() == bytes.length
+                    && Arrays.equals(FileUtils.readFile(file), bytes)) {
+                // keep the timestamp of unchanged files so that make does not rebuild them
+                // System.out.println("skipping identical: "
+                // + file.getAbsolutePath());
+                return;
             }
 
             //System.out.println("writing file " + file.getAbsolutePath());
 
-            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(file), "utf-8"));
-            bw.write(content);
-            bw.close();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
         } catch (Exception e) {
             throw new RuntimeException("error while writing to file: " + e.getClass().getName() +
                     ", msg:" + e.getMessage());
@@ -848,7 +910,7 @@ public class BuildDalvikSuite {
         String absPath = MAIN_SRC_OUTPUT_FOLDER + "/" + path;
         File dirPath = new File(absPath);
         File parent = dirPath.getParentFile();
-        if (!parent.exists() && !parent.mkdirs()) {
+        if (!parent.mkdirs() && !parent.isDirectory()) {
             throw new IOException("failed to create directory: " + absPath);
         }
         return dirPath;